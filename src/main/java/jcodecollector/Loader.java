@@ -15,17 +15,21 @@
  */
 package jcodecollector;
 
-import jcodecollector.exceptions.SystemExitException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
-import jcodecollector.exceptions.ConnectionException;
 
+import jcodecollector.data.AsyncDBMS;
 import jcodecollector.data.DBMS;
 import jcodecollector.exceptions.DirectoryCreationException;
 import jcodecollector.data.settings.ApplicationSettings;
 import jcodecollector.data.settings.ApplicationSettingsManager;
+import jcodecollector.gui.EdtMonitor;
 import jcodecollector.gui.MainFrame;
 import jcodecollector.util.OS;
 import org.slf4j.Logger;
@@ -33,19 +37,22 @@ import org.slf4j.LoggerFactory;
 
 public class Loader {
     private static final Logger logger = LoggerFactory.getLogger(Loader.class);
-    public static final DBMS DBMS_INSTANCE;
-    static {
-        try {
-            DBMS_INSTANCE = DBMS.getInstance();
-        } catch (ClassNotFoundException ex) {
-            String message = "An error occurred while loading dbms driver.";
-            logger.error(message, ex);
-            displayErrorMessageDialog(message);
-            throw new SystemExitException(1);
-        }
-    }
+
+    /** Il database, aperto in background da {@link #main(String[])}. */
+    public static final DBMS DBMS_INSTANCE = DBMS.getLazyInstance();
+
+    /** Esegue in background le operazioni sul database richieste dall'interfaccia. */
+    public static final AsyncDBMS ASYNC_DBMS = new AsyncDBMS(DBMS_INSTANCE);
 
     public static void main(String[] args) {
+        final long startTime = System.nanoTime();
+
+        // carica i settaggi dell'applicazione, senza accedere al database
+        ApplicationSettingsManager.readApplicationSettings();
+
+        // apre il database mentre viene creata l'interfaccia
+        final CompletableFuture<Void> databaseReady = DBMS_INSTANCE.start();
+
         try {
             if (OS.isMacOSX()) {
                 System.setProperty("apple.laf.useScreenMenuBar", "true");
@@ -64,47 +71,105 @@ public class Loader {
             logger.warn("error loading look and feel - using default.", ex);
         }
 
-        // carica i settaggi dell'applicazione
-        ApplicationSettingsManager.readApplicationSettings();
+        // in debug segnala i blocchi dell'EDT
+        EdtMonitor.startIfDebugEnabled();
 
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                try {
-                    MainFrame mainFrame = new MainFrame();
-                    mainFrame.setVisible(true);
-
-                    if (OS.isMacOSX()) {
-                        // forzo il ridisegno dell'interfaccia: e' un piccolo fix
-                        // per il problema della bottom bar che appare del colore
-                        // sbagliato
-                        mainFrame.repaint();
+                final MainFrame mainFrame = new MainFrame();
+                mainFrame.setVisible(true);
+
+                if (OS.isMacOSX()) {
+                    // forzo il ridisegno dell'interfaccia: e' un piccolo fix
+                    // per il problema della bottom bar che appare del colore
+                    // sbagliato
+                    mainFrame.repaint();
+                }
+
+                // il primo ridisegno della finestra e' gia' in coda
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        logger.info("first paint after {} ms", elapsed(startTime));
                     }
+                });
 
-                    // carico il source list con gli snippet
-                    mainFrame.reloadSourceList();
-                    mainFrame.restoreSelectedSnippet();
-                } catch(ConnectionException ex) {
-                    String message = "Cannot start jCodeCollector because an error occurred.";
-                    String text = String.format("<html><b>%s (%s)</b><br><br><font size=-1>", message, ex.getMessage());
-                    logger.debug(message, ex);
-                    if (message.contains("not found")) {
-                        text += "JCODECOLLECTOR_DB folder cannot be found in <i>"
-                                + ApplicationSettings.getInstance().getDatabasePath()
-                                + "jCodeCollector</i>";
-                    } else {
-                        text += "Only one client at time can access to the database.";
+                // quando il database e' pronto carico il source list con gli
+                // snippet, poi seleziono lo snippet dell'ultima sessione
+                databaseReady.whenCompleteAsync(new BiConsumer<Void, Throwable>() {
+                    @Override
+                    public void accept(Void result, Throwable failure) {
+                        if (failure != null) {
+                            exitOnDatabaseFailure(failure instanceof CompletionException ? failure.getCause() : failure);
+                            return;
+                        }
+
+                        mainFrame.reloadSourceList().thenRunAsync(new Runnable() {
+                            @Override
+                            public void run() {
+                                mainFrame.restoreSelectedSnippet();
+                                logger.info("interactive after {} ms", elapsed(startTime));
+                                seedDefaultSnippets(mainFrame);
+                            }
+                        }, AsyncDBMS.EDT);
+
+                        // importo in background i pacchetti della drop folder
+                        mainFrame.startDropFolderWatcher();
                     }
-                    text += "</font></html>";
+                }, AsyncDBMS.EDT);
+            }
+        });
+    }
 
-                    JOptionPane.showMessageDialog(null, text, "", JOptionPane.ERROR_MESSAGE);
-                    System.exit(3);
-                } catch(DirectoryCreationException ex) {
-                    displayErrorMessageDialog(ex.getMessage());
-                    System.exit(2);
+    /**
+     * Aggiunge al database gli snippet di esempio che non sono ancora stati
+     * applicati, quando l'interfaccia e' gia' pronta.
+     */
+    private static void seedDefaultSnippets(final MainFrame mainFrame) {
+        ASYNC_DBMS.seedDefaultSnippets().thenAcceptAsync(new Consumer<Integer>() {
+            @Override
+            public void accept(Integer inserted) {
+                if (inserted > 0) {
+                    mainFrame.reloadSourceList();
                 }
             }
-        });
+        }, AsyncDBMS.EDT);
+    }
+
+    private static long elapsed(long startTime) {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    /**
+     * Avvisa l'utente che il database non puo' essere aperto e chiude
+     * l'applicazione.
+     */
+    private static void exitOnDatabaseFailure(Throwable failure) {
+        if (failure instanceof ClassNotFoundException) {
+            String message = "An error occurred while loading dbms driver.";
+            logger.error(message, failure);
+            displayErrorMessageDialog(message);
+            System.exit(1);
+        } else if (failure instanceof DirectoryCreationException) {
+            displayErrorMessageDialog(failure.getMessage());
+            System.exit(2);
+        }
+
+        String message = "Cannot start jCodeCollector because an error occurred.";
+        String text = String.format("<html><b>%s (%s)</b><br><br><font size=-1>", message, failure.getMessage());
+        logger.debug(message, failure);
+        if (message.contains("not found")) {
+            text += "JCODECOLLECTOR_DB folder cannot be found in <i>"
+                    + ApplicationSettings.getInstance().getDatabasePath()
+                    + "jCodeCollector</i>";
+        } else {
+            text += "Only one client at time can access to the database.";
+        }
+        text += "</font></html>";
+
+        JOptionPane.showMessageDialog(null, text, "", JOptionPane.ERROR_MESSAGE);
+        System.exit(3);
     }
 
     private static void displayErrorMessageDialog(String message) {
@@ -15,57 +15,46 @@
  */
 package jcodecollector;
 
-import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
 
 import jcodecollector.common.bean.Snippet;
 import jcodecollector.common.bean.Syntax;
-import jcodecollector.data.Controller;
+import jcodecollector.data.AsyncDBMS;
+import jcodecollector.data.SearchResults;
+import jcodecollector.event.CategoryEvent;
+import jcodecollector.event.CountEvent;
+import jcodecollector.event.Event;
+import jcodecollector.event.EventBus;
+import jcodecollector.event.MenuEvent;
+import jcodecollector.event.SearchEvent;
+import jcodecollector.event.SnippetEvent;
+import jcodecollector.event.Subscriber;
+import jcodecollector.event.WindowStateEvent;
 import jcodecollector.listener.CategoryListener;
 import jcodecollector.listener.CountListener;
 import jcodecollector.listener.MenuListener;
 import jcodecollector.listener.SearchListener;
 import jcodecollector.listener.SnippetListener;
 import jcodecollector.listener.WindowListener;
-import jcodecollector.service.DefaultIdGenerator;
-import jcodecollector.service.IdGenerator;
 
 public class State implements SnippetListener, CategoryListener, CountListener, MenuListener, WindowListener, SearchListener {
 
 	/**
-	 * Gli oggetti che vogliono essere aggiornati su cio' che riguarda uno
-	 * snippet (ad esempio: quando viene salvato, ecc).
+	 * Consegna le notifiche di questa classe ai listener registrati: gli
+	 * aggiornamenti di stato (snippet, menu, finestra e conteggi) pubblicati
+	 * nello stesso ciclo dell'EDT arrivano ai listener una sola volta.
 	 */
-	private final ArrayList<SnippetListener> snippetListeners;
+	private final EventBus eventBus = new EventBus();
 
-	/**
-	 * Gli oggetti che vogliono essere aggiornati su cio' che riguarda una
-	 * categoria (ad esempio se viene rinominata).
-	 */
-	private final ArrayList<CategoryListener> categoryListeners;
-
-	/**
-	 * Gli oggetti che vogliono essere aggiornati quando il numero di categorie
-	 * e/o snippet cambia.
-	 */
-	private final ArrayList<CountListener> countListeners;
-
-	/**
-	 * Gli oggetti che vogliono essere aggiornati quando c'e' da modificare lo
-	 * stato degli elementi dei menu.
-	 */
-	private final ArrayList<MenuListener> menuListeners;
+	/** <code>true</code> mentre un conteggio e' in corso. */
+	private boolean countRunning;
 
-	/**
-	 * Gli oggetti che vogliono essere aggiornati quando cambia lo stato della
-	 * finestra (ad esempio quando viene settato il flag 'document modified'.
-	 */
-	private final ArrayList<WindowListener> windowListeners;
+	/** <code>true</code> se e' stato richiesto un nuovo conteggio. */
+	private boolean countRequested;
 
-	/**
-	 * Gli oggetti che vogliono essere aggiornati quando viene effettuata una
-	 * ricerca.
-	 */
-	private final ArrayList<SearchListener> searchListeners;
+	/** Il database era vuoto all'ultimo conteggio. */
+	private boolean databaseEmpty = true;
 
 	/** La categoria selezionata. */
 	private String nameOfSelectedCategory;
@@ -88,18 +77,11 @@ public class State implements SnippetListener, CategoryListener, CountListener,
 	/** Se <code>true</code> indica che la ricerca e' attiva. */
 	private boolean searchActive;
 
-        private final IdGenerator idGenerator = new DefaultIdGenerator();
-
-        private Snippet currentSnippet = new Snippet(idGenerator.getNextId());
+        /** Lo snippet di lavoro; un nuovo snippet riceve l'id dal database quando viene salvato. */
+        private Snippet currentSnippet = new Snippet(-1);
 
-	/** Istanzia i vari array di listener. */
 	private State() {
-		snippetListeners = new ArrayList<SnippetListener>();
-		categoryListeners = new ArrayList<CategoryListener>();
-		countListeners = new ArrayList<CountListener>();
-		menuListeners = new ArrayList<MenuListener>();
-		windowListeners = new ArrayList<WindowListener>();
-		searchListeners = new ArrayList<SearchListener>();
+		// do nothing
 	}
 
 	/** L'unica istanza permessa di questa classe. */
@@ -114,52 +96,157 @@ public class State implements SnippetListener, CategoryListener, CountListener,
 		return state;
 	}
 
+	/**
+	 * Restituisce il bus su cui vengono pubblicate le notifiche, ad esempio
+	 * per registrare un subscriber che non riguarda l'interfaccia con
+	 * {@link EventBus#subscribeAsync(Class, Subscriber)}.
+	 *
+	 * @return il bus degli eventi
+	 */
+	public EventBus getEventBus() {
+		return eventBus;
+	}
+
+	/**
+	 * Un subscriber che inoltra gli eventi a un listener. Due adapter sono
+	 * uguali se inoltrano allo stesso listener, cosi' il listener puo' essere
+	 * rimosso con {@link EventBus#unsubscribe(Subscriber)}.
+	 */
+	private abstract static class ListenerAdapter<L, E extends Event> implements Subscriber<E> {
+		protected final L listener;
+
+		ListenerAdapter(L listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ListenerAdapter && ((ListenerAdapter<?, ?>) obj).listener == listener;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(listener);
+		}
+
+		@Override
+		public String toString() {
+			return listener.getClass().getName();
+		}
+	}
+
+	/** Rimuove dal bus l'adapter del listener indicato. */
+	private static final class ListenerKey extends ListenerAdapter<Object, Event> {
+		ListenerKey(Object listener) {
+			super(listener);
+		}
+
+		@Override
+		public void handle(Event event) {
+			// usato solo per il confronto
+		}
+	}
+
 	public void addSnippetListener(SnippetListener listener) {
-		snippetListeners.add(listener);
+		eventBus.subscribe(SnippetEvent.class, new ListenerAdapter<SnippetListener, SnippetEvent>(listener) {
+			@Override
+			public void handle(SnippetEvent event) {
+				if (event instanceof SnippetEvent.StatusChanged) {
+					SnippetEvent.StatusChanged status = (SnippetEvent.StatusChanged) event;
+					listener.updateSnippetStatus(status.getSnippet(), status.isValidated(), status.isSaved(), status.isLocked());
+				} else if (event instanceof SnippetEvent.Edited) {
+					listener.snippetEdited(((SnippetEvent.Edited) event).getSnippet());
+				} else if (event instanceof SnippetEvent.Renamed) {
+					SnippetEvent.Renamed renamed = (SnippetEvent.Renamed) event;
+					listener.snippetRenamed(renamed.getOldName(), renamed.getNewName());
+				} else if (event instanceof SnippetEvent.Removed) {
+					listener.snippetRemoved(((SnippetEvent.Removed) event).getSnippet());
+				} else if (event instanceof SnippetEvent.SyntaxRenamed) {
+					SnippetEvent.SyntaxRenamed renamed = (SnippetEvent.SyntaxRenamed) event;
+					listener.syntaxRenamed(renamed.getSyntax(), renamed.getCategory());
+				}
+			}
+		});
 	}
 
 	public boolean removeSnippetListener(SnippetListener listener) {
-		return snippetListeners.remove(listener);
+		return eventBus.unsubscribe(new ListenerKey(listener));
 	}
 
 	public void addCategoryListener(CategoryListener listener) {
-		categoryListeners.add(listener);
+		eventBus.subscribe(CategoryEvent.class, new ListenerAdapter<CategoryListener, CategoryEvent>(listener) {
+			@Override
+			public void handle(CategoryEvent event) {
+				if (event instanceof CategoryEvent.Updated) {
+					listener.categoriesUpdated(((CategoryEvent.Updated) event).getSelected());
+				} else if (event instanceof CategoryEvent.Removed) {
+					listener.categoryRemoved(((CategoryEvent.Removed) event).getName());
+				} else if (event instanceof CategoryEvent.Renamed) {
+					CategoryEvent.Renamed renamed = (CategoryEvent.Renamed) event;
+					listener.categoryRenamed(renamed.getOldName(), renamed.getNewName());
+				}
+			}
+		});
 	}
 
 	public boolean removeCategoryListener(CategoryListener listener) {
-		return categoryListeners.remove(listener);
+		return eventBus.unsubscribe(new ListenerKey(listener));
 	}
 
 	public void addCountListener(CountListener listener) {
-		countListeners.add(listener);
+		eventBus.subscribe(CountEvent.class, new ListenerAdapter<CountListener, CountEvent>(listener) {
+			@Override
+			public void handle(CountEvent event) {
+				listener.countUpdate(event.getCategories(), event.getSnippets());
+			}
+		});
 	}
 
 	public boolean removeCountListener(CountListener listener) {
-		return countListeners.remove(listener);
+		return eventBus.unsubscribe(new ListenerKey(listener));
 	}
 
 	public void addMenuListener(MenuListener listener) {
-		menuListeners.add(listener);
+		eventBus.subscribe(MenuEvent.class, new ListenerAdapter<MenuListener, MenuEvent>(listener) {
+			@Override
+			public void handle(MenuEvent event) {
+				listener.updateMenu(event.isEnabled(), event.isResetExportSubMenu());
+			}
+		});
 	}
 
 	public boolean removeMenuListener(MenuListener listener) {
-		return menuListeners.remove(listener);
+		return eventBus.unsubscribe(new ListenerKey(listener));
 	}
 
 	public void addWindowListener(WindowListener listener) {
-		windowListeners.add(listener);
+		eventBus.subscribe(WindowStateEvent.class, new ListenerAdapter<WindowListener, WindowStateEvent>(listener) {
+			@Override
+			public void handle(WindowStateEvent event) {
+				if (event instanceof WindowStateEvent.Modified) {
+					listener.updateWindowStatus(((WindowStateEvent.Modified) event).isDocumentModified());
+				} else if (event instanceof WindowStateEvent.LineNumbers) {
+					listener.updateLineNumbers(((WindowStateEvent.LineNumbers) event).isEnabled());
+				}
+			}
+		});
 	}
 
 	public boolean removeWindowListener(WindowListener listener) {
-		return windowListeners.remove(listener);
+		return eventBus.unsubscribe(new ListenerKey(listener));
 	}
 
 	public void addSearchListener(SearchListener listener) {
-		searchListeners.add(listener);
+		eventBus.subscribe(SearchEvent.class, new ListenerAdapter<SearchListener, SearchEvent>(listener) {
+			@Override
+			public void handle(SearchEvent event) {
+				listener.updateSearch(event.isActive());
+			}
+		});
 	}
 
 	public boolean removeSearchListener(SearchListener listener) {
-		return searchListeners.remove(listener);
+		return eventBus.unsubscribe(new ListenerKey(listener));
 	}
 
 	/**
@@ -168,9 +255,7 @@ public class State implements SnippetListener, CategoryListener, CountListener,
 	 */
         @Override
 	public void categoriesUpdated(String selected) {
-		for (CategoryListener listener : categoryListeners) {
-			listener.categoriesUpdated(selected);
-		}
+		eventBus.publish(new CategoryEvent.Updated(selected));
 	}
 
 	/**
@@ -179,9 +264,7 @@ public class State implements SnippetListener, CategoryListener, CountListener,
 	 */
         @Override
 	public void categoryRemoved(String name) {
-		for (CategoryListener listener : categoryListeners) {
-			listener.categoryRemoved(name);
-		}
+		eventBus.publish(new CategoryEvent.Removed(name));
 	}
 
 	/**
@@ -190,17 +273,13 @@ public class State implements SnippetListener, CategoryListener, CountListener,
 	 */
         @Override
 	public void categoryRenamed(String oldName, String newName) {
-		for (CategoryListener listener : categoryListeners) {
-			listener.categoryRenamed(oldName, newName);
-		}
+		eventBus.publish(new CategoryEvent.Renamed(oldName, newName));
 	}
 
 	/** @see jcodecollector.listener.SnippetListener#snippetRemoved(Snippet) */
         @Override
 	public void snippetRemoved(Snippet snippet) {
-		for (SnippetListener listener : snippetListeners) {
-			listener.snippetRemoved(snippet);
-		}
+		eventBus.publish(new SnippetEvent.Removed(snippet));
 	}
 
 	/**
@@ -209,52 +288,67 @@ public class State implements SnippetListener, CategoryListener, CountListener,
 	 */
         @Override
 	public void snippetRenamed(String oldName, String newName) {
-		for (SnippetListener listener : snippetListeners) {
-			listener.snippetRenamed(oldName, newName);
-		}
+		eventBus.publish(new SnippetEvent.Renamed(oldName, newName));
 	}
 
 	/** @see SnippetListener#snippetEdited(Snippet) */
         @Override
 	public void snippetEdited(Snippet snippet) {
-		for (SnippetListener listener : snippetListeners) {
-			listener.snippetEdited(snippet);
-		}
+		eventBus.publish(new SnippetEvent.Edited(snippet));
 	}
 
 	/** @see SnippetListener#syntaxRenamed(String, String) */
         @Override
 	public void syntaxRenamed(Syntax newName, String category) {
-		for (SnippetListener listener : snippetListeners) {
-			listener.syntaxRenamed(newName, category);
-		}
+		eventBus.publish(new SnippetEvent.SyntaxRenamed(newName, category));
 	}
 
 	/**
 	 * Conta quante categorie e quanti snippet sono presenti nel database o come
-	 * risultato della ricerca.
+	 * risultato della ricerca. Il conteggio viene eseguito in background e
+	 * notificato sull'EDT; le richieste che arrivano mentre e' in corso
+	 * vengono soddisfatte da un solo conteggio successivo.
 	 */
 	public void countUpdate() {
-		int categories;
-		int snippets;
-
-		if (searchActive) {
-			categories = Controller.getInstance().countCategories();
-			snippets = Controller.getInstance().countSnippets();
-		} else {
-			categories = Loader.DBMS_INSTANCE.countCategories();
-			snippets = Loader.DBMS_INSTANCE.countSnippets();
+		countRequested = true;
+		if (!countRunning) {
+			startCount();
 		}
+	}
 
-		countUpdate(categories, snippets);
+	private void startCount() {
+		countRunning = true;
+		countRequested = false;
+
+		Loader.ASYNC_DBMS.submit(new Callable<int[]>() {
+			@Override
+			public int[] call() {
+				return new int[] { Loader.DBMS_INSTANCE.countCategories(), Loader.DBMS_INSTANCE.countSnippets() };
+			}
+		}).whenCompleteAsync(new BiConsumer<int[], Throwable>() {
+			@Override
+			public void accept(int[] counts, Throwable failure) {
+				countRunning = false;
+				if (counts != null) {
+					databaseEmpty = counts[0] == 0;
+					if (searchActive) {
+						SearchResults results = SearchResults.getInstance();
+						countUpdate(results.countCategories(), results.countSnippets());
+					} else {
+						countUpdate(counts[0], counts[1]);
+					}
+				}
+				if (countRequested) {
+					startCount();
+				}
+			}
+		}, AsyncDBMS.EDT);
 	}
 
 	/** @see CountListener#countUpdate(int, int) */
         @Override
 	public void countUpdate(int categories, int snippets) {
-		for (CountListener listener : countListeners) {
-			listener.countUpdate(categories, snippets);
-		}
+		eventBus.publish(new CountEvent(categories, snippets));
 	}
 
         @Override
@@ -263,32 +357,24 @@ public class State implements SnippetListener, CategoryListener, CountListener,
 		this.snippetSaved = saved;
 		snippet.setLocked(locked);
 
-		for (SnippetListener listener : snippetListeners) {
-			listener.updateSnippetStatus(snippet, validated, saved, locked);
-		}
+		eventBus.publish(new SnippetEvent.StatusChanged(snippet, validated, saved, locked));
 	}
 
         @Override
 	public void updateMenu(boolean enabled, boolean resetExportSubMenu) {
-		for (MenuListener listener : menuListeners) {
-			listener.updateMenu(enabled, resetExportSubMenu);
-		}
+		eventBus.publish(new MenuEvent(enabled, resetExportSubMenu));
 	}
 
 	/** @see WindowListener#updateWindowStatus(boolean) */
         @Override
 	public void updateWindowStatus(boolean documentModified) {
-		for (WindowListener listener : windowListeners) {
-			listener.updateWindowStatus(documentModified);
-		}
+		eventBus.publish(new WindowStateEvent.Modified(documentModified));
 	}
 
 	/** @see WindowListener#updateLineNumbers(boolean) */
         @Override
 	public void updateLineNumbers(boolean enabled) {
-		for (WindowListener listener : windowListeners) {
-			listener.updateLineNumbers(enabled);
-		}
+		eventBus.publish(new WindowStateEvent.LineNumbers(enabled));
 	}
 
 	/**
@@ -330,6 +416,32 @@ public class State implements SnippetListener, CategoryListener, CountListener,
         return currentSnippet;
     }
 
+    /**
+     * Registra l'id assegnato dal database a uno snippet appena inserito: lo
+     * snippet viene sostituito da una copia con l'id corretto ovunque sia
+     * ancora lo snippet corrente, precedente o selezionato.
+     *
+     * @param snippet Lo snippet inserito.
+     * @param id L'id assegnato dal database.
+     */
+    public void snippetInserted(Snippet snippet, int id) {
+        if (currentSnippet != snippet && previousSnippet != snippet && selectedSnippet != snippet) {
+            return;
+        }
+
+        Snippet stored = new Snippet(id, snippet.getCategory(), snippet.getName(), snippet.getTags(), snippet.getCode(),
+                snippet.getComment(), snippet.getSyntax(), snippet.isLocked());
+        if (currentSnippet == snippet) {
+            currentSnippet = stored;
+        }
+        if (previousSnippet == snippet) {
+            previousSnippet = stored;
+        }
+        if (selectedSnippet == snippet) {
+            selectedSnippet = stored;
+        }
+    }
+
 	/**
 	 * Blocca o sblocca lo snippet corrente
 	 *
@@ -393,9 +505,7 @@ public class State implements SnippetListener, CategoryListener, CountListener,
 	public void updateSearch(boolean active) {
 		searchActive = active;
 
-		for (SearchListener listener : searchListeners) {
-			listener.updateSearch(!active);
-		}
+		eventBus.publish(new SearchEvent(!active));
 	}
 
 	/**
@@ -418,8 +528,12 @@ public class State implements SnippetListener, CategoryListener, CountListener,
 		searchActive = false;
 	}
 
+	/**
+	 * @return <code>true</code> se l'ultimo conteggio (vedi
+	 *         {@link #countUpdate()}) non ha trovato categorie nel database
+	 */
 	public boolean isDatabaseEmpty() {
-		return Loader.DBMS_INSTANCE.countCategories() == 0;
+		return databaseEmpty;
 	}
 
 }
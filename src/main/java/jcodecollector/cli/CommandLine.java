@@ -0,0 +1,520 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Tag;
+import jcodecollector.data.DBMS;
+import jcodecollector.data.SearchMetrics;
+import jcodecollector.data.settings.ApplicationSettings;
+import jcodecollector.data.settings.ApplicationSettingsManager;
+import jcodecollector.io.ConflictPolicy;
+import jcodecollector.io.ExportMetrics;
+import jcodecollector.io.ImportMetrics;
+import jcodecollector.io.ImportPipeline;
+import jcodecollector.io.MirrorExporter;
+import jcodecollector.io.PackageManager;
+import jcodecollector.io.PackageSource;
+import jcodecollector.io.SourceTreeSource;
+import jcodecollector.listener.SearchResultsListener;
+import jcodecollector.util.Utility;
+
+/**
+ * Esegue le operazioni di jCodeCollector senza interfaccia grafica, ad
+ * esempio da uno script o da cron. Non viene caricata nessuna classe di AWT o
+ * Swing: il database e' quello indicato nelle impostazioni dell'applicazione
+ * o con l'opzione <code>--db</code>.
+ *
+ * <p>
+ * I risultati vengono scritti in JSON sullo standard output, i messaggi di
+ * errore e i log sullo standard error (vedi <code>logback-cli.xml</code>).
+ * Il codice di uscita e' {@link #EXIT_SUCCESS} se l'operazione riesce,
+ * {@link #EXIT_FAILURE} se fallisce e {@link #EXIT_USAGE} se la riga di
+ * comando non e' valida.
+ * </p>
+ */
+public class CommandLine {
+
+    public static final int EXIT_SUCCESS = 0;
+    public static final int EXIT_FAILURE = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = "usage: jcodecollector [--db <path>] <command> [options]\n" //
+            + "\n" //
+            + "commands:\n" //
+            + "  import <file|directory> [--policy new|keep-local|overwrite|keep-both]\n" //
+            + "  import-tree <directory> [--include <globs>] [--exclude <globs>] [--policy ...]\n" //
+            + "  export <file> [--category <name>] [--binary | --gzip] [--since <generation>]\n" //
+            + "  mirror <directory>\n" //
+            + "  search <keyword>... [--in name,tags,code,comment] [--case-sensitive] [--limit <n>] [--no-code]\n" //
+            + "  stats\n" //
+            + "  purge-tombstones <generation>\n" //
+            + "  compact\n" //
+            + "\n" //
+            + "Keywords are SQL LIKE patterns, e.g. %list%. Results are written to stdout as JSON.\n";
+
+    /** Una riga di comando non valida. */
+    private static class UsageException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    private final PrintStream err;
+    private final JsonWriter json;
+    private final Writer out;
+
+    private List<String> arguments;
+
+    public CommandLine(Writer out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+        this.json = new JsonWriter(out);
+    }
+
+    public static void main(String[] args) {
+        // va impostato prima che venga creato il primo logger: lo standard
+        // output e' riservato ai risultati
+        if (System.getProperty("logback.configurationFile") == null) {
+            System.setProperty("logback.configurationFile", "logback-cli.xml");
+        }
+        System.setProperty("java.awt.headless", "true");
+
+        Writer out = new PrintWriter(new OutputStreamWriter(System.out, Charset.forName("UTF-8")));
+        int status = new CommandLine(out, System.err).run(args);
+        System.exit(status);
+    }
+
+    /**
+     * Esegue il comando indicato da <code>args</code>.
+     *
+     * @param args La riga di comando.
+     * @return il codice di uscita
+     */
+    public int run(String[] args) {
+        arguments = new ArrayList<String>(Arrays.asList(args));
+        try {
+            ApplicationSettingsManager.readDatabaseSettings();
+            String database = option("--db");
+            if (database != null) {
+                ApplicationSettings.getInstance().setDatabasePath(database);
+            }
+
+            if (arguments.isEmpty() || flag("--help") || flag("-h")) {
+                err.print(USAGE);
+                return arguments.isEmpty() ? EXIT_USAGE : EXIT_SUCCESS;
+            }
+
+            String command = arguments.remove(0);
+            boolean success;
+            if (command.equals("import")) {
+                success = importPackage();
+            } else if (command.equals("import-tree")) {
+                success = importSourceTree();
+            } else if (command.equals("export")) {
+                success = exportPackage();
+            } else if (command.equals("mirror")) {
+                success = mirror();
+            } else if (command.equals("search")) {
+                success = search();
+            } else if (command.equals("stats")) {
+                success = stats();
+            } else if (command.equals("purge-tombstones")) {
+                success = purgeTombstones();
+            } else if (command.equals("compact")) {
+                success = compact();
+            } else {
+                throw new UsageException("unknown command: " + command);
+            }
+
+            out.flush();
+            return success ? EXIT_SUCCESS : EXIT_FAILURE;
+        } catch (UsageException ex) {
+            err.println("jcodecollector: " + ex.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        } catch (Exception ex) {
+            err.println("jcodecollector: " + ex);
+            return EXIT_FAILURE;
+        }
+    }
+
+    private boolean importPackage() throws Exception {
+        ConflictPolicy policy = parsePolicy(option("--policy"));
+        File file = new File(argument("file"));
+        endOfArguments();
+
+        if (!file.exists()) {
+            err.println("jcodecollector: " + file + " not found");
+            return false;
+        }
+
+        ImportMetrics metrics = new ImportPipeline(dbms(), policy).run(PackageSource.forFile(file));
+
+        json.beginObject();
+        writeImportMetrics(file, metrics);
+        json.endObject();
+
+        return metrics.getFailure() == null && !metrics.isCancelled();
+    }
+
+    private boolean importSourceTree() throws Exception {
+        ConflictPolicy policy = parsePolicy(option("--policy"));
+        String includes = option("--include");
+        String excludes = option("--exclude");
+        File directory = new File(argument("directory"));
+        endOfArguments();
+
+        if (!directory.isDirectory()) {
+            err.println("jcodecollector: " + directory + " is not a directory");
+            return false;
+        }
+
+        SourceTreeSource source = new SourceTreeSource(directory, Utility.splitList(includes), Utility.splitList(excludes));
+        ImportMetrics metrics = new ImportPipeline(dbms(), policy).run(source);
+
+        json.beginObject();
+        writeImportMetrics(directory, metrics);
+        json.name("skipped").beginArray();
+        for (Map.Entry<String, String> entry : source.getSkipped().entrySet()) {
+            json.beginObject();
+            json.name("file").value(entry.getKey());
+            json.name("reason").value(entry.getValue());
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+
+        return metrics.getFailure() == null && !metrics.isCancelled();
+    }
+
+    private void writeImportMetrics(File file, ImportMetrics metrics) throws IOException {
+        json.name("file").value(file.getPath());
+        json.name("read").value(metrics.getRead());
+        json.name("imported").value(metrics.getImported());
+        json.name("updated").value(metrics.getUpdated());
+        json.name("unchanged").value(metrics.getUnchanged());
+        json.name("deleted").value(metrics.getDeleted());
+        json.name("conflicts").value(metrics.getConflicts());
+        json.name("rejected").value(metrics.getRejected());
+        json.name("duplicates").value(metrics.getDuplicates());
+        json.name("bytes").value(metrics.getBytesRead());
+        json.name("elapsedMillis").value(metrics.getElapsedTime());
+        json.name("recordsPerSecond").value(metrics.getRecordsPerSecond());
+        json.name("error").value(metrics.getFailure() == null ? null : metrics.getFailure().toString());
+    }
+
+    /**
+     * @param name Il nome indicato con <code>--policy</code>, <code>null</code>
+     *        per il default ({@link ConflictPolicy#KEEP_LOCAL}).
+     * @return il {@link ConflictPolicy}, <code>null</code> per inserire solo
+     *         gli snippet nuovi
+     */
+    private ConflictPolicy parsePolicy(String name) throws UsageException {
+        if (name == null) {
+            return ConflictPolicy.KEEP_LOCAL;
+        }
+        if (name.equals("new")) {
+            return null;
+        }
+        try {
+            return ConflictPolicy.valueOf(name.toUpperCase(Locale.ENGLISH).replace('-', '_'));
+        } catch (IllegalArgumentException ex) {
+            throw new UsageException("unknown policy: " + name);
+        }
+    }
+
+    private boolean exportPackage() throws Exception {
+        String category = option("--category");
+        String since = option("--since");
+        boolean binary = flag("--binary");
+        boolean compressed = flag("--gzip");
+        File file = new File(argument("file"));
+        endOfArguments();
+
+        if (binary && compressed) {
+            throw new UsageException("--binary and --gzip cannot be used together");
+        }
+
+        if (since != null) {
+            if (category != null || binary || compressed) {
+                throw new UsageException("--since cannot be combined with other export options");
+            }
+            long generation = parseLong(since);
+            boolean success = PackageManager.exportChanges(file, generation);
+
+            json.beginObject();
+            json.name("file").value(file.getPath());
+            json.name("since").value(generation);
+            json.name("generation").value(dbms().getCurrentGeneration());
+            json.name("success").value(success);
+            json.endObject();
+            return success;
+        }
+
+        ExportMetrics metrics = new ExportMetrics();
+        if (binary) {
+            PackageManager.exportSnippetsBinary(file, category, metrics);
+        } else {
+            PackageManager.exportSnippets(file, category, compressed, metrics);
+        }
+
+        json.beginObject();
+        json.name("file").value(file.getPath());
+        json.name("written").value(metrics.getWritten());
+        json.name("bytes").value(metrics.getBytesWritten());
+        json.name("skipped").beginArray();
+        for (String name : metrics.getSkipped()) {
+            json.value(name);
+        }
+        json.endArray();
+        json.name("elapsedMillis").value(metrics.getElapsedTime());
+        json.name("recordsPerSecond").value(metrics.getRecordsPerSecond());
+        json.name("error").value(metrics.getFailure() == null ? null : metrics.getFailure().toString());
+        json.endObject();
+
+        return metrics.getFailure() == null;
+    }
+
+    private boolean mirror() throws Exception {
+        File directory = new File(argument("directory"));
+        endOfArguments();
+
+        ExportMetrics metrics = new ExportMetrics();
+        new MirrorExporter(dbms(), directory).sync(metrics);
+
+        json.beginObject();
+        json.name("directory").value(directory.getPath());
+        json.name("written").value(metrics.getWritten());
+        json.name("unchanged").value(metrics.getUnchanged());
+        json.name("deleted").value(metrics.getDeleted());
+        json.name("bytes").value(metrics.getBytesWritten());
+        json.name("elapsedMillis").value(metrics.getElapsedTime());
+        json.name("error").value(metrics.getFailure() == null ? null : metrics.getFailure().toString());
+        json.endObject();
+
+        return metrics.getFailure() == null;
+    }
+
+    /**
+     * Scrive i risultati della ricerca man mano che vengono trovati: il primo
+     * blocco e' disponibile per chi legge l'output prima che la ricerca sia
+     * terminata.
+     */
+    private boolean search() throws Exception {
+        String fields = option("--in");
+        String limitValue = option("--limit");
+        boolean caseSensitive = flag("--case-sensitive");
+        final boolean withCode = !flag("--no-code");
+        String[] keywords = remaining("keyword");
+
+        ApplicationSettings settings = ApplicationSettings.getInstance();
+        settings.setSearchCaseSensitive(caseSensitive);
+        if (fields != null) {
+            List<String> enabled = Arrays.asList(fields.split(","));
+            for (String field : enabled) {
+                if (!Arrays.asList("name", "tags", "code", "comment").contains(field)) {
+                    throw new UsageException("unknown search field: " + field);
+                }
+            }
+            settings.setSearchInNameEnabled(enabled.contains("name"));
+            settings.setSearchInTagsEnabled(enabled.contains("tags"));
+            settings.setSearchInCodeEnabled(enabled.contains("code"));
+            settings.setSearchInCommentEnabled(enabled.contains("comment"));
+        }
+        final int limit = limitValue == null ? Integer.MAX_VALUE : (int) parseLong(limitValue);
+
+        json.beginObject();
+        json.name("results").beginArray();
+
+        final IOException[] failure = new IOException[1];
+        SearchMetrics metrics = dbms().search(keywords, DBMS.SEARCH_BATCH_SIZE, new SearchResultsListener() {
+            private int count;
+
+            @Override
+            public boolean resultsFound(List<Snippet> batch) {
+                try {
+                    for (Snippet snippet : batch) {
+                        if (count++ == limit) {
+                            return false;
+                        }
+                        writeSnippet(snippet, withCode);
+                    }
+                    json.flush();
+                    return true;
+                } catch (IOException ex) {
+                    failure[0] = ex;
+                    return false;
+                }
+            }
+
+            @Override
+            public void searchCompleted(SearchMetrics metrics) {
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+
+        json.endArray();
+        json.name("count").value(Math.min(metrics.getResultCount(), limit));
+        json.name("timeToFirstResultMillis").value(metrics.getTimeToFirstResult());
+        json.name("timeToLastResultMillis").value(metrics.getTimeToLastResult());
+        json.endObject();
+        return true;
+    }
+
+    private void writeSnippet(Snippet snippet, boolean withCode) throws IOException {
+        json.beginObject();
+        json.name("name").value(snippet.getName());
+        json.name("category").value(snippet.getCategory());
+        json.name("syntax").value(snippet.getSyntax() == null ? null : snippet.getSyntax().getName());
+        json.name("tags").beginArray();
+        for (Tag tag : snippet.getTags()) {
+            json.value(tag.getName());
+        }
+        json.endArray();
+        json.name("locked").value(snippet.isLocked());
+        if (withCode) {
+            json.name("code").value(snippet.getCode());
+            json.name("comment").value(snippet.getComment());
+        }
+        json.endObject();
+    }
+
+    private boolean stats() throws Exception {
+        endOfArguments();
+        DBMS dbms = dbms();
+
+        json.beginObject();
+        json.name("database").value(ApplicationSettings.getInstance().getDatabasePath());
+        json.name("snippets").value(dbms.countSnippets());
+        json.name("categories").beginArray();
+        for (String category : dbms.getCategories()) {
+            json.beginObject();
+            json.name("name").value(category);
+            json.name("snippets").value(dbms.countSnippets(category));
+            json.endObject();
+        }
+        json.endArray();
+        json.name("tombstones").value(dbms.countTombstones());
+        json.name("generation").value(dbms.getCurrentGeneration());
+        json.endObject();
+        return true;
+    }
+
+    private boolean purgeTombstones() throws Exception {
+        long generation = parseLong(argument("generation"));
+        endOfArguments();
+
+        int purged = dbms().purgeTombstones(generation);
+
+        json.beginObject();
+        json.name("purged").value(purged);
+        json.name("remaining").value(dbms().countTombstones());
+        json.endObject();
+        return true;
+    }
+
+    private boolean compact() throws Exception {
+        endOfArguments();
+
+        long start = System.currentTimeMillis();
+        int tables = dbms().compact();
+
+        json.beginObject();
+        json.name("tables").value(tables);
+        json.name("elapsedMillis").value(System.currentTimeMillis() - start);
+        json.endObject();
+        return true;
+    }
+
+    private static DBMS dbms() throws ClassNotFoundException {
+        return DBMS.getInstance();
+    }
+
+    /**
+     * Toglie dalla riga di comando un'opzione col suo valore.
+     *
+     * @return il valore dell'opzione, <code>null</code> se non e' presente
+     */
+    private String option(String name) throws UsageException {
+        int index = arguments.indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+        if (index == arguments.size() - 1) {
+            throw new UsageException(name + " requires a value");
+        }
+        arguments.remove(index);
+        return arguments.remove(index);
+    }
+
+    /** Toglie dalla riga di comando un'opzione senza valore. */
+    private boolean flag(String name) {
+        return arguments.remove(name);
+    }
+
+    /** Toglie dalla riga di comando il primo argomento. */
+    private String argument(String name) throws UsageException {
+        if (arguments.isEmpty() || arguments.get(0).startsWith("--")) {
+            throw new UsageException("missing " + name);
+        }
+        return arguments.remove(0);
+    }
+
+    /** Toglie dalla riga di comando tutti gli argomenti rimasti. */
+    private String[] remaining(String name) throws UsageException {
+        List<String> values = new ArrayList<String>();
+        while (!arguments.isEmpty()) {
+            values.add(argument(name));
+        }
+        if (values.isEmpty()) {
+            throw new UsageException("missing " + name);
+        }
+        return values.toArray(new String[values.size()]);
+    }
+
+    private void endOfArguments() throws UsageException {
+        if (!arguments.isEmpty()) {
+            throw new UsageException("unexpected argument: " + arguments.get(0));
+        }
+    }
+
+    private static long parseLong(String value) throws UsageException {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new UsageException("not a number: " + value);
+        }
+    }
+}
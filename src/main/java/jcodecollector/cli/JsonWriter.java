@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.cli;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scrive un documento JSON man mano che i valori sono disponibili, senza
+ * costruirlo in memoria: i risultati di una ricerca possono quindi essere
+ * scritti appena trovati. Gli elementi degli array di primo livello vanno a
+ * capo, in modo che l'output possa essere letto anche riga per riga.
+ */
+class JsonWriter {
+
+    private final Writer writer;
+
+    /**
+     * Per ogni oggetto o array aperto: <code>true</code> se non contiene
+     * ancora nessun valore.
+     */
+    private final List<Boolean> empty = new ArrayList<Boolean>();
+
+    /** <code>true</code> subito dopo {@link #name(String)}. */
+    private boolean afterName;
+
+    JsonWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        writer.write(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            writer.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    JsonWriter value(long value) throws IOException {
+        separate();
+        writer.write(Long.toString(value));
+        return this;
+    }
+
+    JsonWriter value(double value) throws IOException {
+        separate();
+        writer.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format("%.1f", value).replace(',', '.'));
+        return this;
+    }
+
+    JsonWriter value(boolean value) throws IOException {
+        separate();
+        writer.write(Boolean.toString(value));
+        return this;
+    }
+
+    /** Scrive i dati ancora nel buffer, ad esempio dopo ogni blocco di risultati. */
+    void flush() throws IOException {
+        writer.flush();
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        writer.write(bracket);
+        empty.add(Boolean.TRUE);
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        boolean wasEmpty = empty.remove(empty.size() - 1);
+        if (!wasEmpty && empty.size() == 1 && bracket == ']') {
+            writer.write('\n');
+        }
+        writer.write(bracket);
+        if (empty.isEmpty()) {
+            writer.write('\n');
+        }
+        return this;
+    }
+
+    /** Scrive la virgola prima di un valore che non e' il primo. */
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (empty.isEmpty()) {
+            return;
+        }
+
+        int last = empty.size() - 1;
+        if (!empty.get(last)) {
+            writer.write(',');
+        }
+        empty.set(last, Boolean.FALSE);
+        if (last == 1) {
+            writer.write('\n');
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
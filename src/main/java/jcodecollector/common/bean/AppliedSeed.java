@@ -0,0 +1,75 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.common.bean;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Ricorda un pacchetto di snippet di esempio gia' applicato al database, in
+ * modo che non venga letto di nuovo a ogni avvio.
+ */
+@Entity
+public class AppliedSeed implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** L'impronta del file del pacchetto. */
+    @Id
+    @Column(length = 40)
+    private String contentHash;
+
+    /** Il nome del file del pacchetto. */
+    private String fileName;
+
+    /** Il numero di snippet inseriti applicando il pacchetto. */
+    private Integer insertedSnippets;
+
+    /** La generazione in cui il pacchetto e' stato applicato. */
+    private Long generation;
+
+    protected AppliedSeed() {
+    }
+
+    public AppliedSeed(String contentHash, String fileName, Integer insertedSnippets, Long generation) {
+        this.contentHash = contentHash;
+        this.fileName = fileName;
+        this.insertedSnippets = insertedSnippets;
+        this.generation = generation;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Integer getInsertedSnippets() {
+        return insertedSnippets;
+    }
+
+    public Long getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public String toString() {
+        return fileName + " (" + contentHash + ")";
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.common.bean;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import jcodecollector.util.ApplicationConstants;
+
+/**
+ * Un pezzo del codice di uno snippet piu' lungo di
+ * {@link ApplicationConstants#CODE_LENGTH}. I pezzi terminano, se possibile,
+ * alla fine di una riga: in questo modo una riga si trova tutta in un pezzo e
+ * il codice puo' essere mostrato caricando solo i pezzi visibili.
+ */
+@Entity
+@Table(indexes = @Index(columnList = "snippetId, position"))
+public class CodeChunk implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    /** L'id dello snippet a cui appartiene il pezzo. */
+    private int snippetId;
+
+    /** La posizione del pezzo nel codice, a partire da 0. */
+    private int position;
+
+    /**
+     * Il numero di righe che terminano nel pezzo: una riga divisa tra piu'
+     * pezzi viene contata solo nell'ultimo.
+     */
+    private int lineCount;
+
+    /** Il testo del pezzo. */
+    @Lob
+    @Column(length = ApplicationConstants.CODE_CHUNK_LENGTH)
+    private String text;
+
+    protected CodeChunk() {
+    }
+
+    /**
+     * @param snippetId L'id dello snippet.
+     * @param position La posizione del pezzo nel codice, a partire da 0.
+     * @param text Il testo del pezzo.
+     * @param last <code>true</code> se e' l'ultimo pezzo del codice.
+     */
+    public CodeChunk(int snippetId, int position, String text, boolean last) {
+        this.snippetId = snippetId;
+        this.position = position;
+        this.text = text;
+        this.lineCount = countLines(text, last);
+    }
+
+    public int getSnippetId() {
+        return snippetId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Divide il codice in pezzi lunghi al massimo
+     * {@link ApplicationConstants#CODE_CHUNK_LENGTH} caratteri, spezzando
+     * una riga solo se e' piu' lunga di un pezzo.
+     *
+     * @param snippetId L'id dello snippet.
+     * @param code Il codice.
+     * @return i pezzi del codice, in ordine
+     */
+    public static CodeChunk[] split(int snippetId, String code) {
+        int length = ApplicationConstants.CODE_CHUNK_LENGTH;
+        List<CodeChunk> chunks = new ArrayList<CodeChunk>(code.length() / length + 1);
+        int start = 0;
+        while (start < code.length()) {
+            int end = Math.min(start + length, code.length());
+            if (end < code.length()) {
+                int newline = code.lastIndexOf('\n', end - 1);
+                if (newline >= start) {
+                    end = newline + 1;
+                }
+            }
+            chunks.add(new CodeChunk(snippetId, chunks.size(), code.substring(start, end), end == code.length()));
+            start = end;
+        }
+        return chunks.toArray(new CodeChunk[chunks.size()]);
+    }
+
+    /**
+     * Conta le righe che terminano in un pezzo: una riga senza a capo alla
+     * fine del pezzo continua nel pezzo successivo, tranne nell'ultimo pezzo
+     * dove conta anche se non termina con un a capo.
+     */
+    private static int countLines(String text, boolean last) {
+        int lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        if (last && text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
+            lines++;
+        }
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return snippetId + "#" + position + " (" + lineCount + " lines)";
+    }
+}
@@ -19,9 +19,15 @@ import java.io.Serializable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
-import javax.persistence.OneToMany;
+import javax.persistence.Index;
+import javax.persistence.ManyToMany;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import jcodecollector.util.ApplicationConstants;
+import jcodecollector.util.ContentHash;
 
 /**
  * Incapsula il concetto di "snippet". Ogni snippet e' composto dal codice, una
@@ -36,6 +42,7 @@ internal implementation notes:
 much more efficient by updating that property only
 */
 @Entity
+@Table(indexes = { @Index(columnList = "generation"), @Index(columnList = "category, name") })
 public class Snippet implements Serializable {
     private static final long serialVersionUID = 1L;
 
@@ -50,13 +57,36 @@ public class Snippet implements Serializable {
     private String name;
 
     /** I tag dello snippet. */
-    @OneToMany
+    @ManyToMany
     private List<Tag> tags;
 
-    /** Il codice relativo allo snippet. */
+    /**
+     * Il codice relativo allo snippet. Se il codice e' piu' lungo di
+     * {@link ApplicationConstants#CODE_LENGTH} qui ne resta solo l'inizio,
+     * mentre il testo completo e' salvato a pezzi (vedi {@link CodeChunk}).
+     */
+    @Column(length = ApplicationConstants.CODE_LENGTH)
     private String code;
 
+    /**
+     * La lunghezza del codice completo, <code>null</code> se il codice non e'
+     * salvato a pezzi.
+     */
+    private Integer codeLength;
+
+    /**
+     * L'impronta del codice completo, <code>null</code> se il codice non e'
+     * salvato a pezzi o se va ancora calcolata.
+     */
+    @Column(length = 40)
+    private String codeHash;
+
+    /** Il codice completo, se e' salvato a pezzi ed e' stato caricato. */
+    @Transient
+    private String largeCode;
+
     /** Un commento relativo allo snippet. */
+    @Column(length = ApplicationConstants.COMMENT_LENGTH)
     private String comment;
 
     /** Lo stile da usare per colorare il codice. */
@@ -65,6 +95,19 @@ public class Snippet implements Serializable {
     /** Stato dello snippet. */
     private boolean locked;
 
+    /**
+     * L'impronta del contenuto dello snippet, vedi
+     * {@link jcodecollector.util.ContentHash}.
+     */
+    @Column(length = 40)
+    private String contentHash;
+
+    /**
+     * La generazione dell'ultima modifica dello snippet, indicizzata per
+     * trovare in fretta le modifiche successive a una generazione.
+     */
+    private Long generation;
+
     /**
      * Istanzia uno snippet vuoto. I vari attributi dovranno ricevere dei valori
      * validi dai metodi setter.
@@ -99,10 +142,10 @@ public class Snippet implements Serializable {
         this.category = category;
         this.name = name;
         this.tags = tags;
-        this.code = code;
         this.comment = comment;
         this.syntax = syntax;
         this.id = id;
+        setCode(code);
         this.locked = locked;
     }
 
@@ -116,7 +159,7 @@ public class Snippet implements Serializable {
         this.category = snippet.getCategory();
         this.name = snippet.getName();
         this.tags = snippet.getTags();
-        this.code = snippet.getCode();
+        copyCode(snippet);
         this.comment = snippet.getComment();
         this.syntax = snippet.getSyntax();
         this.locked = snippet.isLocked();
@@ -177,12 +220,14 @@ public class Snippet implements Serializable {
     }
 
     /**
-     * Restituisce il codice dello snippet.
+     * Restituisce il codice dello snippet. Se il codice e' salvato a pezzi e
+     * non e' stato caricato (vedi {@link #isCodeLoaded()}) ne viene
+     * restituito solo l'inizio.
      *
      * @return il codice dello snippet.
      */
     public String getCode() {
-        return this.code;
+        return largeCode != null ? largeCode : code;
     }
 
     /**
@@ -191,7 +236,79 @@ public class Snippet implements Serializable {
      * @param code il nuovo codice dello snippet.
      */
     public void setCode(String code) {
-        this.code = code;
+        if (code != null && code.length() > ApplicationConstants.CODE_LENGTH) {
+            this.code = code.substring(0, ApplicationConstants.CODE_LENGTH);
+            this.codeLength = code.length();
+            this.largeCode = code;
+        } else {
+            this.code = code;
+            this.codeLength = null;
+            this.largeCode = null;
+        }
+        this.codeHash = null;
+    }
+
+    /**
+     * Copia il codice di un altro snippet senza caricarlo: se il codice e'
+     * salvato a pezzi e non e' stato caricato, anche questo snippet ne avra'
+     * solo l'inizio.
+     *
+     * @param snippet Lo snippet da cui copiare il codice.
+     */
+    public void copyCode(Snippet snippet) {
+        this.code = snippet.code;
+        this.codeLength = snippet.codeLength;
+        this.codeHash = snippet.codeHash;
+        this.largeCode = snippet.largeCode;
+    }
+
+    /**
+     * Indica se il codice e' piu' lungo di
+     * {@link ApplicationConstants#CODE_LENGTH} e viene quindi salvato a pezzi.
+     *
+     * @return <code>true</code> se il codice e' salvato a pezzi
+     */
+    public boolean isLarge() {
+        return codeLength != null;
+    }
+
+    /**
+     * Indica se {@link #getCode()} restituisce il codice completo.
+     *
+     * @return <code>false</code> se il codice e' salvato a pezzi e non e'
+     *         ancora stato caricato
+     */
+    public boolean isCodeLoaded() {
+        return codeLength == null || largeCode != null;
+    }
+
+    /**
+     * Restituisce la lunghezza del codice completo, anche se non e' stato
+     * caricato.
+     *
+     * @return il numero di caratteri del codice
+     */
+    public int getCodeLength() {
+        if (codeLength != null) {
+            return codeLength;
+        }
+        return code == null ? 0 : code.length();
+    }
+
+    /**
+     * Restituisce l'impronta del codice completo di uno snippet salvato a
+     * pezzi, calcolandola se serve: in questo modo l'impronta del contenuto
+     * (vedi {@link ContentHash#of(Snippet)}) non richiede di caricare il
+     * codice.
+     *
+     * @return l'impronta del codice, <code>null</code> se il codice non e'
+     *         salvato a pezzi
+     */
+    public String getCodeHash() {
+        if (codeHash == null && largeCode != null) {
+            codeHash = ContentHash.ofCode(largeCode);
+        }
+        return codeHash;
     }
 
     /**
@@ -273,6 +390,35 @@ public class Snippet implements Serializable {
         this.locked = locked;
     }
 
+    /**
+     * Restituisce l'impronta del contenuto calcolata all'ultimo salvataggio.
+     *
+     * @return l'impronta del contenuto, <code>null</code> se lo snippet non e'
+     *         ancora stato salvato
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Restituisce la generazione in cui lo snippet e' stato modificato
+     * l'ultima volta.
+     *
+     * @return la generazione dell'ultima modifica, <code>null</code> se lo
+     *         snippet non e' ancora stato salvato
+     */
+    public Long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(Long generation) {
+        this.generation = generation;
+    }
+
     /**
      * Restituisce i tag dello snippet sotto forma di un'unica stringa.
      *
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.common.bean;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Ricorda la cancellazione di uno snippet, in modo che l'esportazione delle
+ * modifiche possa propagarla agli altri database.
+ */
+@Entity
+public class Tombstone implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Il nome dello snippet cancellato. */
+    @Id
+    private String name;
+
+    /** La categoria dello snippet cancellato. */
+    private String category;
+
+    /** L'impronta del contenuto dello snippet al momento della cancellazione. */
+    @Column(length = 40)
+    private String contentHash;
+
+    /** La generazione della cancellazione. */
+    private Long generation;
+
+    protected Tombstone() {
+    }
+
+    public Tombstone(String name, String category, String contentHash, Long generation) {
+        this.name = name;
+        this.category = category;
+        this.contentHash = contentHash;
+        this.generation = generation;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public Long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(Long generation) {
+        this.generation = generation;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    @Override
+    public String toString() {
+        return category + "," + name + " (deleted)";
+    }
+}
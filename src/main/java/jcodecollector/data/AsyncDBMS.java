@@ -0,0 +1,505 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.swing.SwingUtilities;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Syntax;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Esegue le operazioni del {@link DBMS} su thread dedicati e ne restituisce il
+ * risultato con un {@link CompletableFuture}, cosi' l'EDT non resta mai in
+ * attesa del database. Le modifiche vengono eseguite una alla volta,
+ * nell'ordine in cui sono state richieste; le letture vengono eseguite in
+ * parallelo, ognuna con una propria connessione, ma solo dopo le modifiche
+ * richieste prima di loro, che quindi vedono sempre.
+ *
+ * <p>
+ * I risultati vanno applicati all'interfaccia con i metodi
+ * <code>...Async</code> dei future, passando {@link #EDT} come executor.
+ * </p>
+ */
+public class AsyncDBMS {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncDBMS.class);
+
+    /** Esegue i task sull'EDT, dopo gli eventi gia' in coda. */
+    public static final Executor EDT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            SwingUtilities.invokeLater(command);
+        }
+    };
+
+    /** I byte che gli snippet letti di recente possono occupare in memoria. */
+    private static final long SNIPPET_CACHE_BYTES = 16L * 1024 * 1024;
+
+    /** Il numero di letture eseguite contemporaneamente. */
+    private static final int READ_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final DBMS dbms;
+    private final SnippetCache snippetCache = new SnippetCache(SNIPPET_CACHE_BYTES);
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "dbms");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final ExecutorService readExecutor = Executors.newFixedThreadPool(READ_THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "dbms-read-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Termina quando sono state eseguite tutte le modifiche richieste finora,
+     * anche se qualcuna e' fallita. Protetto da <code>this</code>.
+     */
+    private CompletableFuture<Void> pendingWrites = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param dbms Il database su cui eseguire le operazioni.
+     */
+    public AsyncDBMS(DBMS dbms) {
+        this.dbms = dbms;
+    }
+
+    /**
+     * Esegue una lettura qualsiasi, ad esempio per leggere piu' valori con un
+     * solo task. La lettura puo' essere eseguita insieme ad altre letture e
+     * non deve modificare il database.
+     *
+     * @param task La lettura da eseguire.
+     * @return il risultato della lettura; se la lettura fallisce il future
+     *         termina con l'eccezione lanciata
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        CompletableFuture<Void> writes;
+        synchronized (this) {
+            writes = pendingWrites;
+        }
+
+        CompletableFuture<T> future = writes.thenApplyAsync(new Function<Void, T>() {
+            @Override
+            public T apply(Void ignored) {
+                try {
+                    return task.call();
+                } catch (RuntimeException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+        }, readExecutor);
+        return logFailure(future);
+    }
+
+    /**
+     * Esegue una modifica sul thread delle modifiche.
+     *
+     * @param task La modifica da eseguire.
+     * @return il future che termina quando la modifica e' stata eseguita
+     */
+    public CompletableFuture<Void> execute(Runnable task) {
+        return execute(Executors.<Void> callable(task, null));
+    }
+
+    /**
+     * Esegue una modifica sul thread delle modifiche.
+     *
+     * @param task La modifica da eseguire.
+     * @return il risultato della modifica; se la modifica fallisce il future
+     *         termina con l'eccezione lanciata
+     */
+    public <T> CompletableFuture<T> execute(final Callable<T> task) {
+        Supplier<T> supplier = new Supplier<T>() {
+            @Override
+            public T get() {
+                try {
+                    return task.call();
+                } catch (RuntimeException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+        };
+
+        CompletableFuture<T> future;
+        // accodata e registrata insieme, altrimenti pendingWrites potrebbe
+        // indicare una modifica accodata prima da un altro thread
+        synchronized (this) {
+            future = CompletableFuture.supplyAsync(supplier, writeExecutor);
+            // le letture successive attendono la modifica anche se fallisce
+            pendingWrites = future.handle(new BiFunction<T, Throwable, Void>() {
+                @Override
+                public Void apply(T result, Throwable failure) {
+                    return null;
+                }
+            });
+        }
+        return logFailure(future);
+    }
+
+    private static <T> CompletableFuture<T> logFailure(CompletableFuture<T> future) {
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable failure) {
+                if (failure != null) {
+                    logger.error("database operation failed", failure);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Legge lo snippet indicato, dalla cache degli snippet letti di recente se
+     * possibile.
+     *
+     * @see DBMS#getSnippet(String)
+     */
+    public CompletableFuture<Snippet> getSnippet(final String name) {
+        return submit(new Callable<Snippet>() {
+            @Override
+            public Snippet call() {
+                long modifications = dbms.getModificationCount();
+                Snippet snippet = snippetCache.get(name, modifications);
+                if (snippet == null) {
+                    snippet = dbms.getSnippet(name);
+                    if (snippet != null && dbms.getModificationCount() == modifications) {
+                        snippetCache.put(snippet, modifications);
+                    }
+                }
+                return snippet;
+            }
+        });
+    }
+
+    /**
+     * Legge in background gli snippet indicati che non sono nella cache, con
+     * una sola query, in modo che un successivo {@link #getSnippet(String)}
+     * non debba attendere il database.
+     *
+     * @param names I nomi degli snippet.
+     * @return il future che termina quando gli snippet sono in cache
+     */
+    public CompletableFuture<Void> prefetch(final Collection<String> names) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                long modifications = dbms.getModificationCount();
+                List<String> missing = new ArrayList<String>();
+                for (String name : names) {
+                    if (!snippetCache.contains(name, modifications)) {
+                        missing.add(name);
+                    }
+                }
+                if (missing.isEmpty()) {
+                    return null;
+                }
+
+                List<Snippet> snippets = dbms.getSnippetsNamed(missing);
+                if (dbms.getModificationCount() == modifications) {
+                    for (Snippet snippet : snippets) {
+                        snippetCache.put(snippet, modifications);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return le statistiche della cache degli snippet letti di recente
+     */
+    public String getSnippetCacheStatistics() {
+        return snippetCache.toString();
+    }
+
+    /** @see DBMS#getCategories() */
+    public CompletableFuture<List<String>> getCategories() {
+        return submit(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return dbms.getCategories();
+            }
+        });
+    }
+
+    /** @see DBMS#getCategoryOf(String) */
+    public CompletableFuture<String> getCategoryOf(final String snippetName) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return dbms.getCategoryOf(snippetName);
+            }
+        });
+    }
+
+    /** @see DBMS#getSnippetsNames(String) */
+    public CompletableFuture<List<Snippet>> getSnippetsNames(final String category) {
+        return submit(new Callable<List<Snippet>>() {
+            @Override
+            public List<Snippet> call() {
+                return dbms.getSnippetsNames(category);
+            }
+        });
+    }
+
+    /**
+     * Legge con un solo task tutte le categorie e i loro snippet, ad esempio
+     * per popolare il SourceList.
+     *
+     * @return gli snippet di ogni categoria, nell'ordine delle categorie
+     */
+    public CompletableFuture<Map<String, List<Snippet>>> getSnippetsByCategory() {
+        return submit(new Callable<Map<String, List<Snippet>>>() {
+            @Override
+            public Map<String, List<Snippet>> call() {
+                Map<String, List<Snippet>> snippets = new LinkedHashMap<String, List<Snippet>>();
+                for (String category : dbms.getCategories()) {
+                    snippets.put(category, dbms.getSnippetsNames(category));
+                }
+                return snippets;
+            }
+        });
+    }
+
+    /** @see DBMS#countSnippetsByCategory() */
+    public CompletableFuture<Map<String, Integer>> countSnippetsByCategory() {
+        return submit(new Callable<Map<String, Integer>>() {
+            @Override
+            public Map<String, Integer> call() {
+                return dbms.countSnippetsByCategory();
+            }
+        });
+    }
+
+    /** @see DBMS#getSnippetNames(Collection, String, String, int) */
+    public CompletableFuture<List<String>> getSnippetNames(final Collection<String> categories, final String after, final String upTo,
+            final int max) {
+        return submit(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return dbms.getSnippetNames(categories, after, upTo, max);
+            }
+        });
+    }
+
+    /** @see DBMS#getCodeChunkLines(int) */
+    public CompletableFuture<int[]> getCodeChunkLines(final int snippetId) {
+        return submit(new Callable<int[]>() {
+            @Override
+            public int[] call() {
+                return dbms.getCodeChunkLines(snippetId);
+            }
+        });
+    }
+
+    /** @see DBMS#getCodeChunk(int, int) */
+    public CompletableFuture<String> getCodeChunk(final int snippetId, final int position) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return dbms.getCodeChunk(snippetId, position);
+            }
+        });
+    }
+
+    /** @see DBMS#getFullCode(Snippet) */
+    public CompletableFuture<String> getFullCode(final Snippet snippet) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return dbms.getFullCode(snippet);
+            }
+        });
+    }
+
+    /** @see DBMS#countCategories() */
+    public CompletableFuture<Integer> countCategories() {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbms.countCategories();
+            }
+        });
+    }
+
+    /** @see DBMS#countSnippets() */
+    public CompletableFuture<Integer> countSnippets() {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbms.countSnippets();
+            }
+        });
+    }
+
+    /**
+     * Applica gli snippet di esempio su un thread proprio: attende le
+     * importazioni in corso senza fermare le altre modifiche.
+     *
+     * @see DBMS#seedDefaultSnippets()
+     */
+    public CompletableFuture<Integer> seedDefaultSnippets() {
+        final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(dbms.seedDefaultSnippets());
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                }
+            }
+        }, "dbms-seed");
+        thread.setDaemon(true);
+        thread.start();
+        return logFailure(future);
+    }
+
+    /** @see DBMS#insertNewSnippet(Snippet) */
+    public CompletableFuture<Integer> insertNewSnippet(final Snippet snippet) {
+        return execute(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbms.insertNewSnippet(snippet);
+            }
+        });
+    }
+
+    /** @see DBMS#updateSnippet(Snippet, Snippet) */
+    public CompletableFuture<Void> updateSnippet(final Snippet oldSnippet, final Snippet newSnippet) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                dbms.updateSnippet(oldSnippet, newSnippet);
+            }
+        });
+    }
+
+    /** @see DBMS#removeSnippet(Snippet) */
+    public CompletableFuture<Void> removeSnippet(final Snippet snippet) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                dbms.removeSnippet(snippet);
+            }
+        });
+    }
+
+    /** @see DBMS#removeSnippets(List) */
+    public CompletableFuture<Void> removeSnippets(final List<Snippet> snippets) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                dbms.removeSnippets(snippets);
+            }
+        });
+    }
+
+    /** @see DBMS#lockSnippet(Snippet, boolean) */
+    public CompletableFuture<Void> lockSnippet(final Snippet snippet, final boolean locked) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                dbms.lockSnippet(snippet, locked);
+            }
+        });
+    }
+
+    /** @see DBMS#removeCategory(String) */
+    public CompletableFuture<Void> removeCategory(final String name) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                dbms.removeCategory(name);
+            }
+        });
+    }
+
+    /** @see DBMS#renameCategory(String, String) */
+    public CompletableFuture<Void> renameCategory(final String oldName, final String newName) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                dbms.renameCategory(oldName, newName);
+            }
+        });
+    }
+
+    /** @see DBMS#renameCategoryOf(Set, String) */
+    public CompletableFuture<Void> renameCategoryOf(final Set<Snippet> snippets, final String category) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                dbms.renameCategoryOf(snippets, category);
+            }
+        });
+    }
+
+    /** @see DBMS#setSyntaxToCategory(Syntax, String, Snippet) */
+    public CompletableFuture<Void> setSyntaxToCategory(final Syntax syntax, final String category, final Snippet selectedSnippet) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                dbms.setSyntaxToCategory(syntax, category, selectedSnippet);
+            }
+        });
+    }
+
+    /** @see DBMS#setSyntaxToSnippets(Syntax, Set) */
+    public CompletableFuture<Void> setSyntaxToSnippets(final Syntax syntax, final Set<Snippet> snippets) {
+        return execute(new Runnable() {
+            @Override
+            public void run() {
+                dbms.setSyntaxToSnippets(syntax, snippets);
+            }
+        });
+    }
+}
@@ -15,15 +15,26 @@
  */
 package jcodecollector.data;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import jcodecollector.Loader;
 
 import jcodecollector.State;
 import jcodecollector.common.bean.Snippet;
 import jcodecollector.common.bean.Syntax;
 
+/**
+ * Smista le richieste dell'interfaccia tra il database e i risultati della
+ * ricerca. Va usato dall'EDT: i risultati della ricerca vengono aggiornati
+ * subito, le operazioni sul database vengono eseguite in background da
+ * {@link AsyncDBMS} e restituiscono un {@link CompletableFuture}.
+ */
 public class Controller {
     private static final Controller controller = new Controller();
     private static final SearchResults searchManager = SearchResults.getInstance();
@@ -37,43 +48,43 @@ public class Controller {
         return controller;
     }
 
-    public void removeSnippet(Snippet name) {
+    public CompletableFuture<Void> removeSnippet(Snippet name) {
         if (State.getInstance().isSearchActive()) {
-            searchManager.removeSnippet(name);
+            return searchManager.removeSnippet(name);
         }else {
-            Loader.DBMS_INSTANCE.removeSnippet(name);
+            return Loader.ASYNC_DBMS.removeSnippet(name);
         }
     }
 
-    public void updateSnippet(Snippet oldSnippet, Snippet newSnippet) {
+    public CompletableFuture<Void> updateSnippet(Snippet oldSnippet, Snippet newSnippet) {
         if(State.getInstance().isSearchActive()) {
-            searchManager.updateSnippet(oldSnippet, newSnippet);
+            return searchManager.updateSnippet(oldSnippet, newSnippet);
         }else {
-            Loader.DBMS_INSTANCE.updateSnippet(oldSnippet, newSnippet);
+            return Loader.ASYNC_DBMS.updateSnippet(oldSnippet, newSnippet);
         }
     }
 
-    public void removeCategory(String text) {
+    public CompletableFuture<Void> removeCategory(String text) {
         if(State.getInstance().isSearchActive()) {
-            searchManager.removeCategory(text);
+            return searchManager.removeCategory(text);
         }else {
-            Loader.DBMS_INSTANCE.removeCategory(text);
+            return Loader.ASYNC_DBMS.removeCategory(text);
         }
     }
 
-    public void renameCategory(String oldName, String newName) {
+    public CompletableFuture<Void> renameCategory(String oldName, String newName) {
         if(State.getInstance().isSearchActive()) {
-            searchManager.renameCategory(oldName, newName);
+            return searchManager.renameCategory(oldName, newName);
         }else {
-            Loader.DBMS_INSTANCE.renameCategory(oldName, newName);
+            return Loader.ASYNC_DBMS.renameCategory(oldName, newName);
         }
     }
 
-    public void updateSyntax(Syntax newSyntax, String category, Snippet selectedSnippet) {
+    public CompletableFuture<Void> updateSyntax(Syntax newSyntax, String category, Snippet selectedSnippet) {
         if(State.getInstance().isSearchActive()) {
-            searchManager.setSyntax(newSyntax, category, selectedSnippet);
+            return searchManager.setSyntax(newSyntax, category, selectedSnippet);
         }else {
-            Loader.DBMS_INSTANCE.setSyntaxToCategory(newSyntax, category, selectedSnippet);
+            return Loader.ASYNC_DBMS.setSyntaxToCategory(newSyntax, category, selectedSnippet);
         }
     }
 
@@ -82,36 +93,75 @@ public class Controller {
      *
      * @return l'elenco delle categorie presenti nel database
      */
-    public List<String> getAllCategories() {
-        return Loader.DBMS_INSTANCE.getCategories();
+    public CompletableFuture<List<String>> getAllCategories() {
+        return Loader.ASYNC_DBMS.getCategories();
     }
 
-    public List<String> getCategories() {
-        return State.getInstance().isSearchActive() ? searchManager.getCategories() : Loader.DBMS_INSTANCE.getCategories();
+    public CompletableFuture<List<String>> getCategories() {
+        return State.getInstance().isSearchActive() ? CompletableFuture.completedFuture(searchManager.getCategories()) : Loader.ASYNC_DBMS.getCategories();
     }
 
-    public String getCategoryOf(String snippet) {
-        return Loader.DBMS_INSTANCE.getCategoryOf(snippet);
+    public CompletableFuture<String> getCategoryOf(String snippet) {
+        return Loader.ASYNC_DBMS.getCategoryOf(snippet);
     }
 
-    public Snippet getSnippet(String name) {
-        return Loader.DBMS_INSTANCE.getSnippet(name);
+    public CompletableFuture<Snippet> getSnippet(String name) {
+        return Loader.ASYNC_DBMS.getSnippet(name);
     }
 
-    public List<Snippet> getSnippetsName(String category) {
+    public CompletableFuture<List<Snippet>> getSnippetsName(String category) {
         if(State.getInstance().isSearchActive()) {
-            return searchManager.getSnippets(category);
+            return CompletableFuture.<List<Snippet>>completedFuture(searchManager.getSnippets(category));
         }else {
-            return Loader.DBMS_INSTANCE.getSnippetsNames(category);
+            return Loader.ASYNC_DBMS.getSnippetsNames(category);
+        }
+    }
+
+    /**
+     * Restituisce gli snippet di ogni categoria, dal database o dai
+     * risultati della ricerca.
+     *
+     * @return gli snippet di ogni categoria, nell'ordine delle categorie
+     */
+    public CompletableFuture<Map<String, List<Snippet>>> getSnippetsByCategory() {
+        if (!State.getInstance().isSearchActive()) {
+            return Loader.ASYNC_DBMS.getSnippetsByCategory();
         }
+
+        Map<String, List<Snippet>> snippets = new LinkedHashMap<String, List<Snippet>>();
+        for (String category : searchManager.getCategories()) {
+            snippets.put(category, new ArrayList<Snippet>(searchManager.getSnippets(category)));
+        }
+        return CompletableFuture.completedFuture(snippets);
+    }
+
+    /**
+     * Conta gli snippet di ogni categoria del database, senza leggerli.
+     *
+     * @return il numero di snippet di ogni categoria, nell'ordine delle
+     *         categorie
+     */
+    public CompletableFuture<Map<String, Integer>> countSnippetsByCategory() {
+        return Loader.ASYNC_DBMS.countSnippetsByCategory();
+    }
+
+    /** @see DBMS#getSnippetNames(Collection, String, String, int) */
+    public CompletableFuture<List<String>> getSnippetNames(Collection<String> categories, String after, String upTo, int max) {
+        return Loader.ASYNC_DBMS.getSnippetNames(categories, after, upTo, max);
+    }
+
+    /** @see AsyncDBMS#prefetch(Collection) */
+    public CompletableFuture<Void> prefetch(Collection<String> names) {
+        return Loader.ASYNC_DBMS.prefetch(names);
     }
 
-    public void insertNewSnippet(Snippet newSnippet) {
-        Loader.DBMS_INSTANCE.insertNewSnippet(newSnippet);
+    /** @see DBMS#insertNewSnippet(Snippet) */
+    public CompletableFuture<Integer> insertNewSnippet(Snippet newSnippet) {
+        return Loader.ASYNC_DBMS.insertNewSnippet(newSnippet);
     }
 
-    public void lockSnippet(Snippet snippet, boolean locked) {
-        Loader.DBMS_INSTANCE.lockSnippet(snippet, locked);
+    public CompletableFuture<Void> lockSnippet(Snippet snippet, boolean locked) {
+        return Loader.ASYNC_DBMS.lockSnippet(snippet, locked);
     }
 
     public boolean isSearchActive() {
@@ -122,15 +172,19 @@ public class Controller {
         searchManager.setData(data);
     }
 
-    public int countCategories() {
-        return State.getInstance().isSearchActive() ? searchManager.countCategories() : Loader.DBMS_INSTANCE.countCategories();
+    public void addSearchResults(List<Snippet> snippets) {
+        searchManager.addSnippets(snippets);
+    }
+
+    public CompletableFuture<Integer> countCategories() {
+        return State.getInstance().isSearchActive() ? CompletableFuture.completedFuture(searchManager.countCategories()) : Loader.ASYNC_DBMS.countCategories();
     }
 
-    public int countSnippets() {
-        return State.getInstance().isSearchActive() ? searchManager.countSnippets() : Loader.DBMS_INSTANCE.countSnippets();
+    public CompletableFuture<Integer> countSnippets() {
+        return State.getInstance().isSearchActive() ? CompletableFuture.completedFuture(searchManager.countSnippets()) : Loader.ASYNC_DBMS.countSnippets();
     }
 
-    public int size() {
+    public CompletableFuture<Integer> size() {
         return countSnippets();
     }
 
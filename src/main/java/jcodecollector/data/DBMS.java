@@ -17,41 +17,108 @@ package jcodecollector.data;
  */
 
 import jcodecollector.exceptions.DirectoryCreationException;
+import jcodecollector.exceptions.ConnectionException;
 import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
 import javax.persistence.Persistence;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Join;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.SingularAttribute;
 
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 
+import jcodecollector.common.bean.AppliedSeed;
+import jcodecollector.common.bean.CodeChunk;
+import jcodecollector.common.bean.CodeChunk_;
 import jcodecollector.common.bean.Snippet;
 import jcodecollector.common.bean.Snippet_;
 import jcodecollector.common.bean.Syntax;
 import jcodecollector.common.bean.Tag;
 import jcodecollector.common.bean.Tag_;
+import jcodecollector.common.bean.Tombstone;
+import jcodecollector.common.bean.Tombstone_;
 import jcodecollector.data.settings.ApplicationSettings;
 import jcodecollector.io.PackageManager;
+import jcodecollector.listener.SearchResultsListener;
+import jcodecollector.util.ApplicationConstants;
+import jcodecollector.util.ContentHash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class DBMS {
     private static final String DBMS_DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
     private static final Logger logger = LoggerFactory.getLogger(DBMS.class);
-    private EntityManagerFactory entityManagerFactory;
-    private EntityManager entityManager;
+
+    /** Il pacchetto con gli snippet di esempio. */
+    private static final File DEFAULT_SNIPPETS = new File("../default_snippets.jccp");
+    private volatile EntityManagerFactory entityManagerFactory;
+
+    /** Completato quando il database e' pronto, vedi {@link #start()}. */
+    private final CompletableFuture<Void> ready = new CompletableFuture<Void>();
+
+    /** <code>true</code> dopo la prima chiamata a {@link #start()}. */
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /** Il numero di modifiche salvate dall'avvio, vedi {@link #getModificationCount()}. */
+    private final AtomicLong modifications = new AtomicLong();
+
+    /** L'ultima generazione usata, <code>-1</code> finche' non viene letta dal database. */
+    private final AtomicLong generation = new AtomicLong(-1);
+
+    /**
+     * Le generazioni delle transazioni non ancora concluse, protette da
+     * {@link #generation}: vedi {@link #getCurrentGeneration()}.
+     */
+    private final TreeSet<Long> pendingGenerations = new TreeSet<Long>();
+
+    /** Protegge {@link #nextSnippetId}. */
+    private final Object snippetIdLock = new Object();
+
+    /**
+     * Il prossimo id libero per gli snippet nuovi, <code>-1</code> finche' non
+     * viene letto dal database, vedi {@link #allocateSnippetId(EntityManager)}.
+     */
+    private int nextSnippetId = -1;
+
+    /**
+     * Esegue le importazioni una alla volta, nell'ordine in cui sono state
+     * richieste, vedi {@link #beginImport()}.
+     */
+    private final ReentrantLock importLock = new ReentrantLock(true);
+
+    /**
+     * <code>true</code> quando tutti gli snippet hanno un'impronta del
+     * contenuto, vedi {@link #backfillContentHashes()}.
+     */
+    private volatile boolean contentHashesComplete;
 
     private void init() throws ClassNotFoundException {
         String connectionURL = "jdbc:derby:";
@@ -83,33 +150,238 @@ public class DBMS {
         configOverrides.put("javax.persistence.jdbc.user", "app");
         configOverrides.put("javax.persistence.jdbc.driver", DBMS_DRIVER);
         configOverrides.put("javax.persistence.jdbc.password", "");
+
+        // lo schema di un database creato da una versione precedente va
+        // aggiornato prima che Hibernate lo confronti con la mappatura
+        try {
+            SchemaMigration.migrate(connectionURL, "app", "");
+        } catch (SQLException ex) {
+            throw new ConnectionException("cannot migrate the database schema", ex);
+        }
         entityManagerFactory =
                 Persistence.createEntityManagerFactory("jcodecollector", configOverrides);
-        entityManager = entityManagerFactory.createEntityManager(configOverrides);
+        generation.set(-1);
+        synchronized (snippetIdLock) {
+            nextSnippetId = -1;
+        }
+        contentHashesComplete = false;
+    }
 
-        /* Creo le tabelle SNIPPETS e TAGS e inserisco gli snippet di esempio.
-         * Se createTables() restituisce false le tabelle sono state create
-         * durante una precedente esecuzione. */
-        insertDefaultSnippets();
+    /**
+     * Applica al database il pacchetto degli snippet di esempio, vedi
+     * {@link #applySeed(File)}.
+     *
+     * @return il numero di snippet inseriti
+     */
+    public int seedDefaultSnippets() {
+        return applySeed(DEFAULT_SNIPPETS);
     }
 
-    /** Inserisce nel database gli snippet di esempio. */
-    private void insertDefaultSnippets() {
+    /**
+     * Applica al database un pacchetto di snippet di esempio, una sola volta:
+     * il pacchetto viene riconosciuto dall'impronta del file, quindi se e' gia'
+     * stato applicato non viene nemmeno letto. Una nuova versione del
+     * pacchetto aggiunge solo gli snippet che mancano: quelli gia' presenti,
+     * anche se modificati, e quelli cancellati dall'utente non vengono
+     * toccati.
+     *
+     * @param file Il pacchetto.
+     * @return il numero di snippet inseriti
+     */
+    public int applySeed(final File file) {
+        if (!file.isFile()) {
+            logger.debug("seed package {} not found", file);
+            return 0;
+        }
+
+        final String hash;
         try {
-            List<Snippet> snippets = PackageManager.readPackage(new File(("../default_snippets.jccp")));
-            if(snippets != null) {
-                for (Snippet s : snippets) {
-                    insertNewSnippet(s);
+            hash = ContentHash.of(file);
+        } catch (IOException ex) {
+            logger.warn("cannot read seed package " + file, ex);
+            return 0;
+        }
+
+        boolean applied = read(new Work<Boolean>() {
+            @Override
+            public Boolean run(EntityManager manager) {
+                return manager.find(AppliedSeed.class, hash) != null;
+            }
+        });
+        if (applied) {
+            return 0;
+        }
+
+        final List<Snippet> snippets = PackageManager.readPackage(file);
+        if (snippets == null) {
+            logger.warn("invalid seed package {}", file);
+            return 0;
+        }
+
+        // come ogni importazione attende quelle in corso, ad esempio della
+        // drop folder
+        importLock.lock();
+        try {
+            return insertSeed(file, hash, snippets);
+        } finally {
+            importLock.unlock();
+        }
+    }
+
+    private int insertSeed(final File file, final String hash, final List<Snippet> snippets) {
+        int inserted = write(new StampedWork<Integer>() {
+            @Override
+            public Integer run(EntityManager manager, long generation) {
+                if (manager.find(AppliedSeed.class, hash) != null) {
+                    return 0;
+                }
+
+                Set<String> names = new HashSet<String>();
+                for (Snippet snippet : snippets) {
+                    names.add(snippet.getName());
                 }
+                Set<String> skipped = new HashSet<String>();
+                if (!names.isEmpty()) {
+                    CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                    CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+                    Root<Snippet> snippet = query.from(Snippet.class);
+                    query.select(snippet.get(Snippet_.name)).where(snippet.get(Snippet_.name).in(names));
+                    skipped.addAll(manager.createQuery(query).getResultList());
+
+                    CriteriaQuery<String> deleted = criteriaBuilder.createQuery(String.class);
+                    Root<Tombstone> tombstone = deleted.from(Tombstone.class);
+                    deleted.select(tombstone.get(Tombstone_.name)).where(tombstone.get(Tombstone_.name).in(names));
+                    skipped.addAll(manager.createQuery(deleted).getResultList());
+                }
+
+                int inserted = 0;
+                for (Snippet snippet : snippets) {
+                    if (!skipped.add(snippet.getName())) {
+                        continue;
+                    }
+
+                    Snippet seeded = withId(snippet, allocateSnippetId(manager));
+                    manageTags(manager, seeded);
+                    stamp(seeded, generation);
+                    manager.persist(seeded);
+                    storeCode(manager, seeded, false);
+                    inserted++;
+                }
+
+                manager.persist(new AppliedSeed(hash, file.getName(), inserted, generation));
+                return inserted;
             }
-        } catch (Exception ex) {
-            logger.warn("cannot find default snippets file", ex);
+        });
+
+        logger.debug("seed package {} applied, {} snippets inserted", file, inserted);
+        return inserted;
+    }
+
+    /**
+     * Un'unita' di lavoro sul database, eseguita con un {@link EntityManager}
+     * creato apposta e chiuso al termine.
+     */
+    private interface Work<T> {
+        T run(EntityManager manager);
+    }
+
+    /**
+     * Un'unita' di lavoro che crea una nuova generazione, vedi
+     * {@link DBMS#write(StampedWork)}.
+     */
+    private interface StampedWork<T> {
+        T run(EntityManager manager, long generation);
+    }
+
+    /**
+     * Crea un {@link EntityManager} per sole letture: Hibernate non conserva
+     * le copie delle entita' per il dirty checking e non esegue mai il flush.
+     *
+     * @return l'{@link EntityManager}, da chiudere al termine
+     */
+    private EntityManager createReadManager() {
+        EntityManager manager = getEntityManagerFactory().createEntityManager();
+        Session session = manager.unwrap(Session.class);
+        session.setDefaultReadOnly(true);
+        session.setFlushMode(FlushMode.MANUAL);
+        return manager;
+    }
+
+    /**
+     * Esegue una lettura con un proprio {@link EntityManager}: le letture non
+     * condividono nulla e possono essere eseguite da piu' thread
+     * contemporaneamente, ognuna su una propria connessione. Le entita'
+     * restituite sono <i>detached</i>.
+     */
+    private <T> T read(Work<T> work) {
+        EntityManager manager = createReadManager();
+        try {
+            return work.run(manager);
+        } finally {
+            manager.close();
         }
     }
 
+    /**
+     * Esegue una modifica in una transazione con un proprio
+     * {@link EntityManager}: se la modifica fallisce la transazione viene
+     * annullata e l'eccezione rilanciata.
+     */
+    private <T> T write(Work<T> work) {
+        EntityManager manager = getEntityManagerFactory().createEntityManager();
+        EntityTransaction transaction = manager.getTransaction();
+        try {
+            transaction.begin();
+            T result = work.run(manager);
+            transaction.commit();
+            modifications.incrementAndGet();
+            return result;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            manager.close();
+        }
+    }
+
+    /**
+     * Esegue una modifica come {@link #write(Work)} con una nuova generazione.
+     * La generazione viene assegnata dentro la transazione e resta in sospeso
+     * fino alla sua conclusione: {@link #getCurrentGeneration()} non la
+     * supera finche' la transazione non e' salvata o annullata.
+     */
+    private <T> T write(final StampedWork<T> work) {
+        final long[] stamp = { -1 };
+        try {
+            return write(new Work<T>() {
+                @Override
+                public T run(EntityManager manager) {
+                    stamp[0] = nextGeneration();
+                    return work.run(manager, stamp[0]);
+                }
+            });
+        } finally {
+            if (stamp[0] >= 0) {
+                releaseGeneration(stamp[0]);
+            }
+        }
+    }
+
+    /**
+     * Restituisce il numero di modifiche salvate dall'avvio, comprese quelle
+     * che non cambiano la generazione come il blocco di uno snippet. Chi
+     * conserva dati letti dal database puo' confrontarlo con il valore letto
+     * in precedenza per sapere se sono ancora validi.
+     *
+     * @return il numero di modifiche salvate
+     */
+    public long getModificationCount() {
+        return modifications.get();
+    }
+
     public void resetConnection() throws ClassNotFoundException {
-        entityManager.flush();
-        entityManager.close();
+        getEntityManagerFactory().close();
+        modifications.incrementAndGet();
 
         String databasePath = ApplicationSettings.getInstance().getDatabasePath() + "jCodeCollector";
         String connectionURL = "jdbc:derby:";
@@ -134,13 +406,17 @@ public class DBMS {
      * @param name The snippet.
      * @return the ID if the snippet is available, -1 otherwise
      */
-    public int getSnippetId(String name) {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-        Root<Snippet> snippet = query.from(Snippet.class);
-        query.select(snippet).where(criteriaBuilder.equal(snippet.get("name"), name));
-        TypedQuery<Snippet> q = entityManager.createQuery(query);
-        List<Snippet> resultList = q.getResultList();
+    public int getSnippetId(final String name) {
+        List<Integer> resultList = read(new Work<List<Integer>>() {
+            @Override
+            public List<Integer> run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<Integer> query = criteriaBuilder.createQuery(Integer.class);
+                Root<Snippet> snippet = query.from(Snippet.class);
+                query.select(snippet.get(Snippet_.id)).where(criteriaBuilder.equal(snippet.get(Snippet_.name), name));
+                return manager.createQuery(query).getResultList();
+            }
+        });
 
         if(resultList.isEmpty()) {
             throw new IllegalArgumentException(String.format("snippet with name '%s' not found", name));
@@ -148,7 +424,7 @@ public class DBMS {
         if(resultList.size() > 1) {
             throw new IllegalStateException(String.format("more than one snippet with name '%s' found", name));
         }
-        int retValue = resultList.get(0).getId();
+        int retValue = resultList.get(0);
         return retValue;
     }
 
@@ -158,12 +434,16 @@ public class DBMS {
      * @return la lista di tutte le categorie presenti nel database
      */
     public List<String> getCategories() {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
-        Root<Snippet> snippet = query.from(Snippet.class);
-        query.select(snippet.get(Snippet_.category)).distinct(true).orderBy(criteriaBuilder.asc(snippet.get(Snippet_.category)));
-        TypedQuery<String> q = entityManager.createQuery(query);
-        List<String> resultList = q.getResultList();
+        List<String> resultList = read(new Work<List<String>>() {
+            @Override
+            public List<String> run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+                Root<Snippet> snippet = query.from(Snippet.class);
+                query.select(snippet.get(Snippet_.category)).distinct(true).orderBy(criteriaBuilder.asc(snippet.get(Snippet_.category)));
+                return manager.createQuery(query).getResultList();
+            }
+        });
 
         // dopo l'ordinamento metto "Uncategorized" alla fine
         if (resultList.contains("Uncategorized")) {
@@ -174,42 +454,645 @@ public class DBMS {
         return resultList;
     }
 
+    /**
+     * Conta gli snippet di ogni categoria con una sola query.
+     *
+     * @return il numero di snippet di ogni categoria, nell'ordine di
+     *         {@link #getCategories()}
+     */
+    public Map<String, Integer> countSnippetsByCategory() {
+        List<Object[]> rows = read(new Work<List<Object[]>>() {
+            @Override
+            public List<Object[]> run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<Object[]> query = criteriaBuilder.createQuery(Object[].class);
+                Root<Snippet> snippet = query.from(Snippet.class);
+                query.multiselect(snippet.get(Snippet_.category), criteriaBuilder.count(snippet))
+                        .groupBy(snippet.get(Snippet_.category)).orderBy(criteriaBuilder.asc(snippet.get(Snippet_.category)));
+                return manager.createQuery(query).getResultList();
+            }
+        });
+
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (Object[] row : rows) {
+            counts.put((String) row[0], ((Long) row[1]).intValue());
+        }
+
+        // come in getCategories() metto "Uncategorized" alla fine
+        Integer uncategorized = counts.remove("Uncategorized");
+        if (uncategorized != null) {
+            counts.put("Uncategorized", uncategorized);
+        }
+
+        return counts;
+    }
+
     /**
      * Restituisce la categoria a cui appartiene lo snippet indicato.
      *
      * @param snippetName Il nome dello snippet di cui cercare la categoria.
-     * @return la categoria a cui appartiene lo snippet indicato
+     * @return la categoria a cui appartiene lo snippet indicato,
+     *         <code>null</code> se lo snippet non esiste
      */
-    public String getCategoryOf(String snippetName) {
-        Snippet snippet = entityManager.find(Snippet.class, snippetName);
-        return snippet.getCategory();
+    public String getCategoryOf(final String snippetName) {
+        return read(new Work<String>() {
+            @Override
+            public String run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+                Root<Snippet> snippet = query.from(Snippet.class);
+                query.select(snippet.get(Snippet_.category)).where(criteriaBuilder.equal(snippet.get(Snippet_.name), snippetName));
+                List<String> resultList = manager.createQuery(query).setMaxResults(1).getResultList();
+                return resultList.isEmpty() ? null : resultList.get(0);
+            }
+        });
     }
 
     /**
-     * Inserts a new snippet into the database.
+     * Inserts a new snippet into the database. L'id dello snippet viene
+     * ignorato: lo snippet riceve un id libero, assegnato dentro la
+     * transazione come per gli snippet importati.
      *
-     * @param newSnippet Lo snippet da inserire (o aggiornare)
+     * @param newSnippet Lo snippet da inserire
+     * @return l'id assegnato allo snippet
+     */
+    public int insertNewSnippet(final Snippet newSnippet) {
+        return write(new StampedWork<Integer>() {
+            @Override
+            public Integer run(EntityManager manager, long generation) {
+                Snippet stored = withId(newSnippet, allocateSnippetId(manager));
+                manageTags(manager, stored);
+                stamp(stored, generation);
+                removeTombstone(manager, stored.getName());
+                manager.persist(stored);
+                storeCode(manager, stored, false);
+                return stored.getId();
+            }
+        });
+    }
+
+    /**
+     * Sostituisce i tag dello snippet con quelli gia' presenti nel database,
+     * creando quelli che mancano.
      */
-    public void insertNewSnippet(Snippet newSnippet) {
-        entityManager.persist(newSnippet);
+    private static void manageTags(EntityManager manager, Snippet snippet) {
+        List<Tag> tags = new ArrayList<Tag>(snippet.getTags().size());
+        for (Tag tag : snippet.getTags()) {
+            Tag managed = manager.find(Tag.class, tag.getName());
+            if (managed == null) {
+                manager.persist(tag);
+                managed = tag;
+            }
+            tags.add(managed);
+        }
+        snippet.setTags(tags);
     }
 
-    public void updateSnippet(Snippet oldSnippet, Snippet newSnippet) {
-        if(!oldSnippet.equals(newSnippet)) {
-            //test whether tags collection are disjoint most likely has the same
-            //runtime as two for loops
-            for(Tag oldTag : oldSnippet.getTags()) {
-                if(!newSnippet.getTags().contains(oldTag)) {
-                    oldSnippet.getTags().remove(oldTag);
+    /**
+     * Carica lo snippet del database corrispondente a quello indicato,
+     * cercandolo per id e, se l'id non e' presente, per nome.
+     *
+     * @return lo snippet, <code>null</code> se non e' presente nel database
+     */
+    private static Snippet findManaged(EntityManager manager, Snippet snippet) {
+        Snippet managed = manager.find(Snippet.class, snippet.getId());
+        if (managed == null && snippet.getName() != null) {
+            CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+            CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
+            Root<Snippet> root = query.from(Snippet.class);
+            query.select(root).where(criteriaBuilder.equal(root.get(Snippet_.name), snippet.getName()));
+            List<Snippet> resultList = manager.createQuery(query).setMaxResults(1).getResultList();
+            managed = resultList.isEmpty() ? null : resultList.get(0);
+        }
+        return managed;
+    }
+
+    /** Carica i tag degli snippet, che vengono restituiti <i>detached</i>. */
+    private static List<Snippet> loadTags(List<Snippet> snippets) {
+        for (Snippet snippet : snippets) {
+            snippet.getTags().size();
+        }
+        return snippets;
+    }
+
+    /**
+     * Inserisce o aggiorna un gruppo di snippet in un'unica transazione: gli
+     * snippet il cui id e' gia' presente nel database vengono aggiornati, gli
+     * altri inseriti. Gli snippet nuovi, con id negativo, ricevono un id
+     * libero all'interno della transazione e vengono ignorati se nel
+     * frattempo e' stato salvato uno snippet con lo stesso nome. I tag gia'
+     * presenti nel database vengono riusati, gli altri vengono creati. Tutti
+     * gli snippet ricevono la stessa generazione.
+     *
+     * Il metodo usa un proprio {@link EntityManager} e puo' quindi essere
+     * chiamato da un thread diverso da quello dell'interfaccia grafica.
+     *
+     * @param snippets Gli snippet da salvare.
+     * @return il numero di snippet salvati
+     * @throws javax.persistence.PersistenceException se il salvataggio
+     *         fallisce: in questo caso nessuno snippet del gruppo viene salvato
+     */
+    public int storeSnippets(final List<Snippet> snippets) {
+        return write(new StampedWork<Integer>() {
+            @Override
+            public Integer run(EntityManager manager, long generation) {
+                int count = 0;
+                for (Snippet snippet : snippets) {
+                    if (snippet.getId() < 0) {
+                        if (findManaged(manager, snippet) != null) {
+                            continue;
+                        }
+                        snippet = withId(snippet, allocateSnippetId(manager));
+                    }
+
+                    manageTags(manager, snippet);
+                    stamp(snippet, generation);
+                    removeTombstone(manager, snippet.getName());
+
+                    Snippet stored = manager.find(Snippet.class, snippet.getId());
+                    if (stored == null) {
+                        manager.persist(snippet);
+                        storeCode(manager, snippet, false);
+                    } else {
+                        boolean wasLarge = stored.isLarge();
+                        manager.merge(snippet);
+                        storeCode(manager, snippet, wasLarge);
+                    }
+                    count++;
+                }
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Attende che le importazioni in corso siano terminate e riserva il
+     * database per un'importazione: l'elenco degli snippet letto da
+     * un'importazione resta cosi' valido fino alla sua fine. Ogni chiamata
+     * va seguita da {@link #endImport()}, in un blocco <code>finally</code>.
+     *
+     * @throws InterruptedException se il thread viene interrotto durante
+     *         l'attesa
+     */
+    public void beginImport() throws InterruptedException {
+        importLock.lockInterruptibly();
+    }
+
+    /** Termina un'importazione iniziata con {@link #beginImport()}. */
+    public void endImport() {
+        importLock.unlock();
+    }
+
+    /**
+     * Restituisce un id libero per uno snippet nuovo. Gli id vengono presi da
+     * un unico contatore, letto dal database al primo utilizzo, cosi' due
+     * transazioni contemporanee non usano mai lo stesso id. Va chiamato
+     * all'interno della transazione che inserisce lo snippet.
+     */
+    private int allocateSnippetId(EntityManager manager) {
+        synchronized (snippetIdLock) {
+            if (nextSnippetId < 0) {
+                nextSnippetId = maxSnippetId(manager) + 1;
+            }
+            return nextSnippetId++;
+        }
+    }
+
+    private static int maxSnippetId(EntityManager manager) {
+        CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+        CriteriaQuery<Integer> query = criteriaBuilder.createQuery(Integer.class);
+        Root<Snippet> snippet = query.from(Snippet.class);
+        query.select(criteriaBuilder.max(snippet.get(Snippet_.id)));
+        Integer max = manager.createQuery(query).getSingleResult();
+        return max == null ? -1 : max;
+    }
+
+    /** Restituisce una copia di <code>snippet</code> con l'id indicato. */
+    private static Snippet withId(Snippet snippet, int id) {
+        return new Snippet(id, snippet.getCategory(), snippet.getName(), snippet.getTags(), snippet.getCode(),
+                snippet.getComment(), snippet.getSyntax(), snippet.isLocked());
+    }
+
+    /**
+     * Cancella gli snippet indicati in un'unica transazione, lasciando per
+     * ognuno un {@link Tombstone}. Puo' essere chiamato da qualsiasi thread.
+     *
+     * @param names I nomi degli snippet da cancellare; i nomi che non
+     *        corrispondono a nessuno snippet vengono ignorati.
+     * @return il numero di snippet cancellati
+     */
+    public int deleteSnippets(final Collection<String> names) {
+        return write(new StampedWork<Integer>() {
+            @Override
+            public Integer run(EntityManager manager, long generation) {
+                int deleted = 0;
+                for (String name : names) {
+                    CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                    CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
+                    Root<Snippet> snippet = query.from(Snippet.class);
+                    query.select(snippet).where(criteriaBuilder.equal(snippet.get(Snippet_.name), name));
+                    for (Snippet result : manager.createQuery(query).getResultList()) {
+                        manager.merge(createTombstone(result, generation));
+                        if (result.isLarge()) {
+                            deleteCode(manager, result.getId());
+                        }
+                        manager.remove(result);
+                        deleted++;
+                    }
+                }
+                return deleted;
+            }
+        });
+    }
+
+    /**
+     * Restituisce nome, id e impronta del contenuto di tutti gli snippet,
+     * indicizzati per nome. Gli snippet salvati prima dell'introduzione delle
+     * impronte ricevono qui la loro impronta. Puo' essere chiamato da
+     * qualsiasi thread.
+     *
+     * @return gli snippet indicizzati per nome
+     */
+    public Map<String, SnippetDigest> getContentIndex() {
+        return getContentIndex(-1);
+    }
+
+    /**
+     * Restituisce nome, id e impronta del contenuto degli snippet modificati
+     * dopo la generazione indicata, indicizzati per nome. Puo' essere
+     * chiamato da qualsiasi thread.
+     *
+     * @param sinceGeneration La generazione di partenza (esclusa),
+     *        <code>-1</code> per tutti gli snippet.
+     * @return gli snippet indicizzati per nome
+     * @see #getContentIndex()
+     */
+    public Map<String, SnippetDigest> getContentIndex(final long sinceGeneration) {
+        backfillContentHashes();
+
+        return read(new Work<Map<String, SnippetDigest>>() {
+            @Override
+            public Map<String, SnippetDigest> run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<Object[]> query = criteriaBuilder.createQuery(Object[].class);
+                Root<Snippet> snippet = query.from(Snippet.class);
+                query.multiselect(snippet.get(Snippet_.id), snippet.get(Snippet_.name), snippet.get(Snippet_.contentHash));
+                if (sinceGeneration >= 0) {
+                    query.where(criteriaBuilder.gt(snippet.get(Snippet_.generation), sinceGeneration));
+                }
+
+                Map<String, SnippetDigest> index = new HashMap<String, SnippetDigest>();
+                for (Object[] row : manager.createQuery(query).getResultList()) {
+                    SnippetDigest digest = new SnippetDigest((Integer) row[0], (String) row[1], (String) row[2]);
+                    index.put(digest.getName(), digest);
                 }
+                return index;
             }
-            for(Tag newTag : newSnippet.getTags()) {
-                if(!oldSnippet.getTags().contains(newTag)) {
-                    oldSnippet.getTags().add(newTag);
+        });
+    }
+
+    /** Il numero massimo di id in una sola clausola IN. */
+    private static final int IN_CLAUSE_SIZE = 500;
+
+    /**
+     * Carica gli snippet con gli id indicati, ad esempio quelli che
+     * {@link #getContentIndex()} segnala come modificati, completi del loro
+     * codice anche se e' salvato a pezzi. Puo' essere chiamato da qualsiasi
+     * thread; gli snippet restituiti sono <i>detached</i>.
+     *
+     * @param ids Gli id degli snippet.
+     * @return gli snippet trovati, in ordine qualsiasi
+     */
+    public List<Snippet> getSnippets(Collection<Integer> ids) {
+        final List<Integer> remaining = new ArrayList<Integer>(ids);
+
+        return read(new Work<List<Snippet>>() {
+            @Override
+            public List<Snippet> run(EntityManager manager) {
+                List<Snippet> snippets = new ArrayList<Snippet>(remaining.size());
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                for (int from = 0; from < remaining.size(); from += IN_CLAUSE_SIZE) {
+                    List<Integer> chunk = remaining.subList(from, Math.min(remaining.size(), from + IN_CLAUSE_SIZE));
+                    CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
+                    Root<Snippet> snippet = query.from(Snippet.class);
+                    query.select(snippet).where(snippet.get(Snippet_.id).in(chunk));
+                    // tag e codice vanno caricati prima di chiudere l'EntityManager
+                    for (Snippet result : loadTags(manager.createQuery(query).getResultList())) {
+                        loadCode(manager, result);
+                        snippets.add(result);
+                    }
+                    manager.clear();
                 }
+                return snippets;
             }
+        });
+    }
+
+    /** Calcola l'impronta degli snippet che non ne hanno ancora una. */
+    private void backfillContentHashes() {
+        if (contentHashesComplete) {
+            return;
         }
-        entityManager.merge(oldSnippet);
+
+        int computed = write(new StampedWork<Integer>() {
+            @Override
+            public Integer run(EntityManager manager, long generation) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
+                Root<Snippet> snippet = query.from(Snippet.class);
+                query.select(snippet).where(criteriaBuilder.isNull(snippet.get(Snippet_.contentHash)));
+                List<Snippet> resultList = manager.createQuery(query).getResultList();
+                if (resultList.isEmpty()) {
+                    return 0;
+                }
+
+                for (Snippet result : resultList) {
+                    stamp(result, generation);
+                }
+                return resultList.size();
+            }
+        });
+
+        // gli snippet salvati da qui in poi ricevono subito l'impronta
+        contentHashesComplete = true;
+        if (computed > 0) {
+            logger.debug("content hashes computed for {} snippets", computed);
+        }
+    }
+
+    /**
+     * Restituisce le cancellazioni avvenute dopo la generazione indicata.
+     * Puo' essere chiamato da qualsiasi thread.
+     *
+     * @param sinceGeneration La generazione di partenza (esclusa).
+     * @return le cancellazioni successive a <code>sinceGeneration</code>
+     */
+    public List<Tombstone> getTombstones(final long sinceGeneration) {
+        return read(new Work<List<Tombstone>>() {
+            @Override
+            public List<Tombstone> run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<Tombstone> query = criteriaBuilder.createQuery(Tombstone.class);
+                Root<Tombstone> tombstone = query.from(Tombstone.class);
+                query.select(tombstone).where(criteriaBuilder.gt(tombstone.get(Tombstone_.generation), sinceGeneration))
+                        .orderBy(criteriaBuilder.asc(tombstone.get(Tombstone_.name)));
+                return manager.createQuery(query).getResultList();
+            }
+        });
+    }
+
+    /**
+     * Conta le cancellazioni registrate. Puo' essere chiamato da qualsiasi
+     * thread.
+     *
+     * @return il numero di {@link Tombstone}
+     */
+    public int countTombstones() {
+        return read(new Work<Integer>() {
+            @Override
+            public Integer run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+                query.select(criteriaBuilder.count(query.from(Tombstone.class)));
+                return manager.createQuery(query).getSingleResult().intValue();
+            }
+        });
+    }
+
+    /**
+     * Cancella le cancellazioni fino alla generazione indicata: servono solo
+     * alle esportazioni delle modifiche successive a una generazione
+     * precedente, quindi possono essere eliminate quando tutte le copie del
+     * database hanno importato quella generazione.
+     *
+     * @param generation L'ultima generazione da eliminare.
+     * @return il numero di {@link Tombstone} eliminati
+     */
+    public int purgeTombstones(final long generation) {
+        return write(new Work<Integer>() {
+            @Override
+            public Integer run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaDelete<Tombstone> delete = criteriaBuilder.createCriteriaDelete(Tombstone.class);
+                Root<Tombstone> tombstone = delete.from(Tombstone.class);
+                delete.where(criteriaBuilder.le(tombstone.get(Tombstone_.generation), generation));
+                return manager.createQuery(delete).executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Restituisce al file system lo spazio lasciato libero dalle righe
+     * cancellate, ricostruendo le tabelle del database: Derby non lo fa da
+     * solo, quindi dopo grandi cancellazioni il database resta della stessa
+     * dimensione.
+     *
+     * @return il numero di tabelle compattate
+     */
+    public int compact() {
+        return write(new Work<Integer>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Integer run(EntityManager manager) {
+                List<Object[]> tables = manager.createNativeQuery("SELECT s.SCHEMANAME, t.TABLENAME FROM SYS.SYSTABLES t, SYS.SYSSCHEMAS s "
+                        + "WHERE t.SCHEMAID = s.SCHEMAID AND t.TABLETYPE = 'T' AND s.SCHEMANAME = CURRENT SCHEMA").getResultList();
+                for (Object[] table : tables) {
+                    logger.debug(String.format("compressing %s.%s", table[0], table[1]));
+                    manager.createNativeQuery("CALL SYSCS_UTIL.SYSCS_COMPRESS_TABLE(?, ?, 1)").setParameter(1, table[0])
+                            .setParameter(2, table[1]).executeUpdate();
+                }
+                return tables.size();
+            }
+        });
+    }
+
+    /**
+     * Restituisce la generazione corrente, cioe' quella dell'ultima modifica
+     * salvata. Ogni modifica al database crea una nuova generazione:
+     * {@link PackageManager#exportChanges(File, long)} esporta le modifiche
+     * successive a una generazione.
+     * <p>
+     * Le transazioni possono concludersi in un ordine diverso da quello delle
+     * loro generazioni: finche' una transazione e' in corso la generazione
+     * corrente resta quella che la precede, cosi' un'esportazione successiva
+     * a quella corrente non salta le modifiche ancora da salvare.
+     *
+     * @return la generazione corrente, <code>0</code> se il database non e'
+     *         mai stato modificato
+     */
+    public long getCurrentGeneration() {
+        synchronized (generation) {
+            if (generation.get() < 0) {
+                generation.set(read(new Work<Long>() {
+                    @Override
+                    public Long run(EntityManager manager) {
+                        return Math.max(maxGeneration(manager, Snippet.class, Snippet_.generation),
+                                maxGeneration(manager, Tombstone.class, Tombstone_.generation));
+                    }
+                }));
+            }
+            return pendingGenerations.isEmpty() ? generation.get() : pendingGenerations.first() - 1;
+        }
+    }
+
+    /** Assegna una nuova generazione, in sospeso fino a {@link #releaseGeneration(long)}. */
+    private long nextGeneration() {
+        synchronized (generation) {
+            getCurrentGeneration();
+            long next = generation.incrementAndGet();
+            pendingGenerations.add(next);
+            return next;
+        }
+    }
+
+    private void releaseGeneration(long stamp) {
+        synchronized (generation) {
+            pendingGenerations.remove(stamp);
+        }
+    }
+
+    private static <T> long maxGeneration(EntityManager queryManager, Class<T> entity, SingularAttribute<T, Long> attribute) {
+        CriteriaBuilder criteriaBuilder = queryManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<T> root = query.from(entity);
+        query.select(criteriaBuilder.max(root.get(attribute)));
+        Long max = queryManager.createQuery(query).getSingleResult();
+        return max == null ? 0 : max;
+    }
+
+    /** Aggiorna impronta e generazione di uno snippet che sta per essere salvato. */
+    private static void stamp(Snippet snippet, long generation) {
+        snippet.setContentHash(ContentHash.of(snippet));
+        snippet.setGeneration(generation);
+    }
+
+    private static Tombstone createTombstone(Snippet snippet, long generation) {
+        String contentHash = snippet.getContentHash() != null ? snippet.getContentHash() : ContentHash.of(snippet);
+        return new Tombstone(snippet.getName(), snippet.getCategory(), contentHash, generation);
+    }
+
+    /**
+     * Salva i pezzi del codice di uno snippet piu' lungo di
+     * {@link ApplicationConstants#CODE_LENGTH}, sostituendo quelli salvati in
+     * precedenza. Se il codice non e' stato caricato i pezzi gia' salvati
+     * restano validi e non vengono toccati.
+     *
+     * @param wasLarge <code>true</code> se il codice salvato finora era
+     *        diviso in pezzi
+     */
+    private static void storeCode(EntityManager manager, Snippet snippet, boolean wasLarge) {
+        if (!snippet.isCodeLoaded()) {
+            return;
+        }
+        if (wasLarge) {
+            deleteCode(manager, snippet.getId());
+        }
+        if (snippet.isLarge()) {
+            for (CodeChunk chunk : CodeChunk.split(snippet.getId(), snippet.getCode())) {
+                manager.persist(chunk);
+            }
+        }
+    }
+
+    /** Cancella i pezzi del codice di uno snippet. */
+    private static void deleteCode(EntityManager manager, int snippetId) {
+        CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+        CriteriaDelete<CodeChunk> delete = criteriaBuilder.createCriteriaDelete(CodeChunk.class);
+        Root<CodeChunk> chunk = delete.from(CodeChunk.class);
+        delete.where(criteriaBuilder.equal(chunk.get(CodeChunk_.snippetId), snippetId));
+        manager.createQuery(delete).executeUpdate();
+    }
+
+    /**
+     * Legge i pezzi del codice di uno snippet e ne carica il codice completo.
+     * Non fa nulla se lo snippet non e' salvato a pezzi o se il codice e' gia'
+     * stato caricato.
+     */
+    static void loadCode(EntityManager manager, Snippet snippet) {
+        if (snippet.isCodeLoaded()) {
+            return;
+        }
+
+        CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<CodeChunk> chunk = query.from(CodeChunk.class);
+        query.select(chunk.get(CodeChunk_.text)).where(criteriaBuilder.equal(chunk.get(CodeChunk_.snippetId), snippet.getId()))
+                .orderBy(criteriaBuilder.asc(chunk.get(CodeChunk_.position)));
+        StringBuilder code = new StringBuilder(snippet.getCodeLength());
+        for (String text : manager.createQuery(query).getResultList()) {
+            code.append(text);
+        }
+        if (code.length() != snippet.getCodeLength()) {
+            logger.warn("the stored code of snippet {} is incomplete: {} of {} characters", new Object[] { snippet.getName(), code.length(),
+                    snippet.getCodeLength() });
+        }
+        snippet.setCode(code.toString());
+    }
+
+    /** Uno snippet creato con il nome di uno cancellato ne annulla la cancellazione. */
+    private static void removeTombstone(EntityManager manager, String name) {
+        if (name == null) {
+            return;
+        }
+        Tombstone tombstone = manager.find(Tombstone.class, name);
+        if (tombstone != null) {
+            manager.remove(tombstone);
+        }
+    }
+
+    /**
+     * Restituisce l'id piu' alto usato finora. Come
+     * {@link #storeSnippets(List)} puo' essere chiamato da qualsiasi
+     * thread.
+     *
+     * @return l'id piu' alto, <code>-1</code> se il database e' vuoto
+     */
+    public int getMaxSnippetId() {
+        return read(new Work<Integer>() {
+            @Override
+            public Integer run(EntityManager manager) {
+                return maxSnippetId(manager);
+            }
+        });
+    }
+
+    /**
+     * Salva nel database il contenuto di <code>newSnippet</code> al posto di
+     * quello di <code>oldSnippet</code>.
+     *
+     * @param oldSnippet Lo snippet letto dal database.
+     * @param newSnippet Lo snippet modificato.
+     * @throws IllegalArgumentException se <code>oldSnippet</code> non e'
+     *         presente nel database
+     */
+    public void updateSnippet(final Snippet oldSnippet, final Snippet newSnippet) {
+        write(new StampedWork<Void>() {
+            @Override
+            public Void run(EntityManager manager, long generation) {
+                Snippet managed = findManaged(manager, oldSnippet);
+                if (managed == null) {
+                    throw new IllegalArgumentException(String.format("snippet '%s' not found", oldSnippet.getName()));
+                }
+
+                if (managed != newSnippet) {
+                    boolean wasLarge = managed.isLarge();
+                    manageTags(manager, newSnippet);
+                    managed.setCategory(newSnippet.getCategory());
+                    managed.setName(newSnippet.getName());
+                    managed.setTags(newSnippet.getTags());
+                    // il codice non caricato di uno snippet salvato a pezzi
+                    // resta quello gia' salvato
+                    managed.copyCode(newSnippet);
+                    storeCode(manager, managed, wasLarge);
+                    managed.setComment(newSnippet.getComment());
+                    managed.setSyntax(newSnippet.getSyntax());
+                    managed.setLocked(newSnippet.isLocked());
+                }
+                removeTombstone(manager, managed.getName());
+                stamp(managed, generation);
+                return null;
+            }
+        });
     }
 
     /**
@@ -219,13 +1102,7 @@ public class DBMS {
      * @return an <code>ArrayList</code> of all snippet of category
      */
     public List<Snippet> getSnippetsNames(String category) {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-        Root<Snippet> snippet = query.from(Snippet.class);
-        query.select(snippet).where(criteriaBuilder.equal(snippet.get(Snippet_.category), category));
-        TypedQuery<Snippet> q = entityManager.createQuery(query);
-        List<Snippet> resultList = q.getResultList();
-        return resultList;
+        return getSnippets(category);
     }
 
     /**
@@ -244,25 +1121,165 @@ public class DBMS {
         return snippets;
     }
 
-    public Snippet getSnippet(String name) {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-        Root<Snippet> snippetQuery = query.from(Snippet.class);
-        query.select(snippetQuery).where(criteriaBuilder.equal(snippetQuery.get(Snippet_.name), name));
-        TypedQuery<Snippet> q = entityManager.createQuery(query);
-        List<Snippet> resultList = q.getResultList();
-        if(resultList.isEmpty()) {
-            return null;
+    /**
+     * Apre un cursore che scorre gli snippet una pagina alla volta, senza
+     * caricarli tutti in memoria. Il cursore va chiuso al termine.
+     *
+     * @param category La categoria degli snippet, <code>null</code> per
+     *        scorrerli tutti.
+     * @param pageSize Il numero di snippet caricati per ogni pagina.
+     * @return il cursore
+     */
+    public SnippetCursor openCursor(String category, int pageSize) {
+        return openCursor(category, -1, pageSize);
+    }
+
+    /**
+     * Apre un cursore che scorre gli snippet modificati dopo la generazione
+     * indicata.
+     *
+     * @param category La categoria degli snippet, <code>null</code> per
+     *        scorrerli tutti.
+     * @param sinceGeneration La generazione di partenza (esclusa),
+     *        <code>-1</code> per scorrere tutti gli snippet.
+     * @param pageSize Il numero di snippet caricati per ogni pagina.
+     * @return il cursore
+     */
+    public SnippetCursor openCursor(String category, long sinceGeneration, int pageSize) {
+        return new SnippetCursor(createReadManager(), category, sinceGeneration, pageSize);
+    }
+
+    /**
+     * Restituisce lo snippet con il nome indicato, completo dei suoi tag.
+     *
+     * @param name Il nome dello snippet.
+     * @return lo snippet <i>detached</i>, <code>null</code> se non esiste
+     */
+    public Snippet getSnippet(final String name) {
+        return read(new Work<Snippet>() {
+            @Override
+            public Snippet run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
+                Root<Snippet> snippetQuery = query.from(Snippet.class);
+                query.select(snippetQuery).where(criteriaBuilder.equal(snippetQuery.get(Snippet_.name), name));
+                List<Snippet> resultList = loadTags(manager.createQuery(query).setMaxResults(1).getResultList());
+                if(resultList.isEmpty()) {
+                    return null;
+                }
+                Snippet snippet = resultList.get(0);
+                return snippet;
+            }
+        });
+    }
+
+    /**
+     * Carica gli snippet con i nomi indicati. Puo' essere chiamato da
+     * qualsiasi thread; gli snippet restituiti sono <i>detached</i>.
+     *
+     * @param names I nomi degli snippet.
+     * @return gli snippet trovati, in ordine qualsiasi
+     */
+    public List<Snippet> getSnippetsNamed(Collection<String> names) {
+        final List<String> remaining = new ArrayList<String>(names);
+
+        return read(new Work<List<Snippet>>() {
+            @Override
+            public List<Snippet> run(EntityManager manager) {
+                List<Snippet> snippets = new ArrayList<Snippet>(remaining.size());
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                for (int from = 0; from < remaining.size(); from += IN_CLAUSE_SIZE) {
+                    List<String> chunk = remaining.subList(from, Math.min(remaining.size(), from + IN_CLAUSE_SIZE));
+                    CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
+                    Root<Snippet> snippet = query.from(Snippet.class);
+                    query.select(snippet).where(snippet.get(Snippet_.name).in(chunk));
+                    snippets.addAll(loadTags(manager.createQuery(query).getResultList()));
+                    manager.clear();
+                }
+                return snippets;
+            }
+        });
+    }
+
+    /**
+     * Restituisce il numero di righe di ogni pezzo del codice di uno snippet
+     * salvato a pezzi, senza leggerne il testo. Puo' essere chiamato da
+     * qualsiasi thread.
+     *
+     * @param snippetId L'id dello snippet.
+     * @return il numero di righe dei pezzi, in ordine; vuoto se lo snippet
+     *         non e' salvato a pezzi
+     */
+    public int[] getCodeChunkLines(final int snippetId) {
+        List<Integer> lines = read(new Work<List<Integer>>() {
+            @Override
+            public List<Integer> run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<Integer> query = criteriaBuilder.createQuery(Integer.class);
+                Root<CodeChunk> chunk = query.from(CodeChunk.class);
+                query.select(chunk.get(CodeChunk_.lineCount)).where(criteriaBuilder.equal(chunk.get(CodeChunk_.snippetId), snippetId))
+                        .orderBy(criteriaBuilder.asc(chunk.get(CodeChunk_.position)));
+                return manager.createQuery(query).getResultList();
+            }
+        });
+
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = lines.get(i);
         }
-        Snippet snippet = resultList.get(0);
-        return snippet;
+        return result;
+    }
+
+    /**
+     * Legge un pezzo del codice di uno snippet salvato a pezzi. Puo' essere
+     * chiamato da qualsiasi thread.
+     *
+     * @param snippetId L'id dello snippet.
+     * @param position La posizione del pezzo, a partire da 0.
+     * @return il testo del pezzo, <code>null</code> se non esiste
+     */
+    public String getCodeChunk(final int snippetId, final int position) {
+        return read(new Work<String>() {
+            @Override
+            public String run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+                Root<CodeChunk> chunk = query.from(CodeChunk.class);
+                query.select(chunk.get(CodeChunk_.text)).where(criteriaBuilder.equal(chunk.get(CodeChunk_.snippetId), snippetId),
+                        criteriaBuilder.equal(chunk.get(CodeChunk_.position), position));
+                List<String> resultList = manager.createQuery(query).getResultList();
+                return resultList.isEmpty() ? null : resultList.get(0);
+            }
+        });
+    }
+
+    /**
+     * Carica il codice completo di uno snippet salvato a pezzi, ad esempio
+     * prima di modificarlo. Puo' essere chiamato da qualsiasi thread.
+     *
+     * @param snippet Lo snippet, letto dal database.
+     * @return il codice completo dello snippet
+     */
+    public String getFullCode(final Snippet snippet) {
+        if (snippet.isCodeLoaded()) {
+            return snippet.getCode();
+        }
+
+        return read(new Work<String>() {
+            @Override
+            public String run(EntityManager manager) {
+                Snippet copy = new Snippet(snippet);
+                loadCode(manager, copy);
+                return copy.getCode();
+            }
+        });
     }
 
     @Override
     protected void finalize() throws Throwable {
-        entityManager.flush();
-        entityManager.close();
-        entityManagerFactory.close();
+        if (entityManagerFactory != null && entityManagerFactory.isOpen()) {
+            entityManagerFactory.close();
+        }
         super.finalize(); //To change body of generated methods, choose Tools | Templates.
     }
 
@@ -272,16 +1289,67 @@ public class DBMS {
      *
      * @param category La categoria di cui restituire gli snippet.
      * @return un {@link ArrayList} contentente tutti gli {@link Snippet} che
-     *         appartengono alla categoria indicata
+     *         appartengono alla categoria indicata, <i>detached</i> e completi
+     *         dei loro tag
+     */
+    public List<Snippet> getSnippets(final String category) {
+        return read(new Work<List<Snippet>>() {
+            @Override
+            public List<Snippet> run(EntityManager manager) {
+                return loadTags(findByCategory(manager, category));
+            }
+        });
+    }
+
+    /**
+     * Legge i nomi degli snippet di alcune categorie in ordine alfabetico, senza
+     * caricare gli snippet. Serve per popolare il SourceList una pagina alla
+     * volta: ogni pagina parte dall'ultimo nome della precedente.
+     *
+     * @param categories Le categorie, che per l'interfaccia sono una sola se
+     *        differiscono solo per maiuscole e minuscole.
+     * @param after Il nome da cui partire (escluso), <code>null</code> per
+     *        partire dal primo.
+     * @param upTo L'ultimo nome da leggere (incluso), <code>null</code> per
+     *        non porre limiti.
+     * @param max Il numero massimo di nomi, <code>0</code> per non porre
+     *        limiti.
+     * @return i nomi degli snippet
      */
-    public List<Snippet> getSnippets(String category) {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    public List<String> getSnippetNames(final Collection<String> categories, final String after, final String upTo, final int max) {
+        return read(new Work<List<String>>() {
+            @Override
+            public List<String> run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+                Root<Snippet> snippet = query.from(Snippet.class);
+                List<Predicate> predicates = new ArrayList<Predicate>();
+                predicates.add(snippet.get(Snippet_.category).in(categories));
+                if (after != null) {
+                    predicates.add(criteriaBuilder.greaterThan(snippet.get(Snippet_.name), after));
+                }
+                if (upTo != null) {
+                    predicates.add(criteriaBuilder.lessThanOrEqualTo(snippet.get(Snippet_.name), upTo));
+                }
+                query.select(snippet.get(Snippet_.name)).where(predicates.toArray(new Predicate[predicates.size()]))
+                        .orderBy(criteriaBuilder.asc(snippet.get(Snippet_.name)));
+
+                TypedQuery<String> q = manager.createQuery(query);
+                if (max > 0) {
+                    q.setMaxResults(max);
+                }
+                return q.getResultList();
+            }
+        });
+    }
+
+    private static List<Snippet> findByCategory(EntityManager manager, String category) {
+        CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
         CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
         Root<Snippet> snippet = query.from(Snippet.class);
-        query.select(query.from(Snippet.class)).where(criteriaBuilder.equal(snippet.get(Snippet_.category), category));
-        TypedQuery<Snippet> q = entityManager.createQuery(query);
-        List<Snippet> resultList = q.getResultList();
-        return resultList;
+        query.select(snippet).where(criteriaBuilder.equal(snippet.get(Snippet_.category), category));
+        TypedQuery<Snippet> q = manager.createQuery(query);
+        return q.getResultList();
     }
 
     /**
@@ -290,50 +1358,74 @@ public class DBMS {
      * @param name Il nome (primary key) dello snippet da eliminare.
      */
     public void removeSnippet(Snippet snippet) {
-        entityManager.remove(snippet);
+        removeSnippets(Arrays.asList(snippet));
     }
 
     /**
-     * Elimina dal database gli snippet indicati.
+     * Elimina dal database gli snippet indicati in un'unica transazione.
      *
      * @param snippets I nomi degli snippet da rimuovere.
      */
-    public void removeSnippets(List<Snippet> snippets) {
-        for (Snippet snippet : snippets) {
-            removeSnippet(snippet);
-        }
+    public void removeSnippets(final List<Snippet> snippets) {
+        write(new StampedWork<Void>() {
+            @Override
+            public Void run(EntityManager manager, long generation) {
+                for (Snippet snippet : snippets) {
+                    Snippet managed = findManaged(manager, snippet);
+                    if (managed != null) {
+                        manager.merge(createTombstone(managed, generation));
+                        if (managed.isLarge()) {
+                            deleteCode(manager, managed.getId());
+                        }
+                        manager.remove(managed);
+                    }
+                }
+                return null;
+            }
+        });
     }
 
-    public void renameCategory(String oldName, String newName) {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-        Root<Snippet> snippet = query.from(Snippet.class);
-        query.select(query.from(Snippet.class)).where(criteriaBuilder.equal(snippet.get(Snippet_.category), oldName));
-        TypedQuery<Snippet> q = entityManager.createQuery(query);
-        List<Snippet> resultList = q.getResultList();
-
-        for(Snippet result : resultList) {
-            result.setCategory(newName);
-        }
+    public void renameCategory(final String oldName, final String newName) {
+        write(new StampedWork<Void>() {
+            @Override
+            public Void run(EntityManager manager, long generation) {
+                for(Snippet result : findByCategory(manager, oldName)) {
+                    result.setCategory(newName);
+                    stamp(result, generation);
+                }
+                return null;
+            }
+        });
     }
 
-    public void renameCategoryOf(Set<Snippet> snippets, String category) {
-        for(Snippet snippet : snippets) {
-            snippet.setCategory(category);
-        }
+    public void renameCategoryOf(final Set<Snippet> snippets, final String category) {
+        write(new StampedWork<Void>() {
+            @Override
+            public Void run(EntityManager manager, long generation) {
+                for(Snippet snippet : snippets) {
+                    snippet.setCategory(category);
+                    Snippet managed = findManaged(manager, snippet);
+                    if (managed != null) {
+                        managed.setCategory(category);
+                        stamp(managed, generation);
+                    }
+                }
+                return null;
+            }
+        });
     }
 
-    public void removeCategory(String name) {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-        Root<Snippet> snippet = query.from(Snippet.class);
-        query.select(query.from(Snippet.class)).where(criteriaBuilder.equal(snippet.get(Snippet_.category), name));
-        TypedQuery<Snippet> q = entityManager.createQuery(query);
-        List<Snippet> resultList = q.getResultList();
-
-        for(Snippet result : resultList) {
-            result.setCategory(null);
-        }
+    public void removeCategory(final String name) {
+        write(new StampedWork<Void>() {
+            @Override
+            public Void run(EntityManager manager, long generation) {
+                for(Snippet result : findByCategory(manager, name)) {
+                    result.setCategory(null);
+                    stamp(result, generation);
+                }
+                return null;
+            }
+        });
     }
 
     // /**
@@ -388,13 +1480,30 @@ public class DBMS {
     // }
 
     public int countSnippets() {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-        Root<Snippet> snippet = query.from(Snippet.class);
-        query.select(query.from(Snippet.class));
-        TypedQuery<Snippet> q = entityManager.createQuery(query);
-        List<Snippet> resultList = q.getResultList();
-        return resultList.size();
+        return countSnippets(null);
+    }
+
+    /**
+     * Conta gli snippet di una categoria.
+     *
+     * @param category La categoria, <code>null</code> per contare tutti gli
+     *        snippet.
+     * @return il numero di snippet della categoria
+     */
+    public int countSnippets(final String category) {
+        return read(new Work<Integer>() {
+            @Override
+            public Integer run(EntityManager manager) {
+                CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+                CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+                Root<Snippet> snippet = query.from(Snippet.class);
+                query.select(criteriaBuilder.count(snippet));
+                if (category != null) {
+                    query.where(criteriaBuilder.equal(snippet.get(Snippet_.category), category));
+                }
+                return manager.createQuery(query).getSingleResult().intValue();
+            }
+        });
     }
 
     public int countCategories() {
@@ -411,12 +1520,7 @@ public class DBMS {
      *         trovati
      */
     public List<Tag> getTags(String category) {
-        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-        Root<Snippet> snippet = query.from(Snippet.class);
-        query.select(query.from(Snippet.class)).where(criteriaBuilder.equal(snippet.get(Snippet_.category), category));
-        TypedQuery<Snippet> q = entityManager.createQuery(query);
-        List<Snippet> resultList = q.getResultList();
+        List<Snippet> resultList = getSnippets(category);
 
         List<Tag> retValue = new LinkedList<Tag>();
         for(Snippet result : resultList) {
@@ -443,143 +1547,298 @@ public class DBMS {
      * @param locked <code>true</code> per bloccare lo snippet,
      *        <code>false</code> per sbloccarlo.
      */
-    public void lockSnippet(Snippet snippet, boolean locked) {
-        snippet.setLocked(true);
+    public void lockSnippet(final Snippet snippet, final boolean locked) {
+        snippet.setLocked(locked);
+        write(new Work<Void>() {
+            @Override
+            public Void run(EntityManager manager) {
+                Snippet managed = findManaged(manager, snippet);
+                if (managed != null) {
+                    managed.setLocked(locked);
+                }
+                return null;
+            }
+        });
     }
 
-    public void setSyntaxToCategory(Syntax syntax, String category, Snippet selectedSnippet) {
-        Set<Snippet> snippets = new HashSet<Snippet>(getSnippetsNames(category));
-        snippets.remove(selectedSnippet);
-        setSyntaxToSnippets(syntax, snippets);
+    public void setSyntaxToCategory(final Syntax syntax, final String category, final Snippet selectedSnippet) {
+        write(new StampedWork<Void>() {
+            @Override
+            public Void run(EntityManager manager, long generation) {
+                for (Snippet result : findByCategory(manager, category)) {
+                    // lo snippet selezionato riceve lo stile quando viene salvato
+                    if (selectedSnippet != null && result.getId() == selectedSnippet.getId()) {
+                        continue;
+                    }
+                    result.setSyntax(syntax);
+                    stamp(result, generation);
+                }
+                return null;
+            }
+        });
     }
 
-    public void setSyntaxToSnippets(Syntax syntax, Set<Snippet> snippets) {
-        for(Snippet snippet : snippets) {
-            snippet.setSyntax(syntax);
-        }
+    public void setSyntaxToSnippets(final Syntax syntax, final Set<Snippet> snippets) {
+        write(new StampedWork<Void>() {
+            @Override
+            public Void run(EntityManager manager, long generation) {
+                for(Snippet snippet : snippets) {
+                    snippet.setSyntax(syntax);
+                    Snippet managed = findManaged(manager, snippet);
+                    if (managed != null) {
+                        managed.setSyntax(syntax);
+                        stamp(managed, generation);
+                    }
+                }
+                return null;
+            }
+        });
     }
 
+    /** Numero di risultati consegnati per ogni blocco da una ricerca. */
+    public static final int SEARCH_BATCH_SIZE = 50;
+
     public TreeMap<String, TreeSet<Snippet>> search(String[] keywords, int search) {
-        if (!ApplicationSettings.getInstance().isSearchCaseSensitive()) {
+        // costruisco una mappa (categoria, elenco snippet) coi risultati
+        // della ricerca
+        final TreeMap<String, TreeSet<Snippet>> data = new TreeMap<String, TreeSet<Snippet>>();
+
+        search(keywords, SEARCH_BATCH_SIZE, new SearchResultsListener() {
+            @Override
+            public boolean resultsFound(List<Snippet> batch) {
+                for (Snippet snippet : batch) {
+                    String category = snippet.getCategory();
+                    TreeSet<Snippet> snippets = data.get(category);
+                    if (snippets == null) {
+                        snippets = new TreeSet<Snippet>(SearchResults.NAME_ORDER);
+                        data.put(category, snippets);
+                    }
+                    snippets.add(snippet);
+                }
+                return true;
+            }
+
+            @Override
+            public void searchCompleted(SearchMetrics metrics) {
+            }
+        });
+
+        return data;
+    }
+
+    /**
+     * Cerca gli snippet che contengono le parole chiave indicate e consegna i
+     * risultati a <code>listener</code> a blocchi di <code>batchSize</code>
+     * elementi, man mano che vengono trovati. Ogni campo abilitato nelle
+     * impostazioni di ricerca viene interrogato una pagina alla volta, cosi' il
+     * primo blocco arriva senza attendere il resto della ricerca.
+     *
+     * @param keywords Le parole chiave da cercare.
+     * @param batchSize Il numero massimo di snippet per blocco.
+     * @param listener Chi riceve i risultati.
+     * @return le statistiche della ricerca
+     */
+    public SearchMetrics search(final String[] keywords, final int batchSize, final SearchResultsListener listener) {
+        return read(new Work<SearchMetrics>() {
+            @Override
+            public SearchMetrics run(EntityManager manager) {
+                return search(manager, keywords, batchSize, listener);
+            }
+        });
+    }
+
+    private static SearchMetrics search(EntityManager manager, String[] keywords, int batchSize, SearchResultsListener listener) {
+        SearchMetrics metrics = new SearchMetrics();
+        ApplicationSettings settings = ApplicationSettings.getInstance();
+
+        if (!settings.isSearchCaseSensitive()) {
             for (int i = 0; i < keywords.length; i++) {
                 keywords[i] = keywords[i].toUpperCase();
             }
         }
 
-        List<Snippet> results = new LinkedList<Snippet>();
-        if (ApplicationSettings.getInstance().isSearchInCodeEnabled()) {
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-            Root<Snippet> snippet = query.from(Snippet.class);
-            query.select(query.from(Snippet.class));
-            List<Predicate> predicates = new LinkedList<Predicate>();
-            for(String keyword : keywords) {
-                Predicate predicate = criteriaBuilder.like(snippet.get(Snippet_.code), keyword);
-                predicates.add(predicate);
-            }
-            query.where(criteriaBuilder.or(predicates.toArray(new Predicate[predicates.size()])));
-            TypedQuery<Snippet> q = entityManager.createQuery(query);
-            List<Snippet> resultList = q.getResultList();
-            results.addAll(resultList);
-            search--;
-        }
-
-        // cerco all'interno dei nomi degli snippet
-        if (ApplicationSettings.getInstance().isSearchInNameEnabled()) {
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-            Root<Snippet> snippet = query.from(Snippet.class);
-            query.select(query.from(Snippet.class));
-            List<Predicate> predicates = new LinkedList<Predicate>();
-            for(String keyword : keywords) {
-                Predicate predicate = criteriaBuilder.like(snippet.get(Snippet_.name), keyword);
-                predicates.add(predicate);
-            }
-            query.where(criteriaBuilder.or(predicates.toArray(new Predicate[predicates.size()])));
-            TypedQuery<Snippet> q = entityManager.createQuery(query);
-            List<Snippet> resultList = q.getResultList();
-            results.addAll(resultList);
-            search--;
-        }
-
-        // cerco tra i commenti
-        if (ApplicationSettings.getInstance().isSearchInCommentEnabled()) {
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-            Root<Snippet> snippet = query.from(Snippet.class);
-            query.select(query.from(Snippet.class));
-            List<Predicate> predicates = new LinkedList<Predicate>();
-            for(String keyword : keywords) {
-                Predicate predicate = criteriaBuilder.like(snippet.get(Snippet_.comment), keyword);
-                predicates.add(predicate);
-            }
-            query.where(criteriaBuilder.or(predicates.toArray(new Predicate[predicates.size()])));
-            TypedQuery<Snippet> q = entityManager.createQuery(query);
-            List<Snippet> resultList = q.getResultList();
-            results.addAll(resultList);
-            search--;
-        }
-
-        // cerco tra i tag
-        if (ApplicationSettings.getInstance().isSearchInTagsEnabled()) {
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
-            Root<Snippet> snippetQuery = query.from(Snippet.class);
-            Root<Tag> tagQuery = query.from(Tag.class);
-            query.select(query.from(Snippet.class));
-            List<Predicate> predicates = new LinkedList<Predicate>();
-            for(String keyword : keywords) {
-                Predicate predicate = criteriaBuilder.like(tagQuery.get(Tag_.name), keyword);
-                predicates.add(predicate);
-            }
-            query.where(criteriaBuilder.or(predicates.toArray(new Predicate[predicates.size()])), criteriaBuilder.and(criteriaBuilder.in(snippetQuery.get(Snippet_.tags))));
-            TypedQuery<Snippet> q = entityManager.createQuery(query);
-            List<Snippet> resultList = q.getResultList();
-            results.addAll(resultList);
-            search--;
+        // gli id degli snippet gia' consegnati: uno snippet puo' corrispondere
+        // a piu' campi ma deve essere segnalato una sola volta
+        Set<Integer> delivered = new HashSet<Integer>();
+
+        boolean proceed = true;
+        if (proceed && settings.isSearchInCodeEnabled()) {
+            proceed = searchField(manager, Snippet_.code, keywords, batchSize, delivered, listener, metrics);
+        }
+        if (proceed && settings.isSearchInNameEnabled()) {
+            proceed = searchField(manager, Snippet_.name, keywords, batchSize, delivered, listener, metrics);
+        }
+        if (proceed && settings.isSearchInCommentEnabled()) {
+            proceed = searchField(manager, Snippet_.comment, keywords, batchSize, delivered, listener, metrics);
+        }
+        if (proceed && settings.isSearchInTagsEnabled()) {
+            proceed = searchField(manager, null, keywords, batchSize, delivered, listener, metrics);
+        }
+
+        if (!proceed) {
+            metrics.cancel();
         }
 
-        TreeMap<String, TreeSet<Snippet>> data;
+        logger.debug(String.format("search %s: %s", Arrays.toString(keywords), metrics));
+        listener.searchCompleted(metrics);
+        return metrics;
+    }
+
+    /**
+     * Interroga un singolo campo degli snippet una pagina alla volta.
+     *
+     * @param field Il campo in cui cercare, <code>null</code> per cercare nei
+     *        nomi dei tag.
+     * @return <code>false</code> se il listener ha interrotto la ricerca
+     */
+    private static boolean searchField(EntityManager manager, SingularAttribute<Snippet, String> field, String[] keywords, int batchSize,
+            Set<Integer> delivered, SearchResultsListener listener, SearchMetrics metrics) {
+        CriteriaBuilder criteriaBuilder = manager.getCriteriaBuilder();
+        CriteriaQuery<Snippet> query = criteriaBuilder.createQuery(Snippet.class);
+        Root<Snippet> snippet = query.from(Snippet.class);
 
+        Expression<String> path;
+        if (field != null) {
+            path = snippet.get(field);
+        } else {
+            Join<Snippet, Tag> tags = snippet.join(Snippet_.tags);
+            path = tags.get(Tag_.name);
+            query.distinct(true);
+        }
+
+        // le parole chiave sono gia' maiuscole: confronto il campo in
+        // maiuscolo, altrimenti la ricerca non distingue solo il maiuscolo
         if (!ApplicationSettings.getInstance().isSearchCaseSensitive()) {
-            for (int i = 0; i < keywords.length; i++) {
-                keywords[i] = keywords[i].toUpperCase();
+            path = criteriaBuilder.upper(path);
+        }
+
+        List<Predicate> predicates = new LinkedList<Predicate>();
+        for (String keyword : keywords) {
+            predicates.add(criteriaBuilder.like(path, keyword));
+        }
+        query.select(snippet).where(criteriaBuilder.or(predicates.toArray(new Predicate[predicates.size()])));
+        query.orderBy(criteriaBuilder.asc(snippet.get(Snippet_.name)));
+
+        TypedQuery<Snippet> q = manager.createQuery(query);
+        q.setMaxResults(batchSize);
+
+        for (int first = 0;; first += batchSize) {
+            q.setFirstResult(first);
+            List<Snippet> page = q.getResultList();
+
+            List<Snippet> batch = new ArrayList<Snippet>(page.size());
+            for (Snippet s : page) {
+                if (delivered.add(s.getId())) {
+                    batch.add(s);
+                }
+            }
+            // i risultati vengono usati dopo la chiusura dell'EntityManager
+            loadTags(batch);
+            manager.clear();
+
+            if (!batch.isEmpty()) {
+                metrics.batchDelivered(batch.size());
+                if (!listener.resultsFound(batch)) {
+                    return false;
+                }
+            }
+
+            if (page.size() < batchSize) {
+                return true;
             }
         }
+    }
 
-        // costruisco una mappa (categoria, elenco snippet) coi risultati
-        // della ricerca
-        data = new TreeMap<String, TreeSet<Snippet>>();
+    /**
+     * Apre il database in un thread dedicato, se non e' gia' stato fatto. Le
+     * operazioni richieste nel frattempo attendono che il database sia
+     * pronto.
+     *
+     * @return un {@link CompletableFuture} completato quando il database e'
+     *         pronto, o con l'errore che ne ha impedito l'apertura
+     */
+    public CompletableFuture<Void> start() {
+        if (started.compareAndSet(false, true)) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        init();
+                        logger.debug("database ready in {} ms", (System.nanoTime() - start) / 1000000);
+                        ready.complete(null);
+                    } catch (Throwable ex) {
+                        ready.completeExceptionally(ex);
+                    }
+                }
+            }, "dbms-bootstrap");
+            thread.start();
+        }
+        return ready;
+    }
+
+    /**
+     * Restituisce l'{@link EntityManagerFactory}, attendendo se necessario
+     * che il database sia aperto.
+     */
+    private EntityManagerFactory getEntityManagerFactory() {
+        EntityManagerFactory factory = entityManagerFactory;
+        if (factory != null) {
+            return factory;
+        }
 
-        for(Snippet snippet : results) {
-            String category = snippet.getCategory();
-            TreeSet<Snippet> snippets = data.get(category);
-            if(snippets == null) {
-                snippets = new TreeSet<Snippet>();
-                data.put(category, snippets);
+        try {
+            start().join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
             }
-            snippets.add(snippet);
+            throw new ConnectionException(ex.getCause());
         }
-        return data;
+        return entityManagerFactory;
     }
 
     /** The instance of the dbms manager. */
     private static DBMS dbms = null;
 
     /**
-     * Initializes the dbms manager.
+     * Initializes the dbms manager. Il database viene aperto da
+     * {@link #start()}.
      */
-    private DBMS() throws ClassNotFoundException {
-        init();
+    private DBMS() {
+        // do nothing
     }
 
     /**
-     * Returns the istance of the dbms manager.
+     * Returns the istance of the dbms manager, once the database is open.
      *
      * @return the istance of the dbms manager
      */
     public static DBMS getInstance() throws ClassNotFoundException {
-        if(dbms == null) {
+        DBMS instance = getLazyInstance();
+        try {
+            instance.start().join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+        return instance;
+    }
+
+    /**
+     * Restituisce l'istanza del dbms manager senza aprire il database: va
+     * aperto con {@link #start()}, altrimenti viene aperto alla prima
+     * operazione.
+     *
+     * @return the istance of the dbms manager
+     */
+    public static synchronized DBMS getLazyInstance() {
+        if (dbms == null) {
             dbms = new DBMS();
         }
         return dbms;
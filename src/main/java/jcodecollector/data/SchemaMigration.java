@@ -0,0 +1,142 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.data;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import jcodecollector.util.ApplicationConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggiorna lo schema di un database creato da una versione precedente.
+ * Hibernate (<code>hbm2ddl.auto=update</code>) aggiunge tabelle e colonne
+ * nuove ma non modifica quelle esistenti, quindi prima di avviarlo vengono
+ * applicate le modifiche alla mappatura di {@link jcodecollector.common.bean.Snippet}:
+ * <ul>
+ * <li>le colonne <code>CODE</code> e <code>COMMENT</code> nascevano
+ * <code>VARCHAR(255)</code> e vengono allargate a
+ * {@link ApplicationConstants#CODE_LENGTH} e
+ * {@link ApplicationConstants#COMMENT_LENGTH} caratteri;</li>
+ * <li>i tag erano mappati <code>@OneToMany</code>, con un vincolo di unicita'
+ * sul tag nella tabella <code>SNIPPET_TAG</code> che impediva a due snippet di
+ * avere lo stesso tag: il vincolo viene eliminato. La mappatura
+ * <code>@ManyToMany</code> usa la stessa tabella con le stesse colonne, quindi
+ * le associazioni gia' salvate restano valide.</li>
+ * </ul>
+ * Ogni modifica controlla prima lo schema: su un database nuovo o gia'
+ * aggiornato non viene eseguito nulla.
+ */
+class SchemaMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigration.class);
+
+    private final Connection connection;
+
+    private SchemaMigration(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Aggiorna lo schema del database indicato.
+     *
+     * @param connectionURL L'URL del database.
+     * @param user L'utente, proprietario delle tabelle.
+     * @param password La password dell'utente.
+     * @throws SQLException se l'aggiornamento fallisce: in questo caso nessuna
+     *         modifica viene salvata
+     */
+    static void migrate(String connectionURL, String user, String password) throws SQLException {
+        Connection connection = DriverManager.getConnection(connectionURL, user, password);
+        try {
+            connection.setAutoCommit(false);
+            try {
+                new SchemaMigration(connection).run();
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void run() throws SQLException {
+        widenColumn("SNIPPET", "CODE", ApplicationConstants.CODE_LENGTH);
+        widenColumn("SNIPPET", "COMMENT", ApplicationConstants.COMMENT_LENGTH);
+        dropUniqueConstraints("SNIPPET_TAG");
+    }
+
+    /** Allarga una colonna <code>VARCHAR</code> se e' piu' corta di <code>length</code>. */
+    private void widenColumn(String table, String column, int length) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        ResultSet columns = metaData.getColumns(null, schema(), table, column);
+        try {
+            if (!columns.next() || columns.getInt("COLUMN_SIZE") >= length) {
+                return;
+            }
+            logger.info("widening {}.{} from {} to {} characters", table, column, columns.getInt("COLUMN_SIZE"), length);
+        } finally {
+            columns.close();
+        }
+
+        execute(String.format("ALTER TABLE %s ALTER COLUMN %s SET DATA TYPE VARCHAR(%d)", table, column, length));
+    }
+
+    /** Elimina i vincoli di unicita' di una tabella. */
+    private void dropUniqueConstraints(String table) throws SQLException {
+        List<String> constraints = new ArrayList<String>();
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery(String.format(
+                    "SELECT c.CONSTRAINTNAME FROM SYS.SYSCONSTRAINTS c"
+                            + " JOIN SYS.SYSTABLES t ON c.TABLEID = t.TABLEID"
+                            + " JOIN SYS.SYSSCHEMAS s ON t.SCHEMAID = s.SCHEMAID"
+                            + " WHERE c.TYPE = 'U' AND t.TABLENAME = '%s' AND s.SCHEMANAME = '%s'",
+                    table, schema()));
+            while (resultSet.next()) {
+                constraints.add(resultSet.getString(1));
+            }
+        } finally {
+            statement.close();
+        }
+
+        for (String constraint : constraints) {
+            logger.info("dropping unique constraint {} on {}", constraint, table);
+            execute(String.format("ALTER TABLE %s DROP CONSTRAINT %s", table, constraint));
+        }
+    }
+
+    private String schema() throws SQLException {
+        return connection.getMetaData().getUserName().toUpperCase();
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.executeUpdate(sql);
+        } finally {
+            statement.close();
+        }
+    }
+}
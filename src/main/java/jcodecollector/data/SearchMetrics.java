@@ -0,0 +1,95 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of a streamed search: how long it took for the first and for the
+ * last batch of results to be delivered, and how many results were found.
+ */
+public class SearchMetrics {
+
+    /** Istante (in nanosecondi) in cui e' iniziata la ricerca. */
+    private final long startTime;
+
+    private long firstResultTime = -1;
+    private long lastResultTime = -1;
+    private int resultCount;
+    private int batchCount;
+    private boolean cancelled;
+
+    public SearchMetrics() {
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Registers the delivery of a batch of results.
+     *
+     * @param count The number of snippets in the batch.
+     */
+    void batchDelivered(int count) {
+        long now = System.nanoTime();
+        if (firstResultTime < 0) {
+            firstResultTime = now;
+        }
+        lastResultTime = now;
+        resultCount += count;
+        batchCount++;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the milliseconds elapsed between the start of the search and the
+     * delivery of the first batch.
+     *
+     * @return the time to first result, <code>-1</code> if nothing was found
+     */
+    public long getTimeToFirstResult() {
+        return firstResultTime < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstResultTime - startTime);
+    }
+
+    /**
+     * Returns the milliseconds elapsed between the start of the search and the
+     * delivery of the last batch.
+     *
+     * @return the time to last result, <code>-1</code> if nothing was found
+     */
+    public long getTimeToLastResult() {
+        return lastResultTime < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(lastResultTime - startTime);
+    }
+
+    public int getResultCount() {
+        return resultCount;
+    }
+
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d results in %d batches, first after %d ms, last after %d ms%s", resultCount, batchCount,
+                getTimeToFirstResult(), getTimeToLastResult(), cancelled ? " (cancelled)" : "");
+    }
+}
@@ -16,10 +16,13 @@
 package jcodecollector.data;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import jcodecollector.Loader;
 
 import jcodecollector.common.bean.Snippet;
@@ -27,6 +30,14 @@ import jcodecollector.common.bean.Syntax;
 
 public class SearchResults {
 
+    /** Ordina gli snippet dei risultati per nome. */
+    public static final Comparator<Snippet> NAME_ORDER = new Comparator<Snippet>() {
+        @Override
+        public int compare(Snippet o1, Snippet o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    };
+
     /** La mappa ordinata che contiene gli snippet suddivisi per categoria. */
     private TreeMap<String, TreeSet<Snippet>> data = null;
 
@@ -61,20 +72,21 @@ public class SearchResults {
      * categoria indicata trovati con l'ultima ricerca.
      *
      * @param category La categoria degli snippet da cancellare.
+     * @return il future della cancellazione dal database
      */
-    public void removeCategory(String category) {
+    public CompletableFuture<Void> removeCategory(String category) {
         if (!data.containsKey(category)) {
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         ArrayList<Snippet> array = getSnippets(category);
-        Loader.DBMS_INSTANCE.removeSnippets(array);
         data.remove(category);
+        return Loader.ASYNC_DBMS.removeSnippets(array);
     }
 
-    public void renameCategory(String oldName, String newName) {
+    public CompletableFuture<Void> renameCategory(String oldName, String newName) {
         if (!data.containsKey(oldName)) {
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         // ottengo gli snippet della vecchia categoria
@@ -94,35 +106,56 @@ public class SearchResults {
             data.put(newName, newValue);
         }
 
-        // fatto questo posso chiedere al dbms di effettuare l'aggiornamento
-        Loader.DBMS_INSTANCE.renameCategoryOf(
-                data.get(newName), newName);
+        // fatto questo posso chiedere al dbms di effettuare l'aggiornamento,
+        // su una copia perche' i risultati cambiano sull'EDT
+        TreeSet<Snippet> snippets = new TreeSet<Snippet>(NAME_ORDER);
+        snippets.addAll(data.get(newName));
+        return Loader.ASYNC_DBMS.renameCategoryOf(snippets, newName);
     }
 
-    public void removeSnippet(Snippet name) {
+    public CompletableFuture<Void> removeSnippet(Snippet name) {
+        CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
         Iterator<String> iterator = data.keySet().iterator();
         while (iterator.hasNext()) {
             String key = iterator.next();
             TreeSet<Snippet> value = data.get(key);
             if (value.contains(name)) {
                 value.remove(name);
-                Loader.DBMS_INSTANCE.removeSnippet(name);
+                result = Loader.ASYNC_DBMS.removeSnippet(name);
             }
         }
+        return result;
     }
 
-    public void updateSnippet(Snippet oldSnippet, Snippet newSnippet) {
+    public CompletableFuture<Void> updateSnippet(Snippet oldSnippet, Snippet newSnippet) {
         data.get(oldSnippet.getCategory()).remove(oldSnippet);
 
         if (data.containsKey(newSnippet.getCategory())) {
             data.get(newSnippet.getCategory()).add(newSnippet);
         } else {
-            TreeSet<Snippet> value = new TreeSet<Snippet>();
+            TreeSet<Snippet> value = new TreeSet<Snippet>(NAME_ORDER);
             value.add(newSnippet);
             data.put(newSnippet.getCategory(), value);
         }
 
-        Loader.DBMS_INSTANCE.updateSnippet(oldSnippet, newSnippet);
+        return Loader.ASYNC_DBMS.updateSnippet(oldSnippet, newSnippet);
+    }
+
+    /**
+     * Aggiunge ai risultati un blocco di snippet trovati da una ricerca in
+     * corso.
+     *
+     * @param snippets Gli snippet da aggiungere.
+     */
+    public void addSnippets(List<Snippet> snippets) {
+        for (Snippet snippet : snippets) {
+            TreeSet<Snippet> value = data.get(snippet.getCategory());
+            if (value == null) {
+                value = new TreeSet<Snippet>(NAME_ORDER);
+                data.put(snippet.getCategory(), value);
+            }
+            value.add(snippet);
+        }
     }
 
     public void setData(TreeMap<String, TreeSet<Snippet>> data) {
@@ -151,14 +184,17 @@ public class SearchResults {
         data.clear();
     }
 
-    public void setSyntax(Syntax newSyntax, String category, Snippet selected) {
+    public CompletableFuture<Void> setSyntax(Syntax newSyntax, String category, Snippet selected) {
         if (!data.containsKey(category)) {
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
-        Set<Snippet> snippets = data.get(category);
-        snippets.remove(selected);
+        Set<Snippet> snippets = new TreeSet<Snippet>(NAME_ORDER);
+        snippets.addAll(data.get(category));
+        if (selected != null) {
+            snippets.remove(selected);
+        }
 
-        Loader.DBMS_INSTANCE.setSyntaxToSnippets(newSyntax, snippets);
+        return Loader.ASYNC_DBMS.setSyntaxToSnippets(newSyntax, snippets);
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Tag;
+
+/**
+ * Conserva gli ultimi snippet letti, in modo che scorrere una categoria con
+ * le frecce non richieda una lettura dal database per ogni snippet. La
+ * dimensione della cache e' limitata in byte, stimati dalla lunghezza dei
+ * testi, e quando viene superata si eliminano gli snippet usati meno di
+ * recente.
+ *
+ * <p>
+ * Il contenuto e' valido finche' il {@link DBMS#getModificationCount()
+ * numero di modifiche} del database non cambia: alla prima richiesta
+ * successiva a una modifica la cache viene svuotata. Gli snippet vengono
+ * copiati sia quando entrano sia quando escono, quindi chi li riceve puo'
+ * modificarli.
+ * </p>
+ */
+final class SnippetCache {
+
+    /** I byte stimati di uno snippet oltre ai suoi testi. */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private static final class Entry {
+        private final Snippet snippet;
+        private final long weight;
+
+        Entry(Snippet snippet, long weight) {
+            this.snippet = snippet;
+            this.weight = weight;
+        }
+    }
+
+    private final long capacity;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+    /** I byte stimati degli snippet in cache. */
+    private long size;
+
+    /** Il numero di modifiche del database a cui si riferisce il contenuto. */
+    private long modifications = -1;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity I byte che gli snippet in cache possono occupare.
+     */
+    SnippetCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param name Il nome dello snippet.
+     * @param modifications Il numero di modifiche attuale del database.
+     * @return una copia dello snippet, <code>null</code> se non e' in cache
+     */
+    synchronized Snippet get(String name, long modifications) {
+        validate(modifications);
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return copy(entry.snippet);
+    }
+
+    /**
+     * Come {@link #get(String, long)} ma non conta come utilizzo dello
+     * snippet.
+     */
+    synchronized boolean contains(String name, long modifications) {
+        validate(modifications);
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Aggiunge uno snippet letto dal database.
+     *
+     * @param snippet Lo snippet.
+     * @param modifications Il numero di modifiche del database prima e dopo la
+     *        lettura: se e' cambiato durante la lettura lo snippet potrebbe
+     *        essere gia' vecchio e non va aggiunto.
+     */
+    synchronized void put(Snippet snippet, long modifications) {
+        if (modifications < this.modifications) {
+            return;
+        }
+        validate(modifications);
+
+        long weight = weigh(snippet);
+        if (weight > capacity) {
+            return;
+        }
+
+        Entry previous = entries.put(snippet.getName(), new Entry(copy(snippet), weight));
+        if (previous != null) {
+            size -= previous.weight;
+        }
+        size += weight;
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > capacity && iterator.hasNext()) {
+            size -= iterator.next().getValue().weight;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private void validate(long modifications) {
+        if (modifications != this.modifications) {
+            entries.clear();
+            size = 0;
+            this.modifications = modifications;
+        }
+    }
+
+    private static Snippet copy(Snippet snippet) {
+        Snippet copy = new Snippet(snippet);
+        if (snippet.getTags() != null) {
+            // il costruttore di copia condivide la lista dei tag
+            copy.setTags(snippet.getTags());
+        }
+        return copy;
+    }
+
+    private static long weigh(Snippet snippet) {
+        long chars = length(snippet.getName()) + length(snippet.getCategory()) + length(snippet.getCode())
+                + length(snippet.getComment());
+        if (snippet.getTags() != null) {
+            for (Tag tag : snippet.getTags()) {
+                chars += length(tag.getName());
+            }
+        }
+        return ENTRY_OVERHEAD + 2 * chars;
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d snippets, %d/%d bytes, %d hits, %d misses, %d evictions", entries.size(), size, capacity, hits,
+                misses, evictions);
+    }
+}
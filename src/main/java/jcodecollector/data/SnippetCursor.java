@@ -0,0 +1,136 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.data;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Snippet_;
+
+/**
+ * Scorre gli snippet del database una pagina alla volta. Il cursore usa un
+ * proprio {@link EntityManager}, che viene svuotato prima di caricare ogni
+ * pagina: la memoria occupata dipende quindi solo dalla dimensione della
+ * pagina e non da quella del database. Gli snippet restituiti sono
+ * <i>detached</i>, completi del codice anche se e' salvato a pezzi, e vanno
+ * usati in sola lettura.
+ */
+public class SnippetCursor implements Iterator<Snippet>, Closeable {
+
+    private final EntityManager entityManager;
+    private final TypedQuery<Snippet> query;
+    private final int pageSize;
+
+    private Iterator<Snippet> page = Collections.<Snippet>emptyList().iterator();
+
+    /** La posizione del primo snippet della prossima pagina. */
+    private int position;
+
+    private boolean lastPage;
+
+    /**
+     * @param entityManager L'{@link EntityManager} usato solo da questo
+     *        cursore, viene chiuso da {@link #close()}.
+     * @param category La categoria da scorrere, <code>null</code> per tutti
+     *        gli snippet.
+     * @param sinceGeneration Se non negativo vengono scorsi solo gli snippet
+     *        modificati dopo questa generazione.
+     * @param pageSize Il numero di snippet caricati per ogni pagina.
+     */
+    SnippetCursor(EntityManager entityManager, String category, long sinceGeneration, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+
+        this.entityManager = entityManager;
+        this.pageSize = pageSize;
+
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Snippet> criteriaQuery = criteriaBuilder.createQuery(Snippet.class);
+        Root<Snippet> snippet = criteriaQuery.from(Snippet.class);
+        criteriaQuery.select(snippet);
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        if (category != null) {
+            predicates.add(criteriaBuilder.equal(snippet.get(Snippet_.category), category));
+        }
+        if (sinceGeneration >= 0) {
+            predicates.add(criteriaBuilder.gt(snippet.get(Snippet_.generation), sinceGeneration));
+        }
+        criteriaQuery.where(predicates.toArray(new Predicate[predicates.size()]));
+        criteriaQuery.orderBy(criteriaBuilder.asc(snippet.get(Snippet_.category)), criteriaBuilder.asc(snippet.get(Snippet_.name)));
+        this.query = entityManager.createQuery(criteriaQuery);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && !lastPage) {
+            fetchNextPage();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public Snippet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void fetchNextPage() {
+        // libero la pagina precedente
+        entityManager.clear();
+
+        query.setFirstResult(position);
+        query.setMaxResults(pageSize);
+        List<Snippet> snippets = query.getResultList();
+
+        // tag e codice vanno caricati prima che la pagina venga staccata dal
+        // contesto
+        for (Snippet snippet : snippets) {
+            snippet.getTags().size();
+            DBMS.loadCode(entityManager, snippet);
+        }
+
+        position += snippets.size();
+        lastPage = snippets.size() < pageSize;
+        page = snippets.iterator();
+    }
+
+    @Override
+    public void close() {
+        if (entityManager.isOpen()) {
+            entityManager.close();
+        }
+    }
+}
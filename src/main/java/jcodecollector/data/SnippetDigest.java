@@ -0,0 +1,47 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.data;
+
+/**
+ * Id, nome e impronta del contenuto di uno snippet: quanto basta per sapere,
+ * senza caricarlo, se uno snippet importato e' gia' presente nel database.
+ *
+ * @see DBMS#getContentIndex()
+ */
+public class SnippetDigest {
+
+    private final int id;
+    private final String name;
+    private final String contentHash;
+
+    public SnippetDigest(int id, String name, String contentHash) {
+        this.id = id;
+        this.name = name;
+        this.contentHash = contentHash;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+}
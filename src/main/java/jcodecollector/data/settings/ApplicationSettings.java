@@ -20,14 +20,22 @@ import java.awt.Point;
 import java.io.File;
 
 import javax.swing.filechooser.FileSystemView;
-import jcodecollector.common.bean.Snippet;
 
 import jcodecollector.util.OS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Le impostazioni dell'applicazione. La classe non carica classi AWT o Swing
+ * finche' non vengono lette o impostate le dimensioni della finestra, quindi
+ * puo' essere usata anche dalla riga di comando.
+ */
 public class ApplicationSettings {
 
-	/** Lo snippet selezionato. */
-	private Snippet selectedSnippet;
+	private static final Logger logger = LoggerFactory.getLogger(ApplicationSettings.class);
+
+	/** Il nome dello snippet selezionato. */
+	private String selectedSnippetName;
 
 	/** The dimension of main window. */
 	private Dimension windowSize = null;
@@ -41,11 +49,17 @@ public class ApplicationSettings {
 	/** The width of editor split panel. */
 	private Integer editorWidth = null;
 
-	/** The default dimension of main window. */
-	public static final Dimension DEFAULT_WINDOW_SIZE = new Dimension(750, 580);
+	/** The default width of main window. */
+	public static final int DEFAULT_WINDOW_WIDTH = 750;
+
+	/** The default height of main window. */
+	public static final int DEFAULT_WINDOW_HEIGHT = 580;
 
-	/** The default location of main window. */
-	public static final Point DEFAULT_WINDOW_LOCATION = new Point(100, 50);
+	/** The default horizontal location of main window. */
+	public static final int DEFAULT_WINDOW_X = 100;
+
+	/** The default vertical location of main window. */
+	public static final int DEFAULT_WINDOW_Y = 50;
 
 	/** The default width of source list. */
 	public static final int DEFAULT_SOURCE_LIST_WIDTH = 250;
@@ -59,6 +73,12 @@ public class ApplicationSettings {
 	/** The path of preferences file. */
 	private String preferencesPath;
 
+	/** La cartella dei pacchetti da importare automaticamente, <code>null</code> se disattivata. */
+	private String dropFolderPath;
+
+	/** L'ultima cartella in cui sono stati copiati gli snippet, <code>null</code> se non ce n'e' una. */
+	private String mirrorFolderPath;
+
 	private boolean searchInNameEnabled = true;
 	private boolean searchInTagsEnabled = true;
 	private boolean searchInCodeEnabled = true;
@@ -71,6 +91,9 @@ public class ApplicationSettings {
 	/** Il nome del database */
 	public static final String DB_DIR_NAME = "JCODECOLLECTOR_DB";
 
+	/** Il file, accanto al database, con le impronte dei pacchetti importati dalla drop folder. */
+	public static final String DROP_FOLDER_HISTORY_NAME = "imported-packages.txt";
+
 	/** Default path of database. */
 	public static final String DATABASE_PATH_DEFAULT;
 
@@ -81,7 +104,8 @@ public class ApplicationSettings {
 	private static final ApplicationSettings settings = new ApplicationSettings();
 
 	static {
-		String userDirectory = FileSystemView.getFileSystemView().getDefaultDirectory().getAbsolutePath();
+		// su Mac OS X la cartella predefinita di FileSystemView e' la home
+		String userDirectory = System.getProperty("user.home");
 		if (OS.isMacOSX()) {
 			DATABASE_PATH_DEFAULT = userDirectory + "/Library/Application Support/";
 			PREFERENCES_PATH_DEFAULT = userDirectory + "/Library/Preferences/com.alessandro.jcodecollector";
@@ -90,28 +114,29 @@ public class ApplicationSettings {
 			PREFERENCES_PATH_DEFAULT = "jCodeCollector"+File.separator+"settings.dat";
 		}
 
-		System.out.println("DEFAULT DATABASE PATH = " + DATABASE_PATH_DEFAULT);
-		System.out.println("DEFAULT PREFERENCES PATH = " + PREFERENCES_PATH_DEFAULT);
-		System.out.println("CURRENT DATABASE PATH = " + settings.getDatabasePath());
+		logger.debug("DEFAULT DATABASE PATH = " + DATABASE_PATH_DEFAULT);
+		logger.debug("DEFAULT PREFERENCES PATH = " + PREFERENCES_PATH_DEFAULT);
+		logger.debug("CURRENT DATABASE PATH = " + settings.getDatabasePath());
 	}
 
 	private ApplicationSettings() {
-		selectedSnippet = null;
-		windowSize = new Dimension(DEFAULT_WINDOW_SIZE);
-		windowLocation = new Point(DEFAULT_WINDOW_LOCATION);
+		selectedSnippetName = null;
 		sourceListWidth = new Integer(DEFAULT_SOURCE_LIST_WIDTH);
 		editorWidth = new Integer(DEFAULT_EDITOR_PANEL_WIDTH);
 	}
 
-	public Snippet getSelectedSnippet() {
-		return selectedSnippet;
+	public String getSelectedSnippetName() {
+		return selectedSnippetName;
 	}
 
-	public void setSelectedSnippet(Snippet selectedSnippet) {
-		this.selectedSnippet = selectedSnippet;
+	public void setSelectedSnippetName(String selectedSnippetName) {
+		this.selectedSnippetName = selectedSnippetName;
 	}
 
 	public Dimension getWindowSize() {
+		if (windowSize == null) {
+			windowSize = new Dimension(DEFAULT_WINDOW_WIDTH, DEFAULT_WINDOW_HEIGHT);
+		}
 		return windowSize;
 	}
 
@@ -120,6 +145,9 @@ public class ApplicationSettings {
 	}
 
 	public Point getWindowLocation() {
+		if (windowLocation == null) {
+			windowLocation = new Point(DEFAULT_WINDOW_X, DEFAULT_WINDOW_Y);
+		}
 		return windowLocation;
 	}
 
@@ -155,6 +183,22 @@ public class ApplicationSettings {
 		this.databasePath = databasePath;
 	}
 
+	public String getDropFolderPath() {
+		return dropFolderPath;
+	}
+
+	public void setDropFolderPath(String dropFolderPath) {
+		this.dropFolderPath = dropFolderPath;
+	}
+
+	public String getMirrorFolderPath() {
+		return mirrorFolderPath;
+	}
+
+	public void setMirrorFolderPath(String mirrorFolderPath) {
+		this.mirrorFolderPath = mirrorFolderPath;
+	}
+
 	public String getPreferencesPath() {
 		return preferencesPath;
 	}
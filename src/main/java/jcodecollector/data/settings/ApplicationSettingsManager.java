@@ -22,8 +22,6 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Properties;
-import jcodecollector.Loader;
-import jcodecollector.common.bean.Snippet;
 
 import jcodecollector.util.GeneralInfo;
 
@@ -33,50 +31,65 @@ public class ApplicationSettingsManager {
 		readApplicationSettings(new File(ApplicationSettings.PREFERENCES_PATH_DEFAULT));
 	}
 
-	public static void saveApplicationSettings() {
-		saveApplicationSettings(new File(ApplicationSettings.PREFERENCES_PATH_DEFAULT));
+	/**
+	 * Legge dalle preferenze solo la posizione del database, senza accedere
+	 * al database e senza caricare classi AWT: e' usato dalla riga di
+	 * comando.
+	 */
+	public static void readDatabaseSettings() {
+		Properties properties = loadProperties(new File(ApplicationSettings.PREFERENCES_PATH_DEFAULT));
+		ApplicationSettings.getInstance().setDatabasePath(properties.getProperty("database_path", ApplicationSettings.DATABASE_PATH_DEFAULT));
 	}
 
-	private static void readApplicationSettings(File file) {
+	private static Properties loadProperties(File file) {
 		Properties properties = new Properties();
-		ApplicationSettings settings = ApplicationSettings.getInstance();
-
 		try {
-			properties.load(new FileReader(file));
+			FileReader reader = new FileReader(file);
+			try {
+				properties.load(reader);
+			} finally {
+				reader.close();
+			}
 		} catch (IOException ex) {
 			System.err.println("error loading preferences - using default");
 		}
+		return properties;
+	}
+
+	public static void saveApplicationSettings() {
+		saveApplicationSettings(new File(ApplicationSettings.PREFERENCES_PATH_DEFAULT));
+	}
+
+	private static void readApplicationSettings(File file) {
+		Properties properties = loadProperties(file);
+		ApplicationSettings settings = ApplicationSettings.getInstance();
 
 		// recupero il path del database
 		settings.setDatabasePath(properties.getProperty("database_path", ApplicationSettings.DATABASE_PATH_DEFAULT));
 
-		// recupero lo snippet selezionato
-                String selectedSnippetName = properties.getProperty("selected_snippet", null);
-                if(selectedSnippetName != null) {
-                    Snippet selectedSnippet = Loader.DBMS_INSTANCE.getSnippet(selectedSnippetName);
-                    if (selectedSnippet != null) {
-                        settings.setSelectedSnippet(selectedSnippet);
-                    }
-                }
+		// recupero il nome dello snippet selezionato: lo snippet viene
+		// cercato quando il database e' pronto
+		String selectedSnippetName = properties.getProperty("selected_snippet", "");
+		settings.setSelectedSnippetName(selectedSnippetName.length() > 0 ? selectedSnippetName : null);
 
 		// recupero le dimensioni della finestra
-		String windowWidth = properties.getProperty("window_width", "" + ApplicationSettings.DEFAULT_WINDOW_SIZE.width);
-		String windowHeight = properties.getProperty("window_height", "" + ApplicationSettings.DEFAULT_WINDOW_SIZE.height);
+		String windowWidth = properties.getProperty("window_width", "" + ApplicationSettings.DEFAULT_WINDOW_WIDTH);
+		String windowHeight = properties.getProperty("window_height", "" + ApplicationSettings.DEFAULT_WINDOW_HEIGHT);
 
 		try {
 			settings.setWindowSize(new Dimension(Integer.parseInt(windowWidth), Integer.parseInt(windowHeight)));
 		} catch (NumberFormatException ex) {
-			settings.setWindowSize(ApplicationSettings.DEFAULT_WINDOW_SIZE);
+			settings.setWindowSize(new Dimension(ApplicationSettings.DEFAULT_WINDOW_WIDTH, ApplicationSettings.DEFAULT_WINDOW_HEIGHT));
 		}
 
 		// recupero la posizione della finestra
-		String windowX = properties.getProperty("window_x", "" + ApplicationSettings.DEFAULT_WINDOW_LOCATION.x);
-		String windowY = properties.getProperty("window_y", "" + ApplicationSettings.DEFAULT_WINDOW_LOCATION.x);
+		String windowX = properties.getProperty("window_x", "" + ApplicationSettings.DEFAULT_WINDOW_X);
+		String windowY = properties.getProperty("window_y", "" + ApplicationSettings.DEFAULT_WINDOW_Y);
 
 		try {
 			settings.setWindowLocation(new Point(Integer.parseInt(windowX), Integer.parseInt(windowY)));
 		} catch (NumberFormatException ex) {
-			settings.setWindowLocation(ApplicationSettings.DEFAULT_WINDOW_LOCATION);
+			settings.setWindowLocation(new Point(ApplicationSettings.DEFAULT_WINDOW_X, ApplicationSettings.DEFAULT_WINDOW_Y));
 		}
 
 		try {
@@ -102,6 +115,14 @@ public class ApplicationSettingsManager {
 		settings.setLineNumbersEnabled(Boolean.parseBoolean(properties.getProperty("show_line_numbers", "true")));
 		settings.setCommentPanelVisible(Boolean.parseBoolean(properties.getProperty("show_comment_panel", "true")));
 		settings.setAutoHideCommentEnabled(Boolean.parseBoolean(properties.getProperty("auto_hide_comment_panel", "false")));
+
+		// recupero la drop folder, se e' stata attivata
+		String dropFolder = properties.getProperty("drop_folder", "");
+		settings.setDropFolderPath(dropFolder.length() > 0 ? dropFolder : null);
+
+		// recupero l'ultima cartella in cui sono stati copiati gli snippet
+		String mirrorFolder = properties.getProperty("mirror_folder", "");
+		settings.setMirrorFolderPath(mirrorFolder.length() > 0 ? mirrorFolder : null);
 	}
 
 	private static void saveApplicationSettings(File file) {
@@ -109,7 +130,7 @@ public class ApplicationSettingsManager {
 		ApplicationSettings settings = ApplicationSettings.getInstance();
 
 		properties.put("database_path", settings.getDatabasePath());
-		properties.put("selected_snippet", settings.getSelectedSnippet() == null ? "null" : settings.getSelectedSnippet());
+		properties.put("selected_snippet", settings.getSelectedSnippetName() == null ? "" : settings.getSelectedSnippetName());
 		properties.put("window_width", new Integer(settings.getWindowSize().width).toString());
 		properties.put("window_height", new Integer(settings.getWindowSize().height).toString());
 		properties.put("window_x", new Integer(settings.getWindowLocation().x).toString());
@@ -125,6 +146,8 @@ public class ApplicationSettingsManager {
 		properties.put("show_line_numbers", new Boolean(settings.isLineNumbersEnabled()).toString());
 		properties.put("show_comment_panel", new Boolean(settings.isCommentPanelVisible()).toString());
 		properties.put("auto_hide_comment_panel", new Boolean(settings.isAutoHideCommentEnabled()).toString());
+		properties.put("drop_folder", settings.getDropFolderPath() == null ? "" : settings.getDropFolderPath());
+		properties.put("mirror_folder", settings.getMirrorFolderPath() == null ? "" : settings.getMirrorFolderPath());
 
 		try {
 			properties.store(new FileWriter(file), "jCodeCollector " + GeneralInfo.APPLICATION_VERSION);
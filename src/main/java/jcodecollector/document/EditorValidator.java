@@ -21,7 +21,10 @@ import javax.swing.JTextField;
 import javax.swing.JTextPane;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
 
 import jcodecollector.State;
 
@@ -29,6 +32,16 @@ import jcodecollector.State;
  * Validatore di componenti di testo come {@link JTextArea}, {@link JTextField},
  * {@link JTextPane}, {@link JEditorPane} ecc.
  *
+ * <p>
+ * Il validatore ricorda quali componenti contengono almeno un carattere
+ * diverso da uno spazio e, ad ogni modifica, ricontrolla solo il testo
+ * coinvolto senza copiarlo: inserire un carattere in un componente gia' pieno
+ * o cancellarlo da uno che resta pieno costa un tempo costante anche con
+ * documenti molto grandi. Le notifiche inviate a {@link State} vengono fuse
+ * dal suo bus degli eventi, quindi i listener ricevono un solo aggiornamento
+ * per ciclo dell'EDT.
+ * </p>
+ *
  * @author Alessandro Cocco
  */
 public class EditorValidator implements DocumentListener {
@@ -39,6 +52,21 @@ public class EditorValidator implements DocumentListener {
     /** Gli eventuali componenti opzionali. */
     private boolean[] optional;
 
+    /**
+     * Il documento di ogni componente quando e' stato controllato l'ultima
+     * volta: se il componente cambia documento va ricontrollato tutto.
+     */
+    private final Document[] documents;
+
+    /**
+     * <code>true</code> se il componente contiene almeno un carattere diverso
+     * da uno spazio.
+     */
+    private final boolean[] filled;
+
+    /** Il numero di componenti obbligatori vuoti. */
+    private int missing;
+
     /**
      * Se <code>true</code> indica che il validatore e' in funzione, se
      * <code>false</code> il validatore e' disattivato.
@@ -47,6 +75,9 @@ public class EditorValidator implements DocumentListener {
 
     private final State state = State.getInstance();
 
+    /** Usato per leggere il testo dei documenti senza copiarlo. */
+    private final Segment segment = new Segment();
+
     /**
      * Costruisce il validatore dei componenti indicati. Il secondo parametro
      * indica se ci sono componenti opzionali.
@@ -64,6 +95,15 @@ public class EditorValidator implements DocumentListener {
 
         this.components = components;
         this.optional = optional;
+        this.documents = new Document[components.length];
+        this.filled = new boolean[components.length];
+        this.segment.setPartialReturn(true);
+
+        for (int i = 0; i < components.length; i++) {
+            if (!optional[i]) {
+                missing++;
+            }
+        }
     }
 
     /** Attiva il validatore. */
@@ -76,6 +116,85 @@ public class EditorValidator implements DocumentListener {
         running = false;
     }
 
+    /**
+     * Indica se tutti i componenti obbligatori contengono almeno un carattere
+     * diverso da uno spazio.
+     *
+     * @return <code>true</code> se i componenti sono validi
+     */
+    public boolean isValid() {
+        for (int i = 0; i < components.length; i++) {
+            if (documents[i] != components[i].getDocument()) {
+                setFilled(i, containsText(components[i].getDocument(), 0, components[i].getDocument().getLength()));
+            }
+        }
+        return missing == 0;
+    }
+
+    /**
+     * Aggiorna lo stato del componente a cui appartiene il documento
+     * modificato.
+     *
+     * @param event La modifica.
+     * @param inserted <code>true</code> se e' stato inserito del testo,
+     *        <code>false</code> se e' stato cancellato.
+     */
+    private void update(DocumentEvent event, boolean inserted) {
+        Document document = event.getDocument();
+        for (int i = 0; i < components.length; i++) {
+            if (components[i].getDocument() != document) {
+                continue;
+            }
+
+            if (documents[i] != document) {
+                // documento nuovo: va controllato tutto
+                setFilled(i, containsText(document, 0, document.getLength()));
+            } else if (inserted) {
+                // un componente pieno resta pieno, uno vuoto si riempie solo
+                // se il testo inserito non e' fatto di spazi
+                if (!filled[i]) {
+                    setFilled(i, containsText(document, event.getOffset(), event.getLength()));
+                }
+            } else if (filled[i]) {
+                // il controllo si ferma al primo carattere che non e' uno spazio
+                setFilled(i, containsText(document, 0, document.getLength()));
+            }
+        }
+    }
+
+    private void setFilled(int index, boolean value) {
+        if (!optional[index] && filled[index] != value) {
+            missing += value ? -1 : 1;
+        }
+        documents[index] = components[index].getDocument();
+        filled[index] = value;
+    }
+
+    /**
+     * Indica se nel testo indicato c'e' almeno un carattere diverso da uno
+     * spazio, leggendo il documento un pezzo alla volta.
+     */
+    private boolean containsText(Document document, int offset, int length) {
+        try {
+            int end = Math.min(offset + length, document.getLength());
+            while (offset < end) {
+                document.getText(offset, end - offset, segment);
+                for (char c = segment.first(); c != Segment.DONE; c = segment.next()) {
+                    // come String.trim(): sono spazi i caratteri fino a ' '
+                    if (c > ' ') {
+                        return true;
+                    }
+                }
+                offset += segment.count;
+            }
+        } catch (BadLocationException ex) {
+            // il documento e' cambiato durante la lettura: lo ricontrollo
+            // alla prossima modifica
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Valida i componenti di testo. Un componente di testo e' considerato
      * valido se contiene almeno un carattere, a meno che non sia opzionale.
@@ -88,16 +207,7 @@ public class EditorValidator implements DocumentListener {
             State.getInstance().updateWindowStatus(true);
         }
 
-        State.getInstance().updateSnippetStatus(state.getCurrentSnippet(), false, false, false);
-        boolean validated = true;
-        for (int i = 0; i < components.length; i++) {
-            if (optional[i]) {
-                continue;
-            }
-
-            validated &= components[i].getText().trim().length() > 0;
-        }
-        State.getInstance().updateSnippetStatus(state.getCurrentSnippet(), validated, false, false);
+        State.getInstance().updateSnippetStatus(state.getCurrentSnippet(), isValid(), false, false);
         State.getInstance().updateMenu(true, false);
     }
 
@@ -110,12 +220,14 @@ public class EditorValidator implements DocumentListener {
     /** @see DocumentListener#insertUpdate(DocumentEvent) */
     @Override
     public void insertUpdate(DocumentEvent e) {
+        update(e, true);
         validate();
     }
 
     /** @see DocumentListener#removeUpdate(DocumentEvent) */
     @Override
     public void removeUpdate(DocumentEvent e) {
+        update(e, false);
         validate();
     }
 
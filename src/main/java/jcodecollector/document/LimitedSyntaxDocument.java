@@ -15,6 +15,7 @@
  */
 package jcodecollector.document;
 
+import javax.swing.SwingUtilities;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 
@@ -22,6 +23,7 @@ import jcodecollector.State;
 
 import org.fife.ui.rsyntaxtextarea.RSyntaxDocument;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.fife.ui.rsyntaxtextarea.TokenMaker;
 
 /**
  * Implementazione di un {@link RSyntaxDocument} che aggiunge un limite al
@@ -34,6 +36,40 @@ public class LimitedSyntaxDocument extends RSyntaxDocument {
 	/** Numero massimo di caratteri inseribili nel documento. */
 	private int maxSize;
 
+	/**
+	 * Il pool da cui prendere i {@link TokenMaker}, <code>null</code> se il
+	 * documento li crea da se'.
+	 */
+	private TokenMakerPool tokenMakers;
+
+	/** Il {@link TokenMaker} preso da {@link #tokenMakers}. */
+	private TokenMaker tokenMaker;
+
+	/** La sintassi del documento. */
+	private String syntaxStyle;
+
+	/** Il numero di righe segnalato l'ultima volta all'editor. */
+	private int lineCount = 1;
+
+	/** <code>true</code> se il controllo del numero di righe e' gia' in coda. */
+	private boolean lineCountCheckPending;
+
+	/**
+	 * Confronta il numero di righe con quello segnalato l'ultima volta e, se
+	 * e' cambiato, chiede di aggiornare i numeri di riga.
+	 */
+	private final transient Runnable lineCountCheck = new Runnable() {
+		@Override
+		public void run() {
+			lineCountCheckPending = false;
+			int lines = getDefaultRootElement().getElementCount();
+			if (lines != lineCount) {
+				lineCount = lines;
+				State.getInstance().updateLineNumbers(true);
+			}
+		}
+	};
+
 	/**
 	 * Crea un {@link LimitedSyntaxDocument} usando <code>syntax</code> come
 	 * sintassi e che puo' contenere al massimo <code>maxSize</code> caratteri.
@@ -58,6 +94,64 @@ public class LimitedSyntaxDocument extends RSyntaxDocument {
 		this(SyntaxConstants.SYNTAX_STYLE_NONE, maxSize);
 	}
 
+	/**
+	 * Crea un {@link LimitedSyntaxDocument} che prende i {@link TokenMaker}
+	 * dal pool indicato.
+	 *
+	 * @param tokenMakers Il pool dei {@link TokenMaker}.
+	 * @param syntax La sintassi del documento.
+	 * @param maxSize Il massimo numero di caratteri che possono essere inseriti
+	 *        nel documento.
+	 * @see SyntaxDocumentCache
+	 */
+	LimitedSyntaxDocument(TokenMakerPool tokenMakers, String syntax, int maxSize) {
+		super(SyntaxConstants.SYNTAX_STYLE_NONE);
+		this.maxSize = maxSize;
+		this.tokenMakers = tokenMakers;
+		setSyntaxStyle(syntax);
+	}
+
+	/**
+	 * Imposta la sintassi del documento. Se il documento usa un
+	 * {@link TokenMakerPool} e la sintassi non cambia non fa niente.
+	 *
+	 * @see RSyntaxDocument#setSyntaxStyle(String)
+	 */
+	@Override
+	public void setSyntaxStyle(String style) {
+		if (tokenMakers == null) {
+			super.setSyntaxStyle(style);
+		} else if (tokenMaker == null || !style.equals(syntaxStyle)) {
+			TokenMaker previous = tokenMaker;
+			tokenMaker = tokenMakers.acquire(style);
+			super.setSyntaxStyle(tokenMaker);
+			if (previous != null) {
+				tokenMakers.release(syntaxStyle, previous);
+			}
+		}
+		syntaxStyle = style;
+	}
+
+	/**
+	 * Restituisce la sintassi del documento.
+	 *
+	 * @return la sintassi del documento
+	 */
+	public String getSyntaxStyle() {
+		return syntaxStyle;
+	}
+
+	/**
+	 * Restituisce il {@link TokenMaker} al pool da cui e' stato preso: il
+	 * documento non va piu' usato.
+	 */
+	void dispose() {
+		if (tokenMaker != null) {
+			tokenMakers.release(syntaxStyle, tokenMaker);
+			tokenMaker = null;
+		}
+	}
+
 	/**
 	 * @see javax.swing.text.PlainDocument#insertString(int, String,
 	 *      AttributeSet)
@@ -73,12 +167,32 @@ public class LimitedSyntaxDocument extends RSyntaxDocument {
 		}
 
 		super.insertString(offs, str, a);
+		lineCountChanged();
+	}
 
-		// workaround line numbers
-		if (str.contains("\n")) {
-			State.getInstance().updateLineNumbers(true);
+	/**
+	 * @see javax.swing.text.AbstractDocument#remove(int, int)
+	 */
+	@Override
+	public void remove(int offs, int len) throws BadLocationException {
+		super.remove(offs, len);
+		lineCountChanged();
+	}
+
+	/**
+	 * Se il numero di righe e' cambiato accoda un controllo sull'EDT: il
+	 * controllo viene eseguito una volta sola per tutte le modifiche dello
+	 * stesso ciclo dell'EDT e aggiorna i numeri di riga solo se alla fine il
+	 * numero di righe e' ancora diverso, quindi sostituire il testo con uno
+	 * di altrettante righe non li aggiorna affatto.
+	 */
+	private void lineCountChanged() {
+		if (lineCountCheckPending || getDefaultRootElement().getElementCount() == lineCount) {
+			return;
 		}
-		// end workaround line numbers
+
+		lineCountCheckPending = true;
+		SwingUtilities.invokeLater(lineCountCheck);
 	}
 
 	/** Serial Version UID. */
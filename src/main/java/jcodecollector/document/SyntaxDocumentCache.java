@@ -0,0 +1,141 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.document;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+
+/**
+ * Conserva i documenti degli ultimi snippet mostrati nell'editor, gia'
+ * colorati: tornando su uno di questi snippet l'editor riceve lo stesso
+ * documento e il testo non viene ne' reinserito ne' analizzato di nuovo. I
+ * documenti creati dalla cache condividono un {@link TokenMakerPool}, quindi
+ * anche il cambio di sintassi non crea nuovi {@link org.fife.ui.rsyntaxtextarea.TokenMaker}.
+ *
+ * <p>
+ * Un documento viene riutilizzato solo se contiene ancora il testo richiesto:
+ * se nel frattempo e' stato modificato senza salvare, il suo contenuto viene
+ * sostituito. Va usata solo dall'EDT.
+ * </p>
+ */
+public class SyntaxDocumentCache {
+
+    private final TokenMakerPool tokenMakers = new TokenMakerPool();
+    private final int maxSize;
+    private final int capacity;
+    private final LinkedHashMap<String, LimitedSyntaxDocument> documents = new LinkedHashMap<String, LimitedSyntaxDocument>(16, 0.75f, true);
+
+    /** Usato per confrontare il testo dei documenti senza copiarlo. */
+    private final Segment segment = new Segment();
+
+    private int hits;
+    private int misses;
+
+    /**
+     * @param maxSize Il numero massimo di caratteri di ogni documento.
+     * @param capacity Il numero di documenti da conservare.
+     */
+    public SyntaxDocumentCache(int maxSize, int capacity) {
+        this.maxSize = maxSize;
+        this.capacity = capacity;
+        this.segment.setPartialReturn(true);
+    }
+
+    /**
+     * Crea un documento vuoto che non fa parte della cache, ad esempio per un
+     * nuovo snippet.
+     *
+     * @param style La sintassi del documento.
+     * @return il nuovo documento
+     */
+    public LimitedSyntaxDocument create(String style) {
+        return new LimitedSyntaxDocument(tokenMakers, style, maxSize);
+    }
+
+    /**
+     * Restituisce il documento dello snippet indicato con il testo e la
+     * sintassi indicati, riutilizzando quello gia' in cache se possibile.
+     *
+     * @param key Il nome dello snippet.
+     * @param style La sintassi del documento.
+     * @param text Il testo del documento.
+     * @return il documento dello snippet
+     */
+    public LimitedSyntaxDocument get(String key, String style, String text) {
+        LimitedSyntaxDocument document = documents.get(key);
+        if (document == null) {
+            misses++;
+            document = create(style);
+            documents.put(key, document);
+            evict();
+        } else if (!contentEquals(document, text)) {
+            misses++;
+        } else {
+            hits++;
+            document.setSyntaxStyle(style);
+            return document;
+        }
+
+        // imposto la sintassi prima del testo, cosi' il testo viene
+        // analizzato una volta sola
+        document.setSyntaxStyle(style);
+        try {
+            document.replace(0, document.getLength(), text, null);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return document;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, LimitedSyntaxDocument>> iterator = documents.entrySet().iterator();
+        while (documents.size() > capacity && iterator.hasNext()) {
+            iterator.next().getValue().dispose();
+            iterator.remove();
+        }
+    }
+
+    private boolean contentEquals(LimitedSyntaxDocument document, String text) {
+        if (document.getLength() != text.length()) {
+            return false;
+        }
+
+        try {
+            int offset = 0;
+            while (offset < text.length()) {
+                document.getText(offset, text.length() - offset, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] != text.charAt(offset + i)) {
+                        return false;
+                    }
+                }
+                offset += segment.count;
+            }
+        } catch (BadLocationException ex) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d documents, %d hits, %d misses, %s", documents.size(), hits, misses, tokenMakers);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.document;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fife.ui.rsyntaxtextarea.TokenMaker;
+import org.fife.ui.rsyntaxtextarea.TokenMakerFactory;
+
+/**
+ * Conserva i {@link TokenMaker} dei documenti non piu' usati, divisi per
+ * sintassi, in modo che un nuovo documento possa riutilizzarli invece di
+ * crearne uno con la reflection. Va usato solo dall'EDT.
+ *
+ * @see SyntaxDocumentCache
+ */
+final class TokenMakerPool {
+
+    private final Map<String, Deque<TokenMaker>> idle = new HashMap<String, Deque<TokenMaker>>();
+
+    private int created;
+    private int reused;
+
+    /**
+     * @param style La sintassi, una delle costanti di
+     *        {@link org.fife.ui.rsyntaxtextarea.SyntaxConstants}.
+     * @return un {@link TokenMaker} per la sintassi indicata
+     */
+    TokenMaker acquire(String style) {
+        Deque<TokenMaker> tokenMakers = idle.get(style);
+        TokenMaker tokenMaker = tokenMakers == null ? null : tokenMakers.poll();
+        if (tokenMaker != null) {
+            reused++;
+            return tokenMaker;
+        }
+
+        created++;
+        return TokenMakerFactory.getDefaultInstance().getTokenMaker(style);
+    }
+
+    /**
+     * Restituisce al pool un {@link TokenMaker} non piu' usato.
+     *
+     * @param style La sintassi del {@link TokenMaker}.
+     * @param tokenMaker Il {@link TokenMaker}.
+     */
+    void release(String style, TokenMaker tokenMaker) {
+        Deque<TokenMaker> tokenMakers = idle.get(style);
+        if (tokenMakers == null) {
+            tokenMakers = new ArrayDeque<TokenMaker>();
+            idle.put(style, tokenMakers);
+        }
+        tokenMakers.push(tokenMaker);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d token makers created, %d reused", created, reused);
+    }
+}
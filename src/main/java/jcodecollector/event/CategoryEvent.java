@@ -0,0 +1,74 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.event;
+
+/**
+ * Gli eventi che riguardano le categorie.
+ *
+ * @see jcodecollector.listener.CategoryListener
+ */
+public abstract class CategoryEvent extends Event {
+
+    /** Una categoria e' stata rinominata. */
+    public static final class Renamed extends CategoryEvent {
+        private final String oldName;
+        private final String newName;
+
+        public Renamed(String oldName, String newName) {
+            this.oldName = oldName;
+            this.newName = newName;
+        }
+
+        public String getOldName() {
+            return oldName;
+        }
+
+        public String getNewName() {
+            return newName;
+        }
+    }
+
+    /** Una categoria e' stata rimossa. */
+    public static final class Removed extends CategoryEvent {
+        private final String name;
+
+        public Removed(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /** L'elenco delle categorie e' cambiato. */
+    public static final class Updated extends CategoryEvent {
+        private final String selected;
+
+        public Updated(String selected) {
+            this.selected = selected;
+        }
+
+        /** @return la categoria da selezionare */
+        public String getSelected() {
+            return selected;
+        }
+    }
+
+    private CategoryEvent() {
+        // solo le sottoclassi di questo file
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.event;
+
+/**
+ * Il numero di categorie e snippet e' cambiato. Conta solo l'ultimo
+ * conteggio del ciclo dell'EDT.
+ *
+ * @see jcodecollector.listener.CountListener
+ */
+public final class CountEvent extends Event {
+
+    private final int categories;
+    private final int snippets;
+
+    public CountEvent(int categories, int snippets) {
+        this.categories = categories;
+        this.snippets = snippets;
+    }
+
+    public int getCategories() {
+        return categories;
+    }
+
+    public int getSnippets() {
+        return snippets;
+    }
+
+    @Override
+    public Object getCoalescingKey() {
+        return CountEvent.class;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.event;
+
+/**
+ * Un evento pubblicato sull'{@link EventBus}. Gli eventi che descrivono uno
+ * stato, come l'abilitazione dei menu, restituiscono una chiave da
+ * {@link #getCoalescingKey()}: se ne vengono pubblicati piu' d'uno con la
+ * stessa chiave durante lo stesso ciclo dell'EDT, i subscriber ricevono solo
+ * il risultato di {@link #coalesce(Event)}.
+ */
+public abstract class Event {
+
+    /**
+     * @return la chiave con cui fondere questo evento con quelli dello stesso
+     *         ciclo dell'EDT, <code>null</code> se l'evento va consegnato
+     *         subito e sempre
+     */
+    public Object getCoalescingKey() {
+        return null;
+    }
+
+    /**
+     * Fonde questo evento con uno pubblicato prima e non ancora consegnato.
+     * L'implementazione predefinita tiene solo l'evento piu' recente.
+     *
+     * @param previous L'evento precedente con la stessa chiave.
+     * @return l'evento da consegnare al posto di entrambi
+     */
+    public Event coalesce(Event previous) {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        String name = getClass().getName();
+        return name.substring(name.lastIndexOf('.') + 1).replace('$', '.');
+    }
+}
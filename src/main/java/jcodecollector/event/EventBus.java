@@ -0,0 +1,273 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.event;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consegna gli {@link Event} ai {@link Subscriber} registrati per il loro tipo
+ * o per un suo supertipo.
+ *
+ * <p>
+ * Gli eventi senza chiave di fusione vengono consegnati subito se pubblicati
+ * sull'EDT, altrimenti appena possibile sull'EDT. Gli eventi con una chiave
+ * vengono trattenuti fino alla fine del ciclo corrente dell'EDT: quelli con la
+ * stessa chiave vengono fusi e i subscriber ricevono un solo evento.
+ * </p>
+ *
+ * <p>
+ * I subscriber registrati con {@link #subscribeAsync(Class, Subscriber)} non
+ * devono toccare l'interfaccia: ricevono gli eventi su un thread separato,
+ * nell'ordine in cui sono stati consegnati.
+ * </p>
+ */
+public class EventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventBus.class);
+
+    private static final class Subscription {
+        private final Class<?> type;
+        private final Subscriber<?> subscriber;
+        private final boolean async;
+
+        Subscription(Class<?> type, Subscriber<?> subscriber, boolean async) {
+            this.type = type;
+            this.subscriber = subscriber;
+            this.async = async;
+        }
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    /** Gli eventi in attesa della fine del ciclo dell'EDT, per chiave. */
+    private final Map<Object, Event> pending = new LinkedHashMap<Object, Event>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final ConcurrentMap<Class<?>, AtomicLong> publishedByType = new ConcurrentHashMap<Class<?>, AtomicLong>();
+    private final ConcurrentMap<Class<?>, AtomicLong> dispatchedByType = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+    private ExecutorService asyncExecutor;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            List<Event> events;
+            synchronized (pending) {
+                events = new ArrayList<Event>(pending.values());
+                pending.clear();
+            }
+            for (Event event : events) {
+                dispatch(event);
+            }
+        }
+    };
+
+    /**
+     * Registra un subscriber che riceve gli eventi sull'EDT.
+     *
+     * @param type Il tipo degli eventi, sottoclassi comprese.
+     * @param subscriber Il subscriber.
+     */
+    public <E extends Event> void subscribe(Class<E> type, Subscriber<? super E> subscriber) {
+        subscriptions.add(new Subscription(type, subscriber, false));
+    }
+
+    /**
+     * Registra un subscriber che riceve gli eventi su un thread separato
+     * dall'EDT.
+     *
+     * @param type Il tipo degli eventi, sottoclassi comprese.
+     * @param subscriber Il subscriber.
+     */
+    public <E extends Event> void subscribeAsync(Class<E> type, Subscriber<? super E> subscriber) {
+        synchronized (this) {
+            if (asyncExecutor == null) {
+                asyncExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "event-bus");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        subscriptions.add(new Subscription(type, subscriber, true));
+    }
+
+    /**
+     * Rimuove tutte le registrazioni di un subscriber.
+     *
+     * @param subscriber Il subscriber da rimuovere.
+     * @return <code>true</code> se il subscriber era registrato
+     */
+    public boolean unsubscribe(Subscriber<?> subscriber) {
+        List<Subscription> removed = new ArrayList<Subscription>();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.subscriber.equals(subscriber)) {
+                removed.add(subscription);
+            }
+        }
+        return subscriptions.removeAll(removed);
+    }
+
+    /**
+     * Pubblica un evento. Puo' essere chiamato da qualsiasi thread.
+     *
+     * @param event L'evento da pubblicare.
+     */
+    public void publish(final Event event) {
+        published.incrementAndGet();
+        count(publishedByType, event.getClass());
+
+        Object key = event.getCoalescingKey();
+        if (key == null) {
+            if (SwingUtilities.isEventDispatchThread()) {
+                dispatch(event);
+            } else {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(event);
+                    }
+                });
+            }
+            return;
+        }
+
+        boolean scheduled;
+        synchronized (pending) {
+            scheduled = !pending.isEmpty();
+            Event previous = pending.get(key);
+            pending.put(key, previous == null ? event : event.coalesce(previous));
+        }
+        if (!scheduled) {
+            SwingUtilities.invokeLater(flush);
+        }
+    }
+
+    private void dispatch(Event event) {
+        dispatched.incrementAndGet();
+        count(dispatchedByType, event.getClass());
+
+        for (Subscription subscription : subscriptions) {
+            if (subscription.type.isInstance(event)) {
+                if (subscription.async) {
+                    deliverAsync(subscription, event);
+                } else {
+                    deliver(subscription, event);
+                }
+            }
+        }
+    }
+
+    private void deliverAsync(final Subscription subscription, final Event event) {
+        asyncExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(subscription, event);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliver(Subscription subscription, Event event) {
+        deliveries.incrementAndGet();
+        try {
+            ((Subscriber<Event>) subscription.subscriber).handle(event);
+        } catch (RuntimeException ex) {
+            logger.error(String.format("%s failed on %s", subscription.subscriber, event), ex);
+        }
+    }
+
+    private static void count(ConcurrentMap<Class<?>, AtomicLong> counters, Class<?> type) {
+        AtomicLong counter = counters.get(type);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(type, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /** @return il numero di eventi pubblicati */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * @return il numero di eventi consegnati dopo la fusione: la differenza
+     *         con {@link #getPublished()} e' il numero di eventi risparmiati
+     */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /** @return il numero di chiamate ai subscriber */
+    public long getDeliveries() {
+        return deliveries.get();
+    }
+
+    /**
+     * @param type Il tipo degli eventi.
+     * @return il numero di eventi del tipo indicato pubblicati
+     */
+    public long getPublished(Class<? extends Event> type) {
+        AtomicLong counter = publishedByType.get(type);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * @param type Il tipo degli eventi.
+     * @return il numero di eventi del tipo indicato consegnati dopo la fusione
+     */
+    public long getDispatched(Class<? extends Event> type) {
+        AtomicLong counter = dispatchedByType.get(type);
+        return counter == null ? 0 : counter.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%d published, %d dispatched, %d deliveries", getPublished(), getDispatched(), getDeliveries()));
+        for (Map.Entry<Class<?>, AtomicLong> entry : publishedByType.entrySet()) {
+            String name = entry.getKey().getName();
+            AtomicLong dispatchedCount = dispatchedByType.get(entry.getKey());
+            builder.append(String.format("; %s %d/%d", name.substring(name.lastIndexOf('.') + 1).replace('$', '.'), entry.getValue().get(),
+                    dispatchedCount == null ? 0 : dispatchedCount.get()));
+        }
+        return builder.toString();
+    }
+}
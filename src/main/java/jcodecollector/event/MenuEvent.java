@@ -0,0 +1,55 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.event;
+
+/**
+ * Lo stato dei menu e' cambiato. Piu' eventi dello stesso ciclo dell'EDT
+ * diventano uno solo, con l'ultima abilitazione e la ricostruzione del
+ * sottomenu di esportazione se almeno uno la chiedeva.
+ *
+ * @see jcodecollector.listener.MenuListener
+ */
+public final class MenuEvent extends Event {
+
+    private final boolean enabled;
+    private final boolean resetExportSubMenu;
+
+    public MenuEvent(boolean enabled, boolean resetExportSubMenu) {
+        this.enabled = enabled;
+        this.resetExportSubMenu = resetExportSubMenu;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isResetExportSubMenu() {
+        return resetExportSubMenu;
+    }
+
+    @Override
+    public Object getCoalescingKey() {
+        return MenuEvent.class;
+    }
+
+    @Override
+    public Event coalesce(Event previous) {
+        if (resetExportSubMenu || !((MenuEvent) previous).resetExportSubMenu) {
+            return this;
+        }
+        return new MenuEvent(enabled, true);
+    }
+}
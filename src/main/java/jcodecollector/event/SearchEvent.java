@@ -0,0 +1,35 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.event;
+
+/**
+ * La ricerca e' stata attivata o disattivata.
+ *
+ * @see jcodecollector.listener.SearchListener
+ */
+public final class SearchEvent extends Event {
+
+    private final boolean active;
+
+    public SearchEvent(boolean active) {
+        this.active = active;
+    }
+
+    /** @return il valore passato ai {@link jcodecollector.listener.SearchListener} */
+    public boolean isActive() {
+        return active;
+    }
+}
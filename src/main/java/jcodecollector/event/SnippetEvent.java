@@ -0,0 +1,134 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.event;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Syntax;
+
+/**
+ * Gli eventi che riguardano uno snippet.
+ *
+ * @see jcodecollector.listener.SnippetListener
+ */
+public abstract class SnippetEvent extends Event {
+
+    /** Lo snippet indicato e' stato modificato. */
+    public static final class Edited extends SnippetEvent {
+        private final Snippet snippet;
+
+        public Edited(Snippet snippet) {
+            this.snippet = snippet;
+        }
+
+        public Snippet getSnippet() {
+            return snippet;
+        }
+    }
+
+    /** Uno snippet e' stato rinominato. */
+    public static final class Renamed extends SnippetEvent {
+        private final String oldName;
+        private final String newName;
+
+        public Renamed(String oldName, String newName) {
+            this.oldName = oldName;
+            this.newName = newName;
+        }
+
+        public String getOldName() {
+            return oldName;
+        }
+
+        public String getNewName() {
+            return newName;
+        }
+    }
+
+    /** Lo snippet indicato e' stato rimosso. */
+    public static final class Removed extends SnippetEvent {
+        private final Snippet snippet;
+
+        public Removed(Snippet snippet) {
+            this.snippet = snippet;
+        }
+
+        public Snippet getSnippet() {
+            return snippet;
+        }
+    }
+
+    /**
+     * Lo stato dello snippet corrente e' cambiato. Conta solo l'ultimo stato
+     * del ciclo dell'EDT.
+     */
+    public static final class StatusChanged extends SnippetEvent {
+        private final Snippet snippet;
+        private final boolean validated;
+        private final boolean saved;
+        private final boolean locked;
+
+        public StatusChanged(Snippet snippet, boolean validated, boolean saved, boolean locked) {
+            this.snippet = snippet;
+            this.validated = validated;
+            this.saved = saved;
+            this.locked = locked;
+        }
+
+        public Snippet getSnippet() {
+            return snippet;
+        }
+
+        public boolean isValidated() {
+            return validated;
+        }
+
+        public boolean isSaved() {
+            return saved;
+        }
+
+        public boolean isLocked() {
+            return locked;
+        }
+
+        @Override
+        public Object getCoalescingKey() {
+            return StatusChanged.class;
+        }
+    }
+
+    /** Lo stile di colorazione degli snippet di una categoria e' cambiato. */
+    public static final class SyntaxRenamed extends SnippetEvent {
+        private final Syntax syntax;
+        private final String category;
+
+        public SyntaxRenamed(Syntax syntax, String category) {
+            this.syntax = syntax;
+            this.category = category;
+        }
+
+        public Syntax getSyntax() {
+            return syntax;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+    }
+
+    private SnippetEvent() {
+        // solo le sottoclassi di questo file
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 richter.
+ * Copyright 2006-2013 Alessandro Cocco.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -13,12 +13,19 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package jcodecollector.service;
+package jcodecollector.event;
 
 /**
+ * Riceve gli eventi di un tipo dall'{@link EventBus}.
  *
- * @author richter
+ * @param <E> Il tipo di evento ricevuto.
  */
-public interface IdGenerator {
-    int getNextId();
+public interface Subscriber<E extends Event> {
+
+    /**
+     * Invocato per ogni evento consegnato.
+     *
+     * @param event L'evento.
+     */
+    public void handle(E event);
 }
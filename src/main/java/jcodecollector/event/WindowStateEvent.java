@@ -0,0 +1,72 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.event;
+
+/**
+ * Gli eventi che riguardano la finestra principale.
+ *
+ * @see jcodecollector.listener.WindowListener
+ */
+public abstract class WindowStateEvent extends Event {
+
+    /**
+     * Ci sono, o non ci sono piu', modifiche da salvare. Conta solo l'ultimo
+     * stato del ciclo dell'EDT.
+     */
+    public static final class Modified extends WindowStateEvent {
+        private final boolean documentModified;
+
+        public Modified(boolean documentModified) {
+            this.documentModified = documentModified;
+        }
+
+        public boolean isDocumentModified() {
+            return documentModified;
+        }
+
+        @Override
+        public Object getCoalescingKey() {
+            return Modified.class;
+        }
+    }
+
+    /**
+     * I numeri di riga dell'editor vanno mostrati o nascosti, oppure
+     * ridisegnati perche' il numero di righe e' cambiato. Conta solo l'ultimo
+     * stato del ciclo dell'EDT: le modifiche al documento ne pubblicano uno
+     * ciascuna, ma il gutter viene aggiornato una volta sola.
+     */
+    public static final class LineNumbers extends WindowStateEvent {
+        private final boolean enabled;
+
+        public LineNumbers(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public Object getCoalescingKey() {
+            return LineNumbers.class;
+        }
+    }
+
+    private WindowStateEvent() {
+        // solo le sottoclassi di questo file
+    }
+}
@@ -13,24 +13,24 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package jcodecollector.service;
+package jcodecollector.exceptions;
 
 /**
- *
- * @author richter
+ * Thrown when a snippets package cannot be parsed.
  */
-public class DefaultIdGenerator implements IdGenerator {
-    private final Object lastIdLock = new Object();
-    private Integer lastId = 0;
+public class PackageFormatException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public PackageFormatException(String message) {
+        super(message);
+    }
 
-    public DefaultIdGenerator() {
+    public PackageFormatException(String message, Throwable cause) {
+        super(message, cause);
     }
 
-    @Override
-    public int getNextId() {
-        synchronized(lastIdLock) {
-            int nextId = lastId++;
-            return nextId;
-        }
+    public PackageFormatException(Throwable cause) {
+        super(cause);
     }
+
 }
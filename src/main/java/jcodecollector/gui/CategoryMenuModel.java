@@ -0,0 +1,160 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.gui;
+
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import javax.swing.JMenu;
+import javax.swing.JMenuItem;
+
+import jcodecollector.Loader;
+import jcodecollector.data.AsyncDBMS;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Il sottomenu con le categorie del database, usato per esportare una
+ * categoria. Le categorie vengono conservate e rilette in background solo
+ * quando potrebbero essere cambiate (vedi {@link #invalidate()}); le voci del
+ * sottomenu vengono ricreate solo se l'elenco e' davvero diverso. Abilitare o
+ * disabilitare il sottomenu con lo stesso valore non costa nulla, quindi
+ * {@link MainFrame#updateMenu(boolean, boolean)} puo' essere chiamato ad ogni
+ * tasto premuto. Va usato solo dall'EDT.
+ */
+final class CategoryMenuModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(CategoryMenuModel.class);
+
+    private final JMenu menu;
+    private final ActionListener action;
+
+    /** Le categorie mostrate dal sottomenu. */
+    private List<String> categories = Collections.emptyList();
+
+    private boolean enabled = true;
+
+    /** <code>true</code> mentre le categorie vengono rilette. */
+    private boolean reloading;
+
+    /** <code>true</code> se le categorie sono cambiate di nuovo durante la lettura. */
+    private boolean reloadAgain;
+
+    /** Il numero di volte che le voci sono state ricreate, per il log. */
+    private int rebuilds;
+
+    /**
+     * @param menu Il sottomenu da riempire.
+     * @param action L'azione delle voci, che ricevono come comando il nome
+     *        della categoria.
+     */
+    CategoryMenuModel(JMenu menu, ActionListener action) {
+        this.menu = menu;
+        this.action = action;
+        rebuild();
+    }
+
+    /**
+     * Segnala che le categorie potrebbero essere cambiate: vengono rilette
+     * in background e il sottomenu viene ricreato se sono diverse. Piu'
+     * segnalazioni durante la stessa lettura causano una sola nuova lettura.
+     */
+    void invalidate() {
+        if (reloading) {
+            reloadAgain = true;
+            return;
+        }
+
+        reloading = true;
+        Loader.ASYNC_DBMS.getCategories().whenCompleteAsync(new BiConsumer<List<String>, Throwable>() {
+            @Override
+            public void accept(List<String> result, Throwable failure) {
+                reloading = false;
+                if (failure != null) {
+                    logger.warn("cannot read the categories", failure);
+                } else {
+                    update(result);
+                }
+
+                if (reloadAgain) {
+                    reloadAgain = false;
+                    invalidate();
+                }
+            }
+        }, AsyncDBMS.EDT);
+    }
+
+    /** Mostra le categorie indicate, ricreando le voci solo se sono cambiate. */
+    private void update(List<String> result) {
+        if (result.equals(categories)) {
+            return;
+        }
+
+        categories = Collections.unmodifiableList(new ArrayList<String>(result));
+        rebuild();
+    }
+
+    private void rebuild() {
+        menu.removeAll();
+
+        for (String category : categories) {
+            JMenuItem categoryMenuItem = new JMenuItem(category);
+            categoryMenuItem.addActionListener(action);
+            categoryMenuItem.setEnabled(enabled);
+            menu.add(categoryMenuItem);
+        }
+
+        if (categories.isEmpty()) {
+            JMenuItem emptyMenuItem = new JMenuItem("No Categories Available");
+            emptyMenuItem.setEnabled(false);
+            menu.add(emptyMenuItem);
+        }
+
+        rebuilds++;
+        logger.debug("export sub-menu rebuilt with {} categories ({} rebuilds)", categories.size(), rebuilds);
+    }
+
+    /**
+     * Abilita o disabilita le voci delle categorie. Non fa nulla se il
+     * valore non cambia.
+     */
+    void setEnabled(boolean enabled) {
+        if (this.enabled == enabled) {
+            return;
+        }
+
+        this.enabled = enabled;
+        if (!categories.isEmpty()) {
+            for (int i = 0; i < menu.getItemCount(); i++) {
+                menu.getItem(i).setEnabled(enabled);
+            }
+        }
+    }
+
+    /**
+     * Restituisce le categorie lette l'ultima volta, senza attendere il
+     * database.
+     *
+     * @return le categorie, in sola lettura
+     */
+    List<String> getCategories() {
+        return categories;
+    }
+}
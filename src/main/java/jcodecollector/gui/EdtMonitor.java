@@ -0,0 +1,96 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.gui;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Segnala quando l'EDT resta occupato troppo a lungo, ad esempio perche'
+ * attende il database: ogni {@link #FRAME_TIME} millisecondi accoda un evento
+ * vuoto e, se non viene eseguito entro {@link #BLOCK_THRESHOLD} millisecondi,
+ * registra cosa sta facendo l'EDT. Viene avviato solo se il suo logger e' in
+ * debug, perche' leggere lo stack dell'EDT ha un costo.
+ */
+public final class EdtMonitor implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EdtMonitor.class);
+
+    /** La durata di un fotogramma a 60 fps, in millisecondi. */
+    public static final long FRAME_TIME = 16;
+
+    /** Il ritardo oltre il quale l'EDT viene considerato bloccato, in millisecondi. */
+    public static final long BLOCK_THRESHOLD = 3 * FRAME_TIME;
+
+    /** L'EDT, letto dall'ultimo evento eseguito. */
+    private volatile Thread edt;
+
+    private EdtMonitor() {
+        // do nothing
+    }
+
+    /**
+     * Avvia il controllo dell'EDT se il logger di questa classe e' in debug.
+     */
+    public static void startIfDebugEnabled() {
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+
+        Thread thread = new Thread(new EdtMonitor(), "edt-monitor");
+        thread.setDaemon(true);
+        thread.start();
+        logger.debug("EDT monitor started, threshold {} ms", BLOCK_THRESHOLD);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                final CountDownLatch executed = new CountDownLatch(1);
+                long posted = System.nanoTime();
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        edt = Thread.currentThread();
+                        executed.countDown();
+                    }
+                });
+
+                if (!executed.await(BLOCK_THRESHOLD, TimeUnit.MILLISECONDS)) {
+                    Thread thread = edt;
+                    if (thread != null) {
+                        // lo stack mostra dove l'EDT e' fermo in questo momento
+                        Throwable blocked = new Throwable("EDT busy for more than " + BLOCK_THRESHOLD + " ms");
+                        blocked.setStackTrace(thread.getStackTrace());
+                        logger.warn("EDT blocked", blocked);
+                    }
+                    executed.await();
+                    logger.warn("EDT blocked for {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - posted));
+                }
+
+                Thread.sleep(FRAME_TIME);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.gui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.text.Segment;
+
+import jcodecollector.Loader;
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.data.AsyncDBMS;
+
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import org.fife.ui.rsyntaxtextarea.Style;
+import org.fife.ui.rsyntaxtextarea.SyntaxScheme;
+import org.fife.ui.rsyntaxtextarea.Token;
+import org.fife.ui.rsyntaxtextarea.TokenMaker;
+import org.fife.ui.rsyntaxtextarea.TokenMakerFactory;
+import org.fife.ui.rsyntaxtextarea.TokenTypes;
+
+/**
+ * Mostra in sola lettura il codice di uno snippet salvato a pezzi (vedi
+ * {@link jcodecollector.common.bean.CodeChunk}) senza caricarlo tutto: dal
+ * database vengono letti solo i pezzi che contengono le righe visibili, e solo
+ * queste righe vengono colorate. La colorazione riparte da ogni finestra
+ * visibile, quindi una riga dentro un commento aperto sopra la finestra puo'
+ * essere colorata come codice finche' il commento non diventa visibile.
+ *
+ * <p>
+ * Font, colori e tabulazione sono quelli dell'editor. Un pezzo termina alla
+ * fine di una riga, tranne quando la riga e' piu' lunga di un pezzo: in quel
+ * caso la riga viene ricomposta dai pezzi che la contengono. Va usato solo
+ * dall'EDT.
+ * </p>
+ */
+final class LargeCodeViewer extends JComponent implements Scrollable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Il numero di pezzi da conservare in memoria. */
+    static final int CACHED_CHUNKS = 8;
+
+    /** Lo spazio tra i numeri di riga e il codice, in pixel. */
+    private static final int GAP = 8;
+
+    /** L'editor da cui prendere font, colori e tabulazione. */
+    private final RSyntaxTextArea template;
+
+    /** Lo snippet mostrato, <code>-1</code> se non viene mostrato nulla. */
+    private int snippetId = -1;
+
+    /** Incrementato ad ogni snippet: le letture di uno snippet precedente vengono scartate. */
+    private int request;
+
+    /**
+     * Il numero di righe che terminano prima di ogni pezzo; l'ultimo elemento
+     * e' il numero totale di righe. Un pezzo dentro una riga molto lunga non
+     * ne contiene la fine, quindi due elementi consecutivi possono essere
+     * uguali.
+     */
+    private int[] firstLines = { 0 };
+
+    /**
+     * I pezzi letti di recente, divisi agli a capo: l'ultimo elemento e' la
+     * parte di riga che continua nel pezzo successivo, eventualmente vuota.
+     */
+    private final LinkedHashMap<Integer, String[]> chunks = new LinkedHashMap<Integer, String[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+            return size() > Math.max(CACHED_CHUNKS, visibleChunks);
+        }
+    };
+
+    /**
+     * Il numero di pezzi che contengono le righe visibili: devono restare
+     * tutti in memoria, anche se una riga divisa ne occupa piu' di
+     * {@link #CACHED_CHUNKS}.
+     */
+    private int visibleChunks;
+
+    /** I pezzi in lettura. */
+    private final Set<Integer> loading = new HashSet<Integer>();
+
+    /** La riga piu' lunga tra quelle lette, in caratteri. */
+    private int longestLine;
+
+    private TokenMaker tokenMaker;
+
+    LargeCodeViewer(RSyntaxTextArea template) {
+        this.template = template;
+        setOpaque(true);
+    }
+
+    /**
+     * Mostra il codice di uno snippet salvato a pezzi.
+     *
+     * @param snippet Lo snippet, letto dal database.
+     * @param style La sintassi con cui colorare il codice.
+     */
+    void show(Snippet snippet, String style) {
+        clear();
+        tokenMaker = TokenMakerFactory.getDefaultInstance().getTokenMaker(style);
+        snippetId = snippet.getId();
+
+        final int current = request;
+        Loader.ASYNC_DBMS.getCodeChunkLines(snippetId).thenAcceptAsync(new Consumer<int[]>() {
+            @Override
+            public void accept(int[] lines) {
+                if (current != request) {
+                    return;
+                }
+
+                firstLines = new int[lines.length + 1];
+                for (int i = 0; i < lines.length; i++) {
+                    firstLines[i + 1] = firstLines[i] + lines[i];
+                }
+                revalidate();
+                repaint();
+            }
+        }, AsyncDBMS.EDT);
+    }
+
+    /** Smette di mostrare lo snippet e libera i pezzi letti. */
+    void clear() {
+        request++;
+        snippetId = -1;
+        firstLines = new int[] { 0 };
+        chunks.clear();
+        loading.clear();
+        longestLine = 0;
+        revalidate();
+        repaint();
+    }
+
+    /** @return il numero di righe del codice, <code>0</code> finche' non e' noto */
+    int getLineCount() {
+        return firstLines[firstLines.length - 1];
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        Graphics2D g = (Graphics2D) graphics;
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        Rectangle clip = g.getClipBounds();
+        g.setColor(template.getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        FontMetrics metrics = g.getFontMetrics(template.getFont());
+        int lineHeight = metrics.getHeight();
+        int gutter = gutterWidth(metrics);
+        int first = clip.y / lineHeight;
+        int last = Math.min(getLineCount() - 1, (clip.y + clip.height) / lineHeight);
+        if (first <= last) {
+            visibleChunks = chunkOf(last) - firstChunkOf(first) + 1;
+        }
+
+        // la colorazione riparte da ogni finestra
+        int state = TokenTypes.NULL;
+        for (int line = first; line <= last; line++) {
+            int baseline = line * lineHeight + metrics.getAscent();
+
+            String number = Integer.toString(line + 1);
+            g.setFont(template.getFont());
+            g.setColor(Color.GRAY);
+            g.drawString(number, gutter - GAP - metrics.stringWidth(number), baseline);
+
+            String text = lineText(line);
+            if (text == null) {
+                state = TokenTypes.NULL;
+            } else {
+                state = paintLine(g, text, gutter, baseline, state, clip);
+            }
+        }
+    }
+
+    /**
+     * Restituisce il testo di una riga, ricomponendolo se la riga e' divisa
+     * tra piu' pezzi.
+     *
+     * @return il testo della riga, <code>null</code> se qualche pezzo e'
+     *         ancora da leggere: in questo caso la lettura viene avviata
+     */
+    private String lineText(int line) {
+        int first = firstChunkOf(line);
+        int last = chunkOf(line);
+        StringBuilder text = new StringBuilder();
+        boolean loaded = true;
+        for (int chunk = first; chunk <= last; chunk++) {
+            String[] lines = chunks.get(chunk);
+            if (lines == null) {
+                load(chunk);
+                loaded = false;
+            } else if (loaded) {
+                text.append(lines[line - firstLines[chunk]]);
+            }
+        }
+        if (!loaded) {
+            return null;
+        }
+
+        if (text.length() > longestLine) {
+            longestLine = text.length();
+            revalidate();
+        }
+        return text.toString();
+    }
+
+    /**
+     * Disegna una riga colorandone i token.
+     *
+     * @return il tipo dell'ultimo token, da cui parte la riga successiva
+     */
+    private int paintLine(Graphics2D g, String line, int x, int baseline, int state, Rectangle clip) {
+        char[] text = line.toCharArray();
+        Segment segment = new Segment(text, 0, text.length);
+        SyntaxScheme scheme = template.getSyntaxScheme();
+
+        Token token = tokenMaker.getTokenList(segment, state, 0);
+        int type = TokenTypes.NULL;
+        while (token != null) {
+            type = token.getType();
+            // i token oltre la finestra servono solo per il tipo dell'ultimo
+            if (token.isPaintable() && x <= clip.x + clip.width) {
+                Style style = type >= 0 && type < scheme.getStyleCount() ? scheme.getStyle(type) : null;
+                Font font = style != null && style.font != null ? style.font : template.getFont();
+                g.setFont(font);
+
+                String lexeme = token.getLexeme();
+                int width = g.getFontMetrics(font).stringWidth(lexeme);
+                if (x + width >= clip.x) {
+                    g.setColor(style != null && style.foreground != null ? style.foreground : template.getForeground());
+                    g.drawString(lexeme, x, baseline);
+                }
+                x += width;
+            }
+            token = token.getNextToken();
+        }
+        return type;
+    }
+
+    /** Restituisce il pezzo che contiene la fine della riga indicata. */
+    private int chunkOf(int line) {
+        // il primo pezzo dopo il quale sono terminate piu' di line righe
+        int low = 0;
+        int high = firstLines.length - 2;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (firstLines[middle + 1] > line) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /** Restituisce il pezzo in cui inizia la riga indicata. */
+    private int firstChunkOf(int line) {
+        // la riga inizia dove termina la precedente, eventualmente con una
+        // parte vuota se la precedente termina alla fine di un pezzo
+        return line == 0 ? 0 : chunkOf(line - 1);
+    }
+
+    private void load(final int chunk) {
+        if (!loading.add(chunk)) {
+            return;
+        }
+
+        final int current = request;
+        Loader.ASYNC_DBMS.getCodeChunk(snippetId, chunk).thenAcceptAsync(new Consumer<String>() {
+            @Override
+            public void accept(String text) {
+                if (current != request) {
+                    return;
+                }
+
+                loading.remove(chunk);
+                String[] lines = split(text == null ? "" : text);
+                chunks.put(chunk, lines);
+
+                int longest = longestLine;
+                for (String line : lines) {
+                    longest = Math.max(longest, line.length());
+                }
+                if (longest > longestLine) {
+                    longestLine = longest;
+                    revalidate();
+                }
+                repaint();
+            }
+        }, AsyncDBMS.EDT);
+    }
+
+    /**
+     * Divide un pezzo agli a capo, sostituendo le tabulazioni con spazi. La
+     * parte dopo l'ultimo a capo viene conservata anche se vuota: continua
+     * nel pezzo successivo.
+     */
+    private String[] split(String text) {
+        String tab = tabSpaces();
+        String[] lines = text.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].indexOf('\t') >= 0) {
+                lines[i] = lines[i].replace("\t", tab);
+            }
+        }
+        return lines;
+    }
+
+    private String tabSpaces() {
+        char[] spaces = new char[Math.max(1, template.getTabSize())];
+        Arrays.fill(spaces, ' ');
+        return new String(spaces);
+    }
+
+    private int gutterWidth(FontMetrics metrics) {
+        return metrics.charWidth('0') * Integer.toString(Math.max(getLineCount(), 1)).length() + 2 * GAP;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics metrics = getFontMetrics(template.getFont());
+        return new Dimension(gutterWidth(metrics) + longestLine * metrics.charWidth('m') + GAP, getLineCount() * metrics.getHeight());
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        FontMetrics metrics = getFontMetrics(template.getFont());
+        return orientation == SwingConstants.VERTICAL ? metrics.getHeight() : metrics.charWidth('m');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() != null && getParent().getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() != null && getParent().getHeight() > getPreferredSize().height;
+    }
+}
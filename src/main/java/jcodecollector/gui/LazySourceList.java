@@ -0,0 +1,297 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.gui;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.swing.JTree;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreePath;
+
+import jcodecollector.data.AsyncDBMS;
+import jcodecollector.data.Controller;
+
+import com.explodingpixels.macwidgets.SourceList;
+import com.explodingpixels.macwidgets.SourceListCategory;
+import com.explodingpixels.macwidgets.SourceListItem;
+import com.explodingpixels.macwidgets.SourceListModel;
+
+/**
+ * Popola il {@link SourceList} senza creare subito un nodo per ogni snippet,
+ * per le librerie troppo grandi per essere caricate all'avvio: le categorie
+ * partono chiuse e contengono solo un {@link MoreItem} con il numero di
+ * snippet ancora da caricare. I nomi degli snippet vengono letti dal database
+ * una pagina alla volta quando il {@link MoreItem} diventa visibile, cioe'
+ * quando la categoria viene aperta o quando la si scorre fino in fondo.
+ *
+ * <p>
+ * Tutti i metodi vanno chiamati sull'EDT.
+ * </p>
+ */
+final class LazySourceList {
+
+    /** Il numero di nomi letti ogni volta dal database. */
+    static final int PAGE_SIZE = 200;
+
+    /**
+     * L'ultimo elemento di una categoria di cui non sono stati ancora caricati
+     * tutti gli snippet. Non corrisponde a uno snippet.
+     */
+    static final class MoreItem extends SourceListItem {
+        private final SourceListCategory category;
+
+        /** I nomi delle categorie del database mostrate in {@link #category}. */
+        private final List<String> names = new ArrayList<String>();
+
+        /** L'ultimo nome caricato, <code>null</code> se non e' stato caricato niente. */
+        private String last;
+        private boolean loading;
+
+        MoreItem(SourceListCategory category) {
+            super("\u2026");
+            this.category = category;
+        }
+    }
+
+    private final SourceList sourceList;
+    private final SourceListModel model;
+    private final SourceListIndex index;
+    private final Controller controller;
+    private final Map<SourceListCategory, MoreItem> pending = new IdentityHashMap<SourceListCategory, MoreItem>();
+    private final JTree tree;
+
+    private boolean active;
+
+    LazySourceList(SourceList sourceList, SourceListIndex index, Controller controller) {
+        this.sourceList = sourceList;
+        this.model = sourceList.getModel();
+        this.index = index;
+        this.controller = controller;
+
+        tree = findTree(sourceList.getComponent());
+        if (tree != null) {
+            tree.addTreeExpansionListener(new TreeExpansionListener() {
+                @Override
+                public void treeExpanded(TreeExpansionEvent event) {
+                    // le righe della categoria aperta vengono calcolate dopo
+                    // questo evento
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            loadVisible();
+                        }
+                    });
+                }
+
+                @Override
+                public void treeCollapsed(TreeExpansionEvent event) {
+                }
+            });
+
+            JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, tree);
+            if (viewport != null) {
+                viewport.addChangeListener(new ChangeListener() {
+                    @Override
+                    public void stateChanged(ChangeEvent e) {
+                        loadVisible();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @param component Il componente del {@link SourceList}.
+     * @return il {@link JTree} che mostra il SourceList, <code>null</code> se
+     *         non viene trovato
+     */
+    static JTree findTree(Component component) {
+        if (component instanceof JTree) {
+            return (JTree) component;
+        }
+        if (component instanceof Container) {
+            for (Component child : ((Container) component).getComponents()) {
+                JTree tree = findTree(child);
+                if (tree != null) {
+                    return tree;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return <code>true</code> se il SourceList e' stato popolato da {@link #fill(Map)} */
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Da chiamare quando il SourceList viene popolato con tutti gli snippet:
+     * le pagine ancora da caricare vengono dimenticate.
+     */
+    void deactivate() {
+        active = false;
+        pending.clear();
+    }
+
+    /**
+     * Svuota il SourceList e lo popola con le categorie indicate, chiuse e
+     * senza snippet.
+     *
+     * @param counts Il numero di snippet di ogni categoria.
+     */
+    void fill(Map<String, Integer> counts) {
+        active = true;
+        pending.clear();
+        for (SourceListCategory category : new ArrayList<SourceListCategory>(model.getCategories())) {
+            model.removeCategory(category);
+        }
+
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            // come nel resto dell'interfaccia le categorie che differiscono
+            // solo per maiuscole e minuscole diventano una sola
+            SourceListCategory category = index.getCategory(entry.getKey());
+            if (category == null) {
+                category = new SourceListCategory(entry.getKey());
+                model.addCategory(category);
+
+                MoreItem more = new MoreItem(category);
+                model.addItemToCategory(more, category);
+                sourceList.setExpanded(category, false);
+                pending.put(category, more);
+            }
+
+            MoreItem more = pending.get(category);
+            more.names.add(entry.getKey());
+            more.setCounterValue(more.getCounterValue() + entry.getValue());
+        }
+    }
+
+    /**
+     * Carica la pagina successiva della categoria del {@link MoreItem}
+     * indicato, se non e' gia' in caricamento.
+     *
+     * @param more L'elemento che segue gli snippet gia' caricati.
+     */
+    void loadNextPage(final MoreItem more) {
+        if (more.loading || pending.get(more.category) != more) {
+            return;
+        }
+
+        more.loading = true;
+        controller.getSnippetNames(more.names, more.last, null, PAGE_SIZE).whenCompleteAsync(new BiConsumer<List<String>, Throwable>() {
+            @Override
+            public void accept(List<String> names, Throwable failure) {
+                more.loading = false;
+                if (names != null) {
+                    append(more, names, names.size() < PAGE_SIZE);
+                    // se la fine della categoria e' ancora visibile continuo
+                    loadVisible();
+                }
+            }
+        }, AsyncDBMS.EDT);
+    }
+
+    /**
+     * Carica tutti gli snippet che precedono quello indicato nella sua
+     * categoria, in modo da poterlo selezionare.
+     *
+     * @param name Il nome dello snippet.
+     * @return il future che termina quando lo snippet e' nel SourceList,
+     *         oppure quando si scopre che non esiste
+     */
+    CompletableFuture<Void> reveal(final String name) {
+        return controller.getCategoryOf(name).thenComposeAsync(new Function<String, CompletionStage<Void>>() {
+            @Override
+            public CompletionStage<Void> apply(String category) {
+                final MoreItem more = category == null ? null : pending.get(index.getCategory(category));
+                if (more == null || index.getItem(name) != null) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                return controller.getSnippetNames(more.names, more.last, name, 0).thenAcceptAsync(new Consumer<List<String>>() {
+                    @Override
+                    public void accept(List<String> names) {
+                        append(more, names, false);
+                        sourceList.setExpanded(more.category, true);
+                    }
+                }, AsyncDBMS.EDT);
+            }
+        }, AsyncDBMS.EDT);
+    }
+
+    /** Aggiunge alla categoria i nomi letti, prima del {@link MoreItem}. */
+    private void append(MoreItem more, List<String> names, boolean complete) {
+        if (pending.get(more.category) != more) {
+            // nel frattempo il SourceList e' stato ricaricato
+            return;
+        }
+
+        int position = more.category.getItems().indexOf(more);
+        for (String name : names) {
+            // gli snippet creati o spostati qui dopo il caricamento della
+            // categoria sono gia' presenti
+            if (index.getItem(name) == null) {
+                model.addItemToCategory(new SourceListItem(name), more.category, position++);
+            }
+            if (more.last == null || name.compareTo(more.last) > 0) {
+                more.last = name;
+            }
+        }
+
+        if (complete) {
+            pending.remove(more.category);
+            model.removeItemFromCategory(more, more.category);
+        } else {
+            more.setCounterValue(Math.max(0, more.getCounterValue() - names.size()));
+        }
+    }
+
+    /** Carica le categorie il cui {@link MoreItem} e' visibile. */
+    private void loadVisible() {
+        if (pending.isEmpty() || tree == null) {
+            return;
+        }
+
+        Rectangle visible = tree.getVisibleRect();
+        int first = tree.getClosestRowForLocation(visible.x, visible.y);
+        int last = tree.getClosestRowForLocation(visible.x, visible.y + visible.height);
+        for (int row = Math.max(0, first); row <= last; row++) {
+            TreePath path = tree.getPathForRow(row);
+            Object node = path == null ? null : path.getLastPathComponent();
+            if (node instanceof DefaultMutableTreeNode && ((DefaultMutableTreeNode) node).getUserObject() instanceof MoreItem) {
+                loadNextPage((MoreItem) ((DefaultMutableTreeNode) node).getUserObject());
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.FileDialog;
 import java.awt.FlowLayout;
+import java.awt.GridLayout;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -31,11 +32,24 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -54,6 +68,8 @@ import javax.swing.JPopupMenu;
 import javax.swing.JSplitPane;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.border.Border;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
@@ -64,15 +80,30 @@ import jcodecollector.MacUtilities;
 import jcodecollector.State;
 import jcodecollector.common.bean.Snippet;
 import jcodecollector.common.bean.Syntax;
+import jcodecollector.data.AsyncDBMS;
 import jcodecollector.data.Controller;
+import jcodecollector.data.DBMS;
 import jcodecollector.data.SearchFilter;
+import jcodecollector.data.SearchMetrics;
+import jcodecollector.data.SearchResults;
 import jcodecollector.data.settings.ApplicationSettings;
 import jcodecollector.data.settings.ApplicationSettingsManager;
+import jcodecollector.exceptions.PackageFormatException;
+import jcodecollector.io.ImportMetrics;
+import jcodecollector.io.ConflictPolicy;
+import jcodecollector.io.DropFolderWatcher;
+import jcodecollector.io.ExportMetrics;
+import jcodecollector.io.ImportPipeline;
+import jcodecollector.io.MirrorExporter;
 import jcodecollector.io.PackageManager;
+import jcodecollector.io.PackageSource;
+import jcodecollector.io.SourceTreeSource;
 import jcodecollector.listener.CategoryListener;
 import jcodecollector.listener.CountListener;
+import jcodecollector.listener.DropFolderListener;
 import jcodecollector.listener.MenuListener;
 import jcodecollector.listener.SearchListener;
+import jcodecollector.listener.SearchResultsListener;
 import jcodecollector.listener.SnippetListener;
 import jcodecollector.listener.WindowListener;
 import jcodecollector.util.ApplicationConstants;
@@ -94,10 +125,9 @@ import com.explodingpixels.macwidgets.SourceListModelListener;
 import com.explodingpixels.macwidgets.SourceListSelectionListener;
 import com.explodingpixels.macwidgets.UnifiedToolBar;
 import java.awt.Window;
-import java.util.Comparator;
 import jcodecollector.Loader;
-import jcodecollector.service.DefaultIdGenerator;
-import jcodecollector.service.IdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * La finestra principale dell'applicazione.
@@ -105,10 +135,20 @@ import jcodecollector.service.IdGenerator;
  * @author Alessandro Cocco *
  */
 public class MainFrame extends JFrame implements CountListener, SnippetListener, CategoryListener, WindowListener, SearchListener, MenuListener {
+    private static final Logger logger = LoggerFactory.getLogger(MainFrame.class);
 
     /** Il componente che mostra graficamente il contenuto del database. */
     public SourceList sourceList;
 
+    /** L'indice dei nodi del {@link #sourceList}. */
+    private SourceListIndex sourceListIndex;
+
+    /** Popola il {@link #sourceList} a pagine quando gli snippet sono molti. */
+    private LazySourceList lazySourceList;
+
+    /** Legge in anticipo gli snippet vicini a quello selezionato. */
+    private SnippetPrefetcher snippetPrefetcher;
+
     /** Il pannello splittato. */
     private JSplitPane split = new JSplitPane();
 
@@ -136,13 +176,18 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
      */
     private Controller controller = Controller.getInstance();
 
+    /**
+     * Il sub-menu di esportazione con le categorie del database, che
+     * conserva anche per i menu di popup: questi devono essere creati senza
+     * attendere il database.
+     */
+    private CategoryMenuModel categoryMenu;
+
     /** Il riferimento allo stato dell'applicazione. */
     private State state = State.getInstance();
 
     private JPanel sourcePanel;
 
-    private final IdGenerator idGenerator = new DefaultIdGenerator();
-
     public MainFrame() {
         setTitle(GeneralInfo.APPLICATION_NAME);
         if (!OS.isMacOSX()) {
@@ -187,11 +232,11 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         newSnippet.addActionListener(NEW_EMPTY_SNIPPET_ACTION);
 
         if (OS.isMacOSX()) {
-            statusLabel = MacWidgetFactory.makeEmphasizedLabel(new JLabel("", JLabel.CENTER));
+            statusLabel = MacWidgetFactory.makeEmphasizedLabel(new JLabel("Opening database...", JLabel.CENTER));
             // statusLabel.setFont(statusLabel.getFont().deriveFont(statusLabel.getFont().getSize()
             // - 1.8f));
         } else {
-            statusLabel = new JLabel("", JLabel.CENTER);
+            statusLabel = new JLabel("Opening database...", JLabel.CENTER);
         }
 
         UnifiedToolBar unifiedToolBar = new UnifiedToolBar();
@@ -289,14 +334,76 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         // }
     }
 
+    /**
+     * Mostra nell'editor lo snippet selezionato nel {@link SourceList}.
+     *
+     * @param snippet Lo snippet selezionato, letto dal database.
+     */
+    private void showSnippet(Snippet snippet) {
+        // lo imposto come lo snippet di lavoro
+        state.setPreviousSnippet(snippet);
+        state.setNameOfSelectedCategory(snippet.getCategory());
+        state.setSelectedSnippet(snippet);
+
+        // aggiorno l'editor
+        mainPanel.setSnippet(snippet);
+
+        state.updateSnippetStatus(state.getCurrentSnippet(), true, true, snippet.isLocked());
+        state.updateMenu(true, false);
+        state.updateWindowStatus(false);
+
+        checkAutoHideCommentPanel(snippet, false);
+    }
+
+    /**
+     * Restituisce le categorie del database diverse da quella indicata, per
+     * i menu "Move To..." e "Merge In...".
+     *
+     * @param category La categoria da escludere, <code>null</code> per
+     *        nessuna.
+     * @return le categorie lette dall'ultimo aggiornamento dei menu
+     */
+    private List<String> getOtherCategories(String category) {
+        List<String> categories = new ArrayList<String>();
+        for (String s : categoryMenu.getCategories()) {
+            if (!s.equalsIgnoreCase(category)) {
+                categories.add(s);
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * Se la modifica fallisce avvisa l'utente e ricarica il {@link SourceList},
+     * che potrebbe non corrispondere piu' al database.
+     *
+     * @param write La modifica in corso.
+     * @param action L'operazione, per il messaggio di errore.
+     */
+    private void reportFailure(CompletableFuture<?> write, final String action) {
+        write.whenCompleteAsync(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable failure) {
+                if (failure == null) {
+                    return;
+                }
+
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                JOptionPane.showMessageDialog(MainFrame.this, "Cannot " + action + ": " + cause.getMessage(), "Error!", JOptionPane.ERROR_MESSAGE);
+                reloadSourceList();
+                state.updateMenu(true, true);
+            }
+        }, AsyncDBMS.EDT);
+    }
+
     /**
      * Seleziona lo snippet che era "corrente" al momento della chiusura
      * dell'applicazione
      */
     public void restoreSelectedSnippet() {
-        Snippet selectedSnippet = ApplicationSettings.getInstance().getSelectedSnippet();
-        if (selectedSnippet != null) {
-            manuallySelectItem(selectedSnippet);
+        String selectedSnippetName = ApplicationSettings.getInstance().getSelectedSnippetName();
+        if (selectedSnippetName != null) {
+            manuallySelectItem(selectedSnippetName);
         }
     }
 
@@ -315,6 +422,9 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
 
     private void initSourceList() {
         sourceList = new SourceList();
+        sourceListIndex = new SourceListIndex(sourceList.getModel());
+        lazySourceList = new LazySourceList(sourceList, sourceListIndex, controller);
+        snippetPrefetcher = new SnippetPrefetcher(sourceList, sourceListIndex, controller);
         // TODO non fare ricreare tutto ogni volta
         sourceList.setSourceListContextMenuProvider(new SourceListContextMenuProvider() {
             @Override
@@ -343,15 +453,16 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
                         @Override
                         public void actionPerformed(ActionEvent e) {
 
-                            controller.updateSyntax(item.getSyntax(), CATEGORY_POPUP_MANAGER_ACTION.getText(), !state.isSnippetSaved() ? state.getSelectedSnippet() : null);
+                            reportFailure(controller.updateSyntax(item.getSyntax(), CATEGORY_POPUP_MANAGER_ACTION.getText(), !state.isSnippetSaved() ? state.getSelectedSnippet() : null), "set the syntax");
                             state.syntaxRenamed(item.getSyntax(), CATEGORY_POPUP_MANAGER_ACTION.getText());
                         }
                     });
                     syntaxItem.add(item);
                 }
 
-                List<String> categories = controller.getAllCategories();
-                categories.remove(category.getText());
+                // il menu va creato subito: le categorie sono quelle lette
+                // dall'ultimo aggiornamento dei menu
+                List<String> categories = getOtherCategories(category.getText());
 
                 JPopupMenu adapter = new JPopupMenu();
                 adapter.add(renameItem);
@@ -371,6 +482,10 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
 
             @Override
             public JPopupMenu createContextMenu(SourceListItem item) {
+                if (item instanceof LazySourceList.MoreItem) {
+                    return null;
+                }
+
                 ITEM_POPUP_MANAGER_ACTION.setText(item.getText());
                 JMenu moveItem = new JMenu("Move To...");
 
@@ -389,8 +504,8 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
                 JMenuItem newCategoryItem = new JMenuItem(ITEM_POPUP_MANAGER_ACTION);
                 newCategoryItem.setText("New Category...");
 
-                List<String> categories = controller.getAllCategories();
-                categories.remove(controller.getCategoryOf(item.getText()));
+                SourceListCategory itemCategory = getSourceListCategoryOf(item);
+                List<String> categories = getOtherCategories(itemCategory == null ? null : itemCategory.getText());
 
                 moveItem.add(newCategoryItem);
                 moveItem.addSeparator();
@@ -420,8 +535,13 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         sourceList.installSourceListControlBar(controlBar);
         sourceList.addSourceListSelectionListener(new SourceListSelectionListener() {
             @Override
-            public void sourceListItemSelected(SourceListItem item) {
-                if (item == null) {
+            public void sourceListItemSelected(final SourceListItem item) {
+                if (item instanceof LazySourceList.MoreItem) {
+                    // non e' uno snippet: carico quelli che mancano
+                    lazySourceList.loadNextPage((LazySourceList.MoreItem) item);
+                }
+
+                if (item == null || item instanceof LazySourceList.MoreItem) {
                     state.setNameOfSelectedCategory(null);
                     state.setSelectedSnippet(null);
                     state.setPreviousSnippet(null);
@@ -429,26 +549,26 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
 
                     mainPanel.clear();
                 } else {
-                    // leggo lo snippet corrispondente al nome selezionato
-                    Snippet snippet = controller.getSnippet(item.getText().trim());
-
-                    // lo imposto come lo snippet di lavoro
-                    state.setPreviousSnippet(snippet);
-                    state.setNameOfSelectedCategory(snippet.getCategory());
-                    state.setSelectedSnippet(snippet);
-
-                    // aggiorno l'editor
-                    mainPanel.setSnippet(snippet);
-
                     // scrolla anche quando ci si sposta tra gli snippet
                     // usando le frecce direzionali
                     sourceList.scrollItemToVisible(item);
 
-                    state.updateSnippetStatus(state.getCurrentSnippet(), true, true, snippet.isLocked());
-                    state.updateMenu(true, false);
-                    state.updateWindowStatus(false);
+                    // leggo in background lo snippet corrispondente al nome
+                    // selezionato
+                    controller.getSnippet(item.getText().trim()).thenAcceptAsync(new Consumer<Snippet>() {
+                        @Override
+                        public void accept(Snippet snippet) {
+                            // nel frattempo l'utente potrebbe aver
+                            // selezionato un altro snippet
+                            if (snippet != null && sourceList.getSelectedItem() == item) {
+                                showSnippet(snippet);
+                            }
+                        }
+                    }, AsyncDBMS.EDT);
 
-                    checkAutoHideCommentPanel(snippet, false);
+                    // e intanto quelli vicini, che probabilmente verranno
+                    // aperti subito dopo
+                    snippetPrefetcher.selected(item);
                 }
             }
         });
@@ -597,10 +717,12 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         // ApplicationSettings.getInstance().setEditorWidth(mainPanel.split.getDividerLocation());
         ApplicationSettings.getInstance().setLineNumbersEnabled(mainPanel.getScrollPanel().getLineNumbersEnabled());
         ApplicationSettings.getInstance().setCommentPanelVisible(showCommentPanelMenuItem.isSelected());
-        ApplicationSettings.getInstance().setSelectedSnippet(state.getSelectedSnippet());
+        ApplicationSettings.getInstance().setSelectedSnippetName(state.getSelectedSnippet() == null ? null : state.getSelectedSnippet().getName());
         ApplicationSettings.getInstance().setAutoHideCommentEnabled(autoHideCommentPanelMenuItem.isSelected());
 
         ApplicationSettingsManager.saveApplicationSettings();
+        logger.debug("events: {}", state.getEventBus());
+        logger.debug("snippet cache: {}", Loader.ASYNC_DBMS.getSnippetCacheStatistics());
     }
 
     /** Azione di creazione di un nuovo snippet. */
@@ -611,7 +733,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             mainPanel.createNewSnippet();
 
             state.setPreviousSnippet(null);
-            state.setCurrentSnippet(new Snippet(idGenerator.getNextId()));
+            state.setCurrentSnippet(new Snippet(-1));
             state.updateSnippetStatus(state.getCurrentSnippet(), false, false, false);
 
             state.updateWindowStatus(true);
@@ -638,21 +760,23 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
     final ActionListener REMOVE_SNIPPET_ACTION = new ActionListener() {
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (sourceList.getSelectedItem() == null) {
+            if (sourceList.getSelectedItem() == null || sourceList.getSelectedItem() instanceof LazySourceList.MoreItem) {
                 return;
             }
 
             String name = sourceList.getSelectedItem().getText();
-            Snippet snippet = controller.getSnippet(name);
-            String category = snippet.getCategory();
-
-            if (category == null) {
-                return;
-            }
+            controller.getSnippet(name).thenAcceptAsync(new Consumer<Snippet>() {
+                @Override
+                public void accept(Snippet snippet) {
+                    if (snippet == null || snippet.getCategory() == null) {
+                        return;
+                    }
 
-            // rimuovo lo snippet
-            controller.removeSnippet(snippet);
-            actionsAfterRemovingSnippet(snippet);
+                    // rimuovo lo snippet
+                    reportFailure(controller.removeSnippet(snippet), "remove the snippet");
+                    actionsAfterRemovingSnippet(snippet);
+                }
+            }, AsyncDBMS.EDT);
         }
     };
 
@@ -681,7 +805,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
     final ActionListener SAVE_SNIPPET_ACTION = new ActionListener() {
         @Override
         public void actionPerformed(ActionEvent e) {
-            Snippet newSnippet = state.getCurrentSnippet();
+            final Snippet newSnippet = state.getCurrentSnippet();
             Snippet oldSnippet = state.getPreviousSnippet();
 
             if (newSnippet == null) {
@@ -691,11 +815,19 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
 
             // lo snippet precedente e' null: si tratta di un nuovo inserimento
             if (oldSnippet == null) {
-                controller.insertNewSnippet(newSnippet);
+                CompletableFuture<Integer> insert = controller.insertNewSnippet(newSnippet);
+                reportFailure(insert, "save the snippet");
+                // l'id viene assegnato dal database
+                insert.thenAcceptAsync(new Consumer<Integer>() {
+                    @Override
+                    public void accept(Integer id) {
+                        state.snippetInserted(newSnippet, id);
+                    }
+                }, AsyncDBMS.EDT);
             } else {
-                // se le modifiche vengono effettuate correttamente aggiorno
-                // anche il SourceList
-                controller.updateSnippet(oldSnippet, newSnippet);
+                // il SourceList viene aggiornato subito; se il salvataggio
+                // fallisce viene ricaricato
+                reportFailure(controller.updateSnippet(oldSnippet, newSnippet), "save the snippet");
             }
 
             state.updateSnippetStatus(state.getCurrentSnippet(), true, true, false);
@@ -745,6 +877,10 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         @Override
         public void actionPerformed(ActionEvent e) {
             searchTextField.setText("");
+            if (searchWorker != null) {
+                searchWorker.cancel(false);
+                searchWorker = null;
+            }
             if (state.isSearchActive()) {
                 searchEnabledMenuItem.setEnabled(false);
                 state.updateSearch(false);
@@ -790,28 +926,122 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
                 keywords[i] = keywords[i].trim();
             }
 
-            // avvio la ricerca
-            state.startSearch();
-
-            // risultato della ricerca
-            TreeMap<String, TreeSet<Snippet>> data = Loader.DBMS_INSTANCE.search(keywords, controller.getValue());
-            controller.setData(data);
-
-            // la ricerca non ha dato risultati: emetto un effetto
-            // sonoro, fermo la ricerca e restituisco il controllo
-            if (data.size() == 0) {
-                Toolkit.getDefaultToolkit().beep();
-                state.stopSearch();
+            // interrompo l'eventuale ricerca ancora in corso
+            if (searchWorker != null) {
+                searchWorker.cancel(false);
             }
 
+            // avvio la ricerca: il SourceList viene svuotato e i risultati
+            // vengono aggiunti man mano che arrivano
+            state.startSearch();
+            controller.setData(new TreeMap<String, TreeSet<Snippet>>());
+
             // attivo la possibilita' di disattivare la ricerca
             searchEnabledMenuItem.setEnabled(true);
-
-            // la ricerca ha prodotto risultati: lo segnalo ai vari ascoltatori
             state.updateSearch(true);
+
+            searchWorker = new SearchWorker(keywords);
+            searchWorker.execute();
         }
     };
 
+    /** La ricerca in corso, <code>null</code> se non ce ne sono. */
+    private SearchWorker searchWorker;
+
+    /**
+     * Esegue una ricerca in background e aggiunge al {@link SourceList} i
+     * risultati a blocchi, man mano che vengono trovati. I blocchi pubblicati
+     * tra due cicli dell'EDT vengono accorpati da {@link SwingWorker} e
+     * aggiunti con un unico aggiornamento.
+     */
+    private class SearchWorker extends SwingWorker<SearchMetrics, List<Snippet>> {
+        private final String[] keywords;
+
+        SearchWorker(String[] keywords) {
+            this.keywords = keywords;
+        }
+
+        @Override
+        protected SearchMetrics doInBackground() {
+            return Loader.DBMS_INSTANCE.search(keywords, DBMS.SEARCH_BATCH_SIZE, new SearchResultsListener() {
+                @Override
+                public boolean resultsFound(List<Snippet> batch) {
+                    publish(batch);
+                    return !isCancelled();
+                }
+
+                @Override
+                public void searchCompleted(SearchMetrics metrics) {
+                }
+            });
+        }
+
+        @Override
+        protected void process(List<List<Snippet>> chunks) {
+            if (searchWorker != this || !state.isSearchActive()) {
+                return;
+            }
+
+            List<Snippet> snippets = new ArrayList<Snippet>();
+            for (List<Snippet> chunk : chunks) {
+                snippets.addAll(chunk);
+            }
+            appendSearchResults(snippets);
+        }
+
+        @Override
+        protected void done() {
+            if (searchWorker != this) {
+                return;
+            }
+            searchWorker = null;
+
+            if (isCancelled()) {
+                return;
+            }
+
+            try {
+                SearchMetrics metrics = get();
+                logger.info(String.format("search %s: %s", Arrays.toString(keywords), metrics));
+
+                // la ricerca non ha dato risultati: emetto un effetto sonoro
+                if (metrics.getResultCount() == 0) {
+                    Toolkit.getDefaultToolkit().beep();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                logger.error("search failed", ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Aggiunge al {@link SourceList} un blocco di risultati della ricerca in
+     * corso, mantenendo categorie e snippet in ordine alfabetico. Tutto il
+     * blocco viene inserito nello stesso evento dell'EDT.
+     *
+     * @param snippets Gli snippet trovati.
+     */
+    private void appendSearchResults(List<Snippet> snippets) {
+        controller.addSearchResults(snippets);
+
+        Map<String, List<String>> additions = new TreeMap<String, List<String>>();
+        for (Snippet snippet : snippets) {
+            List<String> names = additions.get(snippet.getCategory());
+            if (names == null) {
+                names = new ArrayList<String>();
+                additions.put(snippet.getCategory(), names);
+            }
+            names.add(snippet.getName());
+        }
+        for (List<String> names : additions.values()) {
+            Collections.sort(names);
+        }
+
+        new SourceListReconciler(sourceList.getModel()).merge(additions);
+    }
+
     final ActionListener IMPORT_PACKAGE_ACTION = new ActionListener() {
         @Override
         public void actionPerformed(ActionEvent e) {
@@ -819,6 +1049,13 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         }
     };
 
+    final ActionListener IMPORT_SOURCE_TREE_ACTION = new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            importSourceTree();
+        }
+    };
+
     final ActionListener EXPORT_ALL_SNIPPETS_ACTION = new ActionListener() {
         @Override
         public void actionPerformed(ActionEvent e) {
@@ -826,6 +1063,45 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         }
     };
 
+    final ActionListener EXPORT_CHANGES_ACTION = new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            exportChanges();
+        }
+    };
+
+    /**
+     * Attiva o disattiva l'importazione automatica dei pacchetti copiati in
+     * una cartella (vedi {@link DropFolderWatcher}).
+     */
+    final ActionListener DROP_FOLDER_ACTION = new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            String path = null;
+            if (dropFolderMenuItem.isSelected()) {
+                JFileChooser chooser = new JFileChooser(ApplicationSettings.getInstance().getUserHome());
+                chooser.setDialogTitle("Choose The Folder To Watch...");
+                chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+                if (chooser.showOpenDialog(MainFrame.this) != JFileChooser.APPROVE_OPTION) {
+                    dropFolderMenuItem.setSelected(false);
+                    return;
+                }
+                path = chooser.getSelectedFile().getAbsolutePath();
+            }
+
+            ApplicationSettings.getInstance().setDropFolderPath(path);
+            ApplicationSettingsManager.saveApplicationSettings();
+            startDropFolderWatcher();
+        }
+    };
+
+    final ActionListener MIRROR_ACTION = new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            mirrorSnippets();
+        }
+    };
+
     final ActionListener EXPORT_CATEGORY_ACTION = new ActionListener() {
         @Override
         public void actionPerformed(ActionEvent e) {
@@ -1038,9 +1314,15 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
      * @param destinationName Il nome di destinazione.
      */
     private void moveCategoryInSourceList(String sourceName, String destinationName) {
+        if (lazySourceList.isActive()) {
+            // le pagine ancora da caricare fanno riferimento al vecchio nome
+            reloadSourceList();
+            return;
+        }
+
         SourceListCategory oldCategory = getSourceListCategoryOf(sourceName);
         if (sourceName.equalsIgnoreCase(destinationName)) {
-            oldCategory.setText(destinationName);
+            sourceListIndex.renameCategory(oldCategory, destinationName);
             return;
         }
 
@@ -1049,7 +1331,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
 
         // newCategory e' null --> basta rinominare l'attuale
         if (newCategory == null) {
-            oldCategory.setText(destinationName);
+            sourceListIndex.renameCategory(oldCategory, destinationName);
         } else {
             // newCategory non e' null -> devo spostare tutti gli item degli
             // snippet nella nuova categoria
@@ -1100,17 +1382,27 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         public void actionPerformed(ActionEvent e) {
             // leggo la voce di menu cliccata dall'utente
             menuItemClicked = e.getActionCommand();
+            final String clicked = menuItemClicked;
 
-            // l'utente ha cliccato su "Remove"
-            if (menuItemClicked.equals("Remove")) {
-                // ottengo lo snippet presente nel punto cui l'utente ha
-                // cliccato il tasto destro del mouse
-                Snippet snippet = controller.getSnippet(text);
+            // ottengo lo snippet presente nel punto cui l'utente ha cliccato
+            // il tasto destro del mouse
+            controller.getSnippet(text).thenAcceptAsync(new Consumer<Snippet>() {
+                @Override
+                public void accept(Snippet snippet) {
+                    if (snippet != null) {
+                        perform(snippet, clicked);
+                    }
+                }
+            }, AsyncDBMS.EDT);
+        }
 
+        private void perform(Snippet oldSnippet, String clicked) {
+            // l'utente ha cliccato su "Remove"
+            if (clicked.equals("Remove")) {
                 // rimuove lo snippet dal database e chiama in cascata i vari
                 // listener interessati all'evento
-                controller.removeSnippet(snippet);
-                actionsAfterRemovingSnippet(snippet);
+                reportFailure(controller.removeSnippet(oldSnippet), "remove the snippet");
+                actionsAfterRemovingSnippet(oldSnippet);
 
                 return;
             }
@@ -1118,16 +1410,12 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             // se l'esecuzione arriva qui significa che l'utente ha cliccato su
             // una categoria esistente o sulla voce per crearne una nuova
 
-            // ottengo lo snippet presente nel punto cui l'utente ha cliccato il
-            // tasto destro del mouse
-            Snippet oldSnippet = controller.getSnippet(text);
-
             // destinazione dello snippet
             String category = new String();
 
             // l'utente vuole spostare lo snippet in una nuova categoria quindi
             // gli chiedo di inserirmela
-            if (menuItemClicked.equals("New Category...")) {
+            if (clicked.equals("New Category...")) {
                 category = JOptionPane.showInputDialog(MainFrame.this,
                         "<html><b>Please insert the name of a new category</b>" + "<br><font size=-1>The name must be shorter than " + ApplicationConstants.CATEGORY_LENGTH + " characters.</font></html>", "Move Into A New Category...",
                         JOptionPane.QUESTION_MESSAGE);
@@ -1146,7 +1434,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
                 }
             } else {
                 // in questo caso ha scelto una delle categorie gia' esistenti
-                category = menuItemClicked;
+                category = clicked;
             }
 
             Snippet newSnippet;
@@ -1154,7 +1442,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             newSnippet = new Snippet(oldSnippet);
             newSnippet.setCategory(category);
 
-            controller.updateSnippet(oldSnippet, newSnippet);
+            reportFailure(controller.updateSnippet(oldSnippet, newSnippet), "move the snippet");
             boolean locked = state.isSnippetLocked();
             updateSnippetInSourceList(oldSnippet, newSnippet);
             state.updateSnippetStatus(State.getInstance().getCurrentSnippet(), true, true, locked);
@@ -1183,7 +1471,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             if (menuItemClicked.equals("Remove")) {
                 // Rimuovo dal database la categoria e tutti i suoi snippet. In
                 // caso di successo rimuovo la categoria anche dal SourceList.
-                controller.removeCategory(text);
+                reportFailure(controller.removeCategory(text), "remove the category");
                 state.categoryRemoved(text);
                 state.updateSnippetStatus(state.getSelectedSnippet(), state.isSnippetValidated(), state.isSnippetSaved(), state.isSnippetLocked());
                 state.updateMenu(true, true);
@@ -1212,7 +1500,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
                     newSyntax = new Syntax("");
                 }
 
-                controller.updateSyntax(newSyntax, text, !state.isSnippetSaved() ? state.getSelectedSnippet() : null);
+                reportFailure(controller.updateSyntax(newSyntax, text, !state.isSnippetSaved() ? state.getSelectedSnippet() : null), "set the syntax");
                 state.syntaxRenamed(newSyntax, text);
 
                 // restituisce subito il controllo
@@ -1243,7 +1531,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
 
             // dopo aver ottenuto il nuovo nome e verificato se e' valido
             // aggiorno il database e il SourceList
-            controller.renameCategory(text, newName);
+            reportFailure(controller.renameCategory(text, newName), "rename the category");
             state.categoryRenamed(text, newName);
             state.updateSnippetStatus(state.getCurrentSnippet(), false, false, false);
             state.updateWindowStatus(false);
@@ -1260,7 +1548,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             dialog.setFilenameFilter(new FilenameFilter() {
                 @Override
                 public boolean accept(File dir, String name) {
-                    return name.endsWith(ApplicationConstants.JCC_EXTENSION);
+                    return name.endsWith(ApplicationConstants.JCC_EXTENSION) || name.endsWith(ApplicationConstants.JCC_BINARY_EXTENSION);
                 }
             });
             dialog.setMode(FileDialog.LOAD);
@@ -1281,16 +1569,17 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             chooser.setAcceptAllFileFilterUsed(false);
             chooser.setDialogTitle("Import Snippets Package...");
             chooser.setMultiSelectionEnabled(false);
-            chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+            chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
             chooser.setFileFilter(new FileFilter() {
                 @Override
                 public String getDescription() {
-                    return "jCodeCollector Package (.jccp)";
+                    return "jCodeCollector Package (.jccp, .jccb)";
                 }
 
                 @Override
                 public boolean accept(File f) {
-                    return f.getName().endsWith(ApplicationConstants.JCC_EXTENSION) | f.isDirectory();
+                    return f.getName().endsWith(ApplicationConstants.JCC_EXTENSION) | f.getName().endsWith(ApplicationConstants.JCC_BINARY_EXTENSION)
+                            | f.isDirectory();
                 }
             });
 
@@ -1301,36 +1590,457 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             path = chooser.getSelectedFile();
         }
 
-        // leggo il contenuto del file indicato dall'utente
-        List<Snippet> snippets = PackageManager.readPackage(path);
+        // importo il contenuto del file (o della cartella) indicato
+        // dall'utente in background: lettura e scrittura nel database
+        // procedono in parallelo
+        startPackageTask(new ImportTask(PackageSource.forFile(path), ConflictPolicy.KEEP_LOCAL));
+    }
 
-        if (snippets == null) {
-            JOptionPane.showMessageDialog(MainFrame.this, "The selected file is not valid.", "Error!", JOptionPane.ERROR_MESSAGE, null);
+    /**
+     * Importa come snippet i file sorgente di una cartella (vedi
+     * {@link SourceTreeSource}), chiedendo all'utente quali file includere
+     * ed escludere.
+     */
+    private void importSourceTree() {
+        JFileChooser chooser = new JFileChooser(ApplicationSettings.getInstance().getUserHome());
+        chooser.setDialogTitle("Import Snippets From A Source Tree...");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showOpenDialog(MainFrame.this) != JFileChooser.APPROVE_OPTION) {
             return;
         }
 
-        if (snippets.size() == 0) {
-            JOptionPane.showMessageDialog(MainFrame.this, "The selected file does not contain any snippets!", "Warning!", JOptionPane.INFORMATION_MESSAGE, null);
+        JTextField includeField = new JTextField(30);
+        JTextField excludeField = new JTextField("target, build, node_modules", 30);
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        panel.add(new JLabel("Include (comma separated globs, empty for all known source files):"));
+        panel.add(includeField);
+        panel.add(new JLabel("Exclude (comma separated globs):"));
+        panel.add(excludeField);
+        if (JOptionPane.showConfirmDialog(MainFrame.this, panel, "Import " + chooser.getSelectedFile().getName(), JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
             return;
         }
 
-        for (Snippet s : snippets) {
-            Loader.DBMS_INSTANCE.insertNewSnippet(s);
+        SourceTreeSource source = new SourceTreeSource(chooser.getSelectedFile(), Utility.splitList(includeField.getText()),
+                Utility.splitList(excludeField.getText()));
+        startPackageTask(new ImportTask(source, ConflictPolicy.KEEP_LOCAL));
+    }
+
+    /**
+     * Importa un pacchetto in background. Il {@link SourceList} e i menu
+     * vengono aggiornati una sola volta, alla fine dell'importazione.
+     */
+    private class ImportTask extends ProgressTask<ImportMetrics> {
+        private final PackageSource source;
+        private final ImportPipeline pipeline;
+
+        ImportTask(PackageSource source, ConflictPolicy policy) {
+            this(source, new ImportPipeline(Loader.DBMS_INSTANCE, policy));
+        }
+
+        private ImportTask(PackageSource source, ImportPipeline pipeline) {
+            super(MainFrame.this, "Importing " + source + "...", pipeline.getMetrics());
+            this.source = source;
+            this.pipeline = pipeline;
         }
 
-        // se va tutto bene ricarico il SourceList
-        reloadSourceList();
+        @Override
+        protected void perform(ImportMetrics metrics) throws Exception {
+            pipeline.run(source);
+        }
 
-        // forzo l'aggiornamento del sub-menu con l'elenco delle categorie
-        state.updateMenu(true, true);
+        @Override
+        protected double getCompletion(ImportMetrics metrics) {
+            return metrics.getTotalBytes() == 0 ? 0 : (double) metrics.getBytesRead() / metrics.getTotalBytes();
+        }
+
+        @Override
+        protected String getNote(ImportMetrics metrics) {
+            return String.format("%d snippets read, %d imported (%.0f/s), %d of %d KB", metrics.getRead(), metrics.getImported(),
+                    metrics.getRecordsPerSecond(), metrics.getBytesRead() / 1024, metrics.getTotalBytes() / 1024);
+        }
+
+        @Override
+        protected void cancelTask() {
+            pipeline.cancel();
+        }
+
+        @Override
+        protected void finished(ImportMetrics metrics, Throwable failure) {
+            packageTaskFinished();
+            logger.info(String.format("import of %s: %s", source, metrics));
+            if (source instanceof SourceTreeSource) {
+                reportSkippedFiles(((SourceTreeSource) source).getSkipped());
+            }
+
+            if (failure == null) {
+                failure = metrics.getFailure();
+            }
+            if (failure != null) {
+                logger.error("import failed", failure);
+                String message;
+                if (metrics.getImported() > 0) {
+                    // gli snippet gia' salvati restano: il file non va
+                    // indicato come non valido
+                    message = String.format("Import stopped after %d snippets:\n%s", metrics.getImported(), describe(failure));
+                } else if (formatFailure(failure) != null) {
+                    message = "The selected file is not valid:\n" + describe(formatFailure(failure));
+                } else {
+                    message = "Cannot import the selected file:\n" + describe(failure);
+                }
+                JOptionPane.showMessageDialog(MainFrame.this, message, "Error!", JOptionPane.ERROR_MESSAGE, null);
+                if (metrics.getImported() == 0) {
+                    return;
+                }
+            } else if (metrics.isCancelled()) {
+                if (metrics.getImported() == 0) {
+                    return;
+                }
+            } else if (metrics.getRead() == 0 && metrics.getDeleted() == 0) {
+                JOptionPane.showMessageDialog(MainFrame.this, "The selected file does not contain any snippets!", "Warning!", JOptionPane.INFORMATION_MESSAGE, null);
+                return;
+            } else if (metrics.getConflicts() > 0 && resolveConflicts(metrics)) {
+                return;
+            } else if (metrics.getRejected() > 0) {
+                JOptionPane.showMessageDialog(MainFrame.this, metrics.getImported() + " snippets imported, " + metrics.getRejected()
+                        + " not valid and skipped.", "Warning!", JOptionPane.INFORMATION_MESSAGE, null);
+            }
+
+            // ricarico il SourceList una sola volta, per tutti gli snippet
+            // importati
+            reloadSourceList();
+
+            // forzo l'aggiornamento del sub-menu con l'elenco delle categorie
+            state.updateMenu(true, true);
+        }
+
+        /**
+         * Cerca tra le cause di un errore una {@link PackageFormatException}.
+         *
+         * @return l'eccezione trovata, <code>null</code> se l'errore non
+         *         dipende dal formato del pacchetto
+         */
+        private PackageFormatException formatFailure(Throwable failure) {
+            for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+                if (cause instanceof PackageFormatException) {
+                    return (PackageFormatException) cause;
+                }
+            }
+            return null;
+        }
+
+        /** Descrive un errore all'utente, senza le eccezioni che lo avvolgono. */
+        private String describe(Throwable failure) {
+            Throwable cause = failure;
+            while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            return cause.getMessage() != null ? cause.getMessage() : cause.toString();
+        }
+
+        /** Segnala i file sorgente che non sono stati importati. */
+        private void reportSkippedFiles(Map<String, String> skipped) {
+            if (skipped.isEmpty()) {
+                return;
+            }
+
+            StringBuilder text = new StringBuilder();
+            text.append(skipped.size()).append(" files were not imported:\n");
+            int shown = 0;
+            for (Map.Entry<String, String> entry : skipped.entrySet()) {
+                logger.warn(String.format("%s not imported: %s", entry.getKey(), entry.getValue()));
+                if (shown++ < 10) {
+                    text.append("\n").append(entry.getKey()).append(" (").append(entry.getValue()).append(")");
+                }
+            }
+            if (skipped.size() > 10) {
+                text.append("\n...\n\nSee log file for the complete list.");
+            }
+            JOptionPane.showMessageDialog(MainFrame.this, text.toString(), "Warning!", JOptionPane.WARNING_MESSAGE);
+        }
+
+        /**
+         * Chiede all'utente come risolvere i conflitti e, se necessario,
+         * ripete l'importazione: l'importazione e' idempotente, quindi
+         * ripetendola vengono elaborati solo gli snippet in conflitto.
+         *
+         * @return <code>true</code> se e' stata avviata una nuova importazione
+         */
+        private boolean resolveConflicts(ImportMetrics metrics) {
+            Object[] options = { "Keep Mine", "Keep Both", "Overwrite" };
+            int choice = JOptionPane.showOptionDialog(MainFrame.this, metrics.getConflicts()
+                    + " snippets in the package differ from the ones with the same name.", "Conflicts", JOptionPane.DEFAULT_OPTION,
+                    JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+            if (choice != 1 && choice != 2) {
+                return false;
+            }
+
+            startPackageTask(new ImportTask(source, choice == 1 ? ConflictPolicy.KEEP_BOTH : ConflictPolicy.OVERWRITE));
+            return true;
+        }
+    }
+
+    /**
+     * Esporta un pacchetto in background. Il file incompleto di
+     * un'esportazione annullata o fallita viene cancellato. Con
+     * {@link #ExportTask(File)} aggiorna invece la copia degli snippet in una
+     * cartella (vedi {@link MirrorExporter}).
+     */
+    private class ExportTask extends ProgressTask<ExportMetrics> {
+        private final File file;
+        private final String category;
+        private final boolean binary;
+        private final boolean mirror;
+
+        ExportTask(File file, String category, boolean binary) {
+            super(MainFrame.this, "Exporting " + (category == null ? "All Snippets" : category) + "...", new ExportMetrics());
+            this.file = file;
+            this.category = category;
+            this.binary = binary;
+            this.mirror = false;
+        }
+
+        ExportTask(File directory) {
+            super(MainFrame.this, "Mirroring Snippets To " + directory.getName() + "...", new ExportMetrics());
+            this.file = directory;
+            this.category = null;
+            this.binary = false;
+            this.mirror = true;
+        }
+
+        @Override
+        protected void perform(ExportMetrics metrics) {
+            if (mirror) {
+                new MirrorExporter(Loader.DBMS_INSTANCE, file).sync(metrics);
+            } else if (binary) {
+                PackageManager.exportSnippetsBinary(file, category, metrics);
+            } else {
+                PackageManager.exportSnippets(file, category, false, metrics);
+            }
+        }
+
+        @Override
+        protected double getCompletion(ExportMetrics metrics) {
+            return metrics.getTotal() <= 0 ? 0 : (double) metrics.getWritten() / metrics.getTotal();
+        }
+
+        @Override
+        protected String getNote(ExportMetrics metrics) {
+            if (mirror) {
+                return String.format("%d of %d changed snippets written, %d unchanged, %d deleted", metrics.getWritten(),
+                        Math.max(0, metrics.getTotal()), metrics.getUnchanged(), metrics.getDeleted());
+            }
+            return String.format("%d of %d snippets (%.0f/s), %d KB", metrics.getWritten(), Math.max(0, metrics.getTotal()),
+                    metrics.getRecordsPerSecond(), metrics.getBytesWritten() / 1024);
+        }
+
+        @Override
+        protected void cancelTask() {
+            getStatus().cancel();
+        }
+
+        @Override
+        protected void finished(ExportMetrics metrics, Throwable failure) {
+            packageTaskFinished();
+            logger.info(String.format("export of %s: %s", file, metrics));
+
+            if (failure == null) {
+                failure = metrics.getFailure();
+            }
+            if (failure != null) {
+                logger.error("export failed", failure);
+                JOptionPane.showMessageDialog(MainFrame.this, "An error occurred while exporting the snippets. See log file for details.", "", JOptionPane.ERROR_MESSAGE);
+            } else if (!metrics.isCancelled() && !metrics.getSkipped().isEmpty()) {
+                JOptionPane.showMessageDialog(MainFrame.this, metrics.getSkipped().size() + " snippets could not be exported: "
+                        + metrics.getSkipped() + ". See log file for details.", "Warning!", JOptionPane.WARNING_MESSAGE);
+            }
+        }
+    }
+
+    /** L'importazione o l'esportazione in corso, <code>null</code> se non ce ne sono. */
+    private ProgressTask<?> packageTask;
+
+    /**
+     * Avvia un'importazione o un'esportazione: finche' non termina, import ed
+     * export restano disabilitati.
+     */
+    private void startPackageTask(ProgressTask<?> task) {
+        packageTask = task;
+        importFromPackageMenuItem.setEnabled(false);
+        importSourceTreeMenuItem.setEnabled(false);
+        exportSubMenu.setEnabled(false);
+        task.start();
+    }
+
+    private void packageTaskFinished() {
+        packageTask = null;
+        importFromPackageMenuItem.setEnabled(true);
+        importSourceTreeMenuItem.setEnabled(true);
+        exportSubMenu.setEnabled(true);
+    }
+
+    /** Osserva la drop folder, <code>null</code> se e' disattivata. */
+    private DropFolderWatcher dropFolderWatcher;
+
+    /**
+     * Ricarica il SourceList quando un pacchetto della drop folder e' stato
+     * importato. Viene chiamato dal thread del {@link DropFolderWatcher}.
+     */
+    private final DropFolderListener DROP_FOLDER_LISTENER = new DropFolderListener() {
+        @Override
+        public void packageImported(final File file, final ImportMetrics metrics) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (metrics.getFailure() != null) {
+                        logger.warn("cannot import " + file + " from the drop folder", metrics.getFailure());
+                        return;
+                    }
+                    if (metrics.getImported() > 0 || metrics.getDeleted() > 0) {
+                        reloadSourceList();
+                        state.updateMenu(true, true);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * Inizia a osservare la drop folder indicata nelle impostazioni,
+     * smettendo di osservare quella precedente. Se la drop folder e'
+     * disattivata non fa nulla.
+     */
+    public void startDropFolderWatcher() {
+        if (dropFolderWatcher != null) {
+            dropFolderWatcher.stop();
+            dropFolderWatcher = null;
+        }
+
+        String path = ApplicationSettings.getInstance().getDropFolderPath();
+        dropFolderMenuItem.setSelected(path != null);
+        if (path == null) {
+            return;
+        }
+
+        File history = new File(ApplicationSettings.getInstance().getDatabasePath() + "jCodeCollector", ApplicationSettings.DROP_FOLDER_HISTORY_NAME);
+        DropFolderWatcher watcher = new DropFolderWatcher(Loader.DBMS_INSTANCE, new File(path), history, DROP_FOLDER_LISTENER);
+        try {
+            watcher.start();
+            dropFolderWatcher = watcher;
+        } catch (IOException ex) {
+            logger.warn("cannot watch " + path, ex);
+            dropFolderMenuItem.setSelected(false);
+        }
     }
 
     public void exportPackage(String name) {
+        File path = choosePackageFile("Create A Package For " + (name == null ? "All Snippets" : name) + "...");
+        if (path == null) {
+            return;
+        }
+
+        // i pacchetti binari vengono creati solo se richiesti esplicitamente
+        boolean binary = path.getAbsolutePath().endsWith(ApplicationConstants.JCC_BINARY_EXTENSION);
+        if (!binary && !path.getAbsolutePath().endsWith(ApplicationConstants.JCC_EXTENSION)) {
+            path = new File(path.getAbsolutePath() + ApplicationConstants.JCC_EXTENSION);
+        }
+
+        startPackageTask(new ExportTask(path, name, binary));
+    }
+
+    /**
+     * Aggiorna la copia degli snippet nella cartella scelta dall'utente (vedi
+     * {@link MirrorExporter}). La cartella viene ricordata per le volte
+     * successive.
+     */
+    public void mirrorSnippets() {
+        String last = ApplicationSettings.getInstance().getMirrorFolderPath();
+        JFileChooser chooser = new JFileChooser(last != null ? last : ApplicationSettings.getInstance().getUserHome());
+        chooser.setDialogTitle("Mirror Snippets To Folder...");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (last != null) {
+            chooser.setSelectedFile(new File(last));
+        }
+        if (chooser.showSaveDialog(MainFrame.this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        File directory = chooser.getSelectedFile();
+        ApplicationSettings.getInstance().setMirrorFolderPath(directory.getAbsolutePath());
+        ApplicationSettingsManager.saveApplicationSettings();
+        startPackageTask(new ExportTask(directory));
+    }
+
+    /**
+     * Esporta le modifiche successive a una generazione indicata dall'utente,
+     * vedi {@link PackageManager#exportChanges(File, long)}.
+     */
+    public void exportChanges() {
+        Loader.ASYNC_DBMS.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return Loader.DBMS_INSTANCE.getCurrentGeneration();
+            }
+        }).thenAcceptAsync(new Consumer<Long>() {
+            @Override
+            public void accept(Long current) {
+                exportChanges(current);
+            }
+        }, AsyncDBMS.EDT);
+    }
+
+    private void exportChanges(long current) {
+        String answer = (String) JOptionPane.showInputDialog(MainFrame.this, "Export the changes made after generation (the current one is " + current
+                + ", -1 exports everything):", "Export Changes", JOptionPane.QUESTION_MESSAGE, null, null, "-1");
+        if (answer == null) {
+            return;
+        }
+
+        long since;
+        try {
+            since = Long.parseLong(answer.trim());
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(MainFrame.this, "\"" + answer + "\" is not a valid generation.", "Error!", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        File path = choosePackageFile("Create A Package For The Changes Since " + since + "...");
+        if (path == null) {
+            return;
+        }
+        if (!path.getAbsolutePath().endsWith(ApplicationConstants.JCC_EXTENSION)) {
+            path = new File(path.getAbsolutePath() + ApplicationConstants.JCC_EXTENSION);
+        }
+
+        final File file = path;
+        final long generation = since;
+        Loader.ASYNC_DBMS.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return PackageManager.exportChanges(file, generation);
+            }
+        }).thenAcceptAsync(new Consumer<Boolean>() {
+            @Override
+            public void accept(Boolean exported) {
+                if (!exported) {
+                    JOptionPane.showMessageDialog(MainFrame.this, "An error occurred while exporting the snippets. See log file for details.", "", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }, AsyncDBMS.EDT);
+    }
+
+    /**
+     * Chiede all'utente dove salvare un pacchetto.
+     *
+     * @param title Il titolo della finestra di dialogo su Mac OS X.
+     * @return il file scelto, <code>null</code> se l'utente annulla
+     */
+    private File choosePackageFile(String title) {
         File path;
 
         if (OS.isMacOSX()) {
             FileDialog dialog = new FileDialog(MainFrame.this);
-            dialog.setTitle("Create A Package For " + (name == null ? "All Snippets" : name) + "...");
+            dialog.setTitle(title);
             dialog.setModal(true);
             dialog.setFilenameFilter(new FilenameFilter() {
                 @Override
@@ -1348,7 +2058,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             String file = dialog.getFile();
 
             if (file == null) {
-                return;
+                return null;
             }
 
             path = new File(directory + file);
@@ -1371,66 +2081,80 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             });
 
             if (chooser.showSaveDialog(MainFrame.this) != JFileChooser.APPROVE_OPTION) {
-                return;
+                return null;
             }
 
             path = chooser.getSelectedFile();
         }
 
-        if (!path.getAbsolutePath().endsWith(ApplicationConstants.JCC_EXTENSION)) {
-            path = new File(path.getAbsolutePath() + ApplicationConstants.JCC_EXTENSION);
-        }
-
-        if (!PackageManager.exportSnippets(path, name)) {
-            JOptionPane.showMessageDialog(MainFrame.this, "An error occurred while exporting the snippets. See log file for details.", "", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-
-    /** Svuota il {@link SourceList} */
-    private void resetSourceList() {
-        SourceListCategory[] categories = sourceList.getModel().getCategories().toArray(new SourceListCategory[] {});
-        for (int i = 0; i < categories.length; i++) {
-            sourceList.getModel().removeCategory(categories[i]);
-        }
+        return path;
     }
 
-    private final static class SnippetCategoryComparator implements Comparator<Snippet> {
-
-        @Override
-        public int compare(Snippet o1, Snippet o2) {
-            return o1.getCategory().compareTo(o2.getCategory());
+    /**
+     * Legge in background il contenuto del database e popola il
+     * {@link SourceList}. Se gli snippet sono piu' di
+     * {@link ApplicationConstants#LAZY_SOURCE_LIST_THRESHOLD} vengono lette
+     * solo le categorie e i nomi degli snippet vengono caricati quando le
+     * categorie vengono aperte, vedi {@link LazySourceList}.
+     *
+     * @return il future che termina quando il {@link SourceList} e' stato
+     *         popolato
+     */
+    public CompletableFuture<Void> reloadSourceList() {
+        if (controller.isSearchActive()) {
+            return loadSourceList();
         }
-    }
-    private final static SnippetCategoryComparator SNIPPET_CATEGORY_COMPARATOR = new SnippetCategoryComparator();
 
-    /** Legge il contenuto del database e popola il {@link SourceList}. */
-    public void reloadSourceList() {
-        // svuoto il SourceList
-        resetSourceList();
+        return controller.countSnippetsByCategory().thenComposeAsync(new Function<Map<String, Integer>, CompletionStage<Void>>() {
+            @Override
+            public CompletionStage<Void> apply(Map<String, Integer> counts) {
+                int snippets = 0;
+                for (Integer count : counts.values()) {
+                    snippets += count;
+                }
 
-        // ottengo l'elenco delle categorie
-        List<String> categories = controller.getCategories();
+                if (snippets <= ApplicationConstants.LAZY_SOURCE_LIST_THRESHOLD || controller.isSearchActive()) {
+                    return loadSourceList();
+                }
 
-        for (String category : categories) {
-            /* Il nome di una categoria e' case-insensitive: verifico se la
-             * categoria corrente e' gia' nel SourceList. In caso affermativo
-             * la riutilizzo, altrimenti ne creo una nuova. */
-            SourceListCategory categoryItem = getSourceListCategoryOf(category);
-            if (categoryItem == null) {
-                categoryItem = new SourceListCategory(category);
-                sourceList.getModel().addCategory(categoryItem);
+                lazySourceList.fill(counts);
+                state.updateWindowStatus(false);
+                return CompletableFuture.completedFuture(null);
             }
+        }, AsyncDBMS.EDT);
+    }
 
-            // ottengo l'elenco degli snippet e lo ordino alfabeticamente
-            List<Snippet> snippets = controller.getSnippetsName(category);
-            snippets.sort(SNIPPET_CATEGORY_COMPARATOR);
+    /** Popola il {@link SourceList} con tutti gli snippet. */
+    private CompletableFuture<Void> loadSourceList() {
+        return controller.getSnippetsByCategory().thenAcceptAsync(new Consumer<Map<String, List<Snippet>>>() {
+            @Override
+            public void accept(Map<String, List<Snippet>> snippetsByCategory) {
+                fillSourceList(snippetsByCategory);
+            }
+        }, AsyncDBMS.EDT);
+    }
 
+    /**
+     * Aggiorna il {@link SourceList} con il contenuto letto dal database,
+     * modificando solo le categorie e gli snippet cambiati.
+     */
+    private void fillSourceList(Map<String, List<Snippet>> snippetsByCategory) {
+        Map<String, List<String>> snapshot = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, List<Snippet>> entry : snippetsByCategory.entrySet()) {
+            // ordino gli snippet alfabeticamente
+            List<Snippet> snippets = entry.getValue();
+            Collections.sort(snippets, SearchResults.NAME_ORDER);
+
+            List<String> names = new ArrayList<String>(snippets.size());
             for (Snippet snippet : snippets) {
-                SourceListItem snippetItem = new SourceListItem(snippet.getCategory());
-                sourceList.getModel().addItemToCategory(snippetItem, categoryItem);
+                names.add(snippet.getName());
             }
+            snapshot.put(entry.getKey(), names);
         }
 
+        lazySourceList.deactivate();
+        new SourceListReconciler(sourceList.getModel()).reconcile(snapshot);
+
         state.updateWindowStatus(false);
     }
 
@@ -1448,16 +2172,19 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
             throw new IllegalArgumentException("\"category\" must not be null");
         }
 
-        List<SourceListCategory> categories = sourceList.getModel().getCategories();
-        Iterator<SourceListCategory> iterator = categories.iterator();
-        while (iterator.hasNext()) {
-            SourceListCategory sourceListCategory = iterator.next();
-            if (category.equalsIgnoreCase(sourceListCategory.getText())) {
-                return sourceListCategory;
-            }
-        }
+        return sourceListIndex.getCategory(category);
+    }
 
-        return null;
+    /**
+     * Restituisce il {@link SourceListCategory} che contiene l'elemento
+     * indicato.
+     *
+     * @param item Un elemento del {@link SourceList}.
+     * @return la categoria dell'elemento, <code>null</code> se l'elemento non
+     *         e' nel {@link SourceList}
+     */
+    private SourceListCategory getSourceListCategoryOf(SourceListItem item) {
+        return sourceListIndex.getCategoryOf(item);
     }
 
     /**
@@ -1470,22 +2197,7 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
      *         esiste), <code>null</code> altrimenti
      */
     private SourceListItem getSourceListItemOf(String snippet) {
-        List<SourceListCategory> categories = sourceList.getModel().getCategories();
-        Iterator<SourceListCategory> iterator = categories.iterator();
-
-        while (iterator.hasNext()) {
-            SourceListCategory sourceListCategory = iterator.next();
-            List<SourceListItem> items = sourceListCategory.getItems();
-            Iterator<SourceListItem> innerIterator = items.iterator();
-            while (innerIterator.hasNext()) {
-                SourceListItem sourceListItem = innerIterator.next();
-                if (sourceListItem.getText().equals(snippet)) {
-                    return sourceListItem;
-                }
-            }
-        }
-
-        return null;
+        return sourceListIndex.getItem(snippet);
     }
 
     public AboutWindow getAboutWindow() {
@@ -1500,20 +2212,26 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         temp += (snippets != 1) ? "s" : "";
 
         statusLabel.setText(temp);
+
+        // il conteggio dice anche se il database e' vuoto
+        exportAllMenuItem.setEnabled(!state.isDatabaseEmpty() && menuEnabled);
     }
 
     @Override
     public void categoriesUpdated(String selected) {
+        categoryMenu.invalidate();
     }
 
     @Override
     public void categoryRemoved(String name) {
         removeCategoryFromSourceList(name);
+        categoryMenu.invalidate();
     }
 
     @Override
     public void categoryRenamed(String oldName, String newName) {
         moveCategoryInSourceList(oldName, newName);
+        categoryMenu.invalidate();
     }
 
     @Override
@@ -1607,11 +2325,16 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
                 searchTextField.setText(null);
             }
 
-            reloadSourceList();
+            CompletableFuture<Void> reload = reloadSourceList();
 
-            if (oldStatus && !newStatus) {
-                Snippet selectedSnippet = Loader.DBMS_INSTANCE.getSnippet(selected);
-                manuallySelectItem(selectedSnippet);
+            if (oldStatus && !newStatus && selected != null) {
+                final String name = selected;
+                reload.thenRunAsync(new Runnable() {
+                    @Override
+                    public void run() {
+                        manuallySelectItem(name);
+                    }
+                }, AsyncDBMS.EDT);
             }
         }
     }
@@ -1625,21 +2348,29 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
      *
      * @param text Il testo contenuto nel {@link SourceListItem} da selezionare.
      */
-    private void manuallySelectItem(Snippet text) {
-        Iterator<SourceListCategory> iterator = sourceList.getModel().getCategories().iterator();
-        while (iterator.hasNext()) {
-            Iterator<SourceListItem> innerIterator = iterator.next().getItems().iterator();
-            while (innerIterator.hasNext()) {
-                SourceListItem item = innerIterator.next();
-                if (item.getText().equals(text)) {
-                    sourceList.setSelectedItem(item);
-                    sourceList.scrollItemToVisible(item);
-                    return;
+    private void manuallySelectItem(final String text) {
+        SourceListItem item = getSourceListItemOf(text);
+        if (item != null) {
+            sourceList.setSelectedItem(item);
+            sourceList.scrollItemToVisible(item);
+        } else if (lazySourceList.isActive()) {
+            // lo snippet potrebbe non essere ancora stato caricato
+            lazySourceList.reveal(text).thenRunAsync(new Runnable() {
+                @Override
+                public void run() {
+                    SourceListItem item = getSourceListItemOf(text);
+                    if (item != null) {
+                        sourceList.setSelectedItem(item);
+                        sourceList.scrollItemToVisible(item);
+                    }
                 }
-            }
+            }, AsyncDBMS.EDT);
         }
     }
 
+    /** Il valore di <code>enabled</code> dell'ultimo {@link #updateMenu(boolean, boolean)}. */
+    private boolean menuEnabled = true;
+
     // top level menu
     private JMenu fileMenu;
     private JMenu snippetsMenu;
@@ -1650,11 +2381,15 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
     // file menu
     private JMenuItem reloadSourceListMenuItem;
     private JMenuItem importFromPackageMenuItem;
+    private JMenuItem importSourceTreeMenuItem;
 
     private JMenu exportSubMenu;
     private JMenuItem exportAllMenuItem;
+    private JMenuItem exportChangesMenuItem;
+    private JMenuItem mirrorMenuItem;
     private JMenu exportSnippetsInCategorySubMenu;
     private JMenuItem changeDirectoryMenuItem;
+    private JCheckBoxMenuItem dropFolderMenuItem;
 
     // view menu
     private JCheckBoxMenuItem showLineNumbersMenuItem;
@@ -1704,6 +2439,9 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         importFromPackageMenuItem.addActionListener(IMPORT_PACKAGE_ACTION);
         importFromPackageMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_I, MENU_SHORTCUT_KEY_MASK | InputEvent.ALT_DOWN_MASK));
 
+        importSourceTreeMenuItem = new JMenuItem("Import From A Source Tree...");
+        importSourceTreeMenuItem.addActionListener(IMPORT_SOURCE_TREE_ACTION);
+
         // export sub-menu
         exportSubMenu = new JMenu("Export");
 
@@ -1714,15 +2452,29 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
 
         exportSnippetsInCategorySubMenu = new JMenu("Only Snippets In");
         exportSubMenu.add(exportSnippetsInCategorySubMenu);
+        categoryMenu = new CategoryMenuModel(exportSnippetsInCategorySubMenu, EXPORT_CATEGORY_ACTION);
+
+        exportChangesMenuItem = new JMenuItem("Changes Since...");
+        exportChangesMenuItem.addActionListener(EXPORT_CHANGES_ACTION);
+        exportSubMenu.add(exportChangesMenuItem);
+
+        mirrorMenuItem = new JMenuItem("Mirror To Folder...");
+        mirrorMenuItem.addActionListener(MIRROR_ACTION);
+        exportSubMenu.add(mirrorMenuItem);
         // end export sub-menu
 
         changeDirectoryMenuItem = new JMenuItem("Change Database Location...");
         changeDirectoryMenuItem.addActionListener(CHANGE_LOCATION_ACTION);
 
+        dropFolderMenuItem = new JCheckBoxMenuItem("Watch Drop Folder...");
+        dropFolderMenuItem.addActionListener(DROP_FOLDER_ACTION);
+
         fileMenu.add(reloadSourceListMenuItem);
         fileMenu.addSeparator();
         fileMenu.add(importFromPackageMenuItem);
+        fileMenu.add(importSourceTreeMenuItem);
         fileMenu.add(exportSubMenu);
+        fileMenu.add(dropFolderMenuItem);
         fileMenu.addSeparator();
         fileMenu.add(changeDirectoryMenuItem);
 
@@ -1966,15 +2718,24 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
     @Override
     public void updateMenu(boolean enabled, boolean resetExportSubMenu) {
         Snippet name = state.getSelectedSnippet();
+        menuEnabled = enabled;
 
         // file menu
         reloadSourceListMenuItem.setEnabled(enabled);
 
-        importFromPackageMenuItem.setEnabled(enabled);
+        importFromPackageMenuItem.setEnabled(enabled && packageTask == null);
+        importSourceTreeMenuItem.setEnabled(enabled && packageTask == null);
+        exportSubMenu.setEnabled(packageTask == null);
         exportAllMenuItem.setEnabled(!state.isDatabaseEmpty() && enabled);
+        exportChangesMenuItem.setEnabled(enabled);
+        mirrorMenuItem.setEnabled(enabled);
 
-        // aggiorno il sub menu con le categorie di destinazione
-        updateExportCategorySubMenu(enabled, resetExportSubMenu);
+        // il sub menu con le categorie viene riletto solo se le categorie
+        // potrebbero essere cambiate
+        categoryMenu.setEnabled(enabled);
+        if (resetExportSubMenu) {
+            categoryMenu.invalidate();
+        }
 
         changeDirectoryMenuItem.setEnabled(enabled);
 
@@ -2009,28 +2770,6 @@ public class MainFrame extends JFrame implements CountListener, SnippetListener,
         closeWindowMenuItem.setEnabled(enabled);
     }
 
-    private void updateExportCategorySubMenu(boolean enabled, boolean resetExportSubMenu) {
-        if (!resetExportSubMenu) {
-            return;
-        }
-
-        exportSnippetsInCategorySubMenu.removeAll();
-
-        List<String> categories = Loader.DBMS_INSTANCE.getCategories();
-        for (int i = 0; i < categories.size(); i++) {
-            JMenuItem categoryMenuItem = new JMenuItem(categories.get(i));
-            categoryMenuItem.addActionListener(EXPORT_CATEGORY_ACTION);
-            categoryMenuItem.setEnabled(enabled);
-            exportSnippetsInCategorySubMenu.add(categoryMenuItem);
-        }
-
-        if (categories.size() == 0) {
-            JMenuItem emptyMenuItem = new JMenuItem("No Categories Available");
-            emptyMenuItem.setEnabled(false);
-            exportSnippetsInCategorySubMenu.add(emptyMenuItem);
-        }
-    }
-
     /** Serial Version UID. */
     private static final long serialVersionUID = 2875157835785998264L;
 
@@ -16,6 +16,7 @@
 package jcodecollector.gui;
 
 import java.awt.BorderLayout;
+import java.awt.CardLayout;
 import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
@@ -36,6 +37,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListCellRenderer;
@@ -45,6 +49,7 @@ import javax.swing.JComponent;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JList;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
@@ -62,9 +67,11 @@ import jcodecollector.State;
 import jcodecollector.common.bean.Snippet;
 import jcodecollector.common.bean.Syntax;
 import jcodecollector.common.bean.Tag;
+import jcodecollector.data.AsyncDBMS;
 import jcodecollector.document.EditorValidator;
 import jcodecollector.document.LimitedPlainDocument;
 import jcodecollector.document.LimitedSyntaxDocument;
+import jcodecollector.document.SyntaxDocumentCache;
 import jcodecollector.gui.images.Icons;
 import jcodecollector.listener.CategoryListener;
 import jcodecollector.listener.SnippetListener;
@@ -91,6 +98,20 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
 
     private RTextScrollPane scrollPanel;
 
+    /** Contiene l'editor e il visualizzatore del codice salvato a pezzi. */
+    private JPanel codePanel;
+
+    /** Mostra il codice salvato a pezzi finche' non viene chiesto di modificarlo. */
+    private LargeCodeViewer largeCodeViewer;
+    private JLabel largeCodeLabel;
+    private JButton editCodeButton;
+
+    /** Lo snippet mostrato dal visualizzatore, <code>null</code> se e' visibile l'editor. */
+    private Snippet largeSnippet;
+
+    private static final String EDITOR_CARD = "editor";
+    private static final String VIEWER_CARD = "viewer";
+
     private JSplitPane split;
 
     /** Il validatore dei componenti di testo. */
@@ -235,9 +256,9 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
         syntaxMap.put(new Syntax("Tcl"), SyntaxConstants.SYNTAX_STYLE_TCL);
         syntaxMap.put(new Syntax("Windows Batch"), SyntaxConstants.SYNTAX_STYLE_WINDOWS_BATCH);
         syntaxMap.put(new Syntax("XML"), SyntaxConstants.SYNTAX_STYLE_XML);
-        // syntaxMap.put("Fortran", SyntaxConstants.SYNTAX_STYLE_FORTRAN);
-        // syntaxMap.put("Scala", SyntaxConstants.SYNTAX_STYLE_SCALA);
-        // syntaxMap.put("SAS", SyntaxConstants.SYNTAX_STYLE_SAS);
+        syntaxMap.put(new Syntax("Fortran"), SyntaxConstants.SYNTAX_STYLE_FORTRAN);
+        syntaxMap.put(new Syntax("Scala"), SyntaxConstants.SYNTAX_STYLE_SCALA);
+        syntaxMap.put(new Syntax("SAS"), SyntaxConstants.SYNTAX_STYLE_SAS);
         // syntaxMap.put("BBCode", SyntaxConstants.SYNTAX_STYLE_BBCODE);
 
         for (Syntax syntax : syntaxMap.keySet()) {
@@ -264,25 +285,10 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
             Syntax selectedSyntax = (Syntax) e.getItem();
             String syntax = syntaxMap.get(selectedSyntax);
 
-            /* salvo il contenuto dell'editor e la posizione del cursore: questo
-             * perche' quando imposto un nuovo Document l'editor viene pulito e
-             * quindi il contenuto va perso. */
-            String code = editor.getText();
-            int caretPosition = editor.getCaretPosition();
-
-            // aggiorno il Document dell'editor
-            if (syntax != null) {
-                editor.setDocument(new LimitedSyntaxDocument(syntax, ApplicationConstants.CODE_LENGTH));
-            } else {
-                editor.setDocument(new LimitedSyntaxDocument(ApplicationConstants.CODE_LENGTH));
-            }
-
-            // ripristino il testo e la posizione del cursore
-            editor.setText(code);
-            editor.setCaretPosition(caretPosition);
-
-            // ripristino il validatore
-            editor.getDocument().addDocumentListener(editorValidator);
+            /* il Document dell'editor resta lo stesso, con il suo testo e la
+             * posizione del cursore: cambia solo il TokenMaker, preso dal pool
+             * della cache dei documenti. */
+            editor.setSyntaxEditingStyle(syntax != null ? syntax : SyntaxConstants.SYNTAX_STYLE_NONE);
 
             if (ignoreUpdate) {
                 return;
@@ -302,6 +308,22 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
 
     SyntaxItemListener syntaxItemListener = new SyntaxItemListener();
 
+    /** Il numero di snippet recenti di cui conservare il documento. */
+    private static final int RECENT_DOCUMENTS = 8;
+
+    /** I documenti degli ultimi snippet mostrati, gia' colorati. */
+    private final SyntaxDocumentCache documentCache = new SyntaxDocumentCache(ApplicationConstants.MAX_CODE_LENGTH, RECENT_DOCUMENTS);
+
+    /**
+     * Il documento dell'ultimo snippet piu' lungo di
+     * {@link ApplicationConstants#CODE_LENGTH} aperto nell'editor: questi
+     * documenti sono troppo grandi per conservarne piu' di uno.
+     */
+    private final SyntaxDocumentCache largeDocumentCache = new SyntaxDocumentCache(ApplicationConstants.MAX_CODE_LENGTH, 1);
+
+    /** Il documento usato quando l'editor non mostra uno snippet salvato. */
+    private LimitedSyntaxDocument emptyDocument;
+
     /**
      * Piccolo accorgimento per evitare di chiamare inutilmente
      * {@link State#updateWindowStatus(boolean)}, cosa che causerebbe uno
@@ -345,7 +367,8 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
         syntaxBox.setEditable(false);
 
         editor = new RSyntaxTextArea();
-        editor.setDocument(new LimitedSyntaxDocument(ApplicationConstants.CODE_LENGTH));
+        emptyDocument = documentCache.create(SyntaxConstants.SYNTAX_STYLE_NONE);
+        editor.setDocument(emptyDocument);
         editor.setFadeCurrentLineHighlight(true);
         editor.setMarginLineEnabled(true);
         editor.setMarginLinePosition(80);
@@ -422,6 +445,14 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
 
         // registra l'azione di cambiamento dello sintassi
         syntaxBox.addItemListener(syntaxItemListener);
+
+        // apre nell'editor il codice mostrato dal visualizzatore
+        editCodeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                editLargeCode();
+            }
+        });
     }
 
     /**
@@ -499,7 +530,7 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
             codeLabel.setBorder(new EmptyBorder(0, 21, 0, -2));
         }
 
-        editorPanel.add(scrollPanel, BorderLayout.CENTER);
+        editorPanel.add(buildCodePanel(), BorderLayout.CENTER);
         editorPanel.add(codeLabel, BorderLayout.WEST);
         scrollPanel.setBorder(new CompoundBorder(new EmptyBorder(
                     OS.isMacOSX() ? 0 : 3, // top
@@ -511,6 +542,37 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
         return editorPanel;
     }
 
+    /**
+     * Costruisce il pannello che mostra l'editor oppure, per il codice salvato
+     * a pezzi, il visualizzatore in sola lettura.
+     */
+    private JPanel buildCodePanel() {
+        largeCodeViewer = new LargeCodeViewer(editor);
+        largeCodeLabel = new JLabel();
+        largeCodeLabel.setFont(largeCodeLabel.getFont().deriveFont(largeCodeLabel.getFont().getSize() - 2f));
+
+        editCodeButton = new JButton("Edit");
+        editCodeButton.setFont(saveButton.getFont());
+        editCodeButton.putClientProperty("JButton.buttonType", "textured");
+        editCodeButton.setFocusable(false);
+
+        JPanel viewerBar = new JPanel(new BorderLayout(5, 0));
+        viewerBar.setOpaque(false);
+        viewerBar.add(largeCodeLabel, BorderLayout.CENTER);
+        viewerBar.add(editCodeButton, BorderLayout.EAST);
+
+        JPanel viewerPanel = new JPanel(new BorderLayout(0, 3));
+        viewerPanel.setOpaque(false);
+        viewerPanel.add(viewerBar, BorderLayout.NORTH);
+        viewerPanel.add(new JScrollPane(largeCodeViewer), BorderLayout.CENTER);
+
+        codePanel = new JPanel(new CardLayout());
+        codePanel.setOpaque(false);
+        codePanel.add(scrollPanel, EDITOR_CARD);
+        codePanel.add(viewerPanel, VIEWER_CARD);
+        return codePanel;
+    }
+
     private JPanel buildSouthPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setOpaque(false);
@@ -577,21 +639,38 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
             tagsTextField.setCaretPosition(0);
         }
 
-        Syntax syntax = snippet.getSyntax();
+        // la sintassi dello snippet tra quelle dell'elenco a discesa
+        Syntax syntax = snippet.getSyntax() == null ? null : syntaxMap.ceilingKey(snippet.getSyntax());
+        if (syntax != null && syntax.compareTo(snippet.getSyntax()) != 0) {
+            syntax = null;
+        }
+
+        // il documento dello snippet, gia' colorato se e' stato mostrato di
+        // recente
+        String style = syntax == null ? SyntaxConstants.SYNTAX_STYLE_NONE : syntaxMap.get(syntax);
+        String code = snippet.getCode().trim();
+        showDocument((code.length() > ApplicationConstants.CODE_LENGTH ? largeDocumentCache : documentCache).get(snippet.getName(), style, code));
+
+        if (snippet.isCodeLoaded()) {
+            showViewer(null, style);
+        } else {
+            // l'editor nascosto contiene l'inizio del codice, che basta al
+            // validatore; un salvataggio senza modifiche al codice conserva
+            // i pezzi gia' salvati
+            showViewer(snippet, style);
+            state.getCurrentSnippet().copyCode(snippet);
+        }
+
         selectionFromUser = false;
-        if (s != null && s.length() > 0) {
-            syntaxBox.setSelectedItem(s);
+        syntaxItemListener.ignoreUpdate = true;
+        if (syntax != null) {
+            syntaxBox.setSelectedItem(syntax);
         } else {
             syntaxBox.setSelectedIndex(0);
         }
+        syntaxItemListener.ignoreUpdate = false;
         selectionFromUser = true;
 
-        s = snippet.getCode().trim();
-        if (s != null && !s.equals(editor.getText().trim())) {
-            editor.setText(s);
-            editor.setCaretPosition(0);
-        }
-
         s = ("" + snippet.getComment()).trim();
         if (s != null && !s.equals(commentTextField.getText().trim())) {
             commentTextField.setText(s);
@@ -609,6 +688,85 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
         lock(snippet.isLocked());
     }
 
+    /**
+     * Mostra nell'editor il documento indicato, se non e' gia' quello
+     * mostrato.
+     */
+    private void showDocument(LimitedSyntaxDocument document) {
+        if (editor.getDocument() == document) {
+            return;
+        }
+
+        editor.setDocument(document);
+        editor.setSyntaxEditingStyle(document.getSyntaxStyle());
+        editor.setCaretPosition(0);
+
+        // il validatore deve ascoltare il documento una volta sola
+        document.removeDocumentListener(editorValidator);
+        document.addDocumentListener(editorValidator);
+
+        State.getInstance().updateLineNumbers(true);
+    }
+
+    /**
+     * Mostra il codice salvato a pezzi di uno snippet nel visualizzatore in
+     * sola lettura, oppure torna all'editor.
+     *
+     * @param snippet Lo snippet da mostrare, <code>null</code> per mostrare
+     *        l'editor.
+     * @param style La sintassi con cui colorare il codice.
+     */
+    private void showViewer(Snippet snippet, String style) {
+        largeSnippet = snippet;
+        if (snippet == null) {
+            largeCodeViewer.clear();
+        } else {
+            largeCodeViewer.show(snippet, style);
+            largeCodeLabel.setText(String.format(" %,d characters, read only", snippet.getCodeLength()));
+        }
+        ((CardLayout) codePanel.getLayout()).show(codePanel, snippet == null ? EDITOR_CARD : VIEWER_CARD);
+    }
+
+    /**
+     * Carica il codice completo dello snippet mostrato dal visualizzatore e lo
+     * apre nell'editor.
+     */
+    private void editLargeCode() {
+        final Snippet snippet = largeSnippet;
+        if (snippet == null) {
+            return;
+        }
+
+        final String style = ((LimitedSyntaxDocument) editor.getDocument()).getSyntaxStyle();
+        editCodeButton.setEnabled(false);
+        Loader.ASYNC_DBMS.getFullCode(snippet).whenCompleteAsync(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String code, Throwable failure) {
+                editCodeButton.setEnabled(editor.isEditable());
+                // nel frattempo l'utente potrebbe aver aperto un altro
+                // snippet
+                if (snippet != largeSnippet) {
+                    return;
+                }
+                if (failure != null) {
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                    JOptionPane.showMessageDialog(mainframe, "Cannot load the snippet: " + cause.getMessage(), "Error!", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                snippet.setCode(code);
+                state.getCurrentSnippet().setCode(code);
+
+                editorValidator.stop();
+                showDocument(largeDocumentCache.get(snippet.getName(), style, code.trim()));
+                editor.discardAllEdits();
+                editorValidator.start();
+                showViewer(null, style);
+                editor.requestFocusInWindow();
+            }
+        }, AsyncDBMS.EDT);
+    }
+
     /** Svuota l'editor e pulisce tutti i campi. */
     public void clear() {
         editorValidator.stop();
@@ -616,7 +774,11 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
         categories.setSelectedIndex(-1);
         nameTextField.setText(null);
         tagsTextField.setText(null);
+        // i documenti in cache restano intatti
+        showViewer(null, SyntaxConstants.SYNTAX_STYLE_NONE);
+        showDocument(emptyDocument);
         editor.setText(null);
+        editor.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_NONE);
         commentTextField.setText(null);
         // syntaxBox.setSelectedItem("-- no syntax highlighting");
         syntaxBox.setSelectedIndex(-1);
@@ -652,8 +814,19 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
 
     /** Copia lo snippet corrente nella clipboard. */
     public void copyToClipboard() {
-        Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-        clipboard.setContents(new StringSelection(editor.getText()), null);
+        final Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+        if (largeSnippet == null) {
+            clipboard.setContents(new StringSelection(editor.getText()), null);
+            return;
+        }
+
+        // l'editor contiene solo l'inizio del codice
+        Loader.ASYNC_DBMS.getFullCode(largeSnippet).thenAcceptAsync(new Consumer<String>() {
+            @Override
+            public void accept(String code) {
+                clipboard.setContents(new StringSelection(code), null);
+            }
+        }, AsyncDBMS.EDT);
     }
 
     /** @see CategoryListener#categoryRemoved(String) */
@@ -707,21 +880,25 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
 
     /** @see jcodecollector.listener.CategoryListener#categoriesUpdated(String) */
     @Override
-    public void categoriesUpdated(String selected) {
-        List<String> array = Loader.DBMS_INSTANCE.getCategories();
-        Collections.sort(array);
+    public void categoriesUpdated(final String selected) {
+        Loader.ASYNC_DBMS.getCategories().thenAcceptAsync(new Consumer<List<String>>() {
+            @Override
+            public void accept(List<String> array) {
+                Collections.sort(array);
 
-        categories.removeAllItems();
+                categories.removeAllItems();
 
-        for (String s : array) {
-            categories.addItem(s);
-        }
+                for (String s : array) {
+                    categories.addItem(s);
+                }
 
-        if (array.contains(selected)) {
-            categories.setSelectedItem(selected);
-        } else {
-            categories.setSelectedIndex(-1);
-        }
+                if (array.contains(selected)) {
+                    categories.setSelectedItem(selected);
+                } else {
+                    categories.setSelectedIndex(-1);
+                }
+            }
+        }, AsyncDBMS.EDT);
     }
 
     /** @see jcodecollector.listener.SnippetListener#snippetEdited(Snippet) */
@@ -745,6 +922,7 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
         tagsTextField.setEnabled(!value);
         syntaxBox.setEnabled(!value);
         editor.setEditable(!value);
+        editCodeButton.setEnabled(!value);
         commentTextField.setEnabled(!value);
     }
 
@@ -760,7 +938,9 @@ public class MainPanel extends JDialog implements SnippetListener, CategoryListe
         // lock/unlock the snippet
         lock(lockButton.isSelected());
 
-        Loader.DBMS_INSTANCE.lockSnippet(snippet, lockButton.isSelected());
+        if (snippet != null) {
+            Loader.ASYNC_DBMS.lockSnippet(snippet, lockButton.isSelected());
+        }
     }
 
     @Override
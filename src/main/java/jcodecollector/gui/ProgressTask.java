@@ -0,0 +1,151 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.gui;
+
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+/**
+ * Un'operazione lunga (importazione o esportazione di un pacchetto) eseguita
+ * in background mentre un {@link ProgressMonitor} ne mostra l'avanzamento.
+ *
+ * L'operazione non pubblica eventi: il suo stato viene letto dall'EDT ogni
+ * {@link #REFRESH_INTERVAL} millisecondi con {@link #getCompletion(Object)}, quindi
+ * il costo per l'interfaccia non dipende dal numero di snippet elaborati. Se
+ * l'utente preme "Cancel" viene chiamato {@link #cancelTask()}, che deve
+ * chiedere all'operazione di fermarsi; il thread in background non viene
+ * interrotto. Al termine {@link #finished(Object, Throwable)} viene eseguito
+ * sull'EDT.
+ *
+ * @param <T> Lo stato dell'operazione, ad esempio
+ *        {@link jcodecollector.io.ImportMetrics}.
+ */
+public abstract class ProgressTask<T> extends SwingWorker<T, Void> {
+
+    /** Ogni quanti millisecondi viene aggiornato il {@link ProgressMonitor}. */
+    public static final int REFRESH_INTERVAL = 200;
+
+    /** Il valore massimo della barra di avanzamento. */
+    private static final int MAXIMUM = 1000;
+
+    private final ProgressMonitor monitor;
+    private final Timer timer;
+    private final T status;
+
+    /**
+     * @param parent La finestra sopra cui mostrare l'avanzamento.
+     * @param message Il titolo dell'operazione.
+     * @param status Lo stato dell'operazione, letto dall'EDT mentre
+     *        l'operazione e' in corso.
+     */
+    protected ProgressTask(Component parent, String message, T status) {
+        this.status = status;
+        this.monitor = new ProgressMonitor(parent, message, "", 0, MAXIMUM);
+        this.timer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+    }
+
+    /** @return lo stato dell'operazione */
+    protected T getStatus() {
+        return status;
+    }
+
+    /** Avvia l'operazione. Va chiamato dall'EDT. */
+    public void start() {
+        timer.start();
+        execute();
+    }
+
+    @Override
+    protected final T doInBackground() throws Exception {
+        perform(status);
+        return status;
+    }
+
+    /**
+     * Esegue l'operazione, in background.
+     *
+     * @param status Lo stato da aggiornare durante l'operazione.
+     * @throws Exception se l'operazione fallisce
+     */
+    protected abstract void perform(T status) throws Exception;
+
+    /**
+     * @param status Lo stato dell'operazione.
+     * @return la parte di lavoro svolta, tra 0 e 1
+     */
+    protected abstract double getCompletion(T status);
+
+    /**
+     * @param status Lo stato dell'operazione.
+     * @return la descrizione dell'avanzamento, mostrata sotto il titolo
+     */
+    protected abstract String getNote(T status);
+
+    /** Chiede all'operazione di fermarsi appena possibile. */
+    protected abstract void cancelTask();
+
+    /**
+     * Viene eseguito sull'EDT al termine dell'operazione, anche se e' stata
+     * annullata.
+     *
+     * @param status Lo stato finale dell'operazione.
+     * @param failure L'eccezione lanciata da {@link #perform(Object)},
+     *        <code>null</code> se non ci sono stati errori.
+     */
+    protected abstract void finished(T status, Throwable failure);
+
+    private void refresh() {
+        if (monitor.isCanceled()) {
+            timer.stop();
+            cancelTask();
+            return;
+        }
+
+        double progress = Math.max(0, Math.min(1, getCompletion(status)));
+        monitor.setNote(getNote(status));
+        monitor.setProgress((int) (progress * MAXIMUM));
+    }
+
+    @Override
+    protected final void done() {
+        timer.stop();
+        monitor.close();
+
+        Throwable failure = null;
+        try {
+            get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException ex) {
+            // l'operazione non e' mai partita
+        } catch (ExecutionException ex) {
+            failure = ex.getCause();
+        }
+        finished(status, failure);
+    }
+}
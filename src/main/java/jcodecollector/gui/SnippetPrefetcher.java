@@ -0,0 +1,103 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.gui;
+
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.JTree;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreePath;
+
+import jcodecollector.data.Controller;
+
+import com.explodingpixels.macwidgets.SourceList;
+import com.explodingpixels.macwidgets.SourceListCategory;
+import com.explodingpixels.macwidgets.SourceListItem;
+
+/**
+ * Chiede al database di leggere in anticipo gli snippet che probabilmente
+ * verranno aperti: quelli vicini allo snippet selezionato, che si raggiungono
+ * con le frecce, e quello sotto il mouse. Gli snippet letti restano nella
+ * cache di {@link jcodecollector.data.AsyncDBMS}, quindi aprirli non richiede
+ * di attendere il database.
+ */
+final class SnippetPrefetcher {
+
+    /** Quanti snippet leggere prima e dopo quello selezionato. */
+    static final int DISTANCE = 3;
+
+    private final SourceListIndex index;
+    private final Controller controller;
+
+    /** L'ultimo snippet sotto il mouse, per non ripetere la richiesta. */
+    private SourceListItem hovered;
+
+    SnippetPrefetcher(SourceList sourceList, SourceListIndex index, Controller controller) {
+        this.index = index;
+        this.controller = controller;
+
+        final JTree tree = LazySourceList.findTree(sourceList.getComponent());
+        if (tree != null) {
+            tree.addMouseMotionListener(new MouseAdapter() {
+                @Override
+                public void mouseMoved(MouseEvent e) {
+                    hovered(tree.getPathForLocation(e.getX(), e.getY()));
+                }
+            });
+        }
+    }
+
+    private void hovered(TreePath path) {
+        Object node = path == null ? null : path.getLastPathComponent();
+        Object item = node instanceof DefaultMutableTreeNode ? ((DefaultMutableTreeNode) node).getUserObject() : null;
+        if (item == hovered || !(item instanceof SourceListItem) || item instanceof LazySourceList.MoreItem) {
+            return;
+        }
+
+        hovered = (SourceListItem) item;
+        controller.prefetch(Collections.singletonList(hovered.getText()));
+    }
+
+    /**
+     * Legge in anticipo gli snippet vicini a quello selezionato.
+     *
+     * @param item Lo snippet selezionato.
+     */
+    void selected(SourceListItem item) {
+        SourceListCategory category = index.getCategoryOf(item);
+        if (category == null) {
+            return;
+        }
+
+        List<SourceListItem> items = category.getItems();
+        int position = items.indexOf(item);
+        List<String> names = new ArrayList<String>(2 * DISTANCE);
+        for (int i = Math.max(0, position - DISTANCE); i <= Math.min(items.size() - 1, position + DISTANCE); i++) {
+            SourceListItem neighbour = items.get(i);
+            if (i != position && !(neighbour instanceof LazySourceList.MoreItem)) {
+                names.add(neighbour.getText());
+            }
+        }
+
+        if (!names.isEmpty()) {
+            controller.prefetch(names);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.gui;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.explodingpixels.macwidgets.SourceListCategory;
+import com.explodingpixels.macwidgets.SourceListItem;
+import com.explodingpixels.macwidgets.SourceListModel;
+import com.explodingpixels.macwidgets.SourceListModelListener;
+
+/**
+ * Indice dei nodi di un {@link SourceListModel}: trova in tempo costante la
+ * categoria con un certo nome (senza distinguere maiuscole e minuscole), lo
+ * snippet con un certo nome e la categoria che contiene uno snippet.
+ *
+ * <p>
+ * L'indice si aggiorna da solo ascoltando gli eventi del modello, anche
+ * quando uno snippet viene rinominato con {@link SourceListItem#setText}. Il
+ * modello invece non segnala il cambio di nome di una categoria, che va
+ * quindi eseguito con {@link #renameCategory(SourceListCategory, String)}.
+ * Gli elementi {@link LazySourceList.MoreItem} non vengono indicizzati.
+ * </p>
+ */
+final class SourceListIndex implements SourceListModelListener {
+
+    private final Map<String, SourceListCategory> categories = new HashMap<String, SourceListCategory>();
+    private final Map<String, SourceListItem> items = new HashMap<String, SourceListItem>();
+
+    /** Il nome con cui ogni snippet e' indicizzato, per seguirne i cambi di nome. */
+    private final Map<SourceListItem, String> itemNames = new IdentityHashMap<SourceListItem, String>();
+    private final Map<SourceListItem, SourceListCategory> itemCategories = new IdentityHashMap<SourceListItem, SourceListCategory>();
+
+    /**
+     * Crea l'indice del modello indicato, includendo i nodi gia' presenti.
+     *
+     * @param model Il modello da indicizzare.
+     */
+    SourceListIndex(SourceListModel model) {
+        for (SourceListCategory category : model.getCategories()) {
+            categoryAdded(category, 0);
+        }
+        model.addSourceListModelListener(this);
+    }
+
+    private static String key(String category) {
+        return category.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param name Il nome della categoria.
+     * @return la categoria con il nome indicato, <code>null</code> se non
+     *         esiste
+     */
+    SourceListCategory getCategory(String name) {
+        return categories.get(key(name));
+    }
+
+    /**
+     * @param name Il nome dello snippet.
+     * @return lo snippet con il nome indicato, <code>null</code> se non esiste
+     */
+    SourceListItem getItem(String name) {
+        return items.get(name);
+    }
+
+    /**
+     * @param item Lo snippet.
+     * @return la categoria che contiene lo snippet, <code>null</code> se non
+     *         e' nel modello
+     */
+    SourceListCategory getCategoryOf(SourceListItem item) {
+        return itemCategories.get(item);
+    }
+
+    /**
+     * Rinomina la categoria indicata aggiornando l'indice.
+     *
+     * @param category La categoria da rinominare.
+     * @param name Il nuovo nome.
+     */
+    void renameCategory(SourceListCategory category, String name) {
+        if (categories.get(key(category.getText())) == category) {
+            categories.remove(key(category.getText()));
+        }
+        category.setText(name);
+        categories.put(key(name), category);
+    }
+
+    @Override
+    public void categoryAdded(SourceListCategory category, int index) {
+        categories.put(key(category.getText()), category);
+        for (SourceListItem item : category.getItems()) {
+            itemAddedToCategory(item, category, 0);
+        }
+    }
+
+    @Override
+    public void categoryRemoved(SourceListCategory category) {
+        if (categories.get(key(category.getText())) == category) {
+            categories.remove(key(category.getText()));
+        }
+
+        // gli snippet gia' spostati in un'altra categoria restano nell'indice
+        for (SourceListItem item : category.getItems()) {
+            if (itemCategories.get(item) == category) {
+                itemRemovedFromCategory(item, category);
+            }
+        }
+    }
+
+    @Override
+    public void itemAddedToCategory(SourceListItem item, SourceListCategory category, int index) {
+        if (item instanceof LazySourceList.MoreItem) {
+            // non corrisponde a uno snippet
+            return;
+        }
+
+        String previous = itemNames.put(item, item.getText());
+        if (previous != null && items.get(previous) == item) {
+            items.remove(previous);
+        }
+        items.put(item.getText(), item);
+        itemCategories.put(item, category);
+    }
+
+    @Override
+    public void itemRemovedFromCategory(SourceListItem item, SourceListCategory category) {
+        if (itemCategories.get(item) != category) {
+            return;
+        }
+
+        String name = itemNames.remove(item);
+        if (name != null && items.get(name) == item) {
+            items.remove(name);
+        }
+        itemCategories.remove(item);
+    }
+
+    @Override
+    public void itemChanged(SourceListItem item) {
+        String previous = itemNames.get(item);
+        if (previous == null || previous.equals(item.getText())) {
+            return;
+        }
+
+        if (items.get(previous) == item) {
+            items.remove(previous);
+        }
+        itemNames.put(item, item.getText());
+        items.put(item.getText(), item);
+    }
+
+    @Override
+    public void itemAddedToItem(SourceListItem item, SourceListItem parent, int index) {
+        // il SourceList contiene solo categorie e snippet
+    }
+
+    @Override
+    public void itemRemovedFromItem(SourceListItem item, SourceListItem parent) {
+        // il SourceList contiene solo categorie e snippet
+    }
+}
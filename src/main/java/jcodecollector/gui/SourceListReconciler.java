@@ -0,0 +1,227 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.gui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.explodingpixels.macwidgets.SourceListCategory;
+import com.explodingpixels.macwidgets.SourceListItem;
+import com.explodingpixels.macwidgets.SourceListModel;
+
+/**
+ * Porta il contenuto di un {@link SourceListModel} a quello di un elenco di
+ * categorie e nomi di snippet, eseguendo solo le aggiunte e le rimozioni
+ * necessarie: categorie ed elementi che non cambiano restano al loro posto,
+ * quindi selezione, espansione e scorrimento del SourceList non vanno persi.
+ * Tutte le modifiche avvengono nello stesso evento dell'EDT e vengono
+ * disegnate insieme.
+ *
+ * <p>
+ * Come nel resto dell'interfaccia i nomi delle categorie non distinguono
+ * maiuscole e minuscole.
+ * </p>
+ */
+final class SourceListReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceListReconciler.class);
+
+    private final SourceListModel model;
+
+    private int added;
+    private int removed;
+
+    SourceListReconciler(SourceListModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Aggiorna il modello. Deve essere chiamato sull'EDT.
+     *
+     * @param snapshot I nomi degli snippet di ogni categoria, nell'ordine in
+     *        cui devono comparire.
+     * @return il numero di operazioni eseguite sul modello
+     */
+    int reconcile(Map<String, List<String>> snapshot) {
+        long start = System.nanoTime();
+        added = 0;
+        removed = 0;
+
+        // le categorie che differiscono solo per maiuscole e minuscole
+        // diventano una sola
+        Map<String, String> names = new LinkedHashMap<String, String>();
+        Map<String, List<String>> items = new HashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> entry : snapshot.entrySet()) {
+            String key = entry.getKey().toLowerCase(Locale.ROOT);
+            List<String> list = items.get(key);
+            if (list == null) {
+                names.put(key, entry.getKey());
+                items.put(key, new ArrayList<String>(entry.getValue()));
+            } else {
+                list.addAll(entry.getValue());
+            }
+        }
+
+        Map<String, SourceListCategory> current = new HashMap<String, SourceListCategory>();
+        for (SourceListCategory category : new ArrayList<SourceListCategory>(model.getCategories())) {
+            String key = category.getText().toLowerCase(Locale.ROOT);
+            if (!names.containsKey(key) || current.containsKey(key)) {
+                model.removeCategory(category);
+                removed++;
+            } else {
+                current.put(key, category);
+            }
+        }
+
+        int index = 0;
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            SourceListCategory category = current.get(entry.getKey());
+            if (category == null) {
+                category = new SourceListCategory(entry.getValue());
+                model.addCategory(category, Math.min(index, model.getCategories().size()));
+                added++;
+            }
+            reconcile(category, items.get(entry.getKey()));
+            index++;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("source list reconciled: {} added, {} removed in {} ms",
+                    new Object[] { added, removed, (System.nanoTime() - start) / 1000000 });
+        }
+        return added + removed;
+    }
+
+    /**
+     * Aggiunge al modello un blocco di snippet senza rimuovere nulla:
+     * categorie ed elementi nuovi vengono inseriti al loro posto in ordine
+     * alfabetico, quelli gia' presenti vengono ignorati. Deve essere chiamato
+     * sull'EDT.
+     *
+     * @param additions I nomi degli snippet da aggiungere, per categoria.
+     * @return il numero di operazioni eseguite sul modello
+     */
+    int merge(Map<String, List<String>> additions) {
+        added = 0;
+        removed = 0;
+
+        for (Map.Entry<String, List<String>> entry : additions.entrySet()) {
+            SourceListCategory category = findCategory(entry.getKey());
+            if (category == null) {
+                category = new SourceListCategory(entry.getKey());
+                model.addCategory(category, insertionPoint(model.getCategories(), entry.getKey()));
+                added++;
+            }
+
+            for (String name : entry.getValue()) {
+                List<SourceListItem> items = category.getItems();
+                int index = insertionPoint(items, name);
+                if (index < items.size() && items.get(index).getText().equals(name)) {
+                    continue;
+                }
+                model.addItemToCategory(new SourceListItem(name), category, index);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private SourceListCategory findCategory(String name) {
+        for (SourceListCategory category : model.getCategories()) {
+            if (category.getText().equalsIgnoreCase(name)) {
+                return category;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cerca per bisezione la posizione di <code>text</code> in un elenco di
+     * categorie o elementi ordinato per testo.
+     */
+    private static int insertionPoint(List<?> nodes, String text) {
+        int low = 0;
+        int high = nodes.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            Object node = nodes.get(middle);
+            String other = node instanceof SourceListCategory ? ((SourceListCategory) node).getText() : ((SourceListItem) node).getText();
+            if (other.compareTo(text) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /** Porta gli elementi della categoria a quelli indicati, nello stesso ordine. */
+    private void reconcile(SourceListCategory category, List<String> names) {
+        Map<String, SourceListItem> existing = new HashMap<String, SourceListItem>();
+        for (SourceListItem item : new ArrayList<SourceListItem>(category.getItems())) {
+            if (item instanceof LazySourceList.MoreItem || existing.containsKey(item.getText())) {
+                model.removeItemFromCategory(item, category);
+                removed++;
+            } else {
+                existing.put(item.getText(), item);
+            }
+        }
+
+        // rimuovo gli elementi che non ci sono piu'
+        Map<String, Boolean> wanted = new HashMap<String, Boolean>(names.size() * 2);
+        for (String name : names) {
+            wanted.put(name, Boolean.TRUE);
+        }
+        for (SourceListItem item : new ArrayList<SourceListItem>(category.getItems())) {
+            if (!wanted.containsKey(item.getText())) {
+                model.removeItemFromCategory(item, category);
+                existing.remove(item.getText());
+                removed++;
+            }
+        }
+
+        // aggiungo quelli nuovi e sposto quelli fuori posto
+        List<SourceListItem> items = category.getItems();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            if (i < items.size() && items.get(i).getText().equals(name)) {
+                continue;
+            }
+
+            SourceListItem item = existing.get(name);
+            if (item == null) {
+                item = new SourceListItem(name);
+                existing.put(name, item);
+            } else if (category.containsItem(item)) {
+                model.removeItemFromCategory(item, category);
+                removed++;
+            } else {
+                // il nome compare due volte nell'elenco: lo mostro una volta
+                continue;
+            }
+            model.addItemToCategory(item, category, Math.min(i, items.size()));
+            added++;
+            items = category.getItems();
+        }
+    }
+}
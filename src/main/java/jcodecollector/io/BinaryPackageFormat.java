@@ -0,0 +1,70 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.nio.charset.Charset;
+
+import jcodecollector.util.ApplicationConstants;
+
+/**
+ * Costanti del formato binario dei pacchetti. Tutti i numeri sono big-endian
+ * e tutte le posizioni sono relative all'inizio del file.
+ *
+ * <pre>
+ * header:   int MAGIC, short FORMAT_VERSION, short flags, string version
+ * record*:  int length, byte flags, [int rawLength se compresso], body
+ * body:     int id, int name, int category, int syntax,
+ *           int tagCount, int tag*, string code, string comment
+ * strings:  int count, int offset*, string*
+ * index:    int count, (int name, int recordOffset)* ordinati per nome
+ * footer:   int stringsOffset, int indexOffset, int recordCount, int MAGIC
+ * </pre>
+ *
+ * Una <code>string</code> e' un int con la lunghezza in byte (
+ * {@link #NULL} per <code>null</code>) seguito dai byte UTF-8; nel corpo dei
+ * record categorie, nomi, tag e sintassi sono invece riferimenti alla tabella
+ * delle stringhe.
+ */
+final class BinaryPackageFormat {
+
+    /** "JCCB" */
+    static final int MAGIC = 0x4A434342;
+
+    static final int FORMAT_VERSION = 1;
+
+    static final int FLAG_COMPRESSED = 0x01;
+    static final int FLAG_LOCKED = 0x02;
+
+    /** Lunghezza o riferimento di una stringa <code>null</code>. */
+    static final int NULL = -1;
+
+    /** I record piu' piccoli di questa soglia non vengono mai compressi. */
+    static final int COMPRESSION_THRESHOLD = 256;
+
+    static final int FOOTER_LENGTH = 16;
+
+    /**
+     * La lunghezza massima del corpo di un record decompresso: il codice piu'
+     * lungo accettato, in UTF-8, con lo spazio per commento e tag.
+     */
+    static final int MAX_RECORD_LENGTH = 4 * ApplicationConstants.MAX_CODE_LENGTH;
+
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private BinaryPackageFormat() {
+        // do nothing
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Syntax;
+import jcodecollector.common.bean.Tag;
+import jcodecollector.exceptions.PackageFormatException;
+
+/**
+ * Legge un pacchetto binario (vedi {@link BinaryPackageFormat}) mappandolo in
+ * memoria con {@link FileChannel#map}. All'apertura vengono letti solo header
+ * e footer: le stringhe vengono decodificate quando servono e uno snippet puo'
+ * essere letto per nome senza scorrere il resto del file.
+ *
+ * Il lettore puo' essere usato da piu' thread contemporaneamente.
+ */
+public class BinaryPackageReader implements Iterable<Snippet>, Closeable {
+
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+
+    private final String version;
+    private final int recordsOffset;
+    private final int stringsOffset;
+    private final int indexOffset;
+    private final int recordCount;
+
+    /** Le stringhe gia' decodificate. */
+    private final String[] strings;
+
+    /**
+     * @param file Il pacchetto da leggere.
+     * @throws IOException se il file non puo' essere letto
+     * @throws PackageFormatException se il file non e' un pacchetto binario
+     *         valido
+     */
+    public BinaryPackageReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = this.file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new PackageFormatException("binary package too large: " + file);
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            ByteBuffer header = buffer.duplicate();
+            if (header.remaining() < 8 + BinaryPackageFormat.FOOTER_LENGTH || header.getInt() != BinaryPackageFormat.MAGIC) {
+                throw new PackageFormatException("not a binary package: " + file);
+            }
+            int formatVersion = header.getShort();
+            if (formatVersion > BinaryPackageFormat.FORMAT_VERSION) {
+                throw new PackageFormatException("unsupported binary package version " + formatVersion);
+            }
+            header.getShort();
+            this.version = readString(header);
+            this.recordsOffset = header.position();
+
+            int footer = buffer.limit() - BinaryPackageFormat.FOOTER_LENGTH;
+            this.stringsOffset = buffer.getInt(footer);
+            this.indexOffset = buffer.getInt(footer + 4);
+            this.recordCount = buffer.getInt(footer + 8);
+            if (buffer.getInt(footer + 12) != BinaryPackageFormat.MAGIC || stringsOffset < recordsOffset
+                    || indexOffset < stringsOffset || indexOffset > footer) {
+                throw new PackageFormatException("truncated binary package: " + file);
+            }
+
+            int stringCount = buffer.getInt(stringsOffset);
+            if (stringCount < 0 || stringCount > (indexOffset - stringsOffset - 4) / 4) {
+                throw new PackageFormatException("corrupted string table in binary package: " + file);
+            }
+            this.strings = new String[stringCount];
+        } catch (BufferUnderflowException ex) {
+            this.file.close();
+            throw new PackageFormatException("truncated binary package: " + file, ex);
+        } catch (IOException ex) {
+            this.file.close();
+            throw ex;
+        } catch (RuntimeException ex) {
+            this.file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Verifica se <code>file</code> e' un pacchetto binario leggendone i primi
+     * byte.
+     *
+     * @param file Il file da controllare.
+     * @return <code>true</code> se il file inizia con l'intestazione di un
+     *         pacchetto binario
+     * @throws IOException se il file non puo' essere letto
+     */
+    public static boolean isBinaryPackage(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            return input.readInt() == BinaryPackageFormat.MAGIC;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Legge tutti gli snippet di <code>file</code>.
+     *
+     * @param file Il pacchetto da leggere.
+     * @return gli snippet del pacchetto, nell'ordine in cui sono stati scritti
+     * @throws IOException se il file non puo' essere letto
+     */
+    public static List<Snippet> readAll(File file) throws IOException {
+        BinaryPackageReader reader = new BinaryPackageReader(file);
+        try {
+            List<Snippet> snippets = new ArrayList<Snippet>(reader.size());
+            for (Snippet snippet : reader) {
+                snippets.add(snippet);
+            }
+            return snippets;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Restituisce la versione dell'applicazione che ha creato il pacchetto.
+     *
+     * @return la versione del pacchetto
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Restituisce il numero di snippet del pacchetto.
+     *
+     * @return il numero di snippet
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Legge lo snippet di nome <code>name</code> con una ricerca binaria
+     * nell'indice: vengono decodificati solo i nomi confrontati e il record
+     * trovato.
+     *
+     * @param name Il nome dello snippet.
+     * @return lo snippet cercato, <code>null</code> se non esiste
+     */
+    public Snippet getSnippet(String name) {
+        try {
+            int entries = buffer.getInt(indexOffset);
+            int low = 0;
+            int high = entries - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int entry = indexOffset + 4 + middle * 8;
+                int comparison = getString(buffer.getInt(entry)).compareTo(name);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    ByteBuffer record = buffer.duplicate();
+                    record.position(buffer.getInt(entry + 4));
+                    return readRecord(record);
+                }
+            }
+            return null;
+        } catch (BufferUnderflowException ex) {
+            throw new PackageFormatException("truncated binary package", ex);
+        } catch (IndexOutOfBoundsException ex) {
+            throw new PackageFormatException("corrupted binary package", ex);
+        }
+    }
+
+    /**
+     * Scorre gli snippet nell'ordine in cui sono stati scritti.
+     */
+    @Override
+    public Iterator<Snippet> iterator() {
+        final ByteBuffer records = buffer.duplicate();
+        records.position(recordsOffset);
+        records.limit(stringsOffset);
+
+        return new Iterator<Snippet>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasRemaining();
+            }
+
+            @Override
+            public Snippet next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return readRecord(records);
+                } catch (BufferUnderflowException ex) {
+                    throw new PackageFormatException("truncated binary package", ex);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Chiude il file. La memoria mappata viene rilasciata dal garbage
+     * collector.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /** Legge il record che inizia alla posizione corrente di <code>input</code>. */
+    private Snippet readRecord(ByteBuffer input) {
+        int length = input.getInt();
+        int flags = input.get();
+
+        ByteBuffer body;
+        if ((flags & BinaryPackageFormat.FLAG_COMPRESSED) != 0) {
+            int rawLength = input.getInt();
+            checkLength(input, length);
+            if (rawLength < 0 || rawLength > BinaryPackageFormat.MAX_RECORD_LENGTH) {
+                throw new PackageFormatException("corrupted record in binary package: invalid length " + rawLength);
+            }
+            body = inflate(input, length, rawLength);
+        } else {
+            checkLength(input, length);
+            body = input.slice();
+            body.limit(length);
+        }
+        input.position(input.position() + length);
+
+        int id = body.getInt();
+        String name = getString(body.getInt());
+        String category = getString(body.getInt());
+        String syntax = getString(body.getInt());
+
+        int tagCount = body.getInt();
+        if (tagCount < 0 || tagCount > body.remaining() / 4) {
+            throw new PackageFormatException("corrupted record in binary package: invalid tag count " + tagCount);
+        }
+        List<Tag> tags = new ArrayList<Tag>(tagCount);
+        for (int i = 0; i < tagCount; i++) {
+            tags.add(new Tag(category, getString(body.getInt())));
+        }
+
+        String code = readString(body);
+        String comment = readString(body);
+
+        return new Snippet(id, category, name, tags, code, comment, new Syntax(syntax), (flags & BinaryPackageFormat.FLAG_LOCKED) != 0);
+    }
+
+    private static ByteBuffer inflate(ByteBuffer input, int length, int rawLength) {
+        byte[] packed = new byte[length];
+        input.duplicate().get(packed);
+
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed);
+            if (inflater.inflate(raw) != rawLength) {
+                throw new PackageFormatException("corrupted record in binary package");
+            }
+        } catch (DataFormatException ex) {
+            throw new PackageFormatException("corrupted record in binary package", ex);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    /** Restituisce una stringa della tabella, decodificandola se necessario. */
+    private String getString(int reference) {
+        if (reference == BinaryPackageFormat.NULL) {
+            return null;
+        }
+        if (reference < 0 || reference >= strings.length) {
+            throw new PackageFormatException("corrupted binary package: invalid string reference " + reference);
+        }
+
+        String value = strings[reference];
+        if (value == null) {
+            int data = stringsOffset + 4 + strings.length * 4;
+            int offset = buffer.getInt(stringsOffset + 4 + reference * 4);
+            if (offset < 0 || offset > indexOffset - data) {
+                throw new PackageFormatException("corrupted string table in binary package: invalid offset " + offset);
+            }
+            ByteBuffer input = buffer.duplicate();
+            input.position(data + offset);
+            value = readString(input);
+            // piu' thread possono decodificare la stessa stringa: il
+            // risultato e' comunque identico
+            strings[reference] = value;
+        }
+        return value;
+    }
+
+    private static String readString(ByteBuffer input) {
+        int length = input.getInt();
+        if (length == BinaryPackageFormat.NULL) {
+            return null;
+        }
+        checkLength(input, length);
+
+        byte[] bytes = new byte[length];
+        input.get(bytes);
+        return new String(bytes, BinaryPackageFormat.CHARSET);
+    }
+
+    /**
+     * Controlla che una lunghezza letta dal file sia compresa tra zero e i
+     * byte rimasti in <code>input</code>.
+     */
+    private static void checkLength(ByteBuffer input, int length) {
+        if (length < 0 || length > input.remaining()) {
+            throw new PackageFormatException("corrupted binary package: invalid length " + length);
+        }
+    }
+}
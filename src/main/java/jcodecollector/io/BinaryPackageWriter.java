@@ -0,0 +1,254 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Tag;
+
+/**
+ * Scrive un pacchetto binario (vedi {@link BinaryPackageFormat}) uno snippet
+ * alla volta. Categorie, nomi, tag e sintassi vengono memorizzati una sola
+ * volta nella tabella delle stringhe, che insieme all'indice viene scritta da
+ * {@link #close()} in fondo al file.
+ */
+public class BinaryPackageWriter implements SnippetWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataOutputStream output;
+    private final boolean compress;
+    private final Deflater deflater;
+
+    /** Buffer riusato per il corpo di ogni record. */
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream bodyOutput = new DataOutputStream(body);
+    private final byte[] compressed = new byte[BUFFER_SIZE];
+    private final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+
+    /** Le stringhe gia' scritte e la loro posizione nella tabella. */
+    private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    /** Per ogni snippet: il riferimento al nome e la posizione del record. */
+    private final List<int[]> index = new ArrayList<int[]>();
+
+    private int count;
+
+    /**
+     * @param file Il file da creare.
+     * @param version La versione dell'applicazione che crea il pacchetto.
+     * @param compress Se <code>true</code> i record piu' grandi di
+     *        {@link BinaryPackageFormat#COMPRESSION_THRESHOLD} byte vengono
+     *        compressi.
+     * @throws IOException se il file non puo' essere creato
+     */
+    public BinaryPackageWriter(File file, String version, boolean compress) throws IOException {
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        this.compress = compress;
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+
+        output.writeInt(BinaryPackageFormat.MAGIC);
+        output.writeShort(BinaryPackageFormat.FORMAT_VERSION);
+        output.writeShort(0);
+        writeString(output, version);
+    }
+
+    /**
+     * Aggiunge uno snippet al pacchetto.
+     *
+     * @param snippet Lo snippet da scrivere.
+     * @throws IOException in caso di errore di scrittura
+     */
+    @Override
+    public void write(Snippet snippet) throws IOException {
+        body.reset();
+        bodyOutput.writeInt(snippet.getId());
+        int name = intern(snippet.getName());
+        bodyOutput.writeInt(name);
+        bodyOutput.writeInt(intern(snippet.getCategory()));
+        bodyOutput.writeInt(intern(snippet.getSyntax() == null ? null : snippet.getSyntax().getName()));
+
+        List<Tag> tags = snippet.getTags();
+        bodyOutput.writeInt(tags.size());
+        for (Tag tag : tags) {
+            bodyOutput.writeInt(intern(tag.getName()));
+        }
+
+        writeString(bodyOutput, snippet.getCode());
+        writeString(bodyOutput, snippet.getComment());
+        bodyOutput.flush();
+
+        int flags = snippet.isLocked() ? BinaryPackageFormat.FLAG_LOCKED : 0;
+        byte[] data = body.toByteArray();
+        int rawLength = data.length;
+        if (compress && rawLength >= BinaryPackageFormat.COMPRESSION_THRESHOLD) {
+            byte[] packed = deflate(data);
+            if (packed.length < rawLength) {
+                data = packed;
+                flags |= BinaryPackageFormat.FLAG_COMPRESSED;
+            }
+        }
+
+        // gli snippet senza nome non possono essere cercati, ma vengono
+        // comunque letti scorrendo il pacchetto
+        if (name != BinaryPackageFormat.NULL) {
+            index.add(new int[] { name, position() });
+        }
+        count++;
+
+        output.writeInt(data.length);
+        output.writeByte(flags);
+        if ((flags & BinaryPackageFormat.FLAG_COMPRESSED) != 0) {
+            output.writeInt(rawLength);
+        }
+        output.write(data);
+    }
+
+    /**
+     * Restituisce il numero di snippet scritti finora.
+     *
+     * @return il numero di snippet scritti
+     */
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return output.size();
+    }
+
+    /** Scrive la tabella delle stringhe, l'indice e chiude il file. */
+    @Override
+    public void close() throws IOException {
+        try {
+            int stringTableOffset = position();
+            writeStringTable();
+
+            int indexOffset = position();
+            writeIndex();
+
+            output.writeInt(stringTableOffset);
+            output.writeInt(indexOffset);
+            output.writeInt(count);
+            output.writeInt(BinaryPackageFormat.MAGIC);
+            output.flush();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            output.close();
+        }
+    }
+
+    /**
+     * La tabella contiene prima le posizioni relative di tutte le stringhe, in
+     * modo che il lettore possa decodificarle solo quando servono.
+     */
+    private void writeStringTable() throws IOException {
+        output.writeInt(strings.size());
+
+        int offset = 0;
+        byte[][] encoded = new byte[strings.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = strings.get(i).getBytes(BinaryPackageFormat.CHARSET);
+            output.writeInt(offset);
+            offset += 4 + encoded[i].length;
+        }
+
+        for (byte[] bytes : encoded) {
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /** L'indice e' ordinato per nome, per la ricerca binaria del lettore. */
+    private void writeIndex() throws IOException {
+        Collections.sort(index, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] o1, int[] o2) {
+                return strings.get(o1[0]).compareTo(strings.get(o2[0]));
+            }
+        });
+
+        output.writeInt(index.size());
+        for (int[] entry : index) {
+            output.writeInt(entry[0]);
+            output.writeInt(entry[1]);
+        }
+    }
+
+    private int intern(String value) {
+        if (value == null) {
+            return BinaryPackageFormat.NULL;
+        }
+
+        Integer reference = stringIndex.get(value);
+        if (reference == null) {
+            reference = strings.size();
+            strings.add(value);
+            stringIndex.put(value, reference);
+        }
+        return reference;
+    }
+
+    private byte[] deflate(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+
+        deflated.reset();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(compressed);
+            deflated.write(compressed, 0, length);
+        }
+        return deflated.toByteArray();
+    }
+
+    /** Le posizioni sono int: un pacchetto deve poter essere mappato in memoria. */
+    private int position() throws IOException {
+        if (output.size() == Integer.MAX_VALUE) {
+            throw new IOException("binary package too large");
+        }
+        return output.size();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(BinaryPackageFormat.NULL);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(BinaryPackageFormat.CHARSET);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+/**
+ * Cosa fare, durante un'importazione con {@link ImportPipeline}, quando uno
+ * snippet importato ha lo stesso nome di uno snippet del database ma un
+ * contenuto diverso, o quando una cancellazione importata riguarda uno
+ * snippet modificato localmente.
+ */
+public enum ConflictPolicy {
+
+    /** Lo snippet del database non viene toccato. */
+    KEEP_LOCAL,
+
+    /** Lo snippet importato sostituisce (o cancella) quello del database. */
+    OVERWRITE,
+
+    /**
+     * Lo snippet importato viene inserito con un nuovo nome, ad esempio
+     * "Nome (2)"; le cancellazioni in conflitto vengono ignorate.
+     */
+    KEEP_BOTH
+}
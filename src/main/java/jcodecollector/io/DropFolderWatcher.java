@@ -0,0 +1,386 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jcodecollector.data.DBMS;
+import jcodecollector.exceptions.PackageFormatException;
+import jcodecollector.listener.DropFolderListener;
+import jcodecollector.util.ApplicationConstants;
+import jcodecollector.util.ContentHash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Importa automaticamente i pacchetti copiati in una cartella, ad esempio una
+ * cartella condivisa da cui vengono distribuiti pacchetti di snippet.
+ *
+ * <p>
+ * La cartella viene osservata da un thread in background con un
+ * {@link WatchService}. Un file viene importato solo quando la sua dimensione
+ * e la data di modifica non cambiano per {@link #QUIET_PERIOD} millisecondi,
+ * cosi' un pacchetto che si sta ancora copiando non viene letto a meta'.
+ * L'importazione passa dalla {@link ImportPipeline}, con
+ * {@link ConflictPolicy#KEEP_LOCAL}: gli snippet modificati dall'utente non
+ * vengono sovrascritti.
+ * </p>
+ *
+ * <p>
+ * Le impronte dei pacchetti importati vengono salvate in un file: un pacchetto
+ * non viene importato di nuovo dopo un riavvio, ne' se viene copiato con un
+ * altro nome. Un pacchetto modificato ha un'altra impronta e viene importato
+ * di nuovo.
+ * </p>
+ */
+public class DropFolderWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DropFolderWatcher.class);
+
+    /** Per quanto tempo un file non deve cambiare prima di essere importato. */
+    public static final long QUIET_PERIOD = 2000;
+
+    /** Un file scritto ma non ancora importato. */
+    private static class Pending {
+        long deadline;
+        long length;
+        long lastModified;
+
+        Pending(File file) {
+            update(file);
+        }
+
+        /** @return <code>true</code> se il file e' cambiato dall'ultimo controllo */
+        boolean update(File file) {
+            boolean changed = file.length() != length || file.lastModified() != lastModified;
+            length = file.length();
+            lastModified = file.lastModified();
+            deadline = System.currentTimeMillis() + QUIET_PERIOD;
+            return changed;
+        }
+    }
+
+    private final DBMS dbms;
+    private final File directory;
+    private final File processedFile;
+    private final DropFolderListener listener;
+
+    /** Le impronte dei pacchetti gia' importati. */
+    private final Set<String> processed = new HashSet<String>();
+
+    /** I file in attesa di essere importati, nell'ordine in cui sono arrivati. */
+    private final Map<File, Pending> pending = new LinkedHashMap<File, Pending>();
+
+    private WatchService watchService;
+    private Thread thread;
+
+    /** <code>true</code> mentre il thread attende che finiscano le altre importazioni. */
+    private volatile boolean waitingForImport;
+
+    /**
+     * @param dbms Il database in cui importare i pacchetti.
+     * @param directory La cartella da osservare.
+     * @param processedFile Il file in cui salvare le impronte dei pacchetti
+     *        importati.
+     * @param listener Chi viene avvisato delle importazioni.
+     */
+    public DropFolderWatcher(DBMS dbms, File directory, File processedFile, DropFolderListener listener) {
+        this.dbms = dbms;
+        this.directory = directory;
+        this.processedFile = processedFile;
+        this.listener = listener;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Inizia a osservare la cartella. I pacchetti gia' presenti e non ancora
+     * importati vengono importati subito.
+     *
+     * @throws IOException se la cartella non puo' essere osservata
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+
+        loadProcessed();
+        watchService = directory.toPath().getFileSystem().newWatchService();
+        directory.toPath().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "drop-folder-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("watching " + directory);
+    }
+
+    /**
+     * Smette di osservare la cartella. Un'importazione gia' iniziata viene
+     * completata, una in attesa delle altre importazioni viene annullata.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            logger.warn("cannot close the watch service", ex);
+        }
+        if (waitingForImport) {
+            thread.interrupt();
+        }
+        thread = null;
+    }
+
+    private void watch() {
+        scan();
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty() ? watchService.take() : watchService.poll(timeToNextDeadline(), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handleEvents(key);
+                    if (!key.reset()) {
+                        logger.warn(directory + " is no longer accessible, stop watching");
+                        return;
+                    }
+                }
+                importReadyFiles();
+            }
+        } catch (InterruptedException ex) {
+            // fine
+        } catch (ClosedWatchServiceException ex) {
+            // stop()
+        } catch (RuntimeException ex) {
+            logger.error("stopped watching " + directory, ex);
+            return;
+        }
+        logger.info("stopped watching " + directory);
+    }
+
+    private void handleEvents(WatchKey key) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // alcuni eventi sono andati persi
+                scan();
+                continue;
+            }
+
+            File file = new File(directory, ((Path) event.context()).toString());
+            if (isPackage(file)) {
+                Pending entry = pending.get(file);
+                if (entry == null) {
+                    pending.put(file, new Pending(file));
+                } else {
+                    entry.update(file);
+                }
+            }
+        }
+    }
+
+    /** Aggiunge ai file in attesa tutti i pacchetti della cartella. */
+    private void scan() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            logger.warn("cannot list " + directory);
+            return;
+        }
+        for (File file : files) {
+            if (isPackage(file) && !pending.containsKey(file)) {
+                pending.put(file, new Pending(file));
+            }
+        }
+    }
+
+    private long timeToNextDeadline() {
+        long next = Long.MAX_VALUE;
+        for (Pending entry : pending.values()) {
+            next = Math.min(next, entry.deadline);
+        }
+        return Math.max(1, next - System.currentTimeMillis());
+    }
+
+    private void importReadyFiles() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        // i file da ritentare tornano in attesa solo alla fine: pending non
+        // puo' essere modificato mentre viene percorso
+        List<File> retries = new ArrayList<File>();
+        Iterator<Map.Entry<File, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, Pending> entry = iterator.next();
+            File file = entry.getKey();
+            if (entry.getValue().deadline > now) {
+                continue;
+            }
+            if (!file.isFile()) {
+                // cancellato o rinominato prima di essere importato
+                iterator.remove();
+                continue;
+            }
+            if (entry.getValue().update(file)) {
+                // ancora in scrittura: aspetto un altro intervallo
+                continue;
+            }
+
+            iterator.remove();
+            try {
+                if (!importPackage(file)) {
+                    retries.add(file);
+                }
+            } catch (RuntimeException ex) {
+                // un pacchetto che non si riesce a importare non deve
+                // fermare la sorveglianza della cartella
+                logger.error("cannot import " + file, ex);
+            }
+        }
+
+        for (File file : retries) {
+            pending.put(file, new Pending(file));
+        }
+    }
+
+    /**
+     * Importa un pacchetto dopo le importazioni gia' richieste, ad esempio
+     * dall'utente o degli snippet di esempio: il controllo dell'impronta,
+     * l'importazione e il salvataggio dell'impronta avvengono senza altre
+     * importazioni in corso.
+     *
+     * @return <code>false</code> se il file non si puo' ancora leggere e va
+     *         ritentato dopo un altro intervallo
+     */
+    private boolean importPackage(File file) throws InterruptedException {
+        waitingForImport = true;
+        try {
+            dbms.beginImport();
+        } finally {
+            waitingForImport = false;
+        }
+
+        try {
+            return importPackageNow(file);
+        } finally {
+            dbms.endImport();
+        }
+    }
+
+    private boolean importPackageNow(File file) throws InterruptedException {
+        String hash;
+        try {
+            hash = ContentHash.of(file);
+        } catch (IOException ex) {
+            // su alcuni sistemi il file e' bloccato finche' non e' stato
+            // copiato del tutto: riprovo dopo un altro intervallo
+            logger.debug("cannot read " + file + ", retrying", ex);
+            return false;
+        }
+
+        if (processed.contains(hash)) {
+            logger.debug(file + " already imported");
+            return true;
+        }
+
+        ImportMetrics metrics = new ImportPipeline(dbms, ConflictPolicy.KEEP_LOCAL).run(PackageSource.forFile(file));
+        logger.info(String.format("import of %s: %s", file, metrics));
+
+        // un pacchetto non valido non viene riletto finche' non cambia; gli
+        // altri errori (ad esempio del database) vengono ritentati al
+        // prossimo avvio
+        Throwable failure = metrics.getFailure();
+        if (!metrics.isCancelled() && (failure == null || failure instanceof PackageFormatException)) {
+            addProcessed(hash);
+        }
+        listener.packageImported(file, metrics);
+        return true;
+    }
+
+    private static boolean isPackage(File file) {
+        String name = file.getName();
+        return !name.startsWith(".")
+                && (name.endsWith(ApplicationConstants.JCC_EXTENSION) || name.endsWith(ApplicationConstants.JCC_BINARY_EXTENSION));
+    }
+
+    private void loadProcessed() {
+        processed.clear();
+        if (!processedFile.exists()) {
+            return;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(processedFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().length() > 0) {
+                        processed.add(line.trim());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            logger.warn("cannot read " + processedFile + ", packages may be imported again", ex);
+        }
+    }
+
+    /** Aggiunge un'impronta in fondo al file, senza riscriverlo. */
+    private void addProcessed(String hash) {
+        processed.add(hash);
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(processedFile, true), "UTF-8");
+            try {
+                writer.write(hash);
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            logger.warn("cannot update " + processedFile, ex);
+        }
+    }
+}
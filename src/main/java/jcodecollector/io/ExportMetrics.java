@@ -0,0 +1,171 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stato di un'esportazione eseguita da {@link PackageManager}. I valori
+ * vengono aggiornati dal thread che esporta e possono essere letti in
+ * qualsiasi momento; {@link #cancel()} interrompe l'esportazione dopo lo
+ * snippet corrente.
+ */
+public class ExportMetrics {
+
+    private final long startTime = System.nanoTime();
+    private volatile long endTime = -1;
+
+    private volatile int total = -1;
+    private final AtomicInteger written = new AtomicInteger();
+    private volatile long bytesWritten;
+    private final List<String> skipped = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+    void setTotal(int total) {
+        this.total = total;
+    }
+
+    void written(long bytesWritten) {
+        written.incrementAndGet();
+        this.bytesWritten = bytesWritten;
+    }
+
+    void skipped(String name) {
+        skipped.add(name);
+    }
+
+    void unchanged(int count) {
+        unchanged.addAndGet(count);
+    }
+
+    void deleted() {
+        deleted.incrementAndGet();
+    }
+
+    void fail(Throwable throwable) {
+        if (failure == null) {
+            failure = throwable;
+        }
+    }
+
+    void finish() {
+        endTime = System.nanoTime();
+    }
+
+    /** Interrompe l'esportazione: il file incompleto viene cancellato. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return il numero di snippet da esportare, <code>-1</code> finche' non
+     *         e' noto
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /** @return il numero di snippet scritti finora */
+    public int getWritten() {
+        return written.get();
+    }
+
+    /** @return il numero di byte scritti finora, prima della compressione */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return il numero di snippet non riscritti perche' non sono cambiati
+     *         dall'ultima esportazione (solo per {@link MirrorExporter})
+     */
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return il numero di snippet cancellati dall'ultima esportazione e
+     *         quindi rimossi (solo per {@link MirrorExporter})
+     */
+    public int getDeleted() {
+        return deleted.get();
+    }
+
+    /**
+     * Restituisce i nomi degli snippet che non e' stato possibile esportare,
+     * ad esempio perche' contengono caratteri non ammessi in un documento XML.
+     * Gli altri snippet vengono esportati comunque.
+     *
+     * @return i nomi degli snippet non esportati
+     */
+    public List<String> getSkipped() {
+        synchronized (skipped) {
+            return new ArrayList<String>(skipped);
+        }
+    }
+
+    /**
+     * Restituisce il numero di snippet scritti per ogni secondo trascorso
+     * dall'inizio dell'esportazione.
+     *
+     * @return il throughput dell'esportazione
+     */
+    public double getRecordsPerSecond() {
+        long elapsed = getElapsedTime();
+        return elapsed == 0 ? 0 : getWritten() * 1000.0 / elapsed;
+    }
+
+    /**
+     * Restituisce la durata dell'esportazione, o il tempo trascorso finora se
+     * e' ancora in corso.
+     *
+     * @return la durata in millisecondi
+     */
+    public long getElapsedTime() {
+        long end = endTime < 0 ? System.nanoTime() : endTime;
+        return TimeUnit.NANOSECONDS.toMillis(end - startTime);
+    }
+
+    public boolean isFinished() {
+        return endTime >= 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return l'errore che ha interrotto l'esportazione, <code>null</code> se
+     *         non ci sono stati errori
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d written, %d unchanged, %d deleted, %d skipped, %d bytes in %d ms (%.0f records/s)%s", getWritten(), getTotal(),
+                getUnchanged(), getDeleted(), skipped.size(), getBytesWritten(), getElapsedTime(), getRecordsPerSecond(), cancelled ? " (cancelled)" : "");
+    }
+}
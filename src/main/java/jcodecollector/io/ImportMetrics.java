@@ -0,0 +1,340 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistiche di un {@link ImportPipeline}. I valori vengono aggiornati dai
+ * thread della pipeline e possono essere letti in qualsiasi momento, anche
+ * durante l'importazione.
+ */
+public class ImportMetrics {
+
+    /**
+     * Le statistiche di uno stadio della pipeline: quanti snippet ha
+     * elaborato, per quanto tempo ha lavorato e quanto si e' riempita la coda
+     * da cui legge.
+     */
+    public static class Stage {
+
+        private final String name;
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicLong busyTime = new AtomicLong();
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+        private volatile BlockingQueue<?> input;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        void setInput(BlockingQueue<?> input) {
+            this.input = input;
+        }
+
+        void processed(int count, long nanos) {
+            processed.addAndGet(count);
+            busyTime.addAndGet(nanos);
+        }
+
+        void sampleQueue() {
+            BlockingQueue<?> queue = input;
+            if (queue == null) {
+                return;
+            }
+
+            int depth = queue.size();
+            int max = maxQueueDepth.get();
+            while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+                max = maxQueueDepth.get();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getProcessed() {
+            return processed.get();
+        }
+
+        /**
+         * Restituisce il tempo in cui lo stadio ha lavorato, escluse le attese
+         * sulle code.
+         *
+         * @return il tempo di lavoro in millisecondi
+         */
+        public long getBusyTime() {
+            return TimeUnit.NANOSECONDS.toMillis(busyTime.get());
+        }
+
+        /**
+         * Restituisce il numero di snippet elaborati per ogni secondo di
+         * lavoro.
+         *
+         * @return il throughput dello stadio
+         */
+        public double getThroughput() {
+            long nanos = busyTime.get();
+            return nanos == 0 ? 0 : processed.get() * 1e9 / nanos;
+        }
+
+        /**
+         * @return il numero di snippet in attesa di essere elaborati, 0 per il
+         *         primo stadio
+         */
+        public int getQueueDepth() {
+            BlockingQueue<?> queue = input;
+            return queue == null ? 0 : queue.size();
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d in %d ms (%.0f/s), queue max %d", name, getProcessed(), getBusyTime(), getThroughput(),
+                    getMaxQueueDepth());
+        }
+    }
+
+    private final long startTime = System.nanoTime();
+    private volatile long endTime = -1;
+
+    private final Stage parse = new Stage("parse");
+    private final Stage validate = new Stage("validate");
+    private final Stage dedupe = new Stage("dedupe");
+    private final Stage persist = new Stage("persist");
+
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+    private final AtomicInteger conflicts = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicInteger batches = new AtomicInteger();
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private volatile long totalBytes;
+
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+    ImportMetrics() {
+        // do nothing
+    }
+
+    Stage getParseStage() {
+        return parse;
+    }
+
+    Stage getValidateStage() {
+        return validate;
+    }
+
+    Stage getDedupeStage() {
+        return dedupe;
+    }
+
+    Stage getPersistStage() {
+        return persist;
+    }
+
+    /**
+     * Restituisce gli stadi della pipeline nell'ordine in cui vengono
+     * attraversati.
+     *
+     * @return gli stadi della pipeline
+     */
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(Arrays.asList(parse, validate, dedupe, persist));
+    }
+
+    void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    void duplicate() {
+        duplicates.incrementAndGet();
+    }
+
+    void unchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    void updated() {
+        updated.incrementAndGet();
+    }
+
+    void conflict() {
+        conflicts.incrementAndGet();
+    }
+
+    void deleted(int count) {
+        deleted.addAndGet(count);
+    }
+
+    void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    void bytesRead(long count) {
+        bytesRead.addAndGet(count);
+    }
+
+    void batchPersisted() {
+        batches.incrementAndGet();
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    void fail(Throwable throwable) {
+        if (failure == null) {
+            failure = throwable;
+        }
+    }
+
+    void finish() {
+        endTime = System.nanoTime();
+    }
+
+    /** @return il numero di snippet letti dal pacchetto */
+    public int getRead() {
+        return parse.getProcessed();
+    }
+
+    /**
+     * @return il numero di snippet inseriti o aggiornati nel database
+     */
+    public int getImported() {
+        return persist.getProcessed();
+    }
+
+    /** @return il numero di snippet del database sostituiti da quelli importati */
+    public int getUpdated() {
+        return updated.get();
+    }
+
+    /**
+     * @return il numero di snippet ignorati perche' identici a quelli del
+     *         database
+     */
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return il numero di snippet e cancellazioni in conflitto con il
+     *         database, risolti secondo il {@link ConflictPolicy} della
+     *         pipeline
+     */
+    public int getConflicts() {
+        return conflicts.get();
+    }
+
+    /** @return il numero di snippet cancellati dal database */
+    public int getDeleted() {
+        return deleted.get();
+    }
+
+    /** @return il numero di snippet scartati perche' non validi */
+    public int getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return il numero di snippet scartati perche' il loro nome compare piu'
+     *         volte nel pacchetto o, senza {@link ConflictPolicy}, e' gia'
+     *         presente nel database
+     */
+    public int getDuplicates() {
+        return duplicates.get();
+    }
+
+    public int getBatches() {
+        return batches.get();
+    }
+
+    /** @return il numero di byte letti finora dalla sorgente */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /** @return la dimensione in byte della sorgente */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Restituisce il numero di snippet letti per ogni secondo trascorso
+     * dall'inizio dell'importazione.
+     *
+     * @return il throughput complessivo dell'importazione
+     */
+    public double getRecordsPerSecond() {
+        long elapsed = getElapsedTime();
+        return elapsed == 0 ? 0 : getRead() * 1000.0 / elapsed;
+    }
+
+    /**
+     * Restituisce la durata dell'importazione, o il tempo trascorso finora se
+     * e' ancora in corso.
+     *
+     * @return la durata in millisecondi
+     */
+    public long getElapsedTime() {
+        long end = endTime < 0 ? System.nanoTime() : endTime;
+        return TimeUnit.NANOSECONDS.toMillis(end - startTime);
+    }
+
+    public boolean isFinished() {
+        return endTime >= 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return l'errore che ha interrotto l'importazione, <code>null</code> se
+     *         non ci sono stati errori
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(
+                "%d read, %d imported (%d updated), %d unchanged, %d deleted, %d conflicts, %d rejected, %d duplicates in %d ms (%d batches, %.0f records/s, %d/%d bytes)%s",
+                getRead(), getImported(), getUpdated(), getUnchanged(), getDeleted(), getConflicts(), getRejected(), getDuplicates(),
+                getElapsedTime(), getBatches(), getRecordsPerSecond(), getBytesRead(), getTotalBytes(), cancelled ? " (cancelled)" : ""));
+        for (Stage stage : getStages()) {
+            builder.append("; ").append(stage);
+        }
+        return builder.toString();
+    }
+}
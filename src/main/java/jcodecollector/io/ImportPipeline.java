@@ -0,0 +1,525 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Tag;
+import jcodecollector.common.bean.Tombstone;
+import jcodecollector.data.DBMS;
+import jcodecollector.data.SnippetDigest;
+import jcodecollector.util.ApplicationConstants;
+import jcodecollector.util.ContentHash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Importa gli snippet di un {@link PackageSource} nel database. L'importazione
+ * e' divisa in quattro stadi, ognuno eseguito da un proprio thread e collegato
+ * al successivo da una coda limitata:
+ * <ol>
+ * <li><b>parse</b>: legge gli snippet dalla sorgente;</li>
+ * <li><b>validate</b>: normalizza gli snippet e scarta quelli non validi;</li>
+ * <li><b>dedupe</b>: scarta gli snippet il cui nome e' gia' presente nel
+ * database o e' gia' stato letto;</li>
+ * <li><b>persist</b>: inserisce gli snippet nel database a gruppi.</li>
+ * </ol>
+ * Se la pipeline ha un {@link ConflictPolicy} l'importazione e' un'unione:
+ * lo stadio dedupe confronta l'impronta del contenuto (vedi
+ * {@link ContentHash}) di ogni snippet con quella dello snippet del database
+ * con lo stesso nome, scarta gli snippet identici e risolve quelli diversi
+ * secondo il {@link ConflictPolicy}; al termine vengono applicate le
+ * cancellazioni contenute nel pacchetto. Importare due volte lo stesso
+ * pacchetto non modifica il database.
+ * Mentre un gruppo viene scritto nel database la lettura prosegue; quando una
+ * coda e' piena lo stadio che la riempie si ferma finche' non si libera
+ * spazio, quindi la memoria occupata e' limitata anche per pacchetti enormi.
+ *
+ * Ogni pipeline puo' essere eseguita una sola volta.
+ */
+public class ImportPipeline {
+
+    /** La capacita' di ogni coda tra due stadi. */
+    public static final int QUEUE_CAPACITY = 256;
+
+    /** Il numero massimo di snippet inseriti in una sola transazione. */
+    public static final int BATCH_SIZE = 100;
+
+    /** Ogni quanto lo stadio persist controlla se la pipeline e' stata fermata. */
+    private static final long POLL_INTERVAL = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportPipeline.class);
+
+    /** Segnala agli stadi successivi la fine degli snippet. */
+    private static final Snippet END = new Snippet(-1);
+
+    private final DBMS dbms;
+    private final ConflictPolicy policy;
+    private final ImportMetrics metrics = new ImportMetrics();
+
+    /** Le cancellazioni lette, applicate al termine dell'importazione. */
+    private final List<Tombstone> tombstones = Collections.synchronizedList(new ArrayList<Tombstone>());
+
+    /** I nomi degli snippet letti, usati solo dallo stadio dedupe. */
+    private final Set<String> seen = new HashSet<String>();
+
+    private final BlockingQueue<Snippet> parsed = new ArrayBlockingQueue<Snippet>(QUEUE_CAPACITY);
+    private final BlockingQueue<Snippet> validated = new ArrayBlockingQueue<Snippet>(QUEUE_CAPACITY);
+    private final BlockingQueue<Snippet> unique = new ArrayBlockingQueue<Snippet>(QUEUE_CAPACITY);
+
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private Thread persistThread;
+    private boolean started;
+
+    /**
+     * Ferma lo stadio persist, che non viene mai interrotto con
+     * {@link Thread#interrupt()} per non interrompere una scrittura sul
+     * database a meta'.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Crea una pipeline che inserisce solo gli snippet il cui nome non e'
+     * presente nel database e ignora le cancellazioni.
+     *
+     * @param dbms Il database in cui inserire gli snippet.
+     */
+    public ImportPipeline(DBMS dbms) {
+        this(dbms, null);
+    }
+
+    /**
+     * @param dbms Il database in cui inserire gli snippet.
+     * @param policy Come risolvere i conflitti con il database,
+     *        <code>null</code> per inserire solo gli snippet nuovi.
+     */
+    public ImportPipeline(DBMS dbms, ConflictPolicy policy) {
+        this.dbms = dbms;
+        this.policy = policy;
+        metrics.getValidateStage().setInput(parsed);
+        metrics.getDedupeStage().setInput(validated);
+        metrics.getPersistStage().setInput(unique);
+    }
+
+    /**
+     * Restituisce le statistiche dell'importazione, aggiornate mentre e' in
+     * corso.
+     *
+     * @return le statistiche dell'importazione
+     */
+    public ImportMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Importa gli snippet di <code>source</code> e attende la fine
+     * dell'importazione. Se uno stadio fallisce gli altri vengono fermati e
+     * l'errore e' disponibile con {@link ImportMetrics#getFailure()}: i gruppi
+     * gia' inseriti restano nel database. Se e' in corso un'altra
+     * importazione sullo stesso database attende che sia terminata.
+     *
+     * @param source La sorgente degli snippet.
+     * @return le statistiche dell'importazione
+     * @throws InterruptedException se il thread chiamante viene interrotto:
+     *         in questo caso l'importazione viene annullata
+     */
+    public ImportMetrics run(final PackageSource source) throws InterruptedException {
+        dbms.beginImport();
+        try {
+            return runStages(source);
+        } finally {
+            dbms.endImport();
+        }
+    }
+
+    private ImportMetrics runStages(final PackageSource source) throws InterruptedException {
+        synchronized (threads) {
+            if (started) {
+                throw new IllegalStateException("pipeline already started");
+            }
+            started = true;
+            if (stopped) {
+                // annullata mentre attendeva un'altra importazione
+                metrics.finish();
+                return metrics;
+            }
+            metrics.setTotalBytes(source.length());
+
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    parse(source);
+                }
+            }, "jcc-import-parse"));
+            threads.add(new Thread(new Stage(parsed, validated, metrics.getValidateStage()) {
+                @Override
+                Snippet process(Snippet snippet) {
+                    return validate(snippet);
+                }
+            }, "jcc-import-validate"));
+            threads.add(new Thread(new Stage(validated, unique, metrics.getDedupeStage()) {
+                private Map<String, SnippetDigest> index;
+
+                @Override
+                Snippet process(Snippet snippet) {
+                    if (index == null) {
+                        index = dbms.getContentIndex();
+                    }
+                    return merge(snippet, index);
+                }
+            }, "jcc-import-dedupe"));
+            persistThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    persist();
+                }
+            }, "jcc-import-persist");
+            threads.add(persistThread);
+
+            for (Thread thread : threads) {
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            cancel();
+            metrics.finish();
+            throw ex;
+        }
+
+        try {
+            if (policy != null && metrics.getFailure() == null && !metrics.isCancelled()) {
+                applyTombstones();
+            }
+        } catch (RuntimeException ex) {
+            metrics.fail(ex);
+        } finally {
+            metrics.finish();
+            logger.debug("import of {}: {}", source, metrics);
+        }
+
+        return metrics;
+    }
+
+    /** Annulla l'importazione: gli snippet gia' inseriti restano nel database. */
+    public void cancel() {
+        metrics.cancel();
+        abort();
+    }
+
+    private void abort() {
+        stopped = true;
+        synchronized (threads) {
+            for (Thread thread : threads) {
+                if (thread != persistThread) {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        metrics.fail(throwable);
+        abort();
+    }
+
+    private void parse(PackageSource source) {
+        final ImportMetrics.Stage stage = metrics.getParseStage();
+        try {
+            source.read(new PackageSource.Handler() {
+                private long last = System.nanoTime();
+
+                @Override
+                public void snippetRead(Snippet snippet) throws InterruptedException {
+                    stage.processed(1, System.nanoTime() - last);
+                    parsed.put(snippet);
+                    last = System.nanoTime();
+                }
+
+                @Override
+                public void tombstoneRead(Tombstone tombstone) {
+                    tombstones.add(tombstone);
+                }
+
+                @Override
+                public void bytesRead(long count) {
+                    metrics.bytesRead(count);
+                }
+            });
+            parsed.put(END);
+        } catch (InterruptedException ex) {
+            // la pipeline e' stata fermata
+        } catch (Exception ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Normalizza uno snippet: toglie gli spazi iniziali e finali da nome,
+     * categoria e tag, elimina i tag duplicati e sostituisce i campi mancanti
+     * con stringhe vuote.
+     *
+     * @return una copia normalizzata dello snippet, senza id,
+     *         <code>null</code> se non e' valido
+     */
+    private Snippet validate(Snippet snippet) {
+        String name = snippet.getName() == null ? "" : snippet.getName().trim();
+        String category = snippet.getCategory() == null ? "" : snippet.getCategory().trim();
+        String code = snippet.getCode() == null ? "" : snippet.getCode();
+        String comment = snippet.getComment() == null ? "" : snippet.getComment();
+
+        if (category.length() == 0) {
+            category = "Uncategorized";
+        }
+
+        Set<String> tagNames = new LinkedHashSet<String>();
+        for (Tag tag : snippet.getTags()) {
+            String tagName = tag.getName() == null ? "" : tag.getName().trim();
+            if (tagName.length() > ApplicationConstants.TAG_LENGTH) {
+                return reject(snippet, "tag too long");
+            }
+            if (tagName.length() > 0) {
+                tagNames.add(tagName);
+            }
+        }
+
+        if (name.length() == 0) {
+            return reject(snippet, "missing name");
+        }
+        if (name.length() > ApplicationConstants.SNIPPET_NAME_LENGTH) {
+            return reject(snippet, "name too long");
+        }
+        if (category.length() > ApplicationConstants.CATEGORY_LENGTH) {
+            return reject(snippet, "category too long");
+        }
+        if (code.length() > ApplicationConstants.MAX_CODE_LENGTH) {
+            return reject(snippet, "code too long");
+        }
+        if (comment.length() > ApplicationConstants.COMMENT_LENGTH) {
+            return reject(snippet, "comment too long");
+        }
+
+        List<Tag> tags = new ArrayList<Tag>(tagNames.size());
+        for (String tagName : tagNames) {
+            tags.add(new Tag(category, tagName));
+        }
+
+        return new Snippet(-1, category, name, tags, code, comment, snippet.getSyntax(), snippet.isLocked());
+    }
+
+    /**
+     * Confronta uno snippet con quello del database con lo stesso nome.
+     *
+     * @return lo snippet da inserire (senza id) o da aggiornare (con l'id
+     *         dello snippet del database), <code>null</code> per scartarlo
+     */
+    private Snippet merge(Snippet snippet, Map<String, SnippetDigest> index) {
+        if (!seen.add(snippet.getName())) {
+            metrics.duplicate();
+            return null;
+        }
+
+        SnippetDigest local = index.get(snippet.getName());
+        if (local == null) {
+            return snippet;
+        }
+        if (policy == null) {
+            metrics.duplicate();
+            return null;
+        }
+        if (ContentHash.of(snippet).equals(local.getContentHash())) {
+            metrics.unchanged();
+            return null;
+        }
+
+        metrics.conflict();
+        switch (policy) {
+        case OVERWRITE:
+            metrics.updated();
+            return copy(snippet, local.getId(), snippet.getName());
+        case KEEP_BOTH:
+            return copy(snippet, -1, freeName(snippet.getName(), index));
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Restituisce il primo nome libero tra "name (2)", "name (3)", ...
+     * accorciando <code>name</code> se necessario.
+     */
+    private String freeName(String name, Map<String, SnippetDigest> index) {
+        for (int i = 2;; i++) {
+            String suffix = " (" + i + ")";
+            String base = name;
+            if (base.length() + suffix.length() > ApplicationConstants.SNIPPET_NAME_LENGTH) {
+                base = base.substring(0, ApplicationConstants.SNIPPET_NAME_LENGTH - suffix.length()).trim();
+            }
+            String candidate = base + suffix;
+            if (!index.containsKey(candidate) && seen.add(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static Snippet copy(Snippet snippet, int id, String name) {
+        return new Snippet(id, snippet.getCategory(), name, snippet.getTags(), snippet.getCode(), snippet.getComment(),
+                snippet.getSyntax(), snippet.isLocked());
+    }
+
+    /**
+     * Cancella gli snippet indicati dalle cancellazioni del pacchetto, se non
+     * sono stati reinseriti dal pacchetto stesso. Uno snippet modificato dopo
+     * l'esportazione e' in conflitto e viene cancellato solo con
+     * {@link ConflictPolicy#OVERWRITE}.
+     */
+    private void applyTombstones() {
+        if (tombstones.isEmpty()) {
+            return;
+        }
+
+        Map<String, SnippetDigest> index = dbms.getContentIndex();
+        List<String> names = new ArrayList<String>();
+        for (Tombstone tombstone : tombstones) {
+            SnippetDigest local = index.get(tombstone.getName());
+            if (local == null || seen.contains(tombstone.getName())) {
+                continue;
+            }
+            if (tombstone.getContentHash() != null && !tombstone.getContentHash().equals(local.getContentHash())) {
+                metrics.conflict();
+                if (policy != ConflictPolicy.OVERWRITE) {
+                    continue;
+                }
+            }
+            names.add(tombstone.getName());
+        }
+
+        if (!names.isEmpty()) {
+            metrics.deleted(dbms.deleteSnippets(names));
+        }
+    }
+
+    private Snippet reject(Snippet snippet, String reason) {
+        logger.debug("snippet '{}' rejected: {}", snippet.getName(), reason);
+        metrics.rejected();
+        return null;
+    }
+
+    /**
+     * Inserisce gli snippet a gruppi: ogni gruppo contiene tutti gli snippet
+     * in coda, fino a {@link #BATCH_SIZE}. Gli id degli snippet nuovi vengono
+     * assegnati dal database nella transazione che li inserisce.
+     */
+    private void persist() {
+        ImportMetrics.Stage stage = metrics.getPersistStage();
+        try {
+            List<Snippet> batch = new ArrayList<Snippet>(BATCH_SIZE);
+            boolean finished = false;
+
+            while (!finished && !stopped) {
+                Snippet first = unique.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                stage.sampleQueue();
+                unique.drainTo(batch, BATCH_SIZE - 1);
+
+                if (batch.get(batch.size() - 1) == END) {
+                    batch.remove(batch.size() - 1);
+                    finished = true;
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                int stored = dbms.storeSnippets(batch);
+                stage.processed(stored, System.nanoTime() - start);
+                for (int i = stored; i < batch.size(); i++) {
+                    // inserito nel frattempo da un'altra importazione
+                    metrics.duplicate();
+                }
+                metrics.batchPersisted();
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            // la pipeline e' stata fermata
+        } catch (Exception ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Uno stadio intermedio: prende gli snippet dalla coda di ingresso, li
+     * elabora e passa alla coda di uscita quelli da mantenere.
+     */
+    private abstract class Stage implements Runnable {
+
+        private final BlockingQueue<Snippet> input;
+        private final BlockingQueue<Snippet> output;
+        private final ImportMetrics.Stage stage;
+
+        Stage(BlockingQueue<Snippet> input, BlockingQueue<Snippet> output, ImportMetrics.Stage stage) {
+            this.input = input;
+            this.output = output;
+            this.stage = stage;
+        }
+
+        /**
+         * @return lo snippet da passare allo stadio successivo,
+         *         <code>null</code> per scartarlo
+         */
+        abstract Snippet process(Snippet snippet);
+
+        @Override
+        public void run() {
+            try {
+                Snippet snippet;
+                while ((snippet = input.take()) != END) {
+                    stage.sampleQueue();
+                    long start = System.nanoTime();
+                    Snippet result = process(snippet);
+                    stage.processed(1, System.nanoTime() - start);
+                    if (result != null) {
+                        output.put(result);
+                    }
+                }
+                output.put(END);
+            } catch (InterruptedException ex) {
+                // la pipeline e' stata fermata
+            } catch (Exception ex) {
+                fail(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Tag;
+import jcodecollector.common.bean.Tombstone;
+import jcodecollector.data.DBMS;
+import jcodecollector.data.SnippetDigest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mantiene una copia degli snippet in una cartella, un file per snippet, ad
+ * esempio per tenere la libreria sotto controllo di versione.
+ *
+ * <p>
+ * Ogni snippet viene salvato in <code>categoria/nome.estensione</code>, con
+ * l'estensione della sua sintassi (vedi
+ * {@link SourceTreeSource#getExtension(String)}); tag, commento e le altre
+ * proprieta' vanno in un file accanto, con estensione
+ * {@link #SIDECAR_EXTENSION}.
+ * </p>
+ *
+ * <p>
+ * Il manifest ({@link #MANIFEST_NAME}) associa a ogni snippet l'impronta del
+ * contenuto (vedi {@link jcodecollector.util.ContentHash}) e il percorso del
+ * file, oltre alla generazione del database copiata. A ogni sincronizzazione
+ * le impronte del manifest vengono confrontate con quelle degli snippet
+ * modificati dopo quella generazione (o di tutti, se il manifest non e'
+ * aggiornato): vengono caricati e scritti solo gli snippet nuovi o
+ * modificati e vengono cancellati i file degli snippet rimossi. Ogni file
+ * viene scritto in un file temporaneo e poi rinominato, quindi chi legge la
+ * cartella non vede mai un file scritto a meta'.
+ * </p>
+ */
+public class MirrorExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(MirrorExporter.class);
+
+    /** Il nome del manifest, nella cartella principale. */
+    public static final String MANIFEST_NAME = ".jcc-mirror";
+
+    /** L'estensione dei file con tag, commento e proprieta' degli snippet. */
+    public static final String SIDECAR_EXTENSION = ".jccmeta";
+
+    /** La prima riga del manifest. */
+    private static final String MANIFEST_HEADER = "# jCodeCollector mirror manifest 1";
+
+    /** La riga del manifest con la generazione copiata. */
+    private static final String GENERATION_PREFIX = "# generation ";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** I caratteri non ammessi nei nomi dei file, su almeno un sistema. */
+    private static final Pattern INVALID_CHARACTERS = Pattern.compile("[\\\\/:*?\"<>|\\p{Cntrl}]");
+
+    /** I nomi riservati di Windows. */
+    private static final Pattern RESERVED_NAMES = Pattern.compile("(?i)(con|prn|aux|nul|com[1-9]|lpt[1-9])(\\..*)?");
+
+    /** Un file scritto dall'ultima sincronizzazione. */
+    private static class Entry {
+        final String hash;
+        final String path;
+
+        Entry(String hash, String path) {
+            this.hash = hash;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Il contenuto del manifest. Le modifiche vengono aggiunte in fondo al
+     * file, dove prevalgono sulle righe precedenti; il file viene riscritto
+     * per intero solo quando le righe superate sono piu' di quelle valide.
+     */
+    private static class Manifest {
+        /** I file scritti, per nome dello snippet. */
+        final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+        /** I nomi degli snippet modificati dopo la lettura del file. */
+        final Set<String> changes = new LinkedHashSet<String>();
+
+        /**
+         * La generazione del database copiata per intero, <code>-1</code> se
+         * sconosciuta.
+         */
+        long generation = -1;
+
+        /** Il numero di righe di snippet del file. */
+        int lines;
+
+        /** <code>true</code> se il file va riscritto per intero. */
+        boolean rewrite;
+
+        Entry get(String name) {
+            return entries.get(name);
+        }
+
+        boolean contains(String name) {
+            return entries.containsKey(name);
+        }
+
+        Entry put(String name, Entry entry) {
+            changes.add(name);
+            return entries.put(name, entry);
+        }
+
+        Entry remove(String name) {
+            changes.add(name);
+            return entries.remove(name);
+        }
+    }
+
+    private final DBMS dbms;
+    private final File directory;
+
+    /**
+     * @param dbms Il database da esportare.
+     * @param directory La cartella in cui mantenere la copia.
+     */
+    public MirrorExporter(DBMS dbms, File directory) {
+        this.dbms = dbms;
+        this.directory = directory;
+    }
+
+    /**
+     * Aggiorna la copia degli snippet. Se la sincronizzazione viene
+     * annullata con {@link ExportMetrics#cancel()} o fallisce, il manifest
+     * registra comunque i file gia' scritti: la sincronizzazione successiva
+     * riprende da li'.
+     *
+     * @param metrics Le statistiche, aggiornate durante la sincronizzazione:
+     *        il totale e' il numero di snippet da scrivere.
+     */
+    public void sync(ExportMetrics metrics) {
+        Manifest manifest = null;
+        long generation = -1;
+        boolean modified = false;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("cannot create " + directory);
+            }
+
+            manifest = readManifest();
+            // letta prima degli snippet: le modifiche successive verranno
+            // riprese dalla prossima sincronizzazione
+            generation = dbms.getCurrentGeneration();
+
+            Map<String, SnippetDigest> index = null;
+            int total = 0;
+            if (manifest.generation >= 0 && manifest.generation <= generation) {
+                index = dbms.getContentIndex(manifest.generation);
+                for (Tombstone tombstone : dbms.getTombstones(manifest.generation)) {
+                    if (!index.containsKey(tombstone.getName()) && manifest.contains(tombstone.getName())) {
+                        delete(manifest.remove(tombstone.getName()).path);
+                        modified = true;
+                        metrics.deleted();
+                    }
+                }
+
+                // gli snippet rinominati e le cancellazioni eliminate con
+                // DBMS#purgeTombstones non lasciano traccia: se i conti non
+                // tornano si confronta tutto il database
+                total = dbms.countSnippets();
+                int expected = manifest.entries.size();
+                for (String name : index.keySet()) {
+                    if (!manifest.contains(name)) {
+                        expected++;
+                    }
+                }
+                if (expected != total) {
+                    logger.debug("mirror manifest of {} out of date, comparing all snippets", directory);
+                    index = null;
+                }
+            }
+
+            if (index == null) {
+                index = dbms.getContentIndex();
+                total = index.size();
+                for (String name : new ArrayList<String>(manifest.entries.keySet())) {
+                    if (!index.containsKey(name)) {
+                        delete(manifest.remove(name).path);
+                        modified = true;
+                        metrics.deleted();
+                    }
+                }
+            }
+
+            // gli snippet nuovi o modificati; i percorsi degli altri restano
+            // occupati
+            Set<String> changedNames = new HashSet<String>();
+            List<SnippetDigest> changed = new ArrayList<SnippetDigest>();
+            for (SnippetDigest digest : index.values()) {
+                Entry entry = manifest.get(digest.getName());
+                if (entry == null || !entry.hash.equals(digest.getContentHash())) {
+                    changedNames.add(digest.getName());
+                    changed.add(digest);
+                }
+            }
+            Set<String> usedPaths = new HashSet<String>();
+            if (!changed.isEmpty()) {
+                for (Map.Entry<String, Entry> entry : manifest.entries.entrySet()) {
+                    if (!changedNames.contains(entry.getKey())) {
+                        usedPaths.add(entry.getValue().path.toLowerCase(Locale.ENGLISH));
+                    }
+                }
+            }
+            metrics.unchanged(total - changed.size());
+            metrics.setTotal(changed.size());
+
+            // gli snippet vengono scritti in ordine di nome, caricandone una
+            // pagina alla volta: la memoria usata non dipende dal numero di
+            // snippet da scrivere
+            Collections.sort(changed, new Comparator<SnippetDigest>() {
+                @Override
+                public int compare(SnippetDigest o1, SnippetDigest o2) {
+                    return o1.getName().compareTo(o2.getName());
+                }
+            });
+
+            long bytes = 0;
+            for (int start = 0; start < changed.size() && !metrics.isCancelled(); start += PackageManager.EXPORT_PAGE_SIZE) {
+                List<Integer> page = new ArrayList<Integer>(PackageManager.EXPORT_PAGE_SIZE);
+                for (SnippetDigest digest : changed.subList(start, Math.min(start + PackageManager.EXPORT_PAGE_SIZE, changed.size()))) {
+                    page.add(digest.getId());
+                }
+                List<Snippet> snippets = dbms.getSnippets(page);
+                Collections.sort(snippets, new Comparator<Snippet>() {
+                    @Override
+                    public int compare(Snippet o1, Snippet o2) {
+                        return o1.getName().compareTo(o2.getName());
+                    }
+                });
+
+                for (Snippet snippet : snippets) {
+                    if (metrics.isCancelled()) {
+                        break;
+                    }
+
+                    String path = choosePath(snippet, usedPaths);
+                    String sidecar = sidecar(snippet);
+                    bytes += write(path, snippet.getCode() == null ? "" : snippet.getCode());
+                    bytes += write(path + SIDECAR_EXTENSION, sidecar);
+
+                    Entry old = manifest.put(snippet.getName(), new Entry(index.get(snippet.getName()).getContentHash(), path));
+                    usedPaths.add(path.toLowerCase(Locale.ENGLISH));
+
+                    // il vecchio file potrebbe essere gia' stato preso da uno
+                    // snippet scritto prima di questo
+                    if (old != null && !usedPaths.contains(old.path.toLowerCase(Locale.ENGLISH))) {
+                        delete(old.path);
+                    }
+                    modified = true;
+                    metrics.written(bytes);
+                }
+            }
+
+            if (!metrics.isCancelled() && manifest.generation != generation) {
+                manifest.generation = generation;
+                modified = true;
+            }
+        } catch (Exception ex) {
+            logger.error("cannot mirror the snippets to " + directory, ex);
+            metrics.fail(ex);
+        } finally {
+            if (modified || (manifest != null && manifest.rewrite)) {
+                if (metrics.isCancelled() || metrics.getFailure() != null) {
+                    // la copia non e' completa: la prossima sincronizzazione
+                    // confronta tutto il database
+                    manifest.generation = -1;
+                }
+                try {
+                    writeManifest(manifest);
+                } catch (IOException ex) {
+                    logger.error("cannot write the manifest of " + directory, ex);
+                    metrics.fail(ex);
+                }
+            }
+            metrics.finish();
+            logger.debug("mirror to {}: {}", directory, metrics);
+        }
+    }
+
+    /**
+     * Sceglie il file di uno snippet: <code>categoria/nome.estensione</code>,
+     * oppure, se e' gia' usato da un altro snippet (ad esempio perche' i
+     * nomi differiscono solo per le maiuscole),
+     * <code>categoria/nome~id.estensione</code>.
+     */
+    private static String choosePath(Snippet snippet, Set<String> usedPaths) {
+        String extension = "." + SourceTreeSource.getExtension(snippet.getSyntax() == null ? null : snippet.getSyntax().getName());
+        String category = sanitize(snippet.getCategory());
+        String name = sanitize(snippet.getName());
+        if (name.toLowerCase(Locale.ENGLISH).endsWith(extension)) {
+            name = name.substring(0, name.length() - extension.length());
+        }
+
+        String path = category + "/" + name + extension;
+        if (usedPaths.contains(path.toLowerCase(Locale.ENGLISH))) {
+            path = category + "/" + name + "~" + snippet.getId() + extension;
+        }
+        return path;
+    }
+
+    /** Rende un nome utilizzabile come nome di file su tutti i sistemi. */
+    private static String sanitize(String name) {
+        String sanitized = INVALID_CHARACTERS.matcher(name.trim()).replaceAll("_");
+        if (sanitized.length() == 0 || sanitized.startsWith(".") || RESERVED_NAMES.matcher(sanitized).matches()) {
+            // i file nascosti sono riservati al manifest e ai file temporanei
+            sanitized = "_" + sanitized;
+        }
+        while (sanitized.endsWith(".") || sanitized.endsWith(" ")) {
+            sanitized = sanitized.substring(0, sanitized.length() - 1) + "_";
+        }
+        return sanitized;
+    }
+
+    /** Il contenuto del file con le proprieta' dello snippet. */
+    private static String sidecar(Snippet snippet) {
+        StringBuilder text = new StringBuilder();
+        text.append("name: ").append(singleLine(snippet.getName())).append('\n');
+        text.append("category: ").append(singleLine(snippet.getCategory())).append('\n');
+        text.append("syntax: ").append(snippet.getSyntax() == null ? "" : singleLine(snippet.getSyntax().getName())).append('\n');
+        text.append("tags:");
+        String separator = " ";
+        for (Tag tag : snippet.getTags()) {
+            text.append(separator).append(singleLine(tag.getName()));
+            separator = ", ";
+        }
+        text.append('\n');
+        text.append("locked: ").append(snippet.isLocked()).append('\n');
+        if (snippet.getComment() != null && snippet.getComment().length() > 0) {
+            text.append('\n').append(snippet.getComment()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String singleLine(String value) {
+        return value == null ? "" : value.replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * Scrive un file in un file temporaneo nella stessa cartella e poi lo
+     * rinomina.
+     *
+     * @return il numero di byte scritti
+     */
+    private long write(String path, String content) throws IOException {
+        File target = file(path);
+        File parent = target.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create " + parent);
+        }
+
+        byte[] bytes = content.getBytes(UTF_8);
+        File temp = new File(parent, "." + target.getName() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temp);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        move(temp, target);
+        return bytes.length;
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Cancella il file di uno snippet e la sua cartella, se resta vuota. */
+    private void delete(String path) throws IOException {
+        File file = file(path);
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(file(path + SIDECAR_EXTENSION).toPath());
+
+        File parent = file.getParentFile();
+        String[] children = parent.list();
+        if (!parent.equals(directory) && children != null && children.length == 0) {
+            parent.delete();
+        }
+    }
+
+    private File file(String path) {
+        return new File(directory, path.replace('/', File.separatorChar));
+    }
+
+    private Manifest readManifest() throws IOException {
+        Manifest manifest = new Manifest();
+        File file = new File(directory, MANIFEST_NAME);
+        if (!file.exists()) {
+            return manifest;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line = reader.readLine();
+            if (!MANIFEST_HEADER.equals(line)) {
+                throw new IOException(file + " is not a mirror manifest");
+            }
+            while ((line = reader.readLine()) != null) {
+                if (!parseLine(manifest, line)) {
+                    // ad esempio l'ultima riga di una sincronizzazione
+                    // interrotta: le impronte decidono cosa riscrivere
+                    logger.warn("invalid line in {}: {}", file, line);
+                    manifest.rewrite = true;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (manifest.rewrite) {
+            manifest.generation = -1;
+        }
+        return manifest;
+    }
+
+    /**
+     * Legge una riga del manifest: la generazione, il file di uno snippet
+     * oppure, con impronta e percorso vuoti, uno snippet cancellato.
+     *
+     * @return <code>false</code> se la riga non e' valida
+     */
+    private static boolean parseLine(Manifest manifest, String line) {
+        if (line.startsWith(GENERATION_PREFIX)) {
+            try {
+                manifest.generation = Long.parseLong(line.substring(GENERATION_PREFIX.length()));
+                return true;
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 3 || (fields[1].length() == 0) != (fields[2].length() == 0)) {
+            return false;
+        }
+        String name = unescape(fields[0]);
+        if (fields[1].length() == 0) {
+            manifest.entries.remove(name);
+        } else {
+            manifest.entries.put(name, new Entry(fields[1], unescape(fields[2])));
+        }
+        manifest.lines++;
+        return true;
+    }
+
+    /**
+     * Aggiunge le modifiche in fondo al manifest o, se le righe superate
+     * sono troppe, lo riscrive ordinato per nome con lo stesso meccanismo dei
+     * file.
+     */
+    private void writeManifest(Manifest manifest) throws IOException {
+        File file = new File(directory, MANIFEST_NAME);
+        if (!manifest.rewrite && file.exists() && manifest.lines + manifest.changes.size() <= 2 * manifest.entries.size()) {
+            StringBuilder text = new StringBuilder();
+            for (String name : manifest.changes) {
+                appendLine(text, name, manifest.get(name));
+            }
+            text.append(GENERATION_PREFIX).append(manifest.generation).append('\n');
+
+            // una sola scrittura: se viene interrotta, al massimo l'ultima
+            // riga resta a meta'
+            FileOutputStream output = new FileOutputStream(file, true);
+            try {
+                output.write(text.toString().getBytes(UTF_8));
+            } finally {
+                output.close();
+            }
+            manifest.lines += manifest.changes.size();
+        } else {
+            String[] names = manifest.entries.keySet().toArray(new String[manifest.entries.size()]);
+            Arrays.sort(names);
+
+            File temp = new File(directory, MANIFEST_NAME + ".tmp");
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+            try {
+                StringBuilder text = new StringBuilder();
+                text.append(MANIFEST_HEADER).append('\n');
+                text.append(GENERATION_PREFIX).append(manifest.generation).append('\n');
+                for (String name : names) {
+                    appendLine(text, name, manifest.get(name));
+                    writer.append(text);
+                    text.setLength(0);
+                }
+                writer.append(text);
+            } finally {
+                writer.close();
+            }
+            move(temp, file);
+            manifest.lines = names.length;
+            manifest.rewrite = false;
+        }
+        manifest.changes.clear();
+    }
+
+    /** Una riga del manifest; senza <code>entry</code> lo snippet e' cancellato. */
+    private static void appendLine(StringBuilder text, String name, Entry entry) {
+        text.append(escape(name)).append('\t');
+        if (entry != null) {
+            text.append(entry.hash).append('\t').append(escape(entry.path));
+        } else {
+            text.append('\t');
+        }
+        text.append('\n');
+    }
+
+    private static String escape(String value) {
+        boolean plain = true;
+        for (int i = 0; i < value.length() && plain; i++) {
+            char c = value.charAt(i);
+            plain = c != '\\' && c != '\t' && c != '\n' && c != '\r';
+        }
+        if (plain) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return directory.toString();
+    }
+}
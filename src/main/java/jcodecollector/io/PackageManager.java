@@ -16,28 +16,45 @@
 package jcodecollector.io;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import jcodecollector.Loader;
 
 import jcodecollector.common.bean.Snippet;
-import jcodecollector.common.bean.Syntax;
-import jcodecollector.common.bean.Tag;
+import jcodecollector.common.bean.Tombstone;
+import jcodecollector.data.DBMS;
+import jcodecollector.data.SnippetCursor;
+import jcodecollector.exceptions.PackageFormatException;
 import jcodecollector.util.GeneralInfo;
 
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.input.SAXBuilder;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class PackageManager {
 
+    private static final Logger logger = LoggerFactory.getLogger(PackageManager.class);
+
+    /** Il numero di snippet letti dal database per ogni pagina. */
+    public static final int EXPORT_PAGE_SIZE = 200;
+
+    /** L'attributo con la generazione da cui parte un pacchetto di modifiche. */
+    public static final String SINCE_ATTRIBUTE = "since";
+
+    /** L'attributo con la generazione a cui arriva un pacchetto di modifiche. */
+    public static final String GENERATION_ATTRIBUTE = "generation";
+
+    /**
+     * Restituisce il database. {@link jcodecollector.Loader} non viene usato
+     * perche' carica le classi Swing: questa classe e' usata anche dalla riga
+     * di comando.
+     */
+    private static DBMS dbms() {
+        try {
+            return DBMS.getInstance();
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException("cannot load the database driver", ex);
+        }
+    }
+
     /**
      * Esporta in XML un gruppo di snippet.
      *
@@ -48,107 +65,271 @@ public class PackageManager {
      *         <code>false</code> altrimenti
      */
     public static boolean exportSnippets(File file, String category) {
-        List<Snippet> array = null;
-
-        if (category == null) {
-            array = Loader.DBMS_INSTANCE.getAllSnippets();
-        } else {
-            array = Loader.DBMS_INSTANCE.getSnippets(category);
-        }
+        return exportSnippets(file, category, false);
+    }
 
-        Element root = new Element("jcc-snippets-package");
-        root.setAttribute("version", GeneralInfo.APPLICATION_VERSION);
+    /**
+     * Esporta in XML un gruppo di snippet. Gli snippet vengono letti dal
+     * database una pagina alla volta e scritti subito nel file, quindi la
+     * memoria occupata non dipende dal numero di snippet esportati.
+     *
+     * @param file Il file in cui salvare gli snippet.
+     * @param category La categoria degli snippet da esportare. Se
+     *        <code>null</code> vengono esportati tutti gli snippet.
+     * @param compressed Se <code>true</code> il file viene compresso con gzip;
+     *        {@link PackageReader} riconosce da solo i file compressi.
+     * @return <code>true</code> se l'esportazione avviene con successo,
+     *         <code>false</code> altrimenti
+     */
+    public static boolean exportSnippets(File file, String category, boolean compressed) {
+        ExportMetrics metrics = new ExportMetrics();
+        exportSnippets(file, category, compressed, metrics);
+        return metrics.getFailure() == null;
+    }
 
-        Iterator<Snippet> iterator = array.iterator();
-        while (iterator.hasNext()) {
-            Snippet snippet = iterator.next();
-            Element element = new Element("snippet");
+    /**
+     * Esporta in XML un gruppo di snippet aggiornando <code>metrics</code>
+     * dopo ogni snippet, in modo che un altro thread possa seguire
+     * l'avanzamento o annullare l'esportazione con
+     * {@link ExportMetrics#cancel()}. Gli snippet che non possono essere
+     * scritti vengono saltati e riportati da
+     * {@link ExportMetrics#getSkipped()}; se l'esportazione fallisce o viene
+     * annullata il file viene cancellato.
+     *
+     * @param file Il file in cui salvare gli snippet.
+     * @param category La categoria degli snippet da esportare. Se
+     *        <code>null</code> vengono esportati tutti gli snippet.
+     * @param compressed Se <code>true</code> il file viene compresso con gzip.
+     * @param metrics Lo stato dell'esportazione.
+     */
+    public static void exportSnippets(File file, String category, boolean compressed, ExportMetrics metrics) {
+        export(file, category, false, compressed, metrics);
+    }
 
-            Element category_xml = new Element("category");
-            category_xml.setText(snippet.getCategory());
-            element.addContent(category_xml);
+    /**
+     * Esporta in XML solo le modifiche successive alla generazione
+     * <code>since</code>: gli snippet inseriti o modificati e le cancellazioni
+     * (vedi {@link jcodecollector.common.bean.Tombstone}). La radice del
+     * pacchetto riporta negli attributi <code>since</code> e
+     * <code>generation</code> l'intervallo esportato: per l'esportazione
+     * successiva basta usare come <code>since</code> la
+     * <code>generation</code> di questa. Il pacchetto va importato con un
+     * {@link ImportPipeline} con un {@link ConflictPolicy}.
+     *
+     * @param file Il file in cui salvare le modifiche.
+     * @param since L'ultima generazione gia' esportata, <code>-1</code> per
+     *        esportare tutto.
+     * @return <code>true</code> se l'esportazione avviene con successo,
+     *         <code>false</code> altrimenti
+     */
+    public static boolean exportChanges(File file, long since) {
+        ExportMetrics metrics = new ExportMetrics();
+        exportChanges(file, since, metrics);
+        return metrics.getFailure() == null;
+    }
 
-            Element name_xml = new Element("name");
-            name_xml.setText(snippet.getName());
-            element.addContent(name_xml);
+    /**
+     * Esporta le modifiche successive alla generazione <code>since</code>,
+     * come {@link #exportChanges(File, long)}, aggiornando
+     * <code>metrics</code> dopo ogni snippet. Se l'esportazione fallisce o
+     * viene annullata il file viene cancellato.
+     *
+     * @param file Il file in cui salvare le modifiche.
+     * @param since L'ultima generazione gia' esportata, <code>-1</code> per
+     *        esportare tutto.
+     * @param metrics Lo stato dell'esportazione.
+     */
+    public static void exportChanges(File file, long since, ExportMetrics metrics) {
+        boolean complete = false;
+        SnippetCursor cursor = null;
+        try {
+            // la generazione va letta per prima: le modifiche fatte durante
+            // l'esportazione verranno esportate (anche) la volta successiva
+            long generation = dbms().getCurrentGeneration();
+            cursor = dbms().openCursor(null, since, EXPORT_PAGE_SIZE);
 
-            List<Tag> tags = snippet.getTags();
-            for (Tag tag : tags) {
-                Element tag_xml = new Element("tag");
-                tag_xml.setText(tag.getName());
-                element.addContent(tag_xml);
+            PackageWriter writer = new PackageWriter(file, GeneralInfo.APPLICATION_VERSION, false);
+            try {
+                writer.setRootAttribute(SINCE_ATTRIBUTE, String.valueOf(since));
+                writer.setRootAttribute(GENERATION_ATTRIBUTE, String.valueOf(generation));
+                while (cursor.hasNext() && !metrics.isCancelled()) {
+                    writer.write(cursor.next());
+                    metrics.written(writer.getBytesWritten());
+                }
+                for (Tombstone tombstone : dbms().getTombstones(since)) {
+                    if (metrics.isCancelled()) {
+                        break;
+                    }
+                    writer.write(tombstone);
+                }
+            } finally {
+                writer.close();
             }
+            complete = !metrics.isCancelled();
+        } catch (Exception ex) {
+            logger.error("export of changes failed", ex);
+            metrics.fail(ex);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (!complete && file.exists() && !file.delete()) {
+                logger.warn("cannot delete incomplete package " + file);
+            }
+            metrics.finish();
+            logger.debug(String.format("export of changes to %s: %s", file, metrics));
+        }
+    }
 
-            Element syntax_xml = new Element("syntax");
-            syntax_xml.setText(snippet.getSyntax().getName());
-            element.addContent(syntax_xml);
+    /**
+     * Esporta un gruppo di snippet in un pacchetto binario (vedi
+     * {@link BinaryPackageWriter}).
+     *
+     * @param file Il file in cui salvare gli snippet.
+     * @param category La categoria degli snippet da esportare. Se
+     *        <code>null</code> vengono esportati tutti gli snippet.
+     * @return <code>true</code> se l'esportazione avviene con successo,
+     *         <code>false</code> altrimenti
+     */
+    public static boolean exportSnippetsBinary(File file, String category) {
+        ExportMetrics metrics = new ExportMetrics();
+        exportSnippetsBinary(file, category, metrics);
+        return metrics.getFailure() == null;
+    }
 
-            Element code_xml = new Element("code");
-            code_xml.setText(snippet.getCode());
-            element.addContent(code_xml);
+    /**
+     * Esporta un gruppo di snippet in un pacchetto binario aggiornando
+     * <code>metrics</code>, come
+     * {@link #exportSnippets(File, String, boolean, ExportMetrics)}.
+     *
+     * @param file Il file in cui salvare gli snippet.
+     * @param category La categoria degli snippet da esportare. Se
+     *        <code>null</code> vengono esportati tutti gli snippet.
+     * @param metrics Lo stato dell'esportazione.
+     */
+    public static void exportSnippetsBinary(File file, String category, ExportMetrics metrics) {
+        export(file, category, true, true, metrics);
+    }
 
-            Element comment_xml = new Element("comment");
-            comment_xml.setText(snippet.getComment());
-            element.addContent(comment_xml);
+    private static void export(File file, String category, boolean binary, boolean compressed, ExportMetrics metrics) {
+        boolean complete = false;
+        SnippetCursor cursor = null;
+        try {
+            metrics.setTotal(dbms().countSnippets(category));
+            cursor = dbms().openCursor(category, EXPORT_PAGE_SIZE);
 
-            root.addContent(element);
+            SnippetWriter writer = binary ? new BinaryPackageWriter(file, GeneralInfo.APPLICATION_VERSION, compressed)
+                    : new PackageWriter(file, GeneralInfo.APPLICATION_VERSION, compressed);
+            try {
+                while (cursor.hasNext() && !metrics.isCancelled()) {
+                    Snippet snippet = cursor.next();
+                    try {
+                        writer.write(snippet);
+                    } catch (PackageFormatException ex) {
+                        logger.warn(String.format("snippet '%s' not exported: %s", snippet.getName(), ex.getMessage()));
+                        metrics.skipped(snippet.getName());
+                        continue;
+                    }
+                    metrics.written(writer.getBytesWritten());
+                }
+            } finally {
+                writer.close();
+            }
+            complete = !metrics.isCancelled();
+        } catch (Exception ex) {
+            logger.error("export failed", ex);
+            metrics.fail(ex);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (!complete && file.exists() && !file.delete()) {
+                logger.warn("cannot delete incomplete package " + file);
+            }
+            metrics.finish();
+            logger.debug(String.format("export of %s: %s", file, metrics));
         }
+    }
 
+    /**
+     * Converte un pacchetto XML in un pacchetto binario, uno snippet alla
+     * volta.
+     *
+     * @param source Il pacchetto XML, anche compresso o nel vecchio formato.
+     * @param destination Il pacchetto binario da creare.
+     * @return il numero di snippet convertiti
+     * @throws IOException in caso di errore di lettura o scrittura
+     * @throws PackageFormatException se <code>source</code> non e' un
+     *         pacchetto valido
+     */
+    public static int convertToBinary(File source, File destination) throws IOException {
+        PackageReader reader = new PackageReader(source);
         try {
-            XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-            outputter.output(new Document(root), new FileOutputStream(file));
-            return true;
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            return false;
+            BinaryPackageWriter writer = new BinaryPackageWriter(destination, GeneralInfo.APPLICATION_VERSION, true);
+            try {
+                while (reader.hasNext()) {
+                    writer.write(reader.next());
+                }
+                return writer.getCount();
+            } finally {
+                writer.close();
+            }
+        } finally {
+            reader.close();
         }
     }
 
     /**
-     * Reads {@link Snippet}s from XML {@code file} and returns them as
-     * {@link List}.
-     * @param file
-     * @return
+     * Converte un pacchetto binario in un pacchetto XML.
+     *
+     * @param source Il pacchetto binario.
+     * @param destination Il pacchetto XML da creare.
+     * @param compressed Se <code>true</code> il pacchetto XML viene compresso
+     *        con gzip.
+     * @return il numero di snippet convertiti
+     * @throws IOException in caso di errore di lettura o scrittura
+     * @throws PackageFormatException se <code>source</code> non e' un
+     *         pacchetto valido
      */
-    public static List<Snippet> readPackage(File file) {
-        ArrayList<Snippet> array = new ArrayList<Snippet>();
-        Element root;
+    public static int convertToXml(File source, File destination, boolean compressed) throws IOException {
+        BinaryPackageReader reader = new BinaryPackageReader(source);
+        try {
+            PackageWriter writer = new PackageWriter(destination, GeneralInfo.APPLICATION_VERSION, compressed);
+            try {
+                for (Snippet snippet : reader) {
+                    writer.write(snippet);
+                }
+                return writer.getCount();
+            } finally {
+                writer.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
 
+    /**
+     * Reads {@link Snippet}s from {@code file} and returns them as
+     * {@link List}. Binary packages are recognised by their header; XML ones
+     * are parsed with {@link PackageReader}, one snippet at a time, so no
+     * document tree is built.
+     *
+     * @param file the package to read, binary or XML in the current or in the
+     *        legacy format
+     * @return the snippets of the package, <code>null</code> if the file
+     *         cannot be read or is not a valid package
+     */
+    public static List<Snippet> readPackage(File file) {
         try {
-            SAXBuilder builder = new SAXBuilder();
-            root = builder.build(file).getRootElement();
+            if (BinaryPackageReader.isBinaryPackage(file)) {
+                return BinaryPackageReader.readAll(file);
+            }
+            return PackageReader.readAll(file);
         } catch (IOException ex) {
             return null;
-        } catch (JDOMException ex) {
+        } catch (PackageFormatException ex) {
             return null;
         }
-
-        @SuppressWarnings("unchecked")
-        Iterator<Element> iterator = root.getChildren("snippet").iterator();
-        while (iterator.hasNext()) {
-            // l'elemento e' uno snippet
-            Element e = iterator.next();
-
-            String category = e.getChildTextTrim("category");
-            String name = e.getChildTextTrim("name");
-            String syntax = e.getChildTextTrim("syntax");
-            String code = e.getChildTextTrim("code");
-            String comment = e.getChildTextTrim("comment");
-
-            @SuppressWarnings("unchecked")
-            List<Element> tagElements = e.getChildren("tag");
-            List<Tag> tags = new LinkedList<Tag>();
-            for (Element tagElement : tagElements) {
-                String tagName = tagElement.getTextTrim();
-                tags.add(new Tag(category, tagName));
-            }
-
-            // creo lo snippet
-            Snippet snippet = new Snippet(-1, category, name, tags, code, comment, new Syntax(syntax), false);
-            array.add(snippet);
-        }
-
-        return array;
     }
 
     private PackageManager() {
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Syntax;
+import jcodecollector.common.bean.Tag;
+import jcodecollector.common.bean.Tombstone;
+import jcodecollector.exceptions.PackageFormatException;
+
+/**
+ * Legge uno snippet alla volta da un pacchetto XML usando un parser StAX: a
+ * differenza del {@link org.jdom.input.SAXBuilder} di JDOM non viene mai
+ * costruito l'albero dell'intero documento, quindi la memoria occupata dipende
+ * solo dallo snippet corrente.
+ *
+ * Sono supportati sia il formato attuale (<code>jcc-snippets-package</code>)
+ * sia quello delle vecchie versioni, in cui gli snippet sono raggruppati in
+ * elementi <code>&lt;snippets category="..."&gt;</code>.
+ */
+public class PackageReader implements Iterator<Snippet>, Closeable {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+    static {
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** I primi due byte di un file compresso con gzip. */
+    private static final int GZIP_MAGIC_FIRST = 0x1f;
+    private static final int GZIP_MAGIC_SECOND = 0x8b;
+
+    private final InputStream input;
+    private final XMLStreamReader reader;
+
+    /**
+     * La categoria del blocco <code>&lt;snippets&gt;</code> corrente (solo nel
+     * vecchio formato), <code>null</code> altrimenti.
+     */
+    private String legacyCategory;
+
+    /** Gli attributi della radice del documento. */
+    private final Map<String, String> rootAttributes = new HashMap<String, String>();
+
+    /** Le cancellazioni lette finora. */
+    private final List<Tombstone> tombstones = new ArrayList<Tombstone>();
+
+    /** Il prossimo snippet da restituire, gia' letto dal file. */
+    private Snippet next;
+
+    /** Se <code>true</code> il documento e' stato letto fino in fondo. */
+    private boolean finished;
+
+    /**
+     * Apre un pacchetto. I pacchetti compressi con gzip vengono riconosciuti
+     * dalla loro intestazione e decompressi al volo.
+     *
+     * @param file Il pacchetto da leggere.
+     * @throws IOException se il file non puo' essere letto
+     */
+    public PackageReader(File file) throws IOException {
+        this(decompress(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)));
+    }
+
+    public PackageReader(InputStream input) throws IOException {
+        this.input = input;
+        try {
+            this.reader = FACTORY.createXMLStreamReader(input);
+        } catch (XMLStreamException ex) {
+            input.close();
+            throw new PackageFormatException(ex);
+        }
+    }
+
+    /**
+     * Apre un pacchetto letto da <code>input</code>: come per i file, i
+     * pacchetti compressi con gzip vengono riconosciuti e decompressi.
+     *
+     * @param input Lo stream da leggere, viene chiuso da {@link #close()}.
+     * @return il lettore del pacchetto
+     * @throws IOException se lo stream non puo' essere letto
+     */
+    static PackageReader open(InputStream input) throws IOException {
+        return new PackageReader(decompress(new BufferedInputStream(input, BUFFER_SIZE)));
+    }
+
+    private static InputStream decompress(InputStream input) throws IOException {
+        input.mark(2);
+        int first = input.read();
+        int second = input.read();
+        input.reset();
+
+        if (first == GZIP_MAGIC_FIRST && second == GZIP_MAGIC_SECOND) {
+            return new BufferedInputStream(new GZIPInputStream(input, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return input;
+    }
+
+    /**
+     * Reads every snippet of <code>file</code> into a list.
+     *
+     * @param file The package to read.
+     * @return the snippets of the package
+     * @throws IOException if the file cannot be read
+     * @throws PackageFormatException if the file is not a valid package
+     */
+    public static List<Snippet> readAll(File file) throws IOException {
+        List<Snippet> snippets = new ArrayList<Snippet>();
+        PackageReader reader = new PackageReader(file);
+        try {
+            while (reader.hasNext()) {
+                snippets.add(reader.next());
+            }
+        } finally {
+            reader.close();
+        }
+        return snippets;
+    }
+
+    /**
+     * Restituisce un attributo della radice del documento, disponibile dopo la
+     * prima chiamata a {@link #hasNext()}.
+     *
+     * @param name Il nome dell'attributo.
+     * @return il valore dell'attributo, <code>null</code> se non e' presente
+     */
+    public String getRootAttribute(String name) {
+        return rootAttributes.get(name);
+    }
+
+    /**
+     * Restituisce le cancellazioni (elementi <code>tombstone</code>) lette
+     * finora: sono tutte disponibili quando {@link #hasNext()} restituisce
+     * <code>false</code>.
+     *
+     * @return le cancellazioni lette finora
+     */
+    public List<Tombstone> getTombstones() {
+        return tombstones;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            try {
+                next = readNext();
+            } catch (XMLStreamException ex) {
+                throw new PackageFormatException(ex);
+            }
+            finished = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public Snippet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Snippet snippet = next;
+        next = null;
+        return snippet;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            // lo stream viene chiuso comunque
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Avanza fino al prossimo elemento <code>snippet</code>. */
+    private Snippet readNext() throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = reader.getLocalName();
+                if (element.equals("snippets")) {
+                    legacyCategory = reader.getAttributeValue(null, "category");
+                } else if (element.equals("snippet")) {
+                    return readSnippet();
+                } else if (element.equals("tombstone")) {
+                    tombstones.add(readTombstone());
+                } else if (element.equals("jcc-snippets-package")) {
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        rootAttributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("snippets")) {
+                legacyCategory = null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Legge lo snippet il cui elemento di apertura e' appena stato letto,
+     * fermandosi sul corrispondente elemento di chiusura.
+     */
+    private Snippet readSnippet() throws XMLStreamException {
+        int id = -1;
+        String category = legacyCategory;
+        String name = null;
+        String syntax = null;
+        String code = null;
+        String comment = null;
+        boolean locked = false;
+        List<String> tagNames = new LinkedList<String>();
+
+        String idAttribute = reader.getAttributeValue(null, "id");
+        if (idAttribute != null) {
+            try {
+                id = Integer.parseInt(idAttribute.trim());
+            } catch (NumberFormatException ex) {
+                throw new PackageFormatException(String.format("invalid snippet id '%s'", idAttribute), ex);
+            }
+        }
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("snippet")) {
+                break;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String element = reader.getLocalName();
+            if (element.equals("tags")) {
+                // contenitore dei tag nel vecchio formato: i tag vengono letti
+                // alle iterazioni successive
+                continue;
+            }
+
+            String text = reader.getElementText().trim();
+            if (element.equals("category")) {
+                category = text;
+            } else if (element.equals("name")) {
+                name = text;
+            } else if (element.equals("syntax") || element.equals("style")) {
+                syntax = text;
+            } else if (element.equals("code")) {
+                code = text;
+            } else if (element.equals("comment")) {
+                comment = text;
+            } else if (element.equals("locked") || element.equals("is_locked")) {
+                locked = Boolean.parseBoolean(text);
+            } else if (element.equals("tag")) {
+                tagNames.add(text);
+            }
+        }
+
+        List<Tag> tags = new LinkedList<Tag>();
+        for (String tagName : tagNames) {
+            tags.add(new Tag(category, tagName));
+        }
+
+        return new Snippet(id, category, name, tags, code, comment, new Syntax(syntax), locked);
+    }
+
+    /** Legge la cancellazione il cui elemento di apertura e' appena stato letto. */
+    private Tombstone readTombstone() throws XMLStreamException {
+        String name = null;
+        String category = null;
+        String hash = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("tombstone")) {
+                break;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String element = reader.getLocalName();
+            String text = reader.getElementText().trim();
+            if (element.equals("name")) {
+                name = text;
+            } else if (element.equals("category")) {
+                category = text;
+            } else if (element.equals("hash")) {
+                hash = text;
+            }
+        }
+
+        if (name == null) {
+            throw new PackageFormatException("tombstone without name");
+        }
+        return new Tombstone(name, category, hash, null);
+    }
+}
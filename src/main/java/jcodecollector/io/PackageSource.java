@@ -0,0 +1,218 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Tombstone;
+import jcodecollector.util.ApplicationConstants;
+
+/**
+ * Una sorgente di snippet da importare: un pacchetto XML (anche compresso o
+ * nel vecchio formato), un pacchetto binario o una cartella di pacchetti.
+ */
+public abstract class PackageSource {
+
+    /** Riceve gli snippet man mano che vengono letti. */
+    public interface Handler {
+
+        /**
+         * @param snippet Lo snippet appena letto.
+         * @throws InterruptedException se la lettura deve essere interrotta
+         */
+        void snippetRead(Snippet snippet) throws InterruptedException;
+
+        /**
+         * @param tombstone Una cancellazione appena letta: i pacchetti delle
+         *        modifiche (vedi {@link PackageManager#exportChanges}) oltre
+         *        agli snippet contengono le cancellazioni.
+         * @throws InterruptedException se la lettura deve essere interrotta
+         */
+        void tombstoneRead(Tombstone tombstone) throws InterruptedException;
+
+        /**
+         * @param count Il numero di byte letti dall'ultima chiamata; la
+         *        somma di tutte le chiamate e' {@link PackageSource#length()}.
+         */
+        void bytesRead(long count);
+    }
+
+    /**
+     * Restituisce la sorgente adatta a <code>file</code>: il formato dei file
+     * viene riconosciuto dal contenuto, non dall'estensione.
+     *
+     * @param file Un pacchetto o una cartella di pacchetti.
+     * @return la sorgente che legge <code>file</code>
+     */
+    public static PackageSource forFile(File file) {
+        if (file.isDirectory()) {
+            return new DirectorySource(file);
+        }
+        return new FileSource(file);
+    }
+
+    /**
+     * Legge tutti gli snippet della sorgente, passandoli uno alla volta a
+     * <code>handler</code>.
+     *
+     * @param handler Chi riceve gli snippet.
+     * @throws IOException se la sorgente non puo' essere letta
+     * @throws InterruptedException se la lettura e' stata interrotta
+     * @throws jcodecollector.exceptions.PackageFormatException se un
+     *         pacchetto non e' valido
+     */
+    public abstract void read(Handler handler) throws IOException, InterruptedException;
+
+    /**
+     * Restituisce la dimensione della sorgente, per calcolare a che punto e'
+     * la lettura.
+     *
+     * @return la dimensione in byte dei pacchetti della sorgente
+     */
+    public abstract long length();
+
+    private static class FileSource extends PackageSource {
+
+        private final File file;
+
+        FileSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void read(Handler handler) throws IOException, InterruptedException {
+            if (BinaryPackageReader.isBinaryPackage(file)) {
+                BinaryPackageReader reader = new BinaryPackageReader(file);
+                try {
+                    // il file e' mappato in memoria: la posizione viene
+                    // stimata dal numero di snippet letti
+                    long length = file.length();
+                    long reported = 0;
+                    int read = 0;
+                    for (Snippet snippet : reader) {
+                        handler.snippetRead(snippet);
+                        long position = length * ++read / reader.size();
+                        handler.bytesRead(position - reported);
+                        reported = position;
+                    }
+                    handler.bytesRead(length - reported);
+                } finally {
+                    reader.close();
+                }
+                return;
+            }
+
+            CountingInputStream input = new CountingInputStream(new FileInputStream(file));
+            PackageReader reader = PackageReader.open(input);
+            try {
+                long reported = 0;
+                while (reader.hasNext()) {
+                    handler.snippetRead(reader.next());
+                    long position = input.getCount();
+                    handler.bytesRead(position - reported);
+                    reported = position;
+                }
+                for (Tombstone tombstone : reader.getTombstones()) {
+                    handler.tombstoneRead(tombstone);
+                }
+                handler.bytesRead(input.getCount() - reported);
+            } finally {
+                reader.close();
+            }
+        }
+
+        @Override
+        public long length() {
+            return file.length();
+        }
+
+        @Override
+        public String toString() {
+            return file.toString();
+        }
+    }
+
+    /**
+     * Legge, in ordine alfabetico, i pacchetti di una cartella e delle sue
+     * sottocartelle.
+     */
+    private static class DirectorySource extends PackageSource {
+
+        private static final FileFilter PACKAGES = new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isDirectory() || name.endsWith(ApplicationConstants.JCC_EXTENSION)
+                        || name.endsWith(ApplicationConstants.JCC_BINARY_EXTENSION);
+            }
+        };
+
+        private final File directory;
+
+        DirectorySource(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void read(Handler handler) throws IOException, InterruptedException {
+            read(directory, handler);
+        }
+
+        @Override
+        public long length() {
+            return length(directory);
+        }
+
+        private static long length(File directory) {
+            File[] files = directory.listFiles(PACKAGES);
+            if (files == null) {
+                return 0;
+            }
+
+            long length = 0;
+            for (File file : files) {
+                length += file.isDirectory() ? length(file) : file.length();
+            }
+            return length;
+        }
+
+        private void read(File directory, Handler handler) throws IOException, InterruptedException {
+            File[] files = directory.listFiles(PACKAGES);
+            if (files == null) {
+                throw new IOException("cannot list " + directory);
+            }
+
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    read(file, handler);
+                } else {
+                    new FileSource(file).read(handler);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return directory.toString();
+        }
+    }
+}
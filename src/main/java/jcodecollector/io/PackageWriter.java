@@ -0,0 +1,332 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Tag;
+import jcodecollector.common.bean.Tombstone;
+import jcodecollector.exceptions.PackageFormatException;
+
+/**
+ * Scrive un pacchetto XML uno snippet alla volta, senza costruire l'albero del
+ * documento. L'output e' identico, byte per byte, a quello prodotto da
+ * {@link org.jdom.output.XMLOutputter} con {@link org.jdom.output.Format#getPrettyFormat()}:
+ * stessa indentazione, stessi separatori di riga, stesso escaping e stessa
+ * forma <code>&lt;element /&gt;</code> per gli elementi vuoti.
+ */
+public class PackageWriter implements SnippetWriter {
+
+    private static final String ROOT_ELEMENT = "jcc-snippets-package";
+    private static final String LINE_SEPARATOR = "\r\n";
+    private static final String INDENT = "  ";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CountingOutputStream output;
+    private final Writer writer;
+
+    /** Gli attributi della radice, nell'ordine in cui vengono scritti. */
+    private final Map<String, String> attributes = new LinkedHashMap<String, String>();
+
+    /** Se <code>true</code> viene scritto anche l'elemento <code>locked</code>. */
+    private final boolean writeLocked;
+
+    /** La radice viene aperta solo al primo snippet. */
+    private boolean rootOpen;
+
+    private int count;
+
+    /**
+     * Crea un pacchetto nel formato attuale.
+     *
+     * @param file Il file da creare.
+     * @param version La versione del pacchetto.
+     * @param compressed Se <code>true</code> il file viene compresso con gzip.
+     * @throws IOException se il file non puo' essere creato
+     */
+    public PackageWriter(File file, String version, boolean compressed) throws IOException {
+        this(open(file, compressed), version, false);
+    }
+
+    /**
+     * @param output Lo stream su cui scrivere, viene chiuso da
+     *        {@link #close()}.
+     * @param version La versione scritta come attributo della radice,
+     *        <code>null</code> per non scriverla.
+     * @param writeLocked Se <code>true</code> per ogni snippet viene scritto
+     *        anche lo stato di blocco.
+     * @throws IOException se l'intestazione non puo' essere scritta
+     */
+    public PackageWriter(OutputStream output, String version, boolean writeLocked) throws IOException {
+        this.output = new CountingOutputStream(output);
+        this.writer = new BufferedWriter(new OutputStreamWriter(this.output, "UTF-8"), BUFFER_SIZE);
+        if (version != null) {
+            attributes.put("version", version);
+        }
+        this.writeLocked = writeLocked;
+
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        writer.write(LINE_SEPARATOR);
+    }
+
+    private static OutputStream open(File file, boolean compressed) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        if (compressed) {
+            return new GZIPOutputStream(output, BUFFER_SIZE);
+        }
+        return new BufferedOutputStream(output, BUFFER_SIZE);
+    }
+
+    /**
+     * Aggiunge un attributo alla radice del documento. Va chiamato prima di
+     * scrivere il primo snippet.
+     *
+     * @param name Il nome dell'attributo.
+     * @param value Il valore dell'attributo.
+     */
+    public void setRootAttribute(String name, String value) {
+        if (rootOpen) {
+            throw new IllegalStateException("root element already written");
+        }
+        attributes.put(name, value);
+    }
+
+    /**
+     * Aggiunge uno snippet al pacchetto.
+     *
+     * @param snippet Lo snippet da scrivere.
+     * @throws IOException in caso di errore di scrittura
+     * @throws PackageFormatException se lo snippet contiene caratteri non
+     *         ammessi in un documento XML: in questo caso lo snippet non viene
+     *         scritto e il pacchetto resta valido
+     */
+    @Override
+    public void write(Snippet snippet) throws IOException {
+        check(snippet.getCategory());
+        check(snippet.getName());
+        for (Tag tag : snippet.getTags()) {
+            check(tag.getName());
+        }
+        check(snippet.getSyntax().getName());
+        check(snippet.getCode());
+        check(snippet.getComment());
+
+        if (!rootOpen) {
+            writeRoot(false);
+            rootOpen = true;
+        }
+
+        writer.write(INDENT);
+        writer.write("<snippet>");
+        writer.write(LINE_SEPARATOR);
+
+        writeElement("category", snippet.getCategory());
+        writeElement("name", snippet.getName());
+        for (Tag tag : snippet.getTags()) {
+            writeElement("tag", tag.getName());
+        }
+        writeElement("syntax", snippet.getSyntax().getName());
+        writeElement("code", snippet.getCode());
+        writeElement("comment", snippet.getComment());
+        if (writeLocked) {
+            writeElement("locked", String.valueOf(snippet.isLocked()));
+        }
+
+        writer.write(INDENT);
+        writer.write("</snippet>");
+        writer.write(LINE_SEPARATOR);
+
+        count++;
+    }
+
+    /**
+     * Aggiunge al pacchetto la cancellazione di uno snippet.
+     *
+     * @param tombstone La cancellazione da scrivere.
+     * @throws IOException in caso di errore di scrittura
+     */
+    public void write(Tombstone tombstone) throws IOException {
+        if (!rootOpen) {
+            writeRoot(false);
+            rootOpen = true;
+        }
+
+        writer.write(INDENT);
+        writer.write("<tombstone>");
+        writer.write(LINE_SEPARATOR);
+
+        writeElement("category", tombstone.getCategory());
+        writeElement("name", tombstone.getName());
+        writeElement("hash", tombstone.getContentHash());
+
+        writer.write(INDENT);
+        writer.write("</tombstone>");
+        writer.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Restituisce il numero di snippet scritti finora.
+     *
+     * @return il numero di snippet scritti
+     */
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Restituisce il numero di byte del documento XML scritti finora, prima
+     * dell'eventuale compressione.
+     *
+     * @return il numero di byte scritti
+     */
+    @Override
+    public long getBytesWritten() {
+        return output.getCount();
+    }
+
+    /** Chiude la radice del documento e lo stream sottostante. */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rootOpen) {
+                writer.write("</" + ROOT_ELEMENT + ">");
+            } else {
+                writeRoot(true);
+            }
+            writer.write(LINE_SEPARATOR);
+            writer.write(LINE_SEPARATOR);
+            writer.flush();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeRoot(boolean empty) throws IOException {
+        writer.write("<" + ROOT_ELEMENT);
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            writer.write(" " + attribute.getKey() + "=\"");
+            writeEscaped(attribute.getValue(), true);
+            writer.write("\"");
+        }
+        writer.write(empty ? " />" : ">");
+        if (!empty) {
+            writer.write(LINE_SEPARATOR);
+        }
+    }
+
+    private void writeElement(String name, String text) throws IOException {
+        writer.write(INDENT);
+        writer.write(INDENT);
+
+        String value = trim(text);
+        if (value.length() == 0) {
+            writer.write("<" + name + " />");
+        } else {
+            writer.write("<" + name + ">");
+            writeEscaped(value, false);
+            writer.write("</" + name + ">");
+        }
+
+        writer.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Toglie gli spazi iniziali e finali come fa JDOM, che considera spazi
+     * solo ' ', '\t', '\n' e '\r'.
+     */
+    private static String trim(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        int start = 0;
+        int end = text.length();
+        while (start < end && isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(start, end);
+    }
+
+    private static void check(String text) {
+        if (text == null) {
+            return;
+        }
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!isAllowed(c)) {
+                throw new PackageFormatException(String.format("character 0x%x is not allowed in a package", (int) c));
+            }
+        }
+    }
+
+    private static boolean isAllowed(char c) {
+        return c >= 0x20 ? c != 0xFFFE && c != 0xFFFF : c == '\r' || c == '\n' || c == '\t';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private void writeEscaped(String text, boolean attribute) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '"':
+                    writer.write(attribute ? "&quot;" : "\"");
+                    break;
+                case '\r':
+                    writer.write("&#xD;");
+                    break;
+                case '\n':
+                    writer.write(attribute ? "&#xA;" : LINE_SEPARATOR);
+                    break;
+                case '\t':
+                    writer.write(attribute ? "&#x9;" : "\t");
+                    break;
+                default:
+                    if (!isAllowed(c)) {
+                        throw new PackageFormatException(String.format("character 0x%x is not allowed in a package", (int) c));
+                    }
+                    writer.write(c);
+            }
+        }
+    }
+}
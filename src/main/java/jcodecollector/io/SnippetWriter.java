@@ -0,0 +1,42 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import jcodecollector.common.bean.Snippet;
+
+/** Scrive gli snippet in un pacchetto, XML o binario. */
+interface SnippetWriter extends Closeable {
+
+    /**
+     * Aggiunge uno snippet al pacchetto.
+     *
+     * @param snippet Lo snippet da scrivere.
+     * @throws IOException in caso di errore di scrittura
+     * @throws jcodecollector.exceptions.PackageFormatException se lo snippet
+     *         non puo' essere scritto nel formato del pacchetto: in questo
+     *         caso il pacchetto non viene modificato
+     */
+    void write(Snippet snippet) throws IOException;
+
+    /** @return il numero di snippet scritti finora */
+    int getCount();
+
+    /** @return il numero di byte scritti finora */
+    long getBytesWritten();
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Syntax;
+import jcodecollector.common.bean.Tag;
+import jcodecollector.util.ApplicationConstants;
+
+/**
+ * Una sorgente che crea uno snippet per ogni file sorgente di una cartella e
+ * delle sue sottocartelle, ad esempio per riempire la libreria con il codice
+ * di un progetto esistente.
+ *
+ * <p>
+ * Ogni snippet prende come nome il percorso del file relativo alla cartella,
+ * come categoria il nome della prima sottocartella (o della cartella stessa
+ * per i file che contiene direttamente) e come tag i nomi delle altre
+ * sottocartelle. La sintassi e' ricavata dall'estensione, tra quelle
+ * disponibili nell'editor (vedi <code>MainPanel.initSyntax()</code>).
+ * </p>
+ *
+ * <p>
+ * I file vengono letti in parallelo da {@link #READER_THREADS} thread, ma
+ * consegnati nell'ordine della visita e al massimo {@link #READ_AHEAD} per
+ * thread in anticipo: se la pipeline rallenta, la lettura si ferma. I file
+ * troppo lunghi per uno snippet (vedi {@link ApplicationConstants#MAX_CODE_LENGTH})
+ * e quelli binari non vengono importati ma segnalati da {@link #getSkipped()}.
+ * </p>
+ */
+public class SourceTreeSource extends PackageSource {
+
+    /** Il numero di thread che leggono i file. */
+    public static final int READER_THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    /** Quanti file ogni thread puo' leggere prima che vengano consegnati. */
+    public static final int READ_AHEAD = 8;
+
+    /** Un file che contiene questo carattere e' considerato binario. */
+    private static final byte BINARY_MARKER = 0;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** Le sintassi riconosciute, per estensione. */
+    private static final Map<String, String> SYNTAXES = new HashMap<String, String>();
+
+    /** L'estensione principale di ogni sintassi. */
+    private static final Map<String, String> EXTENSIONS = new HashMap<String, String>();
+
+    static {
+        syntax("Assembler (X86)", "asm", "s");
+        syntax("AppleScript", "applescript", "scpt");
+        syntax("Unix Shell Script", "sh", "bash", "zsh", "ksh");
+        syntax("C", "c", "h");
+        syntax("C++", "cpp", "cc", "cxx", "hpp", "hh", "hxx");
+        syntax("C#", "cs");
+        syntax("CSS", "css");
+        syntax("Delphi", "pas", "dpr");
+        syntax("Lisp", "lisp", "lsp", "cl", "el");
+        syntax("Makefile", "mk", "mak");
+        syntax("Perl", "pl", "pm");
+        syntax("PHP", "php");
+        syntax("Python", "py");
+        syntax("Properties File", "properties");
+        syntax("Groovy", "groovy", "gradle");
+        syntax("Java", "java");
+        syntax("JavaScript", "js");
+        syntax("JSP", "jsp");
+        syntax("Lua", "lua");
+        syntax("Objective C", "m", "mm");
+        syntax("Ruby", "rb");
+        syntax("SQL", "sql");
+        syntax("HTML", "html", "htm", "xhtml");
+        syntax("Tcl", "tcl");
+        syntax("Windows Batch", "bat", "cmd");
+        syntax("XML", "xml", "xsd", "xsl", "xslt");
+        syntax("Fortran", "f", "for", "f90", "f95");
+        syntax("Scala", "scala");
+        syntax("SAS", "sas");
+    }
+
+    private static void syntax(String name, String... extensions) {
+        EXTENSIONS.put(name, extensions[0]);
+        for (String extension : extensions) {
+            SYNTAXES.put(extension, name);
+        }
+    }
+
+    /**
+     * Restituisce l'estensione dei file di una sintassi, ad esempio per
+     * salvare uno snippet in un file (vedi {@link MirrorExporter}).
+     *
+     * @param syntaxName Il nome della sintassi.
+     * @return l'estensione, senza punto; <code>txt</code> se la sintassi non
+     *         e' riconosciuta
+     */
+    public static String getExtension(String syntaxName) {
+        String extension = syntaxName == null ? null : EXTENSIONS.get(syntaxName);
+        return extension == null ? "txt" : extension;
+    }
+
+    /**
+     * Restituisce la sintassi di un file, ricavata dall'estensione o dal nome
+     * (ad esempio <code>Makefile</code>).
+     *
+     * @param fileName Il nome del file.
+     * @return il nome della sintassi, <code>null</code> se non e' riconosciuta
+     */
+    public static String getSyntaxName(String fileName) {
+        if (fileName.equals("Makefile") || fileName.equals("GNUmakefile")) {
+            return "Makefile";
+        }
+
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        return SYNTAXES.get(fileName.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /** Un file da importare. */
+    private static class SourceFile {
+        final Path path;
+        final long size;
+
+        SourceFile(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    private final Path root;
+    private final List<PathMatcher> includes = new ArrayList<PathMatcher>();
+    private final List<PathMatcher> excludes = new ArrayList<PathMatcher>();
+
+    /** I file trovati dalla visita, <code>null</code> finche' non viene fatta. */
+    private List<SourceFile> files;
+
+    /** I file non importati, col motivo. */
+    private final Map<String, String> skipped = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+    /**
+     * @param root La cartella da importare.
+     * @param includes I pattern (glob) dei file da importare; se e' vuota
+     *        vengono importati tutti i file con una sintassi riconosciuta.
+     * @param excludes I pattern (glob) dei file e delle cartelle da ignorare;
+     *        i file e le cartelle nascosti vengono sempre ignorati.
+     */
+    public SourceTreeSource(File root, List<String> includes, List<String> excludes) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        for (String pattern : includes) {
+            this.includes.add(matcher(pattern));
+        }
+        for (String pattern : excludes) {
+            this.excludes.add(matcher(pattern));
+        }
+    }
+
+    private static PathMatcher matcher(String pattern) {
+        return FileSystems.getDefault().getPathMatcher("glob:" + pattern.trim());
+    }
+
+    /**
+     * Un pattern senza separatori (ad esempio <code>*.java</code>) viene
+     * confrontato col nome del file, gli altri col percorso relativo alla
+     * cartella.
+     */
+    private static boolean matches(List<PathMatcher> matchers, Path relative) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relative) || matcher.matches(relative.getFileName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Restituisce i file non importati perche' troppo lunghi, binari o non
+     * leggibili. Viene riempito durante la lettura.
+     *
+     * @return i percorsi relativi dei file, associati al motivo
+     */
+    public Map<String, String> getSkipped() {
+        synchronized (skipped) {
+            return new LinkedHashMap<String, String>(skipped);
+        }
+    }
+
+    @Override
+    public long length() {
+        long length = 0;
+        try {
+            for (SourceFile file : files()) {
+                length += file.size;
+            }
+        } catch (IOException ex) {
+            // l'errore viene segnalato da read()
+        }
+        return length;
+    }
+
+    /** Visita la cartella una sola volta, anche se la sorgente viene riletta. */
+    private synchronized List<SourceFile> files() throws IOException {
+        if (files != null) {
+            return files;
+        }
+
+        final List<SourceFile> found = new ArrayList<SourceFile>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(root)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Path relative = root.relativize(dir);
+                if (isHidden(dir) || matches(excludes, relative)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Path relative = root.relativize(file);
+                if (!attrs.isRegularFile() || isHidden(file) || matches(excludes, relative)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                boolean included = includes.isEmpty() ? getSyntaxName(file.getFileName().toString()) != null : matches(includes, relative);
+                if (included) {
+                    found.add(new SourceFile(file, attrs.size()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                skipped.put(name(file), "cannot be read: " + ex.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        files = found;
+        return files;
+    }
+
+    private static boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    @Override
+    public void read(Handler handler) throws IOException, InterruptedException {
+        skipped.clear();
+
+        ExecutorService readers = Executors.newFixedThreadPool(READER_THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jcc-tree-reader-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            // le letture in corso, nell'ordine in cui vanno consegnate
+            LinkedList<Future<Snippet>> window = new LinkedList<Future<Snippet>>();
+            List<SourceFile> all = files();
+            int next = 0;
+            for (int delivered = 0; delivered < all.size(); delivered++) {
+                while (next < all.size() && window.size() < READER_THREADS * READ_AHEAD) {
+                    final SourceFile file = all.get(next++);
+                    window.add(readers.submit(new Callable<Snippet>() {
+                        @Override
+                        public Snippet call() {
+                            return toSnippet(file);
+                        }
+                    }));
+                }
+
+                Snippet snippet;
+                try {
+                    snippet = window.removeFirst().get();
+                } catch (ExecutionException ex) {
+                    throw new IOException(ex.getCause());
+                }
+                if (snippet != null) {
+                    handler.snippetRead(snippet);
+                }
+                handler.bytesRead(all.get(delivered).size);
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    /**
+     * Legge un file e crea lo snippet corrispondente.
+     *
+     * @return lo snippet, <code>null</code> se il file non puo' essere
+     *         importato
+     */
+    private Snippet toSnippet(SourceFile file) {
+        String name = name(file.path);
+
+        // in UTF-8 un carattere occupa al massimo 4 byte: un file piu'
+        // grande ha sicuramente troppi caratteri e non serve leggerlo
+        if (file.size > ApplicationConstants.MAX_CODE_LENGTH * 4L) {
+            skipped.put(name, "too long: " + file.size + " bytes");
+            return null;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.path);
+        } catch (IOException ex) {
+            skipped.put(name, "cannot be read: " + ex.getMessage());
+            return null;
+        }
+
+        for (int i = 0; i < Math.min(bytes.length, 8192); i++) {
+            if (bytes[i] == BINARY_MARKER) {
+                skipped.put(name, "binary file");
+                return null;
+            }
+        }
+
+        String code = decode(bytes).replace("\r\n", "\n").replace('\r', '\n');
+        if (code.length() > ApplicationConstants.MAX_CODE_LENGTH) {
+            skipped.put(name, "too long: " + code.length() + " characters, the limit is " + ApplicationConstants.MAX_CODE_LENGTH);
+            return null;
+        }
+
+        Path relative = root.relativize(file.path);
+        String category = relative.getNameCount() > 1 ? relative.getName(0).toString() : root.getFileName().toString();
+        List<Tag> tags = new ArrayList<Tag>();
+        for (int i = 1; i < relative.getNameCount() - 1; i++) {
+            String directory = relative.getName(i).toString();
+            if (directory.length() <= ApplicationConstants.TAG_LENGTH) {
+                tags.add(new Tag(category, directory));
+            }
+        }
+
+        String syntax = getSyntaxName(file.path.getFileName().toString());
+        return new Snippet(-1, category, name, tags, code, "", new Syntax(syntax == null ? "" : syntax), false);
+    }
+
+    /** UTF-8 se il file e' valido, altrimenti ISO-8859-1, che decodifica qualsiasi byte. */
+    private static String decode(byte[] bytes) {
+        int start = bytes.length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb && (bytes[2] & 0xff) == 0xbf ? 3 : 0;
+        try {
+            return UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, start, bytes.length - start)).toString();
+        } catch (CharacterCodingException ex) {
+            return new String(bytes, ISO_8859_1);
+        }
+    }
+
+    /**
+     * Il nome dello snippet: il percorso relativo del file, accorciato
+     * all'inizio se supera {@link ApplicationConstants#SNIPPET_NAME_LENGTH}.
+     */
+    private String name(Path file) {
+        String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+        if (name.length() > ApplicationConstants.SNIPPET_NAME_LENGTH) {
+            name = "..." + name.substring(name.length() - ApplicationConstants.SNIPPET_NAME_LENGTH + 3);
+        }
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+}
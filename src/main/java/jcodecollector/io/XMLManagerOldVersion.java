@@ -15,25 +15,16 @@
  */
 package jcodecollector.io;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import jcodecollector.Loader;
 
 import jcodecollector.common.bean.Snippet;
-import jcodecollector.common.bean.Syntax;
-import jcodecollector.common.bean.Tag;
-
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.input.SAXBuilder;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
+import jcodecollector.data.SnippetCursor;
 
 /**
  * Classe che si occupa di leggere/scrivere file XML.
@@ -43,155 +34,65 @@ import org.jdom.output.XMLOutputter;
 public class XMLManagerOldVersion {
 
     public static boolean createPackage(File file, String name) {
-        List<Snippet> array = Loader.DBMS_INSTANCE.getSnippets(name);
-        Element root_xml = new Element("jcc-snippets-package");
+        SnippetCursor cursor = Loader.DBMS_INSTANCE.openCursor(name, PackageManager.EXPORT_PAGE_SIZE);
         boolean success;
 
-        Iterator<Snippet> iterator = array.iterator();
-        while (iterator.hasNext()) {
-            Snippet snippet = iterator.next();
-            Element element = new Element("snippet");
-
-            Element category_xml = new Element("category");
-            category_xml.setText(snippet.getCategory());
-            element.addContent(category_xml);
-
-            Element name_xml = new Element("name");
-            name_xml.setText(snippet.getName());
-            element.addContent(name_xml);
-
-            List<Tag> tags = snippet.getTags();
-            for (Tag tag : tags) {
-                Element tag_xml = new Element("tag");
-                tag_xml.setText(tag.getCategory());
-                element.addContent(tag_xml);
-            }
-
-            Element syntax_xml = new Element("syntax");
-            syntax_xml.setText(snippet.getSyntax().getName());
-            element.addContent(syntax_xml);
-
-            Element code_xml = new Element("code");
-            code_xml.setText(snippet.getCode());
-            element.addContent(code_xml);
-
-            Element comment_xml = new Element("comment");
-            comment_xml.setText(snippet.getComment());
-            element.addContent(comment_xml);
-
-            Element locked_xml = new Element("locked");
-            locked_xml.setText(String.valueOf(snippet.isLocked()));
-            element.addContent(locked_xml);
-
-            root_xml.addContent(element);
-        }
-
         try {
-            XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-            outputter.output(new Document(root_xml), new FileOutputStream(file));
+            PackageWriter writer = new PackageWriter(new BufferedOutputStream(new FileOutputStream(file)), null, true);
+            try {
+                while (cursor.hasNext()) {
+                    writer.write(cursor.next());
+                }
+            } finally {
+                writer.close();
+            }
 
             success = true;
         } catch (Exception ex) {
             ex.printStackTrace();
             success = false;
+        } finally {
+            cursor.close();
         }
 
         return success;
     }
 
-    @SuppressWarnings("unchecked")
     public static ArrayList<Snippet> readPackage(File file) {
-        Element root_xml = null;
-
         try {
-            SAXBuilder builder = new SAXBuilder();
-            root_xml = builder.build(file).getRootElement();
+            return new ArrayList<Snippet>(PackageReader.readAll(file));
         } catch (Exception ex) {
             ex.printStackTrace();
             return null;
         }
-
-        ArrayList<Snippet> array = new ArrayList<Snippet>();
-
-        Iterator<Element> iterator = root_xml.getChildren("snippet").iterator();
-        while (iterator.hasNext()) {
-            Element element = iterator.next();
-
-            String category = element.getChildTextTrim("category");
-            String name = element.getChildTextTrim("name");
-            String syntax = element.getChildTextTrim("syntax");
-            String code = element.getChildTextTrim("code");
-            String comment = element.getChildTextTrim("comment");
-
-            List<Element> tags_xml = element.getChildren("tag");
-            List<Tag> tags = new LinkedList<Tag>();
-            for (int i = 0; i < tags_xml.size(); i++) {
-                String tagName = tags_xml.get(i).getTextTrim();
-                tags.add(new Tag(category, tagName));
-            }
-
-            boolean locked = Boolean.parseBoolean(element.getChildTextTrim("locked"));
-
-            Snippet snippet = new Snippet(-1, category, name, tags, code, comment, new Syntax(syntax), locked);
-            array.add(snippet);
-        }
-
-        return array;
     }
 
-    public static void importFromXML(File file) throws IOException,
-            JDOMException {
-        Element root = new SAXBuilder().build(file).getRootElement();
-
-        // ArrayList<Syntax> syntaxes = getSyntaxesFromFile(root);
-        ArrayList<Snippet> snippets = getSnippetsFromFile(root);
-
-        // for (Syntax s : syntaxes) {
-        // Loader.DBMS_INSTANCE.insertNewSyntax(s);
-        // }
-
-        // inserisco gli snippet
-        for (Snippet s : snippets) {
-            Loader.DBMS_INSTANCE.insertNewSnippet(s);
+    /**
+     * Importa gli snippet di un file XML delle vecchie versioni attraverso un
+     * {@link ImportPipeline}.
+     *
+     * @param file Il file da importare.
+     * @throws IOException se il file non puo' essere letto
+     */
+    public static void importFromXML(File file) throws IOException {
+        ImportMetrics metrics;
+        try {
+            metrics = new ImportPipeline(Loader.DBMS_INSTANCE).run(PackageSource.forFile(file));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
         }
-    }
-
-    @SuppressWarnings("unchecked")
-    private static ArrayList<Snippet> getSnippetsFromFile(Element root) {
-        ArrayList<Snippet> snippets = new ArrayList<Snippet>();
 
-        List<Element> categoriesList = root.getChildren("snippets");
-        Iterator<Element> iterator = categoriesList.iterator();
-        while (iterator.hasNext()) {
-            Element categoryElement = iterator.next();
-
-            String category = categoryElement.getAttributeValue("category");
-
-            List<Element> snippetsList = categoryElement.getChildren("snippet");
-            Iterator<Element> innerIterator = snippetsList.iterator();
-            while (innerIterator.hasNext()) {
-                Element snippet = innerIterator.next();
-
-                int id = Integer.parseInt(snippet.getAttributeValue("id"));
-                String name = snippet.getChildTextTrim("name");
-                String syntax = snippet.getChildTextTrim("style");
-                boolean locked = Boolean.parseBoolean(snippet.getChildTextTrim("is_locked"));
-                String code = snippet.getChildTextTrim("code");
-                String comment = snippet.getChildTextTrim("comment");
-
-                List<Element> tagsList = snippet.getChild("tags").getChildren("tag");
-                List<Tag> tags = new ArrayList<Tag>(tagsList.size());
-                Iterator<Element> tagsIterator = tagsList.iterator();
-                while (tagsIterator.hasNext()) {
-                    String tagName = tagsIterator.next().getTextTrim();
-                    tags.add(new Tag(category, tagName));
-                }
-
-                snippets.add(new Snippet(id, category, name, tags, code, comment, new Syntax(syntax), locked));
-            }
+        Throwable failure = metrics.getFailure();
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new IOException(failure);
         }
-
-        return snippets;
     }
 
     // /**
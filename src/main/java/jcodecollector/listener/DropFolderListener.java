@@ -0,0 +1,37 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.listener;
+
+import java.io.File;
+
+import jcodecollector.io.ImportMetrics;
+
+/**
+ * Receives the packages imported automatically from the drop folder (see
+ * {@link jcodecollector.io.DropFolderWatcher}). Methods are invoked on the
+ * watcher thread, never on the event dispatch thread.
+ */
+public interface DropFolderListener {
+
+    /**
+     * Invoked after a package dropped in the folder has been imported.
+     *
+     * @param file The imported package.
+     * @param metrics The result of the import; {@link ImportMetrics#getFailure()}
+     *        is not <code>null</code> if the package could not be imported.
+     */
+    public void packageImported(File file, ImportMetrics metrics);
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.listener;
+
+import java.util.List;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.data.SearchMetrics;
+
+/**
+ * Receives the results of a search as soon as they are found, one batch at a
+ * time, instead of waiting for the whole result set.
+ */
+public interface SearchResultsListener {
+
+    /**
+     * Invoked for every batch of new results. A snippet is never delivered
+     * twice during the same search.
+     *
+     * @param batch The snippets found since the previous batch.
+     * @return <code>true</code> to continue the search, <code>false</code> to
+     *         stop it
+     */
+    public boolean resultsFound(List<Snippet> batch);
+
+    /**
+     * Invoked once, after the last batch (or after the search was stopped).
+     *
+     * @param metrics Timings and number of results of the search.
+     */
+    public void searchCompleted(SearchMetrics metrics);
+}
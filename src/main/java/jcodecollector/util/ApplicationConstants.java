@@ -26,12 +26,29 @@ public class ApplicationConstants {
     public static final Color UNIFIED_MAC_COLOR = new Color(123, 123, 124);
 
     public static final String JCC_EXTENSION = ".jccp";
+    public static final String JCC_BINARY_EXTENSION = ".jccb";
     public static final int CATEGORY_LENGTH = 50;
     public static final int SNIPPET_NAME_LENGTH = 100;
     public static final int TAG_LENGTH = 50;
     public static final int SYNTAX_NAME_LENGTH = 50;
     public static final int KEYWORD_LENGTH = 50;
+    /**
+     * The longest code stored in the snippet row; longer code is stored in
+     * chunks and opens in a read-only viewer.
+     */
     public static final int CODE_LENGTH = 25000;
+
+    /** The longest code a snippet can hold. */
+    public static final int MAX_CODE_LENGTH = 16 * 1024 * 1024;
+
+    /** The length of the chunks in which long code is stored. */
+    public static final int CODE_CHUNK_LENGTH = 64 * 1024;
     public static final int COMMENT_LENGTH = 500;
 
+    /**
+     * Above this number of snippets the source list starts with collapsed
+     * categories and loads the snippet names only when they are shown.
+     */
+    public static final int LAZY_SOURCE_LIST_THRESHOLD = 5000;
+
 }
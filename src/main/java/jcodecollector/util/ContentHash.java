@@ -0,0 +1,168 @@
+/*
+ * Copyright 2006-2013 Alessandro Cocco.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcodecollector.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.TreeSet;
+
+import jcodecollector.common.bean.Snippet;
+import jcodecollector.common.bean.Tag;
+
+/**
+ * Calcola l'impronta (SHA-1) del contenuto di uno snippet: nome, categoria,
+ * codice, commento, tag e sintassi. Due snippet con la stessa impronta hanno
+ * lo stesso contenuto.
+ *
+ * I campi vengono normalizzati come avviene scrivendo e rileggendo un
+ * pacchetto XML (spazi iniziali e finali rimossi, fine riga <code>\n</code>, tag
+ * ordinati e senza duplicati), quindi l'impronta non cambia dopo
+ * un'esportazione e una successiva importazione.
+ */
+public class ContentHash {
+
+    /** Separa i campi, non puo' comparire in un documento XML. */
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * Calcola l'impronta del contenuto di <code>snippet</code>.
+     *
+     * @param snippet Lo snippet.
+     * @return l'impronta, 40 caratteri esadecimali
+     */
+    public static String of(Snippet snippet) {
+        StringBuilder content = new StringBuilder();
+        append(content, snippet.getName());
+        append(content, snippet.getCategory());
+        if (snippet.isLarge()) {
+            // il codice salvato a pezzi e' rappresentato dalla sua impronta
+            append(content, snippet.getCodeHash());
+        } else {
+            append(content, snippet.getCode());
+        }
+        append(content, snippet.getComment());
+        append(content, snippet.getSyntax() == null ? null : snippet.getSyntax().getName());
+
+        TreeSet<String> tags = new TreeSet<String>();
+        for (Tag tag : snippet.getTags()) {
+            String name = normalize(tag.getName());
+            if (name.length() > 0) {
+                tags.add(name);
+            }
+        }
+        for (String tag : tags) {
+            append(content, tag);
+        }
+
+        try {
+            return toHex(sha1().digest(content.toString().getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException ex) {
+            // ogni JVM deve fornire UTF-8
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Calcola l'impronta del codice di uno snippet, normalizzato come gli
+     * altri campi.
+     *
+     * @param code Il codice.
+     * @return l'impronta, 40 caratteri esadecimali
+     */
+    public static String ofCode(String code) {
+        try {
+            return toHex(sha1().digest(normalize(code).getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException ex) {
+            // ogni JVM deve fornire UTF-8
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Calcola l'impronta dei byte di un file, ad esempio per riconoscere un
+     * pacchetto gia' importato anche se e' stato rinominato.
+     *
+     * @param file Il file.
+     * @return l'impronta, 40 caratteri esadecimali
+     * @throws IOException se il file non puo' essere letto
+     */
+    public static String of(File file) throws IOException {
+        MessageDigest digest = sha1();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            // ogni JVM deve fornire SHA-1
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void append(StringBuilder content, String value) {
+        content.append(normalize(value)).append(SEPARATOR);
+    }
+
+    private static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        String text = value.replace("\r\n", "\n").replace('\r', '\n');
+        int start = 0;
+        int end = text.length();
+        while (start < end && isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(start, end);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n';
+    }
+
+    private ContentHash() {
+        // do nothing
+    }
+}
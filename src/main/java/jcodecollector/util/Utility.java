@@ -15,6 +15,9 @@
  */
 package jcodecollector.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Funzioni di utilita' varia.
  *
@@ -49,6 +52,27 @@ public class Utility {
         return true;
     }
 
+    /**
+     * Divide un elenco di valori separati da virgole, togliendo gli spazi e
+     * i valori vuoti.
+     *
+     * @param text L'elenco, anche <code>null</code>.
+     * @return i valori dell'elenco
+     */
+    public static List<String> splitList(String text) {
+        List<String> values = new ArrayList<String>();
+        if (text == null) {
+            return values;
+        }
+
+        for (String value : text.split(",")) {
+            if (value.trim().length() > 0) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
     private Utility() {
         // do nothing
     }